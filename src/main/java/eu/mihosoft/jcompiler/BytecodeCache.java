@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Cache for compilation results (e.g. shared by several hosts). Entries are keyed by the fingerprint of a
+ * compilation, i.e., a hash of the sources, compiler options, classpath and compiler version.
+ * Values are opaque binary representations of compilation results.
+ *
+ * Caches are an optimization only: the compiler falls back to compiling locally if an operation fails, i.e.,
+ * implementations should fail fast (e.g. use tight timeouts) instead of retrying.
+ *
+ * @see JCompiler#setBytecodeCache(BytecodeCache)
+ */
+public interface BytecodeCache {
+
+    /**
+     * Returns the entry with the specified key.
+     *
+     * @param key fingerprint of the compilation (lowercase hex string)
+     * @return the binary representation of the compilation result or {@code null} if no entry exists
+     * @throws IOException if the cache cannot be accessed
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Stores the specified entry. Implementations may store the entry asynchronously.
+     *
+     * @param key fingerprint of the compilation (lowercase hex string)
+     * @param value binary representation of the compilation result
+     * @throws IOException if the cache cannot be accessed
+     */
+    void put(String key, byte[] value) throws IOException;
+
+    /**
+     * Returns a client of a remote cache that is accessed via http (see {@link BytecodeCacheServer}). Entries are
+     * read via {@code GET <uri>/cache/<key>} and stored asynchronously via {@code PUT <uri>/cache/<key>}.
+     *
+     * @param uri uri of the cache server (e.g. {@code http://cache-host:8090/})
+     * @param timeout timeout of connections and requests
+     * @return client of the specified remote cache
+     */
+    static BytecodeCache remote(URI uri, Duration timeout) {
+        return new HttpBytecodeCache(uri, timeout, null);
+    }
+
+    /**
+     * Returns a client of a remote cache that requires a shared secret to store entries (see
+     * {@link BytecodeCacheServer}). Compiled classes are only stored if the secret is accepted by the server.
+     *
+     * @param uri uri of the cache server (e.g. {@code http://cache-host:8090/})
+     * @param timeout timeout of connections and requests
+     * @param secret shared secret of the server
+     * @return client of the specified remote cache
+     */
+    static BytecodeCache remote(URI uri, Duration timeout, String secret) {
+        return new HttpBytecodeCache(uri, timeout, Objects.requireNonNull(secret, "Secret must not be null"));
+    }
+}
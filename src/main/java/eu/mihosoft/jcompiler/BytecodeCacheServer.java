@@ -0,0 +1,281 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Reference implementation of a remote cache server (see {@link BytecodeCache#remote(java.net.URI, java.time.Duration)}).
+ * Entries are kept in memory, the least recently used entries are evicted if the maximum number of entries
+ * is exceeded. The server can be started from the command line:
+ *
+ * <pre>
+ * JCOMPILER_CACHE_SECRET=... java -cp jcompiler.jar eu.mihosoft.jcompiler.BytecodeCacheServer [port] [maxEntries] [bindAddress]
+ * </pre>
+ *
+ * <p><b>Trust model:</b> clients define and run the bytecode returned by the server, i.e., everybody who can store
+ * entries can inject code into every client. The server therefore binds to the loopback address unless a bind
+ * address is specified explicitly. Servers that are reachable from other hosts require a shared secret that
+ * clients send with every {@code PUT} (see {@link BytecodeCache#remote(java.net.URI, java.time.Duration, String)}).
+ * Requests are not encrypted, remote servers must only be reachable from a trusted network.</p>
+ */
+public final class BytecodeCacheServer implements Closeable {
+
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}");
+    private static final int MAX_ENTRY_SIZE = 256 * 1024 * 1024;
+    // header that carries the shared secret of PUT requests
+    /*pkg private*/ static final String SECRET_HEADER = "X-JCompiler-Cache-Secret";
+    // environment variable that provides the secret of servers started from the command line
+    private static final String SECRET_VARIABLE = "JCOMPILER_CACHE_SECRET";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, byte[]> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    // secret required to store entries (may be null for loopback servers)
+    private final byte[] secret;
+
+    private BytecodeCacheServer(InetSocketAddress address, int maxEntries, String secret) throws IOException {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive: " + maxEntries);
+        }
+        if (secret != null && secret.isEmpty()) {
+            throw new IllegalArgumentException("Secret must not be empty");
+        }
+        if (secret == null && (address.getAddress() == null || !address.getAddress().isLoopbackAddress())) {
+            throw new IllegalArgumentException("Servers that are reachable from other hosts require a secret: " + address);
+        }
+        this.secret = secret == null ? null : secret.getBytes(StandardCharsets.UTF_8);
+        this.entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "jcompiler-cache-server");
+            t.setDaemon(true);
+            return t;
+        });
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext("/cache/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    /**
+     * Starts a cache server on the specified loopback address. Entries can be stored by every local process.
+     *
+     * @param address loopback address to bind to (port 0 selects a free port)
+     * @param maxEntries maximum number of entries
+     * @return the started server
+     * @throws IOException if the server cannot be started
+     * @throws IllegalArgumentException if the address is not a loopback address
+     */
+    public static BytecodeCacheServer start(InetSocketAddress address, int maxEntries) throws IOException {
+        return new BytecodeCacheServer(address, maxEntries, null);
+    }
+
+    /**
+     * Starts a cache server on the specified address. Entries can only be stored by clients that send the
+     * specified secret (see {@link BytecodeCache#remote(java.net.URI, java.time.Duration, String)}).
+     *
+     * @param address address to bind to (port 0 selects a free port)
+     * @param maxEntries maximum number of entries
+     * @param secret secret required to store entries
+     * @return the started server
+     * @throws IOException if the server cannot be started
+     */
+    public static BytecodeCacheServer start(InetSocketAddress address, int maxEntries, String secret) throws IOException {
+        Objects.requireNonNull(secret, "Secret must not be null");
+        return new BytecodeCacheServer(address, maxEntries, secret);
+    }
+
+    /**
+     * Starts a cache server on the loopback address (at most 10000 entries).
+     *
+     * @param port port to bind to (0 selects a free port)
+     * @return the started server
+     * @throws IOException if the server cannot be started
+     */
+    public static BytecodeCacheServer start(int port) throws IOException {
+        return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 10_000);
+    }
+
+    /**
+     * Returns the uri of this server (to be used with {@link BytecodeCache#remote(java.net.URI, java.time.Duration)}).
+     *
+     * @return the uri of this server
+     */
+    public URI getURI() {
+        InetSocketAddress address = server.getAddress();
+        return URI.create("http://" + address.getHostString() + ":" + address.getPort() + "/");
+    }
+
+    /**
+     * @return the number of entries stored by this server
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of requests that returned an entry
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests for entries that do not exist
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Stops this server.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            String path = ex.getRequestURI().getPath();
+            String key = path.substring(path.lastIndexOf('/') + 1);
+            if (!KEY.matcher(key).matches()) {
+                ex.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            switch (ex.getRequestMethod()) {
+                case "GET": {
+                    byte[] value;
+                    synchronized (entries) {
+                        value = entries.get(key);
+                    }
+                    if (value == null) {
+                        misses.incrementAndGet();
+                        ex.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    hits.incrementAndGet();
+                    ex.sendResponseHeaders(200, value.length);
+                    try (OutputStream out = ex.getResponseBody()) {
+                        out.write(value);
+                    }
+                    return;
+                }
+                case "PUT": {
+                    if (!isAuthorized(ex)) {
+                        ex.sendResponseHeaders(403, -1);
+                        return;
+                    }
+                    byte[] value = readBody(ex.getRequestBody());
+                    if (value == null) {
+                        ex.sendResponseHeaders(413, -1);
+                        return;
+                    }
+                    synchronized (entries) {
+                        entries.put(key, value);
+                    }
+                    ex.sendResponseHeaders(204, -1);
+                    return;
+                }
+                default:
+                    ex.sendResponseHeaders(405, -1);
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    private boolean isAuthorized(HttpExchange ex) {
+        if (secret == null) {
+            return true;
+        }
+        String value = ex.getRequestHeaders().getFirst(SECRET_HEADER);
+        // constant time comparison
+        return value != null && MessageDigest.isEqual(secret, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+            if (out.size() > MAX_ENTRY_SIZE) {
+                return null;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Starts a cache server. The server binds to the loopback address unless a bind address is specified. Servers
+     * bound to other addresses require a secret (environment variable {@code JCOMPILER_CACHE_SECRET}).
+     *
+     * @param args optional port (default 8090), maximum number of entries (default 10000) and bind address
+     * @throws IOException if the server cannot be started
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8090;
+        int maxEntries = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        InetAddress bindAddress = args.length > 2 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+        String secret = System.getenv(SECRET_VARIABLE);
+        BytecodeCacheServer server;
+        try {
+            server = new BytecodeCacheServer(new InetSocketAddress(bindAddress, port), maxEntries,
+                secret == null || secret.isEmpty() ? null : secret);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage() + " (set " + SECRET_VARIABLE + ")");
+            System.exit(1);
+            return;
+        }
+        System.out.println("Bytecode cache server listening on " + server.server.getAddress());
+        // server threads are daemon threads
+        Thread.currentThread().join();
+    }
+}
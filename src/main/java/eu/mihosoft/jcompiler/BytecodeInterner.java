@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide interning table for bytecode. Byte-identical classes produced by different compilers share a
+ * single array. Entries are weakly referenced, i.e., arrays are released once no compiled class refers to them.
+ */
+/*pkg private*/ final class BytecodeInterner {
+
+    // interned bytecode by content hash
+    private static final Map<String, Entry> TABLE = new ConcurrentHashMap<>();
+    // entries whose bytecode has been collected
+    private static final ReferenceQueue<byte[]> QUEUE = new ReferenceQueue<>();
+
+    private BytecodeInterner() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Returns the canonical array with the content of the specified bytecode. The returned array must not
+     * be modified.
+     * @param bytecode bytecode to intern
+     * @return canonical array with the content of the specified bytecode
+     */
+    /*pkg private*/ static byte[] intern(byte[] bytecode) {
+        expungeCollectedEntries();
+        MessageDigest digest = CompilationFingerprint.newDigest();
+        String key = CompilationFingerprint.toHex(digest.digest(bytecode));
+        while (true) {
+            Entry entry = TABLE.get(key);
+            byte[] existing = entry == null ? null : entry.get();
+            if (existing != null) {
+                // hash collisions are not interned
+                return Arrays.equals(existing, bytecode) ? existing : bytecode;
+            }
+            Entry newEntry = new Entry(key, bytecode);
+            if (entry == null ? TABLE.putIfAbsent(key, newEntry) == null : TABLE.replace(key, entry, newEntry)) {
+                return bytecode;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of interned arrays that have not been collected yet.
+     * @return number of interned arrays
+     */
+    /*pkg private*/ static int size() {
+        expungeCollectedEntries();
+        return TABLE.size();
+    }
+
+    private static void expungeCollectedEntries() {
+        Entry entry;
+        while ((entry = (Entry) QUEUE.poll()) != null) {
+            TABLE.remove(entry.key, entry);
+        }
+    }
+
+    /**
+     * Weak reference to interned bytecode.
+     */
+    private static final class Entry extends WeakReference<byte[]> {
+        private final String key;
+
+        private Entry(String key, byte[] bytecode) {
+            super(bytecode, QUEUE);
+            this.key = key;
+        }
+    }
+}
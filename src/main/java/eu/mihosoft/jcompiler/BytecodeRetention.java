@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+/**
+ * Determines how long the bytecode of compiled classes is kept in memory after compilation (see
+ * {@link JCompiler#setBytecodeRetention(BytecodeRetention)}).
+ */
+public enum BytecodeRetention {
+
+    /**
+     * The bytecode is kept uncompressed for the lifetime of the classloader (default).
+     */
+    KEEP,
+
+    /**
+     * The bytecode is kept compressed and inflated on demand, e.g., when the class is defined or its bytecode is
+     * requested via {@link CompiledClass#getByteCode()} or {@link ClassLoader#getResource(String)}.
+     */
+    COMPRESSED,
+
+    /**
+     * The bytecode is released once the class has been defined by the classloader. Afterwards the bytecode is not
+     * available anymore, i.e., {@link CompiledClass#getByteCode()} fails and subsequent compilations of the same
+     * compiler cannot refer to the class.
+     */
+    RELEASE_AFTER_DEFINE
+}
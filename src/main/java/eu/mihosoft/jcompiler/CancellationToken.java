@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+/**
+ * Handle for cooperative cancellation of a compilation. The compiler checks the token between compiler phases
+ * and for each compilation unit. Once cancelled, the compilation is aborted with outcome
+ * {@link CompilationOutcome#CANCELLED}.
+ *
+ * <p>A token may be cancelled from any thread. It can be shared by several compilations which are then all
+ * cancelled at once.</p>
+ */
+public final class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new instance of this class.
+     */
+    public CancellationToken() {
+        // nothing to initialize
+    }
+
+    /**
+     * Requests cancellation of all compilations that use this token.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Determines whether cancellation has been requested.
+     * @return {@code true} if cancellation has been requested; {@code false} otherwise
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Structural model of a class file (JVMS chapter 4). Members and attributes are kept as raw data, only the code
+ * attribute can be decoded further (see {@link Code}). The model is used to rewrite compiled classes, e.g., by
+ * {@link ClassTransformer} implementations.
+ */
+/*pkg private*/ final class ClassFile {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    int minorVersion;
+    int majorVersion;
+    ConstantPool constantPool;
+    int accessFlags;
+    int thisClass;
+    int superClass;
+    int[] interfaces;
+    final List<Member> fields = new ArrayList<>();
+    final List<Member> methods = new ArrayList<>();
+    final List<Attribute> attributes = new ArrayList<>();
+
+    private ClassFile() {
+    }
+
+    /**
+     * Parses the specified class file.
+     * @param bytecode the class file
+     * @return the model of the class file
+     * @throws IOException if the class file is malformed
+     */
+    static ClassFile read(byte[] bytecode) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytecode));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        ClassFile cf = new ClassFile();
+        cf.minorVersion = in.readUnsignedShort();
+        cf.majorVersion = in.readUnsignedShort();
+        cf.constantPool = ConstantPool.read(in);
+        cf.accessFlags = in.readUnsignedShort();
+        cf.thisClass = in.readUnsignedShort();
+        cf.superClass = in.readUnsignedShort();
+        cf.interfaces = new int[in.readUnsignedShort()];
+        for (int i = 0; i < cf.interfaces.length; i++) {
+            cf.interfaces[i] = in.readUnsignedShort();
+        }
+        readMembers(in, cf.fields);
+        readMembers(in, cf.methods);
+        readAttributes(in, cf.attributes);
+        if (in.read() >= 0) {
+            throw new IOException("Unexpected data after end of class file");
+        }
+        return cf;
+    }
+
+    /**
+     * Encodes this model as class file.
+     * @return the class file
+     * @throws IOException if this model cannot be encoded
+     */
+    byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(minorVersion);
+        out.writeShort(majorVersion);
+        constantPool.write(out);
+        out.writeShort(accessFlags);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(interfaces.length);
+        for (int i : interfaces) {
+            out.writeShort(i);
+        }
+        writeMembers(out, fields);
+        writeMembers(out, methods);
+        writeAttributes(out, attributes);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the name of the specified attribute.
+     * @param attribute attribute of this class file
+     * @return the name of the attribute
+     */
+    String getName(Attribute attribute) {
+        return constantPool.getUtf8(attribute.nameIndex);
+    }
+
+    /**
+     * Returns the first attribute with the specified name.
+     * @param attributes attributes to search
+     * @param name name of the attribute
+     * @return the attribute or {@code null} if no such attribute exists
+     */
+    Attribute findAttribute(List<Attribute> attributes, String name) {
+        for (Attribute a : attributes) {
+            if (name.equals(getName(a))) {
+                return a;
+            }
+        }
+        return null;
+    }
+
+    private static void readMembers(DataInputStream in, List<Member> members) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            Member m = new Member();
+            m.accessFlags = in.readUnsignedShort();
+            m.nameIndex = in.readUnsignedShort();
+            m.descriptorIndex = in.readUnsignedShort();
+            readAttributes(in, m.attributes);
+            members.add(m);
+        }
+    }
+
+    private static void writeMembers(DataOutputStream out, List<Member> members) throws IOException {
+        out.writeShort(members.size());
+        for (Member m : members) {
+            out.writeShort(m.accessFlags);
+            out.writeShort(m.nameIndex);
+            out.writeShort(m.descriptorIndex);
+            writeAttributes(out, m.attributes);
+        }
+    }
+
+    private static void readAttributes(DataInputStream in, List<Attribute> attributes) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int nameIndex = in.readUnsignedShort();
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Illegal attribute length: " + length);
+            }
+            byte[] info = new byte[length];
+            in.readFully(info);
+            attributes.add(new Attribute(nameIndex, info));
+        }
+    }
+
+    private static void writeAttributes(DataOutputStream out, List<Attribute> attributes) throws IOException {
+        out.writeShort(attributes.size());
+        for (Attribute a : attributes) {
+            out.writeShort(a.nameIndex);
+            out.writeInt(a.info.length);
+            out.write(a.info);
+        }
+    }
+
+    /**
+     * Field or method.
+     */
+    static final class Member {
+        int accessFlags;
+        int nameIndex;
+        int descriptorIndex;
+        final List<Attribute> attributes = new ArrayList<>();
+    }
+
+    /**
+     * Raw attribute.
+     */
+    static final class Attribute {
+        final int nameIndex;
+        byte[] info;
+
+        Attribute(int nameIndex, byte[] info) {
+            this.nameIndex = nameIndex;
+            this.info = info;
+        }
+    }
+
+    /**
+     * Decoded code attribute of a method.
+     */
+    static final class Code {
+        int maxStack;
+        int maxLocals;
+        byte[] code;
+        // exception table entries: start_pc, end_pc, handler_pc, catch_type
+        final List<int[]> exceptionTable = new ArrayList<>();
+        final List<Attribute> attributes = new ArrayList<>();
+
+        /**
+         * Decodes the specified code attribute.
+         * @param attribute code attribute
+         * @return the decoded code attribute
+         * @throws IOException if the attribute is malformed
+         */
+        static Code read(Attribute attribute) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(attribute.info));
+            Code c = new Code();
+            c.maxStack = in.readUnsignedShort();
+            c.maxLocals = in.readUnsignedShort();
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Illegal code length: " + length);
+            }
+            c.code = new byte[length];
+            in.readFully(c.code);
+            int handlers = in.readUnsignedShort();
+            for (int i = 0; i < handlers; i++) {
+                c.exceptionTable.add(new int[] {
+                    in.readUnsignedShort(), in.readUnsignedShort(), in.readUnsignedShort(), in.readUnsignedShort()
+                });
+            }
+            readAttributes(in, c.attributes);
+            return c;
+        }
+
+        /**
+         * Encodes this code attribute (the content of the attribute, without name and length).
+         * @return the encoded attribute
+         * @throws IOException if this attribute cannot be encoded
+         */
+        byte[] toByteArray() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(exceptionTable.size());
+            for (int[] e : exceptionTable) {
+                for (int v : e) {
+                    out.writeShort(v);
+                }
+            }
+            writeAttributes(out, attributes);
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+}
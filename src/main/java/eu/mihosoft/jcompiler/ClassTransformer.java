@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+/**
+ * Transforms compiled classes before they are defined by the classloader of the compiler or written to the output
+ * sink (see {@link JCompiler#addClassTransformer(ClassTransformer)}). Transformers of a compiler form an ordered
+ * chain, i.e., each transformer receives the output of its predecessor. If the compiler has a transformer executor,
+ * chains of different classes run concurrently, i.e., transformers must be thread-safe.
+ */
+@FunctionalInterface
+public interface ClassTransformer {
+
+    /**
+     * Transforms the specified class.
+     *
+     * @param className binary name of the class (e.g. 'my.pkg.MyClass$Inner')
+     * @param bytecode the class file (must not be modified)
+     * @return the transformed class file or {@code null} if the class is not transformed
+     * @throws Exception if the class cannot be transformed (fails the compilation)
+     */
+    byte[] transform(String className, byte[] bytecode) throws Exception;
+
+    /**
+     * Returns the name of this transformer (used for reporting timings).
+     *
+     * @return the name of this transformer
+     */
+    default String getName() {
+        return getClass().getName();
+    }
+
+    /**
+     * Returns a transformer that removes debug information (source file, line numbers and local variable tables).
+     * This reduces the size of classes and the metaspace consumed by loaded classes.
+     *
+     * @return a transformer that removes debug information
+     */
+    static ClassTransformer stripDebugInfo() {
+        return StripDebugTransformer.INSTANCE;
+    }
+}
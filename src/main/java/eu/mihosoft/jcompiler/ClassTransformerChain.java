@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ordered chain of class transformers. Records the time spent in each transformer (thread-safe).
+ */
+/*pkg private*/ final class ClassTransformerChain {
+
+    private final List<ClassTransformer> transformers;
+    private final AtomicLongArray nanos;
+
+    /*pkg private*/ ClassTransformerChain(List<ClassTransformer> transformers) {
+        this.transformers = new ArrayList<>(transformers);
+        this.nanos = new AtomicLongArray(this.transformers.size());
+    }
+
+    /**
+     * Applies all transformers to the specified class.
+     * @param className binary name of the class
+     * @param bytecode the class file
+     * @return the transformed class file
+     * @throws CompilationException if a transformer fails
+     */
+    /*pkg private*/ byte[] apply(String className, byte[] bytecode) {
+        for (int i = 0; i < transformers.size(); i++) {
+            ClassTransformer transformer = transformers.get(i);
+            long start = System.nanoTime();
+            try {
+                byte[] transformed = transformer.transform(className, bytecode);
+                if (transformed != null) {
+                    bytecode = transformed;
+                }
+            } catch (Exception ex) {
+                throw new CompilationException("Class transformer '" + transformer.getName()
+                    + "' failed to transform " + className, ex);
+            } finally {
+                nanos.addAndGet(i, System.nanoTime() - start);
+            }
+        }
+        return bytecode;
+    }
+
+    /**
+     * Returns the time spent in each transformer (names of equally named transformers are made unique).
+     * @return the time spent in each transformer (in chain order)
+     */
+    /*pkg private*/ Map<String, Duration> getTimings() {
+        Map<String, Duration> timings = new LinkedHashMap<>();
+        for (int i = 0; i < transformers.size(); i++) {
+            String name = transformers.get(i).getName();
+            String key = name;
+            for (int n = 2; timings.containsKey(key); n++) {
+                key = name + "#" + n;
+            }
+            timings.put(key, Duration.ofNanos(nanos.get(i)));
+        }
+        return Collections.unmodifiableMap(timings);
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Snapshot of a classpath. For each file (jar files and files contained in directory entries) the snapshot records
+ * path, size, modification time and optionally a hash of its content. Snapshots are used to detect classpath
+ * changes (see {@link #isUpToDate()}) and provide a fingerprint that identifies the classpath state. The modification
+ * times of directories are recorded as well, i.e., added, removed and renamed files can be detected without
+ * visiting all files of directory entries.
+ *
+ * <p>Fingerprints of snapshots without content hashes depend on absolute paths and modification times, i.e., they
+ * only identify the classpath state on the local host. Fingerprints of hashed snapshots only depend on the order
+ * of the entries, the paths of files relative to directory entries and the contents of all files.</p>
+ */
+public final class ClasspathSnapshot {
+
+    // content hashes by file (reused while size and modification time are unchanged)
+    private static final Map<Path, FileRecord> HASHES = new ConcurrentHashMap<>();
+    private static final long RACY_INTERVAL_MILLIS = 2_000;
+
+    private final List<Path> entries;
+    private final boolean hashContents;
+    private final List<FileRecord> files;
+    // directories contained in directory entries (including the entries)
+    private final List<FileRecord> directories = new ArrayList<>();
+    private final String fingerprint;
+
+    private ClasspathSnapshot(List<Path> entries, boolean hashContents) {
+        this.entries = Collections.unmodifiableList(entries.stream()
+            .map(p -> p.toAbsolutePath().normalize()).collect(Collectors.toList()));
+        this.hashContents = hashContents;
+        this.files = scan(this.entries, directories);
+        if (hashContents) {
+            for (FileRecord file : files) {
+                FileRecord hashed = HASHES.get(file.path);
+                if (hashed != null && hashed.sameAttributes(file) && file.size >= 0) {
+                    file.hash = hashed.hash;
+                } else {
+                    file.hash = hash(file.path);
+                    // files modified right before hashing might be modified again within the timestamp resolution
+                    if (System.currentTimeMillis() - file.lastModified > RACY_INTERVAL_MILLIS) {
+                        HASHES.put(file.path, file);
+                    }
+                }
+            }
+        }
+        this.fingerprint = computeFingerprint();
+    }
+
+    /**
+     * Creates a snapshot of the specified classpath (without content hashes).
+     *
+     * @param entries classpath entries (jar files and directories)
+     * @return snapshot of the specified classpath
+     */
+    public static ClasspathSnapshot of(List<Path> entries) {
+        return of(entries, false);
+    }
+
+    /**
+     * Creates a snapshot of the specified classpath.
+     *
+     * @param entries classpath entries (jar files and directories)
+     * @param hashContents determines whether to hash the content of all files. Fingerprints of hashed snapshots do
+     *                     not depend on absolute paths and modification times, i.e., identical classpaths have
+     *                     equal fingerprints on different hosts and in different checkouts.
+     * @return snapshot of the specified classpath
+     */
+    public static ClasspathSnapshot of(List<Path> entries, boolean hashContents) {
+        return new ClasspathSnapshot(entries, hashContents);
+    }
+
+    /**
+     * @return the classpath entries of this snapshot (absolute paths)
+     */
+    public List<Path> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return {@code true} if this snapshot contains content hashes; {@code false} otherwise
+     */
+    public boolean isHashingContents() {
+        return hashContents;
+    }
+
+    /**
+     * Returns the fingerprint of this snapshot (hex encoded SHA-256 hash of the recorded file attributes).
+     *
+     * @return the fingerprint of this snapshot
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Determines whether this snapshot matches the current state of the file system. Jar files are compared by size
+     * and modification time, directory entries by the modification times of their directories, i.e., files that
+     * have been added, removed or renamed are detected but files of directory entries that have been modified in
+     * place are not (see {@link #isUpToDate(boolean)}). Contents are not hashed by this method.
+     *
+     * @return {@code true} if this snapshot is up to date; {@code false} otherwise
+     */
+    public boolean isUpToDate() {
+        return isUpToDate(false);
+    }
+
+    /**
+     * Determines whether this snapshot matches the current state of the file system. A deep scan visits all files
+     * of directory entries and detects files that have been added, removed or modified (size or modification time)
+     * since the snapshot has been taken. Contents are not hashed by this method.
+     *
+     * @param deepScan determines whether to compare all files of directory entries (see {@link #isUpToDate()})
+     * @return {@code true} if this snapshot is up to date; {@code false} otherwise
+     */
+    public boolean isUpToDate(boolean deepScan) {
+        if (!deepScan) {
+            for (FileRecord directory : directories) {
+                if (!FileRecord.of(directory.path).sameAttributes(directory)) {
+                    return false;
+                }
+            }
+            for (FileRecord file : files) {
+                // files of directory entries are covered by the modification times of their directories
+                if (file.path.equals(entries.get(file.entry)) && !FileRecord.of(file.path).sameAttributes(file)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        List<FileRecord> current = scan(entries, null);
+        if (current.size() != files.size()) {
+            return false;
+        }
+        for (int i = 0; i < current.size(); i++) {
+            if (!current.get(i).sameAttributes(files.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether this snapshot has been taken of the specified classpath and is up to date.
+     *
+     * @param entries classpath entries
+     * @return {@code true} if this snapshot matches the specified classpath; {@code false} otherwise
+     */
+    public boolean matches(List<Path> entries) {
+        return matches(entries, false);
+    }
+
+    /**
+     * Determines whether this snapshot has been taken of the specified classpath and is up to date.
+     *
+     * @param entries classpath entries
+     * @param deepScan determines whether to compare all files of directory entries (see {@link #isUpToDate(boolean)})
+     * @return {@code true} if this snapshot matches the specified classpath; {@code false} otherwise
+     */
+    public boolean matches(List<Path> entries, boolean deepScan) {
+        List<Path> normalized = entries.stream().map(p -> p.toAbsolutePath().normalize()).collect(Collectors.toList());
+        return this.entries.equals(normalized) && isUpToDate(deepScan);
+    }
+
+    private static List<FileRecord> scan(List<Path> entries, List<FileRecord> directories) {
+        List<FileRecord> records = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            Path entry = entries.get(i);
+            int first = records.size();
+            if (Files.isDirectory(entry)) {
+                try (Stream<Path> files = Files.walk(entry)) {
+                    files.sorted().forEach(f -> {
+                        if (Files.isDirectory(f)) {
+                            if (directories != null) {
+                                directories.add(FileRecord.of(f));
+                            }
+                        } else if (Files.isRegularFile(f)) {
+                            records.add(FileRecord.of(f));
+                        }
+                    });
+                } catch (IOException | UncheckedIOException ex) {
+                    records.add(new FileRecord(entry, -1, -1));
+                }
+            } else {
+                records.add(FileRecord.of(entry));
+            }
+            for (FileRecord record : records.subList(first, records.size())) {
+                record.entry = i;
+            }
+        }
+        return records;
+    }
+
+    private String computeFingerprint() {
+        MessageDigest digest = CompilationFingerprint.newDigest();
+        if (!hashContents) {
+            // local fingerprint
+            for (Path entry : entries) {
+                CompilationFingerprint.update(digest, "entry:" + entry);
+            }
+            for (FileRecord file : files) {
+                CompilationFingerprint.update(digest, file.path + ":" + file.size + ":" + file.lastModified);
+            }
+            return CompilationFingerprint.toHex(digest.digest());
+        }
+        // portable fingerprint, files are identified by their path relative to the classpath entry
+        int entry = -1;
+        for (FileRecord file : files) {
+            for (; entry < file.entry; entry++) {
+                CompilationFingerprint.update(digest, "entry");
+            }
+            Path root = entries.get(file.entry);
+            CompilationFingerprint.update(digest, root.relativize(file.path).toString().replace('\\', '/')
+                + ":" + file.size + ":" + file.hash);
+        }
+        for (; entry < entries.size() - 1; entry++) {
+            CompilationFingerprint.update(digest, "entry");
+        }
+        return CompilationFingerprint.toHex(digest.digest());
+    }
+
+    private static String hash(Path file) {
+        MessageDigest digest = CompilationFingerprint.newDigest();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, n);
+            }
+        } catch (IOException ex) {
+            return "unreadable";
+        }
+        return CompilationFingerprint.toHex(digest.digest());
+    }
+
+    /**
+     * Recorded attributes of a file.
+     */
+    private static final class FileRecord {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+        private String hash;
+        // index of the classpath entry that contains this file
+        private int entry;
+
+        private FileRecord(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private static FileRecord of(Path file) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                return new FileRecord(file, attrs.size(), attrs.lastModifiedTime().toMillis());
+            } catch (IOException ex) {
+                // missing entries are part of the snapshot as well
+                return new FileRecord(file, -1, -1);
+            }
+        }
+
+        private boolean sameAttributes(FileRecord other) {
+            return path.equals(other.path) && size == other.size && lastModified == other.lastModified;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ClasspathSnapshot[entries=" + entries.size() + ", files=" + files.size() + ", fingerprint=" + fingerprint + "]";
+    }
+}
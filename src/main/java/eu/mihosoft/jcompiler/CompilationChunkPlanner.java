@@ -0,0 +1,208 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits compilation units into chunks that can be compiled one after another with bounded memory.
+ *
+ * Dependencies are approximated by matching the identifiers used in a unit against the simple type names
+ * declared by the other units (comments and strings are ignored). Mutually dependent units end up in the same
+ * chunk and chunks are ordered such that each chunk only depends on itself and on previous chunks.
+ */
+/*pkg private*/ final class CompilationChunkPlanner {
+
+    /**
+     * Heuristic for the compiler heap consumed per source character (trees, symbols, types and bytecode).
+     */
+    /*pkg private*/ static final long ESTIMATED_BYTES_PER_SOURCE_CHAR = 64;
+
+    private CompilationChunkPlanner() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Returns the estimated compiler memory consumption of the specified units in bytes.
+     *
+     * @param units compilation units
+     * @return estimated memory consumption in bytes
+     */
+    /*pkg private*/ static long estimateMemory(Collection<CompilationUnitSource> units) {
+        long chars = 0;
+        for (CompilationUnitSource unit : units) {
+            // does not decode file-backed sources
+            chars += unit.getLength();
+        }
+        return chars * ESTIMATED_BYTES_PER_SOURCE_CHAR;
+    }
+
+    /**
+     * Splits the specified units into chunks whose estimated memory consumption does not exceed the specified
+     * budget. Groups of mutually dependent units are never split, i.e., such chunks may exceed the budget.
+     *
+     * @param units compilation units
+     * @param memoryBudget memory budget per chunk in bytes
+     * @return chunks in compilation order
+     */
+    /*pkg private*/ static List<List<CompilationUnitSource>> plan(Collection<CompilationUnitSource> units, long memoryBudget) {
+        List<CompilationUnitSource> nodes = new ArrayList<>(units);
+        int n = nodes.size();
+
+        // declared simple type names -> declaring units (each source is decoded once)
+        Map<String, List<Integer>> declaringUnits = new HashMap<>();
+        List<Set<String>> identifiers = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String code = getCode(nodes.get(i));
+            for (String clsName : LangUtils.getClassNamesFromCode(code)) {
+                String simpleName = clsName.substring(clsName.lastIndexOf('.') + 1);
+                declaringUnits.computeIfAbsent(simpleName, k -> new ArrayList<>()).add(i);
+            }
+            identifiers.add(LangUtils.getIdentifiersFromCode(code));
+        }
+
+        // dependency graph (edges point to dependencies)
+        List<List<Integer>> dependencies = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            List<Integer> deps = new ArrayList<>();
+            for (String identifier : identifiers.get(i)) {
+                List<Integer> declaring = declaringUnits.get(identifier);
+                if (declaring == null) continue;
+                for (Integer d : declaring) {
+                    if (d != i) deps.add(d);
+                }
+            }
+            dependencies.add(deps);
+        }
+
+        // pack strongly connected components (emitted dependencies first) into chunks
+        List<List<CompilationUnitSource>> chunks = new ArrayList<>();
+        List<CompilationUnitSource> chunk = new ArrayList<>();
+        long chunkMemory = 0;
+        for (List<Integer> component : stronglyConnectedComponents(dependencies)) {
+            long memory = 0;
+            for (Integer i : component) {
+                memory += nodes.get(i).getLength() * ESTIMATED_BYTES_PER_SOURCE_CHAR;
+            }
+            if (!chunk.isEmpty() && chunkMemory + memory > memoryBudget) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkMemory = 0;
+            }
+            for (Integer i : component) {
+                chunk.add(nodes.get(i));
+            }
+            chunkMemory += memory;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Computes the strongly connected components of the specified graph (Tarjan's algorithm, iterative).
+     * Components are returned in reverse topological order, i.e., dependencies first.
+     *
+     * @param edges adjacency lists
+     * @return strongly connected components
+     */
+    private static List<List<Integer>> stronglyConnectedComponents(List<List<Integer>> edges) {
+        int n = edges.size();
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+
+        List<List<Integer>> components = new ArrayList<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        // explicit call stack: node and position in its adjacency list
+        int[] callNode = new int[n];
+        int[] callEdge = new int[n];
+        int counter = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) continue;
+
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = 0;
+            index[root] = lowLink[root] = counter++;
+            stack.push(root);
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int v = callNode[depth];
+                List<Integer> out = edges.get(v);
+                if (callEdge[depth] < out.size()) {
+                    int w = out.get(callEdge[depth]++);
+                    if (index[w] < 0) {
+                        index[w] = lowLink[w] = counter++;
+                        stack.push(w);
+                        onStack[w] = true;
+                        depth++;
+                        callNode[depth] = w;
+                        callEdge[depth] = 0;
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                    continue;
+                }
+
+                if (lowLink[v] == index[v]) {
+                    List<Integer> component = new ArrayList<>();
+                    int w;
+                    do {
+                        w = stack.pop();
+                        onStack[w] = false;
+                        component.add(w);
+                    } while (w != v);
+                    // keep the original order inside of the component
+                    component.sort(null);
+                    components.add(component);
+                }
+
+                depth--;
+                if (depth >= 0) {
+                    int parent = callNode[depth];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                }
+            }
+        }
+
+        return components;
+    }
+
+    private static String getCode(CompilationUnitSource unit) {
+        try {
+            return unit.getCharContent(true).toString();
+        } catch (IOException ex) {
+            throw new CompilationException("Cannot read source of compilation unit " + unit.getClassName(), ex);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Binary representation of compilation results (compiled units, bytecode and diagnostics). The format is used
+ * for transferring results between caches, processes and hosts.
+ */
+/*pkg private*/ final class CompilationCodec {
+
+    private static final int MAGIC = 0x4A435243; // JCRC
+    /*pkg private*/ static final int VERSION = 1;
+    /*pkg private*/ static final int MAX_FRAME_SIZE = 512 * 1024 * 1024;
+    /*pkg private*/ static final byte FRAME_REQUEST = 1;
+    /*pkg private*/ static final byte FRAME_RESULT = 2;
+    /*pkg private*/ static final byte FRAME_ERROR = 3;
+    /*pkg private*/ static final byte FRAME_STATUS = 4;
+    /*pkg private*/ static final byte FRAME_SECRET = 5;
+
+    private CompilationCodec() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Encodes the specified result. The bytecode of all classes must be available in memory.
+     *
+     * @param result result to encode
+     * @return binary representation of the specified result
+     * @throws IOException if the result cannot be encoded
+     */
+    /*pkg private*/ static byte[] encode(CompilationResult result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeResult(out, result);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a result. Decoded classes are added to the specified classloader if the whole result could be decoded.
+     *
+     * @param data binary representation of a result
+     * @param loader classloader that receives the decoded classes
+     * @return the decoded result
+     * @throws IOException if the data is malformed
+     */
+    /*pkg private*/ static CompilationResult decode(byte[] data, InMemoryClassLoader loader) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unsupported format of compilation result");
+        }
+        return readResult(in, loader);
+    }
+
+    /**
+     * Encodes a compile request (options and sources).
+     *
+     * @param options compiler options
+     * @param sources sources by compilation unit name
+     * @return binary representation of the request
+     * @throws IOException if the request cannot be encoded
+     */
+    /*pkg private*/ static byte[] encodeRequest(List<String> options, Map<String, String> sources) throws IOException {
+        return encodeRequest(options, sources, null);
+    }
+
+    /**
+     * Encodes a compile request (options, sources and settings).
+     *
+     * @param options compiler options
+     * @param sources sources by compilation unit name
+     * @param settings settings of the compiler that sends the request (may be {@code null})
+     * @return binary representation of the request
+     * @throws IOException if the request cannot be encoded
+     */
+    /*pkg private*/ static byte[] encodeRequest(List<String> options, Map<String, String> sources,
+            RequestSettings settings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(options.size());
+        for (String option : options) {
+            writeNullableString(out, option);
+        }
+        out.writeInt(sources.size());
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            writeNullableString(out, source.getKey());
+            writeNullableString(out, source.getValue());
+        }
+        // settings are optional, requests without settings remain readable
+        if (settings != null) {
+            out.writeInt(settings.maxErrors);
+            out.writeLong(settings.timeoutMillis);
+            out.writeInt(settings.classes.size());
+            for (Map.Entry<String, byte[]> cls : settings.classes.entrySet()) {
+                out.writeUTF(cls.getKey());
+                out.writeInt(cls.getValue().length);
+                out.write(cls.getValue());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a compile request.
+     *
+     * @param data binary representation of the request
+     * @param options receives the compiler options
+     * @param sources receives the sources by compilation unit name
+     * @return the settings of the request or {@code null} if the request does not contain settings
+     * @throws IOException if the data is malformed
+     */
+    /*pkg private*/ static RequestSettings decodeRequest(byte[] data, List<String> options, Map<String, String> sources) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unsupported format of compile request");
+        }
+        int optionCount = readCount(in, "option");
+        for (int i = 0; i < optionCount; i++) {
+            options.add(readNullableString(in));
+        }
+        int sourceCount = readCount(in, "source");
+        for (int i = 0; i < sourceCount; i++) {
+            sources.put(readNullableString(in), readNullableString(in));
+        }
+        if (in.available() == 0) {
+            return null;
+        }
+        int maxErrors = in.readInt();
+        long timeoutMillis = in.readLong();
+        if (maxErrors < 0 || timeoutMillis < 0) {
+            throw new IOException("Illegal compile request settings");
+        }
+        int classCount = readCount(in, "class");
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (int i = 0; i < classCount; i++) {
+            classes.put(in.readUTF(), readBytes(in, in.readInt()));
+        }
+        return new RequestSettings(maxErrors, timeoutMillis, classes);
+    }
+
+    /**
+     * Settings of the compiler that sends a request (e.g. to a worker process).
+     */
+    /*pkg private*/ static final class RequestSettings {
+        // number of errors that abort the compilation (0 disables fail-fast mode)
+        /*pkg private*/ final int maxErrors;
+        // maximum duration of the compilation (0 disables the timeout)
+        /*pkg private*/ final long timeoutMillis;
+        // bytecode of the classes visible to the compilation by name
+        /*pkg private*/ final Map<String, byte[]> classes;
+
+        /*pkg private*/ RequestSettings(int maxErrors, long timeoutMillis, Map<String, byte[]> classes) {
+            this.maxErrors = maxErrors;
+            this.timeoutMillis = timeoutMillis;
+            this.classes = classes;
+        }
+    }
+
+    /**
+     * Writes a length-prefixed frame.
+     *
+     * @param out stream to write to
+     * @param type type of the frame
+     * @param payload payload of the frame
+     * @throws IOException if the frame cannot be written
+     */
+    /*pkg private*/ static void writeFrame(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * Reads a length-prefixed frame.
+     *
+     * @param in stream to read from
+     * @return the frame or {@code null} if the stream has been closed
+     * @throws IOException if the frame cannot be read or exceeds {@link #MAX_FRAME_SIZE}
+     */
+    /*pkg private*/ static Frame readFrame(DataInputStream in) throws IOException {
+        return readFrame(in, MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Reads a length-prefixed frame.
+     *
+     * @param in stream to read from
+     * @param maxSize maximum size of the payload
+     * @return the frame or {@code null} if the stream has been closed
+     * @throws IOException if the frame cannot be read or exceeds the maximum size
+     */
+    /*pkg private*/ static Frame readFrame(DataInputStream in, int maxSize) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        int length = in.readInt();
+        if (length < 0 || length > maxSize) {
+            throw new IOException("Illegal frame length: " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame((byte) type, payload);
+    }
+
+    /**
+     * Length-prefixed message (type and payload).
+     */
+    /*pkg private*/ static final class Frame {
+        /*pkg private*/ final byte type;
+        /*pkg private*/ final byte[] payload;
+
+        private Frame(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    /*pkg private*/ static void writeResult(DataOutputStream out, CompilationResult result) throws IOException {
+        out.writeBoolean(result.compilationSucceeded());
+        out.writeUTF(result.getOutcome().name());
+
+        List<CompiledUnit> units = result.getCompiledUnits();
+        out.writeInt(units.size());
+        for (CompiledUnit unit : units) {
+            out.writeUTF(unit.getName());
+            List<CompiledClass> classes = unit.getClasses();
+            out.writeInt(classes.indexOf(unit.getMainClass()));
+            out.writeInt(classes.size());
+            for (CompiledClass cls : classes) {
+                out.writeUTF(cls.getClassName());
+                byte[] bytecode = cls.getByteCode();
+                out.writeInt(bytecode.length);
+                out.write(bytecode);
+            }
+        }
+
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = result.getDiagnostics();
+        out.writeInt(diagnostics.size());
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+            writeDiagnostic(out, d instanceof SimpleDiagnostic ? (SimpleDiagnostic) d : SimpleDiagnostic.copyOf(d));
+        }
+    }
+
+    /*pkg private*/ static CompilationResult readResult(DataInputStream in, InMemoryClassLoader loader) throws IOException {
+        boolean succeeded = in.readBoolean();
+        CompilationOutcome outcome;
+        try {
+            outcome = CompilationOutcome.valueOf(in.readUTF());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Unknown compilation outcome", ex);
+        }
+
+        // every unit, class and diagnostic occupies at least one byte of the remaining input
+        int unitCount = readCount(in, "unit");
+        List<CompiledUnit> units = new ArrayList<>(unitCount);
+        List<CompiledClassFile> files = new ArrayList<>();
+        for (int u = 0; u < unitCount; u++) {
+            String unitName = in.readUTF();
+            int mainIndex = in.readInt();
+            int classCount = readCount(in, "class");
+            List<CompiledClass> classes = new ArrayList<>(classCount);
+            for (int c = 0; c < classCount; c++) {
+                String className = in.readUTF();
+                byte[] bytecode = readBytes(in, in.readInt());
+                CompiledClassFile file;
+                try {
+                    file = new CompiledClassFile(loader, className);
+                } catch (URISyntaxException ex) {
+                    throw new IOException("Illegal class name " + className, ex);
+                }
+                try (OutputStream classOut = file.openOutputStream()) {
+                    classOut.write(bytecode);
+                }
+                files.add(file);
+                classes.add(new CompiledClass(file));
+            }
+            if (mainIndex >= classes.size()) {
+                throw new IOException("Illegal main class index of unit " + unitName);
+            }
+            units.add(new CompiledUnit(unitName, classes, mainIndex < 0 ? null : classes.get(mainIndex)));
+        }
+
+        int diagnosticCount = readCount(in, "diagnostic");
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>(diagnosticCount);
+        for (int i = 0; i < diagnosticCount; i++) {
+            diagnostics.add(readDiagnostic(in));
+        }
+
+        // the whole result is available, classes can be loaded
+        files.forEach(loader::addCode);
+
+        return new CompilationResult(units, diagnostics, succeeded, outcome);
+    }
+
+    /*pkg private*/ static void writeDiagnostic(DataOutputStream out, SimpleDiagnostic d) throws IOException {
+        out.writeUTF(d.getKind().name());
+        writeNullableString(out, d.getSourceUri());
+        out.writeLong(d.getPosition());
+        out.writeLong(d.getStartPosition());
+        out.writeLong(d.getEndPosition());
+        out.writeLong(d.getLineNumber());
+        out.writeLong(d.getColumnNumber());
+        writeNullableString(out, d.getCode());
+        writeNullableString(out, d.getMessage(null));
+    }
+
+    /*pkg private*/ static SimpleDiagnostic readDiagnostic(DataInputStream in) throws IOException {
+        Diagnostic.Kind kind;
+        try {
+            kind = Diagnostic.Kind.valueOf(in.readUTF());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Unknown diagnostic kind", ex);
+        }
+        return new SimpleDiagnostic(kind, readNullableString(in), in.readLong(), in.readLong(), in.readLong(),
+            in.readLong(), in.readLong(), readNullableString(in), readNullableString(in));
+    }
+
+    /**
+     * Writes a string of arbitrary length ({@code writeUTF} is limited to 64k).
+     */
+    /*pkg private*/ static void writeNullableString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /*pkg private*/ static String readNullableString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(readBytes(in, length), StandardCharsets.UTF_8);
+    }
+
+    private static int readCount(DataInputStream in, String element) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available()) {
+            throw new IOException("Illegal " + element + " count: " + count);
+        }
+        return count;
+    }
+
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Illegal length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Computes fingerprints of compilations (sources, compiler options, classpath and compiler version).
+ * Compilations with equal fingerprints produce equal results.
+ */
+/*pkg private*/ final class CompilationFingerprint {
+
+    private CompilationFingerprint() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Computes the fingerprint of the specified compilation.
+     *
+     * @param units compilation units
+     * @param options compiler options (may be {@code null})
+     * @param classpathFingerprint fingerprint of the classpath (see {@link ClasspathSnapshot#getFingerprint()})
+     * @return fingerprint (hex encoded SHA-256 hash)
+     */
+    /*pkg private*/ static String compute(Collection<CompilationUnitSource> units, Iterable<String> options,
+        String classpathFingerprint) {
+        MessageDigest digest = newDigest();
+
+        update(digest, "codec:" + CompilationCodec.VERSION);
+        update(digest, "javac:" + Runtime.version());
+
+        if (options != null) {
+            for (String option : options) {
+                update(digest, "option:" + option);
+            }
+        }
+
+        update(digest, "classpath:" + classpathFingerprint);
+
+        List<CompilationUnitSource> sortedUnits = units.stream()
+            .sorted(Comparator.comparing(CompilationUnitSource::getClassName)).collect(Collectors.toList());
+        for (CompilationUnitSource unit : sortedUnits) {
+            update(digest, "unit:" + unit.getClassName());
+            try {
+                update(digest, unit.getCharContent(true).toString());
+            } catch (IOException ex) {
+                throw new CompilationException("Cannot read source of compilation unit " + unit.getClassName(), ex);
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /*pkg private*/ static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /*pkg private*/ static void update(MessageDigest digest, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        // length prefix prevents ambiguous concatenations
+        digest.update(new byte[] {
+            (byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16), (byte) (bytes.length >>> 8), (byte) bytes.length
+        });
+        digest.update(bytes);
+    }
+
+    /*pkg private*/ static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
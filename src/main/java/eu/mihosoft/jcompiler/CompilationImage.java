@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Single-file image of a compiled namespace (units, main classes, bytecode and diagnostics) keyed by the
+ * fingerprint of the compilation. The file consists of a header, an index and the concatenated bytecode of all
+ * classes. Only the index is read on restore, the bytecode is memory-mapped and defined on demand.
+ *
+ * @see JCompiler#saveImage(CompilationResult, Path)
+ * @see JCompiler#restoreImage(Path)
+ */
+/*pkg private*/ final class CompilationImage {
+
+    private static final int MAGIC = 0x4A43494D; // JCIM
+    private static final int VERSION = 1;
+    // magic, version and index length
+    private static final int HEADER_SIZE = 4 + 4 + 4;
+
+    private CompilationImage() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Writes the image of the specified result. The file is replaced atomically.
+     * @param file image file
+     * @param fingerprint fingerprint of the compilation that produced the result
+     * @param result result to write (the bytecode of all classes must be available in memory)
+     * @throws IOException if the image cannot be written
+     */
+    /*pkg private*/ static void write(Path file, String fingerprint, CompilationResult result) throws IOException {
+        List<byte[]> bytecodes = new ArrayList<>();
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(index)) {
+            out.writeUTF(fingerprint);
+            out.writeBoolean(result.compilationSucceeded());
+            out.writeUTF(result.getOutcome().name());
+
+            List<CompiledUnit> units = result.getCompiledUnits();
+            out.writeInt(units.size());
+            long offset = 0;
+            for (CompiledUnit unit : units) {
+                out.writeUTF(unit.getName());
+                List<CompiledClass> classes = unit.getClasses();
+                out.writeInt(classes.indexOf(unit.getMainClass()));
+                out.writeInt(classes.size());
+                for (CompiledClass cls : classes) {
+                    byte[] bytecode = cls.getByteCode();
+                    bytecodes.add(bytecode);
+                    out.writeUTF(cls.getClassName());
+                    out.writeLong(offset);
+                    out.writeInt(bytecode.length);
+                    offset += bytecode.length;
+                }
+            }
+
+            List<Diagnostic<? extends JavaFileObject>> diagnostics = result.getDiagnostics();
+            out.writeInt(diagnostics.size());
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+                CompilationCodec.writeDiagnostic(out,
+                    d instanceof SimpleDiagnostic ? (SimpleDiagnostic) d : SimpleDiagnostic.copyOf(d));
+            }
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(index.size());
+                index.writeTo(out);
+                for (byte[] bytecode : bytecodes) {
+                    out.write(bytecode);
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                // atomic moves are not supported by every file system
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Restores the specified image. The bytecode is mapped into memory and defined by the specified classloader
+     * on demand. Classes are added to the classloader if the whole index could be read.
+     * @param file image file
+     * @param fingerprint expected fingerprint
+     * @param loader classloader that defines the restored classes
+     * @return the restored result or {@code null} if the image has been created for a different fingerprint
+     * @throws IOException if the image cannot be read or is corrupt
+     */
+    /*pkg private*/ static CompilationResult read(Path file, String fingerprint, InMemoryClassLoader loader) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            DataInputStream in = readIndex(channel);
+            if (!fingerprint.equals(in.readUTF())) {
+                return null;
+            }
+            boolean succeeded = in.readBoolean();
+            CompilationOutcome outcome;
+            try {
+                outcome = CompilationOutcome.valueOf(in.readUTF());
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Unknown compilation outcome", ex);
+            }
+
+            int indexLength = in.available();
+            long dataStart = channel.position();
+            long dataLength = channel.size() - dataStart;
+            if (dataLength > Integer.MAX_VALUE) {
+                throw new IOException("Images are limited to 2 GB of bytecode");
+            }
+            // the mapping remains valid after the channel has been closed
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, dataStart, dataLength);
+
+            int unitCount = in.readInt();
+            if (unitCount < 0 || unitCount > indexLength) {
+                throw new IOException("Illegal unit count: " + unitCount);
+            }
+            List<CompiledUnit> units = new ArrayList<>(unitCount);
+            List<CompiledClassFile> files = new ArrayList<>();
+            for (int u = 0; u < unitCount; u++) {
+                String unitName = in.readUTF();
+                int mainIndex = in.readInt();
+                int classCount = in.readInt();
+                if (classCount < 0 || classCount > indexLength) {
+                    throw new IOException("Illegal class count of unit " + unitName);
+                }
+                List<CompiledClass> classes = new ArrayList<>(classCount);
+                for (int c = 0; c < classCount; c++) {
+                    String className = in.readUTF();
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset < 0 || length < 0 || offset + length > dataLength) {
+                        throw new IOException("Illegal bytecode range of class " + className);
+                    }
+                    CompiledClassFile classFile;
+                    try {
+                        classFile = new CompiledClassFile(loader, className);
+                    } catch (URISyntaxException ex) {
+                        throw new IOException("Illegal class name " + className, ex);
+                    }
+                    ByteBuffer bytecode = data.duplicate();
+                    bytecode.position((int) offset).limit((int) offset + length);
+                    classFile.setMappedByteCode(bytecode.slice().asReadOnlyBuffer());
+                    files.add(classFile);
+                    classes.add(new CompiledClass(classFile));
+                }
+                if (mainIndex >= classes.size()) {
+                    throw new IOException("Illegal main class index of unit " + unitName);
+                }
+                units.add(new CompiledUnit(unitName, classes, mainIndex < 0 ? null : classes.get(mainIndex)));
+            }
+
+            int diagnosticCount = in.readInt();
+            if (diagnosticCount < 0 || diagnosticCount > indexLength) {
+                throw new IOException("Illegal diagnostic count: " + diagnosticCount);
+            }
+            List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>(diagnosticCount);
+            for (int i = 0; i < diagnosticCount; i++) {
+                diagnostics.add(CompilationCodec.readDiagnostic(in));
+            }
+
+            // the whole index is available, classes can be loaded
+            files.forEach(loader::addCode);
+
+            return new CompilationResult(units, diagnostics, succeeded, outcome);
+        }
+    }
+
+    /**
+     * Reads the header and the index of an image. The channel is positioned at the start of the bytecode.
+     */
+    private static DataInputStream readIndex(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a compilation image");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported image version: " + header.getInt(4));
+        }
+        int indexLength = header.getInt(8);
+        if (indexLength < 0 || indexLength > channel.size() - HEADER_SIZE) {
+            throw new IOException("Illegal index length: " + indexLength);
+        }
+        ByteBuffer index = ByteBuffer.allocate(indexLength);
+        readFully(channel, index);
+        return new DataInputStream(new ByteArrayInputStream(index.array()));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of image");
+            }
+        }
+    }
+}
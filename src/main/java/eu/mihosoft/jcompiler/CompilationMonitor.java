@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+
+/**
+ * Collects diagnostics and observes the phases of a running compilation task. The monitor aborts the task
+ * (by throwing from within the listener callbacks) as soon as one of the configured limits is reached.
+ */
+/*pkg private*/ final class CompilationMonitor implements DiagnosticListener<JavaFileObject>, TaskListener {
+
+    private final List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+    // maximum number of errors before the task is aborted (0 means unlimited)
+    private final int maxErrors;
+    private int errorCount;
+    // deadline in nanos (System.nanoTime()), only valid if hasDeadline is true
+    private final long deadline;
+    private final boolean hasDeadline;
+    // cancellation token (may be null)
+    private final CancellationToken cancellationToken;
+
+    /**
+     * Creates a new instance of this class.
+     * @param maxErrors maximum number of errors before the task is aborted ({@code 0} means unlimited)
+     */
+    /*pkg private*/ CompilationMonitor(int maxErrors) {
+        this(maxErrors, 0, null);
+    }
+
+    /**
+     * Creates a new instance of this class.
+     * @param maxErrors maximum number of errors before the task is aborted ({@code 0} means unlimited)
+     * @param timeoutNanos timeout in nanoseconds, starting now ({@code 0} means no timeout)
+     * @param cancellationToken token used to request cancellation (may be {@code null})
+     */
+    /*pkg private*/ CompilationMonitor(int maxErrors, long timeoutNanos, CancellationToken cancellationToken) {
+        this.maxErrors = maxErrors;
+        this.hasDeadline = timeoutNanos > 0;
+        this.deadline = System.nanoTime() + timeoutNanos;
+        this.cancellationToken = cancellationToken;
+    }
+
+    @Override
+    public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+        diagnostics.add(diagnostic);
+        if(diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+            errorCount++;
+        }
+    }
+
+    @Override
+    public void started(TaskEvent e) {
+        // code generation is pointless once errors are present, the result is rejected anyway
+        if(maxErrors > 0 && errorCount > 0 && e.getKind() == TaskEvent.Kind.GENERATE) {
+            throw new AbortSignal(CompilationOutcome.ABORTED);
+        }
+        checkpoint();
+    }
+
+    @Override
+    public void finished(TaskEvent e) {
+        checkpoint();
+    }
+
+    /**
+     * Aborts the compilation task if one of the configured limits has been reached.
+     */
+    /*pkg private*/ void checkpoint() {
+        if(cancellationToken != null && cancellationToken.isCancelled()) {
+            throw new AbortSignal(CompilationOutcome.CANCELLED);
+        }
+        if(hasDeadline && System.nanoTime() - deadline >= 0) {
+            throw new AbortSignal(CompilationOutcome.TIMED_OUT);
+        }
+        if(maxErrors > 0 && errorCount >= maxErrors) {
+            throw new AbortSignal(CompilationOutcome.ABORTED);
+        }
+    }
+
+    /**
+     * Returns the number of errors reported so far.
+     * @return the number of errors reported so far
+     */
+    /*pkg private*/ int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns the diagnostics collected so far.
+     * @return the diagnostics collected so far
+     */
+    /*pkg private*/ List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    /**
+     * Returns the outcome of an aborted task.
+     * @param ex the exception thrown by the compilation task
+     * @return the outcome if the exception has been caused by this monitor; {@code null} otherwise
+     */
+    /*pkg private*/ static CompilationOutcome getAbortOutcome(Throwable ex) {
+        // javac wraps exceptions thrown by listeners
+        for(Throwable t = ex; t != null; t = t.getCause()) {
+            if(t instanceof AbortSignal) {
+                return ((AbortSignal) t).outcome;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Thrown from listener callbacks to abort the compilation task.
+     */
+    private static final class AbortSignal extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final CompilationOutcome outcome;
+
+        AbortSignal(CompilationOutcome outcome) {
+            super("Compilation aborted: " + outcome, null, false, false);
+            this.outcome = outcome;
+        }
+    }
+}
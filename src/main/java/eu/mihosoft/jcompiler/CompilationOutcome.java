@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+/**
+ * Describes how a compilation attempt ended.
+ */
+public enum CompilationOutcome {
+
+    /**
+     * The compiler processed all compilation units (the compilation itself might still have failed with errors).
+     */
+    COMPLETED,
+
+    /**
+     * The compilation has been aborted early because the configured maximum number of errors has been reached
+     * (fail-fast mode).
+     */
+    ABORTED,
+
+    /**
+     * The compilation has been aborted because it did not finish before the configured deadline.
+     */
+    TIMED_OUT,
+
+    /**
+     * The compilation has been aborted because cancellation has been requested via a {@link CancellationToken}.
+     */
+    CANCELLED
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+/**
+ * Indicates that a compilation has been rejected, e.g., because a tenant exceeded its quota (see
+ * {@link CompileTenant}) or because the queue of a scheduler is full (see {@link CompileScheduler}).
+ */
+public class CompilationRejectedException extends CompilationException {
+	private static final long serialVersionUID = 2301553187723015466L;
+
+	private final String tenantId;
+
+	/**
+	 * Creates a new instance of this class.
+	 * @param msg message of this exception
+	 */
+	public CompilationRejectedException(String msg) {
+		this(null, msg);
+	}
+
+	/**
+	 * Creates a new instance of this class.
+	 * @param tenantId id of the tenant whose compilation has been rejected
+	 * @param msg message of this exception
+	 */
+	public CompilationRejectedException(String tenantId, String msg) {
+		super(msg);
+		this.tenantId = tenantId;
+	}
+
+	/**
+	 * Returns the id of the tenant whose compilation has been rejected.
+	 * @return the id of the tenant ({@code null} if the compilation has not been rejected by a tenant)
+	 */
+	public String getTenantId() {
+		return tenantId;
+	}
+
+}
@@ -17,13 +17,13 @@
  */
 package eu.mihosoft.jcompiler;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import javax.tools.Diagnostic;
 import javax.tools.JavaFileObject;
@@ -37,9 +37,16 @@ public final class CompilationResult {
     private final List<CompiledUnit> compiledUnits;
     private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
     private final boolean compilationSucceeded;
+    private final CompilationOutcome outcome;
     private boolean hasWarnings;
     private boolean hasErrors;
     private final String compilationErrorMsg;
+    private Map<String, Duration> transformerTimings = Collections.emptyMap();
+    private Duration queueWaitTime = Duration.ZERO;
+    private Duration compileTime = Duration.ZERO;
+    // indexes of the compiled units and classes by name
+    private final Map<String, CompiledUnit> unitsByName;
+    private final Map<String, CompiledClass> classesByName;
     
 
     /**
@@ -51,12 +58,62 @@ public final class CompilationResult {
     /*pkg private*/ CompilationResult(
          List<CompiledUnit> compiledUnits,
          List<Diagnostic<? extends JavaFileObject>> diagnostics, boolean compilationSucceeded) {
+            this(compiledUnits, diagnostics, compilationSucceeded, CompilationOutcome.COMPLETED);
+    }
+
+    /**
+     * Creates a new instance of this class.
+     * @param compiledUnits compiled compilation units
+     * @param diagnostics diagnostics collected during compilation
+     * @param compilationSucceeded determines if the compilation attempt was successful
+     * @param outcome describes how the compilation attempt ended
+     */
+    /*pkg private*/ CompilationResult(
+         List<CompiledUnit> compiledUnits,
+         List<Diagnostic<? extends JavaFileObject>> diagnostics, boolean compilationSucceeded,
+         CompilationOutcome outcome) {
             this.compiledUnits = Collections.unmodifiableList(new ArrayList<>(compiledUnits));
+            this.unitsByName = new HashMap<>(this.compiledUnits.size() * 2);
+            this.classesByName = new HashMap<>(this.compiledUnits.size() * 2);
+            for (CompiledUnit unit : this.compiledUnits) {
+                unitsByName.putIfAbsent(unit.getName(), unit);
+                for (CompiledClass cls : unit.getClasses()) {
+                    classesByName.putIfAbsent(cls.getClassName(), cls);
+                }
+            }
             this.diagnostics = Collections.unmodifiableList(new ArrayList<>(diagnostics));
+            this.outcome = outcome;
             this.compilationErrorMsg = checkWarningsAndErrors();
             this.compilationSucceeded = compilationSucceeded;
     }
 
+    /**
+     * Creates a view of the specified result that shares its units and diagnostics but has its own timings.
+     * @param shared the result to share
+     */
+    private CompilationResult(CompilationResult shared) {
+        this.compiledUnits = shared.compiledUnits;
+        this.diagnostics = shared.diagnostics;
+        this.compilationSucceeded = shared.compilationSucceeded;
+        this.outcome = shared.outcome;
+        this.hasWarnings = shared.hasWarnings;
+        this.hasErrors = shared.hasErrors;
+        this.compilationErrorMsg = shared.compilationErrorMsg;
+        this.unitsByName = shared.unitsByName;
+        this.classesByName = shared.classesByName;
+        this.transformerTimings = shared.transformerTimings;
+        this.compileTime = shared.compileTime;
+    }
+
+    /**
+     * Returns a view of this result for another caller (e.g. a compilation that shares this result, see
+     * {@link JCompiler#setSingleFlight(boolean)}). Timings of the view can be set independently of this result.
+     * @return a view of this result
+     */
+    /*pkg private*/ CompilationResult newView() {
+        return new CompilationResult(this);
+    }
+
 	/**
 	 * Returns the compiled compilation units.
      * @return list of compiled compilation units
@@ -65,6 +122,24 @@ public final class CompilationResult {
         return this.compiledUnits;
     }
 
+	/**
+	 * Returns the compiled unit with the specified name.
+     * @param name name of the unit (see {@link CompiledUnit#getName()})
+     * @return the compiled unit or {@code null} if this result does not contain a unit with the specified name
+	 */
+	public CompiledUnit getUnit(String name) {
+        return unitsByName.get(name);
+    }
+
+	/**
+	 * Returns the compiled class with the specified name.
+     * @param binaryName binary name of the class (e.g. 'my.pkg.MyClass$Inner')
+     * @return the compiled class or {@code null} if this result does not contain a class with the specified name
+	 */
+	public CompiledClass getClass(String binaryName) {
+        return classesByName.get(binaryName);
+    }
+
 	/**
 	 * Determines if the compilation was successful.
      * @return {@code true} if compilation was successful; {@code false} otherwise
@@ -73,6 +148,23 @@ public final class CompilationResult {
         return this.compilationSucceeded;
     }
 
+	/**
+	 * Returns how the compilation attempt ended.
+     * @return the outcome of the compilation attempt
+	 */
+	public CompilationOutcome getOutcome() {
+        return this.outcome;
+    }
+
+	/**
+	 * Determines if the compilation has been aborted before all compilation units have been processed.
+     * Aborted compilations contain the diagnostics collected so far but no compiled units.
+     * @return {@code true} if the compilation has been aborted; {@code false} otherwise
+	 */
+	public boolean isAborted() {
+        return this.outcome != CompilationOutcome.COMPLETED;
+    }
+
 	/**
 	 * Determines if the compiler produced any warnings during the compilation attempt.
      * @return {@code true} if warnings are present; {@code false} otherwise
@@ -97,6 +189,55 @@ public final class CompilationResult {
         return diagnostics;
     }
 
+    /**
+     * Returns the time spent in each class transformer (see {@link JCompiler#addClassTransformer(ClassTransformer)}).
+     * Transformers of different classes may run concurrently, i.e., the timings are summed over all classes.
+     * @return time spent in each transformer by transformer name (in chain order, empty if no transformers are set)
+     */
+    public Map<String, Duration> getTransformerTimings() {
+        return transformerTimings;
+    }
+
+    /**
+     * Sets the time spent in each class transformer.
+     * @param transformerTimings time spent in each transformer by transformer name
+     */
+    /*pkg private*/ void setTransformerTimings(Map<String, Duration> transformerTimings) {
+        this.transformerTimings = transformerTimings;
+    }
+
+    /**
+     * Returns the time this compilation waited in the queue of a scheduler (see {@link CompileScheduler}).
+     * @return the queue wait time ({@link Duration#ZERO} if the compilation has not been scheduled)
+     */
+    public Duration getQueueWaitTime() {
+        return queueWaitTime;
+    }
+
+    /**
+     * Sets the time this compilation waited in the queue of a scheduler.
+     * @param queueWaitTime the queue wait time
+     */
+    /*pkg private*/ void setQueueWaitTime(Duration queueWaitTime) {
+        this.queueWaitTime = queueWaitTime;
+    }
+
+    /**
+     * Returns the time spent compiling (excluding the queue wait time).
+     * @return the compile time
+     */
+    public Duration getCompileTime() {
+        return compileTime;
+    }
+
+    /**
+     * Sets the time spent compiling.
+     * @param compileTime the compile time
+     */
+    /*pkg private*/ void setCompileTime(Duration compileTime) {
+        this.compileTime = compileTime;
+    }
+
     /**
      * Returns error and warning messages created by the compiler.
      * @return error and warning messages created by the compiler
@@ -111,7 +252,7 @@ public final class CompilationResult {
      * @throws CompilationException if errors occured during compilation
      */
     public CompilationResult checkNoErrors(boolean ignoreWarnings) throws CompilationException {
-        if(hasErrors() || (!ignoreWarnings && hasWarnings())) {
+        if(isAborted() || hasErrors() || (!ignoreWarnings && hasWarnings())) {
             throw new CompilationException(getMessage());
         }
 
@@ -157,6 +298,10 @@ public final class CompilationResult {
             exceptionMsg.append(", ").append("message=").append(d.getMessage(Locale.US)).append("]");
         }
 
+        if(isAborted()) {
+            exceptionMsg.append("\n").append("[compilation ").append(outcome.name().toLowerCase(Locale.US)).append("]");
+        }
+
         return exceptionMsg.toString();
     }
 
@@ -166,14 +311,12 @@ public final class CompilationResult {
      * @throws ClassNotFoundException if classloading failed
      */
     public Map<String,Class<?>> loadClasses() throws ClassNotFoundException {
-        Map<String, Class<?>> classesByName = new HashMap<>();
-
-        List<CompiledClass> classes = compiledUnits.stream().flatMap(cu->cu.getClasses().stream()).collect(Collectors.toList());
+        Map<String, Class<?>> loadedClasses = new HashMap<>(classesByName.size() * 2);
 
-        for(CompiledClass cc : classes) {
-            classesByName.put(cc.getClassName(), cc.loadClass());
+        for(CompiledClass cc : classesByName.values()) {
+            loadedClasses.put(cc.getClassName(), cc.loadClass());
         }
 
-        return classesByName;
+        return loadedClasses;
     } 
 }
\ No newline at end of file
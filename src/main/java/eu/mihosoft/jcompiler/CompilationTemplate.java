@@ -0,0 +1,598 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.lang.model.SourceVersion;
+
+/**
+ * A compiled template, i.e., a compilation unit with typed placeholders that can be specialized without
+ * invoking the compiler. Templates are created via {@link JCompiler#compileTemplate(String)}.
+ *
+ * <p>The template is compiled twice with different sentinel values for each placeholder. Comparing both
+ * versions reveals the constant pool entries that depend on the placeholders. If all other parts of the class
+ * files are identical, specializations are created by rewriting these entries (and the class name) in the
+ * cached bytecode. Otherwise, e.g., if the compiler folded a placeholder into another constant or used it
+ * as switch label, each specialization is compiled from source.</p>
+ */
+public final class CompilationTemplate {
+
+    // placeholder syntax: ${name:type}
+    private static final Pattern PLACEHOLDER = Pattern.compile(
+        "\\$\\{([\\p{L}_][\\p{L}\\p{N}_]*):(int|long|float|double|String|class)\\}");
+
+    private final JCompiler compiler;
+    private final String code;
+    // placeholder names and types by index (order of first appearance)
+    private final List<String> names;
+    private final PlaceholderType[] types;
+    // name of the class placeholder
+    private final String classPlaceholder;
+    // sentinel values by variant and placeholder index
+    private final Object[][] sentinels;
+
+    // compiled template (null if specializations have to be compiled from source)
+    private final List<TemplateClass> templateClasses;
+    // package prefix of the template classes, e.g., 'my.pkg.'
+    private String packagePrefix;
+    // reason why the bytecode cannot be patched (null if patchable)
+    private final String notPatchableReason;
+
+    /**
+     * Creates and compiles a new template.
+     * @param compiler the compiler that loads the specialized classes
+     * @param code code of the template
+     */
+    /*pkg private*/ CompilationTemplate(JCompiler compiler, String code) {
+        this.compiler = compiler;
+        this.code = code;
+
+        Map<String, PlaceholderType> placeholders = new LinkedHashMap<>();
+        Matcher m = PLACEHOLDER.matcher(code);
+        String classPlaceholderName = null;
+        while (m.find()) {
+            PlaceholderType type = PlaceholderType.valueOf(m.group(2).toUpperCase(Locale.US));
+            PlaceholderType prev = placeholders.putIfAbsent(m.group(1), type);
+            if (prev != null && prev != type) {
+                throw new IllegalArgumentException("Placeholder '" + m.group(1) + "' declared with types "
+                    + prev.getName() + " and " + type.getName());
+            }
+            if (type == PlaceholderType.CLASS && prev == null) {
+                if (classPlaceholderName != null) {
+                    throw new IllegalArgumentException("Only one class placeholder allowed, found '"
+                        + classPlaceholderName + "' and '" + m.group(1) + "'");
+                }
+                classPlaceholderName = m.group(1);
+            }
+        }
+
+        if (classPlaceholderName == null) {
+            throw new IllegalArgumentException("Template does not declare a class placeholder, e.g., ${name:class}");
+        }
+
+        this.classPlaceholder = classPlaceholderName;
+        this.names = Collections.unmodifiableList(new ArrayList<>(placeholders.keySet()));
+        this.types = placeholders.values().toArray(new PlaceholderType[0]);
+
+        // sentinel values of both template variants
+        String id = Integer.toHexString(code.hashCode() & 0x7FFFFFFF);
+        this.sentinels = new Object[2][types.length];
+        for (int i = 0; i < types.length; i++) {
+            sentinels[0][i] = types[i].sentinel(0, i, id);
+            sentinels[1][i] = types[i].sentinel(1, i, id);
+        }
+
+        List<TemplateClass> compiled = null;
+        String reason;
+        try {
+            compiled = analyze();
+            reason = null;
+        } catch (NotPatchableException ex) {
+            reason = ex.getMessage();
+        }
+
+        this.templateClasses = compiled;
+        this.notPatchableReason = reason;
+    }
+
+    /**
+     * Determines whether specializations of this template are created by patching the bytecode of the
+     * template. If not, specializations are compiled from source.
+     *
+     * @return {@code true} if the bytecode of this template can be patched; {@code false} otherwise
+     */
+    public boolean isPatchable() {
+        return templateClasses != null;
+    }
+
+    /**
+     * Returns the reason why the bytecode of this template cannot be patched.
+     *
+     * @return the reason why the bytecode of this template cannot be patched ({@code null} if patchable)
+     */
+    public String getNotPatchableReason() {
+        return notPatchableReason;
+    }
+
+    /**
+     * Returns the names of the placeholders declared by this template (in order of first appearance).
+     *
+     * @return the names of the placeholders declared by this template
+     */
+    public List<String> getPlaceholderNames() {
+        return names;
+    }
+
+    /**
+     * Creates a specialization of this template. Values of numeric placeholders are specified as numbers
+     * ({@code int} and {@code long} placeholders only accept integral numbers), values of {@code String}
+     * placeholders as character sequences. The class placeholder is replaced by the specified class name.
+     * Specialized classes are added to the classloader of the compiler that created this template.
+     *
+     * @param className simple name of the specialized class
+     * @param values placeholder values by name
+     * @return compilation result that contains the specialized classes
+     */
+    public CompilationResult specialize(String className, Map<String, ?> values) {
+        if (!SourceVersion.isIdentifier(className) || SourceVersion.isKeyword(className)) {
+            throw new IllegalArgumentException("Invalid class name: " + className);
+        }
+
+        Object[] converted = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == PlaceholderType.CLASS) {
+                converted[i] = className;
+            } else if (!values.containsKey(names.get(i))) {
+                throw new IllegalArgumentException("No value specified for placeholder '" + names.get(i) + "'");
+            } else {
+                converted[i] = types[i].convert(names.get(i), values.get(names.get(i)));
+            }
+        }
+
+        if (templateClasses != null) {
+            try {
+                return patch(className, converted);
+            } catch (UTFDataFormatException ex) {
+                // value too long for a constant pool entry, compile from source
+            }
+        }
+
+        String source = render(i -> placeholderTypeAt(i).literal(converted[i]));
+        try {
+            CompilationUnitSource unit = new CompilationUnitSource(LangUtils.getClassNameFromCode(source), source);
+            return compiler.compile(Collections.singletonList(unit), compiler.getInMemoryClassLoader(), null, true);
+        } catch (URISyntaxException ex) {
+            throw new IllegalArgumentException("Invalid name specified", ex);
+        }
+    }
+
+    /**
+     * Creates the specialized classes by patching the template bytecode.
+     */
+    private CompilationResult patch(String className, Object[] values) throws UTFDataFormatException {
+        String templateClassName = (String) sentinels[0][placeholderIndex(classPlaceholder)];
+        InMemoryClassLoader loader = compiler.getInMemoryClassLoader();
+
+        List<CompiledClass> classes = new ArrayList<>(templateClasses.size());
+        List<CompiledClassFile> files = new ArrayList<>(templateClasses.size());
+        for (TemplateClass tc : templateClasses) {
+            byte[] byteCode = tc.specialize(templateClassName, className, values);
+            try {
+                CompiledClassFile file = new CompiledClassFile(loader, tc.name.replace(templateClassName, className));
+                try (OutputStream out = file.openOutputStream()) {
+                    out.write(byteCode);
+                }
+                files.add(file);
+                classes.add(new CompiledClass(file));
+            } catch (URISyntaxException | IOException ex) {
+                throw new CompilationException("Cannot create specialized class " + className, ex);
+            }
+        }
+
+        // only register classes once all of them have been created
+        files.forEach(loader::addCode);
+
+        // the main class is always the first class
+        String unitName = "/" + (packagePrefix + className).replace('.', '/') + ".java";
+        CompiledUnit unit = new CompiledUnit(unitName, classes, classes.get(0));
+
+        return new CompilationResult(Collections.singletonList(unit), Collections.emptyList(), true);
+    }
+
+    /**
+     * Compiles both template variants and determines the constant pool entries to patch.
+     */
+    private List<TemplateClass> analyze() throws NotPatchableException {
+        int classIndex = placeholderIndex(classPlaceholder);
+        String classNameA = (String) sentinels[0][classIndex];
+        String classNameB = (String) sentinels[1][classIndex];
+
+        CompiledUnit unitA = compileVariant(0);
+        CompiledUnit unitB = compileVariant(1);
+
+        String mainClassName = unitA.getMainClass().getClassName();
+        if (!mainClassName.endsWith(classNameA)) {
+            throw new NotPatchableException("Main type declaration does not use the class placeholder");
+        }
+        packagePrefix = mainClassName.substring(0, mainClassName.length() - classNameA.length());
+
+        if (unitA.getClasses().size() != unitB.getClasses().size()) {
+            throw new NotPatchableException("Template variants produce different numbers of classes");
+        }
+
+        Map<String, CompiledClass> classesB = new LinkedHashMap<>();
+        for (CompiledClass cc : unitB.getClasses()) {
+            classesB.put(cc.getClassName(), cc);
+        }
+
+        boolean[] used = new boolean[types.length];
+        used[classIndex] = true;
+
+        // main class first
+        List<CompiledClass> classesA = new ArrayList<>(unitA.getClasses());
+        classesA.remove(unitA.getMainClass());
+        classesA.add(0, unitA.getMainClass());
+
+        List<TemplateClass> result = new ArrayList<>();
+        for (CompiledClass ccA : classesA) {
+            if (!ccA.getClassName().contains(classNameA)) {
+                throw new NotPatchableException("Class '" + ccA.getClassName() + "' does not depend on the class placeholder");
+            }
+            CompiledClass ccB = classesB.get(ccA.getClassName().replace(classNameA, classNameB));
+            if (ccB == null) {
+                throw new NotPatchableException("Template variants produce different classes");
+            }
+            result.add(compare(ccA.getClassName(), ccA.getByteCode(), ccB.getByteCode(), classNameA, classNameB, used));
+        }
+
+        for (int i = 0; i < used.length; i++) {
+            if (!used[i]) {
+                throw new NotPatchableException("Placeholder '" + names.get(i)
+                    + "' has been folded into other constants or code");
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Compares the bytecode of both template variants of a class.
+     */
+    private TemplateClass compare(String name, byte[] byteCodeA, byte[] byteCodeB,
+                                  String classNameA, String classNameB, boolean[] used) throws NotPatchableException {
+        TemplateClass a = new TemplateClass(name, byteCodeA);
+        TemplateClass b = new TemplateClass(name, byteCodeB);
+
+        if (!Arrays.equals(a.header, b.header) || !Arrays.equals(a.rest, b.rest)
+            || a.pool.size() != b.pool.size()) {
+            throw new NotPatchableException("Placeholders in '" + name + "' affect code or class structure");
+        }
+
+        List<Integer> classSites = new ArrayList<>();
+        List<Integer> valueSites = new ArrayList<>();
+        List<Integer> valueSitePlaceholders = new ArrayList<>();
+
+        for (int i = 1; i < a.pool.size(); i++) {
+            if (a.pool.entryEquals(i, b.pool)) {
+                continue;
+            }
+            int tag = a.pool.getTag(i);
+            if (tag != b.pool.getTag(i)) {
+                throw new NotPatchableException("Placeholders in '" + name + "' affect the constant pool layout");
+            }
+
+            if (tag == ConstantPool.UTF8) {
+                String valueA = a.pool.getUtf8(i);
+                String valueB = b.pool.getUtf8(i);
+                if (valueA.contains(classNameA) && valueA.replace(classNameA, classNameB).equals(valueB)) {
+                    classSites.add(i);
+                    continue;
+                }
+            }
+
+            int placeholder = findSentinel(a.pool, b.pool, i, tag);
+            if (placeholder < 0) {
+                throw new NotPatchableException("Constant #" + i + " in '" + name
+                    + "' has been derived from placeholders");
+            }
+
+            used[placeholder] = true;
+            valueSites.add(i);
+            valueSitePlaceholders.add(placeholder);
+        }
+
+        a.classSites = classSites.stream().mapToInt(Integer::intValue).toArray();
+        a.classSiteValues = classSites.stream().map(a.pool::getUtf8).toArray(String[]::new);
+        a.valueSites = valueSites.stream().mapToInt(Integer::intValue).toArray();
+        a.valueSitePlaceholders = valueSitePlaceholders.stream().mapToInt(Integer::intValue).toArray();
+
+        return a;
+    }
+
+    /**
+     * Returns the index of the placeholder whose sentinels are stored in the specified entries.
+     * @return index of the placeholder or {@code -1} if the entries do not contain sentinels
+     */
+    private int findSentinel(ConstantPool a, ConstantPool b, int index, int tag) {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].tag == tag && types[i].read(a, index).equals(sentinels[0][i])
+                && types[i].read(b, index).equals(sentinels[1][i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compiles the specified template variant into a separate classloader.
+     */
+    private CompiledUnit compileVariant(int variant) throws NotPatchableException {
+        String source = render(i -> placeholderTypeAt(i).literal(sentinels[variant][i]));
+        CompilationResult result;
+        try {
+            CompilationUnitSource unit = new CompilationUnitSource(LangUtils.getClassNameFromCode(source), source);
+            result = compiler.compile(Collections.singletonList(unit),
+                new InMemoryClassLoader(compiler.getInMemoryClassLoader()), null, true);
+        } catch (URISyntaxException | CompilationException ex) {
+            throw new NotPatchableException("Template cannot be compiled: " + ex.getMessage());
+        }
+
+        if (!result.compilationSucceeded() || result.getCompiledUnits().size() != 1) {
+            throw new NotPatchableException("Template cannot be compiled with sentinel values: " + result.getMessage());
+        }
+
+        return result.getCompiledUnits().get(0);
+    }
+
+    /**
+     * Replaces all placeholders in the template code.
+     * @param literals literals by placeholder index
+     */
+    private String render(Function<Integer, String> literals) {
+        Matcher m = PLACEHOLDER.matcher(code);
+        StringBuffer sb = new StringBuffer(code.length());
+        while (m.find()) {
+            m.appendReplacement(sb, Matcher.quoteReplacement(literals.apply(names.indexOf(m.group(1)))));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    private int placeholderIndex(String name) {
+        return names.indexOf(name);
+    }
+
+    private PlaceholderType placeholderTypeAt(int index) {
+        return types[index];
+    }
+
+    /**
+     * Types of placeholders.
+     */
+    private enum PlaceholderType {
+        INT(ConstantPool.INTEGER),
+        LONG(ConstantPool.LONG),
+        FLOAT(ConstantPool.FLOAT),
+        DOUBLE(ConstantPool.DOUBLE),
+        STRING(ConstantPool.UTF8),
+        CLASS(ConstantPool.UTF8);
+
+        // constant pool tag of values of this type
+        private final int tag;
+
+        PlaceholderType(int tag) {
+            this.tag = tag;
+        }
+
+        String getName() {
+            return this == STRING ? "String" : name().toLowerCase(Locale.US);
+        }
+
+        /**
+         * Returns the sentinel value of the specified variant. Sentinels of numeric types are not representable
+         * as instruction operands and differ in sign between the variants.
+         */
+        Object sentinel(int variant, int index, String id) {
+            switch (this) {
+                case INT: return variant == 0 ? 0x5A5A0000 + index : -(0x5A5A0000 + index);
+                case LONG: return variant == 0 ? 0x5A5A5A5A00000000L + index : -(0x5A5A5A5A00000000L + index);
+                case FLOAT: return Float.intBitsToFloat((variant == 0 ? 0x4EB4B400 : 0xCEB4B400) + index);
+                case DOUBLE: return Double.longBitsToDouble((variant == 0 ? 0x41D6969600000000L : 0xC1D6969600000000L) + index);
+                case STRING: return "$jct$" + (variant == 0 ? "A" : "B") + "$" + index + "$" + id;
+                default: return "JctTemplate" + (variant == 0 ? "A" : "B") + id;
+            }
+        }
+
+        Object convert(String name, Object value) {
+            boolean integral = value instanceof Integer || value instanceof Short || value instanceof Byte;
+            switch (this) {
+                case INT:
+                    if (integral) return ((Number) value).intValue();
+                    break;
+                case LONG:
+                    if (integral || value instanceof Long) return ((Number) value).longValue();
+                    break;
+                case FLOAT:
+                    if (value instanceof Number) return ((Number) value).floatValue();
+                    break;
+                case DOUBLE:
+                    if (value instanceof Number) return ((Number) value).doubleValue();
+                    break;
+                case STRING:
+                    if (value instanceof CharSequence) return value.toString();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Class placeholder '" + name + "' is specified via class name");
+            }
+            throw new IllegalArgumentException("Invalid value for " + getName() + " placeholder '" + name + "': " + value);
+        }
+
+        Object read(ConstantPool pool, int index) {
+            switch (this) {
+                case INT: return pool.getInt(index);
+                case LONG: return pool.getLong(index);
+                case FLOAT: return pool.getFloat(index);
+                case DOUBLE: return pool.getDouble(index);
+                default: return pool.getUtf8(index);
+            }
+        }
+
+        void write(ConstantPool pool, int index, Object value) throws UTFDataFormatException {
+            switch (this) {
+                case INT: pool.setInt(index, (Integer) value); break;
+                case LONG: pool.setLong(index, (Long) value); break;
+                case FLOAT: pool.setFloat(index, (Float) value); break;
+                case DOUBLE: pool.setDouble(index, (Double) value); break;
+                default: pool.setUtf8(index, (String) value);
+            }
+        }
+
+        /**
+         * Returns the Java literal that represents the specified value.
+         */
+        String literal(Object value) {
+            switch (this) {
+                case INT:
+                    return (Integer) value < 0 ? "(" + value + ")" : value.toString();
+                case LONG:
+                    return (Long) value < 0 ? "(" + value + "L)" : value + "L";
+                case FLOAT: {
+                    float f = (Float) value;
+                    if (Float.isNaN(f)) return "Float.NaN";
+                    if (Float.isInfinite(f)) return f > 0 ? "Float.POSITIVE_INFINITY" : "Float.NEGATIVE_INFINITY";
+                    return Float.floatToRawIntBits(f) < 0 ? "(" + f + "f)" : f + "f";
+                }
+                case DOUBLE: {
+                    double d = (Double) value;
+                    if (Double.isNaN(d)) return "Double.NaN";
+                    if (Double.isInfinite(d)) return d > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+                    return Double.doubleToRawLongBits(d) < 0 ? "(" + d + "d)" : d + "d";
+                }
+                case STRING:
+                    return quote((String) value);
+                default:
+                    return value.toString();
+            }
+        }
+
+        private static String quote(String s) {
+            StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        // octal escapes, unicode escapes are translated before lexing
+                        if (c < 0x20 || c == 0x7F) {
+                            sb.append('\\').append(Integer.toOctalString(c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            return sb.append('"').toString();
+        }
+    }
+
+    /**
+     * Bytecode of a template class split into header, constant pool and the remaining class file.
+     */
+    private final class TemplateClass {
+        private final String name;
+        // magic and version
+        private final byte[] header = new byte[8];
+        private final ConstantPool pool;
+        // everything after the constant pool
+        private final byte[] rest;
+
+        // utf8 entries that contain the class name (and their values)
+        private int[] classSites;
+        private String[] classSiteValues;
+        // entries that contain placeholder values (and the corresponding placeholder indices)
+        private int[] valueSites;
+        private int[] valueSitePlaceholders;
+
+        TemplateClass(String name, byte[] byteCode) throws NotPatchableException {
+            this.name = name;
+            try {
+                ByteArrayInputStream bytes = new ByteArrayInputStream(byteCode);
+                DataInputStream in = new DataInputStream(bytes);
+                in.readFully(header);
+                this.pool = ConstantPool.read(in);
+                this.rest = bytes.readAllBytes();
+            } catch (IOException ex) {
+                throw new NotPatchableException("Cannot read class file '" + name + "': " + ex.getMessage());
+            }
+        }
+
+        byte[] specialize(String templateClassName, String className, Object[] values) throws UTFDataFormatException {
+            ConstantPool specialized = pool.copy();
+            for (int i = 0; i < classSites.length; i++) {
+                specialized.setUtf8(classSites[i], classSiteValues[i].replace(templateClassName, className));
+            }
+            for (int i = 0; i < valueSites.length; i++) {
+                int placeholder = valueSitePlaceholders[i];
+                placeholderTypeAt(placeholder).write(specialized, valueSites[i], values[placeholder]);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(header.length + rest.length + 64 * pool.size());
+            try {
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.write(header);
+                specialized.write(out);
+                out.write(rest);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Indicates that the bytecode of a template cannot be patched safely.
+     */
+    private static final class NotPatchableException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        NotPatchableException(String msg) {
+            super(msg);
+        }
+    }
+}
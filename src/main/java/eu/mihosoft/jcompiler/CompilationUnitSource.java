@@ -18,16 +18,39 @@
 package eu.mihosoft.jcompiler;
 
 import javax.tools.SimpleJavaFileObject;
+import java.io.CharArrayReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 /**
- * Represents source code of a compilation unit.
+ * Represents source code of a compilation unit. The code is either kept as string/char buffer or decoded on demand
+ * from a byte buffer or a memory-mapped file (decoded text is not retained).
  */
 /*pkg private*/ final class CompilationUnitSource extends SimpleJavaFileObject {
-	private String contents = null;
+	private final Content contents;
 	private String className;
+	private final long length;
+
+	/**
+	 * Provides the content of a compilation unit.
+	 */
+	@FunctionalInterface
+	private interface Content {
+		CharSequence read(boolean ignoreEncodingErrors) throws IOException;
+	}
 
 	/**
 	 * Creates a new instance of this class.
@@ -36,10 +59,94 @@ import java.net.URISyntaxException;
 	 * @throws URISyntaxException if the classname is invalid
 	 */
 	/*pkg private*/ CompilationUnitSource(String className, String contents) throws URISyntaxException {
+		this(className, ignoreEncodingErrors -> contents, contents.length());
+	}
+
+	private CompilationUnitSource(String className, Content contents, long length) {
 		super(URI.create("string:///" + className.replace('.', '/')
 				+ Kind.SOURCE.extension), Kind.SOURCE);
 		this.contents = contents;
 		this.className = className;
+		this.length = length;
+	}
+
+	/**
+	 * Creates a compilation unit backed by the specified chars. The buffer is not copied, i.e., it must not be
+	 * modified until compilation has finished.
+	 * @param className classname
+	 * @param chars code of this compilation unit (from position to limit)
+	 * @return compilation unit
+	 */
+	/*pkg private*/ static CompilationUnitSource fromChars(String className, CharBuffer chars) {
+		// javac accesses the backing array of writable heap buffers directly (ignoring offset and position)
+		final CharBuffer buffer = chars.hasArray() && chars.arrayOffset() == 0 && chars.position() == 0
+			? chars.duplicate() : chars.slice().asReadOnlyBuffer();
+		return new CompilationUnitSource(className, ignoreEncodingErrors -> buffer.duplicate(), buffer.remaining());
+	}
+
+	/**
+	 * Creates a compilation unit backed by the specified bytes. The bytes are decoded whenever the compiler
+	 * requests the content. The buffer is not copied, i.e., it must not be modified until compilation has finished.
+	 * @param className classname
+	 * @param bytes encoded code of this compilation unit (from position to limit)
+	 * @param charset charset of the code
+	 * @return compilation unit
+	 */
+	/*pkg private*/ static CompilationUnitSource fromBytes(String className, ByteBuffer bytes, Charset charset) {
+		final ByteBuffer buffer = bytes.slice().asReadOnlyBuffer();
+		return new CompilationUnitSource(className,
+			ignoreEncodingErrors -> decode(buffer.duplicate(), charset, ignoreEncodingErrors), buffer.remaining());
+	}
+
+	/**
+	 * Creates a compilation unit backed by the specified file. The file is memory-mapped and decoded whenever the
+	 * compiler requests the content.
+	 * @param className classname
+	 * @param file source file
+	 * @param charset charset of the code
+	 * @return compilation unit
+	 * @throws IOException if the file cannot be accessed
+	 */
+	/*pkg private*/ static CompilationUnitSource fromFile(String className, Path file, Charset charset) throws IOException {
+		return new CompilationUnitSource(className, ignoreEncodingErrors -> {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				// mapping stays valid after the channel has been closed
+				return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), charset, ignoreEncodingErrors);
+			}
+		}, Files.size(file));
+	}
+
+	/**
+	 * Creates a compilation unit from the specified reader. The reader is consumed and closed by this method. The
+	 * code is kept in a char array of the exact length of the code.
+	 * @param className classname
+	 * @param reader reader providing the code
+	 * @return compilation unit
+	 * @throws IOException if the reader cannot be read
+	 */
+	/*pkg private*/ static CompilationUnitSource fromReader(String className, Reader reader) throws IOException {
+		char[] chars = new char[8192];
+		int length = 0;
+		try (Reader r = reader) {
+			int n;
+			while ((n = r.read(chars, length, chars.length - length)) >= 0) {
+				length += n;
+				if (length == chars.length) {
+					chars = Arrays.copyOf(chars, chars.length * 2);
+				}
+			}
+		}
+		// the unit is kept for subsequent compilations, the unused capacity of the read buffer is not
+		if(length < chars.length) {
+			chars = Arrays.copyOf(chars, length);
+		}
+		return fromChars(className, CharBuffer.wrap(chars));
+	}
+
+	private static CharBuffer decode(ByteBuffer bytes, Charset charset, boolean ignoreEncodingErrors) throws IOException {
+		CodingErrorAction action = ignoreEncodingErrors ? CodingErrorAction.REPLACE : CodingErrorAction.REPORT;
+		CharsetDecoder decoder = charset.newDecoder().onMalformedInput(action).onUnmappableCharacter(action);
+		return decoder.decode(bytes);
 	}
 
 	/**
@@ -50,9 +157,27 @@ import java.net.URISyntaxException;
 		return className;
 	}
 
+	/**
+	 * Returns the length of this compilation unit (chars or bytes for encoded content).
+	 * @return the length of this compilation unit
+	 */
+	/*pkg private*/ long getLength() {
+		return length;
+	}
+
 	@Override
-	public String getCharContent(boolean ignoreEncodingErrors)
+	public CharSequence getCharContent(boolean ignoreEncodingErrors)
 			throws IOException {
-		return contents;
+		return contents.read(ignoreEncodingErrors);
+	}
+
+	@Override
+	public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+		CharSequence content = getCharContent(ignoreEncodingErrors);
+		if (content instanceof CharBuffer && ((CharBuffer) content).hasArray()) {
+			CharBuffer buffer = (CharBuffer) content;
+			return new CharArrayReader(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}
+		return new StringReader(content.toString());
 	}
 }
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident compiler process that accepts compile requests via a local TCP socket (see {@link CompileDaemonClient}).
+ * Short-lived JVMs (e.g. command line tools) can use the daemon to avoid loading and warming up the compiler for
+ * each run. Each request is compiled by a new {@link JCompiler}, i.e., requests do not share classes.
+ *
+ * The daemon compiles code for any process that can connect to it. It therefore binds to the loopback address
+ * unless a shared secret is specified that clients send before their requests (see
+ * {@link CompileDaemonClient#setSecret(String)}). Annotation processing is disabled and only options that cannot
+ * load code into the daemon are accepted (e.g. {@code -Xplugin:}, {@code -processorpath} and {@code -J} options are
+ * rejected). Connections are handled by a bounded number of threads. The daemon can be started from the command
+ * line:
+ *
+ * <pre>
+ * java -cp jcompiler.jar eu.mihosoft.jcompiler.CompileDaemon [port] [bindAddress]
+ * </pre>
+ */
+public final class CompileDaemon implements Closeable {
+
+    /**
+     * Default port of the daemon.
+     */
+    public static final int DEFAULT_PORT = 8091;
+
+    // environment variable that provides the secret of daemons started from the command line
+    private static final String SECRET_VARIABLE = "JCOMPILER_DAEMON_SECRET";
+    private static final int MAX_SECRET_SIZE = 1024;
+    // connections without requests are closed after this period
+    private static final int IDLE_TIMEOUT_MILLIS = 60_000;
+
+    // options without argument accepted from clients (and prefixes of accepted options)
+    private static final Set<String> FLAG_OPTIONS = new HashSet<>(Arrays.asList(
+        "-g", "-nowarn", "-deprecation", "-parameters", "-Werror", "--enable-preview", "-proc:none"));
+    private static final List<String> FLAG_PREFIXES = Arrays.asList("-g:", "-Xlint", "-Xdiags:", "-implicit:");
+    // options with argument accepted from clients
+    private static final Set<String> ARGUMENT_OPTIONS = new HashSet<>(Arrays.asList(
+        "-source", "--source", "-target", "--target", "--release", "-encoding", "-classpath", "-cp", "--class-path",
+        "-Xmaxerrs", "-Xmaxwarns"));
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    // secret clients send before their requests (may be null for loopback daemons)
+    private final byte[] secret;
+    private volatile boolean closed;
+
+    private CompileDaemon(InetSocketAddress address, String secret) throws IOException {
+        if (secret != null && secret.isEmpty()) {
+            throw new IllegalArgumentException("Secret must not be empty");
+        }
+        if (secret == null && (address.getAddress() == null || !address.getAddress().isLoopbackAddress())) {
+            throw new IllegalArgumentException("Daemons that are reachable from other hosts require a secret: " + address);
+        }
+        this.secret = secret == null ? null : secret.getBytes(StandardCharsets.UTF_8);
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(address);
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        // connections that exceed the capacity of the queue are closed
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads * 4), r -> {
+                Thread t = new Thread(r, "jcompiler-daemon");
+                t.setDaemon(true);
+                return t;
+            });
+        warmUp();
+        Thread acceptor = new Thread(this::acceptConnections, "jcompiler-daemon-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Starts a daemon on the specified loopback address. Requests are accepted from every local process.
+     *
+     * @param address loopback address to bind to (port 0 selects a free port)
+     * @return the started daemon
+     * @throws IOException if the daemon cannot be started
+     * @throws IllegalArgumentException if the address is not a loopback address
+     */
+    public static CompileDaemon start(InetSocketAddress address) throws IOException {
+        return new CompileDaemon(address, null);
+    }
+
+    /**
+     * Starts a daemon on the specified address. Requests are only accepted from clients that send the specified
+     * secret (see {@link CompileDaemonClient#setSecret(String)}).
+     *
+     * @param address address to bind to (port 0 selects a free port)
+     * @param secret secret required to compile
+     * @return the started daemon
+     * @throws IOException if the daemon cannot be started
+     */
+    public static CompileDaemon start(InetSocketAddress address, String secret) throws IOException {
+        Objects.requireNonNull(secret, "Secret must not be null");
+        return new CompileDaemon(address, secret);
+    }
+
+    /**
+     * Starts a daemon on the loopback address.
+     *
+     * @param port port to bind to (0 selects a free port)
+     * @return the started daemon
+     * @throws IOException if the daemon cannot be started
+     */
+    public static CompileDaemon start(int port) throws IOException {
+        return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * @return the address of this daemon
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * Stops this daemon. Running compilations are not interrupted but their results are not delivered.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Loads and warms up the compiler (the first compilations of a JVM are significantly slower).
+     */
+    private static void warmUp() {
+        for (int i = 0; i < 3; i++) {
+            JCompiler.newInstance().compile("package warmup; public class WarmUp" + i
+                + " { java.util.List<String> l = new java.util.ArrayList<>(); int f() { return l.size(); } }");
+        }
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException ex) {
+                if (closed) return;
+                continue;
+            }
+            try {
+                executor.execute(() -> handle(socket));
+            } catch (RejectedExecutionException ex) {
+                // too many connections or daemon closed
+                try {
+                    socket.close();
+                } catch (IOException closeEx) {
+                    // connection is dropped anyway
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            // unauthorized clients cannot send large frames
+            if (secret != null && !isAuthorized(CompilationCodec.readFrame(in, MAX_SECRET_SIZE))) {
+                CompilationCodec.writeFrame(out, CompilationCodec.FRAME_ERROR,
+                    "Missing or invalid secret".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            // connections may be used for several requests
+            CompilationCodec.Frame frame;
+            while ((frame = CompilationCodec.readFrame(in)) != null) {
+                if (frame.type != CompilationCodec.FRAME_REQUEST) {
+                    throw new IOException("Unexpected frame type: " + frame.type);
+                }
+                try {
+                    CompilationCodec.writeFrame(out, CompilationCodec.FRAME_RESULT, compile(frame.payload, true));
+                } catch (IOException | RuntimeException ex) {
+                    String msg = ex.getClass().getName() + ": " + ex.getMessage();
+                    CompilationCodec.writeFrame(out, CompilationCodec.FRAME_ERROR, msg.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        } catch (SocketException | SocketTimeoutException ex) {
+            // connection closed by client or daemon, or idle
+        } catch (IOException ex) {
+            // malformed request, the connection is dropped
+        }
+    }
+
+    private boolean isAuthorized(CompilationCodec.Frame frame) {
+        // constant time comparison
+        return frame != null && frame.type == CompilationCodec.FRAME_SECRET
+            && MessageDigest.isEqual(secret, frame.payload);
+    }
+
+    /**
+     * Compiles the specified request.
+     *
+     * @param request binary representation of the request
+     * @param restricted determines whether only options that cannot load code into this process are accepted
+     * @return binary representation of the result
+     * @throws IOException if the request is malformed
+     * @throws IllegalArgumentException if the request contains options that are not accepted
+     */
+    /*pkg private*/ static byte[] compile(byte[] request, boolean restricted) throws IOException {
+        List<String> options = new ArrayList<>();
+        Map<String, String> sources = new LinkedHashMap<>();
+        CompilationCodec.RequestSettings settings = CompilationCodec.decodeRequest(request, options, sources);
+        if (restricted) {
+            checkOptions(options);
+        }
+
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setOptions(options.toArray(new String[0]));
+        sources.forEach(compiler::addSource);
+        if (settings != null) {
+            compiler.setFailFast(settings.maxErrors);
+            if (settings.timeoutMillis > 0) {
+                compiler.setTimeout(Duration.ofMillis(settings.timeoutMillis));
+            }
+            // classes of previous compilations of the sender are visible to this compilation
+            InMemoryClassLoader loader = (InMemoryClassLoader) compiler.getClassloader();
+            for (Map.Entry<String, byte[]> cls : settings.classes.entrySet()) {
+                CompiledClassFile file;
+                try {
+                    file = new CompiledClassFile(loader, cls.getKey());
+                } catch (URISyntaxException ex) {
+                    throw new IOException("Illegal class name " + cls.getKey(), ex);
+                }
+                file.setByteCode(cls.getValue());
+                loader.addCode(file);
+            }
+        }
+
+        return CompilationCodec.encode(compiler.compileAll());
+    }
+
+    /**
+     * Checks that the specified options only contain options that cannot load code into this process (e.g.
+     * {@code -Xplugin:}, {@code -processorpath} or {@code -J} options).
+     *
+     * @param options compiler options
+     * @throws IllegalArgumentException if an option is not accepted
+     */
+    /*pkg private*/ static void checkOptions(List<String> options) {
+        for (int i = 0; i < options.size(); i++) {
+            String option = options.get(i);
+            if (option == null) {
+                throw new IllegalArgumentException("Option must not be null");
+            }
+            if (FLAG_OPTIONS.contains(option) || FLAG_PREFIXES.stream().anyMatch(option::startsWith)) {
+                continue;
+            }
+            int eq = option.indexOf('=');
+            if (eq > 0 && option.startsWith("--") && ARGUMENT_OPTIONS.contains(option.substring(0, eq))) {
+                continue;
+            }
+            if (ARGUMENT_OPTIONS.contains(option) && i + 1 < options.size() && options.get(i + 1) != null) {
+                // the argument is skipped
+                i++;
+                continue;
+            }
+            throw new IllegalArgumentException("Option not accepted by compile daemon: " + option);
+        }
+    }
+
+    /**
+     * Starts a daemon. The daemon binds to the loopback address unless a bind address is specified. Daemons bound
+     * to other addresses require a secret (environment variable {@code JCOMPILER_DAEMON_SECRET}).
+     *
+     * @param args optional port (default {@value #DEFAULT_PORT}) and bind address
+     * @throws IOException if the daemon cannot be started
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        InetAddress bindAddress = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        String secret = System.getenv(SECRET_VARIABLE);
+        CompileDaemon daemon;
+        try {
+            daemon = new CompileDaemon(new InetSocketAddress(bindAddress, port),
+                secret == null || secret.isEmpty() ? null : secret);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage() + " (set " + SECRET_VARIABLE + ")");
+            System.exit(1);
+            return;
+        }
+        System.out.println("Compile daemon listening on " + daemon.getAddress());
+        // daemon threads do not keep the JVM alive
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thin client of a {@link CompileDaemon}. Sources are compiled by the daemon if it is reachable and in-process
+ * otherwise (the compiler is only loaded if necessary). In both cases compiled classes are loaded via
+ * {@link #getClassloader()}.
+ *
+ * Unless the options specify a classpath, the classpath of this JVM is sent to the daemon.
+ */
+public final class CompileDaemonClient {
+
+    private final InetSocketAddress address;
+    private Duration connectTimeout = Duration.ofMillis(200);
+    private Duration timeout = Duration.ofMinutes(1);
+    private List<String> options = Collections.emptyList();
+    // secret sent to the daemon before requests (may be null)
+    private byte[] secret;
+    private final Map<String, String> sources = new LinkedHashMap<>();
+    private final InMemoryClassLoader classLoader = new InMemoryClassLoader(ClassLoader.getSystemClassLoader());
+    private boolean lastCompilationRemote;
+
+    private CompileDaemonClient(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Creates a client of the daemon on the loopback address (default port).
+     *
+     * @return a new client
+     */
+    public static CompileDaemonClient newInstance() {
+        return newInstance(new InetSocketAddress(InetAddress.getLoopbackAddress(), CompileDaemon.DEFAULT_PORT));
+    }
+
+    /**
+     * Creates a client of the daemon with the specified address.
+     *
+     * @param address address of the daemon
+     * @return a new client
+     */
+    public static CompileDaemonClient newInstance(InetSocketAddress address) {
+        return new CompileDaemonClient(address);
+    }
+
+    /**
+     * Specifies the timeout for connecting to the daemon (default 200ms). If the daemon is not reachable within this
+     * timeout, sources are compiled in-process.
+     *
+     * @param connectTimeout connect timeout
+     * @return this client
+     */
+    public CompileDaemonClient setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = positive(connectTimeout);
+        return this;
+    }
+
+    /**
+     * Specifies the maximum duration of a remote compilation (default 1 minute). If the daemon does not respond
+     * within this timeout, sources are compiled in-process.
+     *
+     * @param timeout timeout of remote compilations
+     * @return this client
+     */
+    public CompileDaemonClient setTimeout(Duration timeout) {
+        this.timeout = positive(timeout);
+        return this;
+    }
+
+    private static Duration positive(Duration d) {
+        if (d == null || d.isNegative() || d.isZero() || d.toMillis() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Timeout must be positive: " + d);
+        }
+        return d;
+    }
+
+    /**
+     * Specifies the secret of the daemon (see {@link CompileDaemon#start(InetSocketAddress, String)}).
+     *
+     * @param secret secret of the daemon ({@code null} for daemons without secret)
+     * @return this client
+     */
+    public CompileDaemonClient setSecret(String secret) {
+        this.secret = secret == null ? null : secret.getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * Specifies compiler options (see {@link JCompiler#setOptions(String...)}). The daemon rejects options that
+     * could load code into its process (e.g. {@code -Xplugin:}), such requests are compiled in-process.
+     *
+     * @param options compiler options
+     * @return this client
+     */
+    public CompileDaemonClient setOptions(String... options) {
+        this.options = Arrays.asList(options);
+        return this;
+    }
+
+    /**
+     * Add source code to the client.
+     *
+     * @param compilationUnitName name of the compilation unit (e.g. 'my.pkg.MyClass')
+     * @param sourceCode          code to compile
+     * @return this client
+     */
+    public CompileDaemonClient addSource(String compilationUnitName, String sourceCode) {
+        sources.put(compilationUnitName, sourceCode);
+        return this;
+    }
+
+    /**
+     * Add source code to the client. The name of the compilation unit is inferred from the code.
+     *
+     * @param sourceCode code to compile
+     * @return this client
+     */
+    public CompileDaemonClient addSource(String sourceCode) {
+        return addSource(JCompiler.inferName(sourceCode), sourceCode);
+    }
+
+    /**
+     * @return the classloader used to load the compiled classes
+     */
+    public ClassLoader getClassloader() {
+        return classLoader;
+    }
+
+    /**
+     * @return {@code true} if the last compilation has been performed by the daemon; {@code false} otherwise
+     */
+    public boolean isLastCompilationRemote() {
+        return lastCompilationRemote;
+    }
+
+    /**
+     * Compiles all sources (by the daemon if possible).
+     *
+     * @return compilation result (compiled classes, warnings and errors)
+     */
+    public CompilationResult compileAll() {
+        if (sources.isEmpty()) {
+            throw new CompilationException("No source code to compile");
+        }
+
+        try {
+            CompilationResult result = compileRemote();
+            lastCompilationRemote = true;
+            return result;
+        } catch (IOException ex) {
+            // daemon not running or failed, compile in-process
+            lastCompilationRemote = false;
+            return compileLocal();
+        }
+    }
+
+    private CompilationResult compileRemote() throws IOException {
+        List<String> remoteOptions = new ArrayList<>(options);
+        if (!options.contains("-classpath") && !options.contains("-cp") && !options.contains("--class-path")) {
+            remoteOptions.add("-classpath");
+            remoteOptions.add(System.getProperty("java.class.path", ""));
+        }
+        byte[] request = CompilationCodec.encodeRequest(remoteOptions, sources);
+
+        try (Socket socket = new Socket()) {
+            socket.connect(address, (int) connectTimeout.toMillis());
+            socket.setSoTimeout((int) timeout.toMillis());
+            socket.setTcpNoDelay(true);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            if (secret != null) {
+                CompilationCodec.writeFrame(out, CompilationCodec.FRAME_SECRET, secret);
+            }
+            CompilationCodec.writeFrame(out, CompilationCodec.FRAME_REQUEST, request);
+            CompilationCodec.Frame response = CompilationCodec.readFrame(in);
+
+            if (response == null) {
+                throw new IOException("Connection closed by daemon");
+            } else if (response.type == CompilationCodec.FRAME_ERROR) {
+                throw new IOException("Daemon failed: " + new String(response.payload, StandardCharsets.UTF_8));
+            } else if (response.type != CompilationCodec.FRAME_RESULT) {
+                throw new IOException("Unexpected frame type: " + response.type);
+            }
+
+            return CompilationCodec.decode(response.payload, classLoader);
+        }
+    }
+
+    private CompilationResult compileLocal() {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setOptions(options.toArray(new String[0]));
+        Collection<CompilationUnitSource> units = new ArrayList<>();
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            try {
+                units.add(new CompilationUnitSource(source.getKey(), source.getValue()));
+            } catch (URISyntaxException ex) {
+                throw new IllegalArgumentException("Invalid name specified", ex);
+            }
+        }
+        return compiler.compile(units, classLoader, null, true);
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Compiles a stream of sources (see {@link Flow}). Sources received from the upstream publisher are compiled in
+ * batches, each batch is published as one {@link CompilationResult} (use {@link CompilationResult#loadClasses()}
+ * to obtain the loaded classes). Batches are only compiled if the subscriber has requested results, sources that
+ * arrived in the meantime are combined into the next batch. The number of concurrent compilations and buffered
+ * sources is bounded, i.e., the upstream publisher is only asked for more sources if there is capacity left.
+ *
+ * <p>Results are published in completion order. Failed compilations are published as results, including sources
+ * that cannot be added to a compiler (e.g. sources without type declaration) and exceptions thrown by the compiler.
+ * Errors thrown by the compiler (e.g. {@link StackOverflowError}) terminate the pipeline via {@code onError}. Sources that declare the same compilation unit are compiled in different batches. A pipeline accepts a single
+ * subscriber.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * CompilePipeline pipeline = CompilePipeline.newInstance(JCompiler::newInstance);
+ * pipeline.setMaxInFlight(2);
+ * sourcePublisher.subscribe(pipeline);
+ * pipeline.subscribe(resultSubscriber);
+ * </pre>
+ */
+public final class CompilePipeline implements Flow.Processor<String, CompilationResult> {
+
+    // creates a compiler per batch
+    private final Supplier<JCompiler> compilerFactory;
+    private Executor executor = ForkJoinPool.commonPool();
+    private int maxBatchSize = 32;
+    private int maxInFlight = 1;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // number of pending drain requests (only one thread drains at a time)
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private Flow.Subscription upstream;
+    // subscriber (set once it has received its subscription)
+    private Flow.Subscriber<? super CompilationResult> downstream;
+    private boolean subscribed;
+    // sources received but not compiled yet
+    private final ArrayDeque<Source> pending = new ArrayDeque<>();
+    // results compiled but not published yet
+    private final ArrayDeque<CompilationResult> ready = new ArrayDeque<>();
+    // sources requested from upstream but not received yet
+    private long upstreamRequested;
+    // results requested by the subscriber but not published yet
+    private long requested;
+    private int inFlight;
+    private boolean upstreamDone;
+    private Throwable error;
+    private boolean cancelled;
+    private boolean terminated;
+
+    private CompilePipeline(Supplier<JCompiler> compilerFactory) {
+        this.compilerFactory = Objects.requireNonNull(compilerFactory, "Compiler factory must not be null");
+    }
+
+    /**
+     * Creates a new pipeline.
+     *
+     * @param compilerFactory creates the compiler of each batch (compilers may be configured, e.g., with options)
+     * @return a new pipeline
+     */
+    public static CompilePipeline newInstance(Supplier<JCompiler> compilerFactory) {
+        return new CompilePipeline(compilerFactory);
+    }
+
+    /**
+     * Specifies the executor that runs the compilations (default: common pool). Must be specified before the
+     * pipeline is subscribed.
+     *
+     * @param executor executor that runs the compilations
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "Executor must not be null");
+    }
+
+    /**
+     * Specifies the maximum number of sources compiled as one batch (default: 32).
+     *
+     * @param maxBatchSize maximum number of sources per batch
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Specifies the maximum number of concurrent compilations (default: 1). At most
+     * {@code maxInFlight * maxBatchSize} sources are buffered.
+     *
+     * @param maxInFlight maximum number of concurrent compilations
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Number of concurrent compilations must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        lock.lock();
+        try {
+            if (upstream != null || cancelled) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(String code) {
+        Objects.requireNonNull(code);
+        // names are inferred before the lock is acquired
+        Source source = new Source(code);
+        lock.lock();
+        try {
+            if (cancelled || upstreamDone) {
+                return;
+            }
+            upstreamRequested--;
+            pending.add(source);
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        Objects.requireNonNull(throwable);
+        lock.lock();
+        try {
+            if (upstreamDone) {
+                return;
+            }
+            upstreamDone = true;
+            // buffered sources are discarded, running compilations are published
+            pending.clear();
+            error = throwable;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        lock.lock();
+        try {
+            upstreamDone = true;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CompilationResult> subscriber) {
+        Objects.requireNonNull(subscriber);
+        boolean accepted;
+        lock.lock();
+        try {
+            accepted = !subscribed;
+            subscribed = true;
+        } finally {
+            lock.unlock();
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    // rejected subscriber
+                }
+
+                @Override
+                public void cancel() {
+                    // rejected subscriber
+                }
+            });
+            subscriber.onError(new IllegalStateException("Pipeline accepts a single subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                lock.lock();
+                try {
+                    if (n <= 0) {
+                        error = new IllegalArgumentException("Number of requested results must be positive: " + n);
+                        cancelUpstream();
+                    } else {
+                        requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                lock.lock();
+                try {
+                    terminated = true;
+                    cancelUpstream();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        lock.lock();
+        try {
+            downstream = subscriber;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * Returns the number of running compilations.
+     *
+     * @return number of running compilations
+     */
+    public int getInFlightCount() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // must be called while holding the lock
+    private void cancelUpstream() {
+        cancelled = true;
+        upstreamDone = true;
+        pending.clear();
+        ready.clear();
+        if (upstream != null) {
+            upstream.cancel();
+        }
+    }
+
+    /**
+     * Publishes ready results, starts batches and requests sources as permitted by the demand of the subscriber
+     * and the capacity of this pipeline. Only one thread drains at a time, signals are therefore serialized.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (true) {
+                CompilationResult result = null;
+                List<Source> batch = null;
+                long upstreamRequest = 0;
+                Throwable terminalError = null;
+                boolean complete = false;
+                Flow.Subscriber<? super CompilationResult> subscriber;
+                Flow.Subscription subscription;
+
+                lock.lock();
+                try {
+                    subscriber = downstream;
+                    subscription = upstream;
+                    if (subscriber == null || terminated) {
+                        break;
+                    }
+                    if (requested > 0 && !ready.isEmpty()) {
+                        result = ready.poll();
+                        requested--;
+                    } else if (error != null && (cancelled || inFlight == 0)) {
+                        terminalError = error;
+                        terminated = true;
+                    } else if (!cancelled && inFlight < maxInFlight && !pending.isEmpty()
+                            && requested - ready.size() - inFlight > 0) {
+                        batch = new ArrayList<>(Math.min(pending.size(), maxBatchSize));
+                        // a unit that has already been added to the batch is compiled with the next batch
+                        Set<String> names = new HashSet<>();
+                        while (batch.size() < maxBatchSize && !pending.isEmpty()
+                                && (pending.peek().name == null || names.add(pending.peek().name))) {
+                            batch.add(pending.poll());
+                        }
+                        inFlight++;
+                    } else if (upstreamDone && !cancelled && pending.isEmpty() && inFlight == 0 && ready.isEmpty()) {
+                        complete = true;
+                        terminated = true;
+                    } else if (subscription != null && !upstreamDone) {
+                        long capacity = (long) maxInFlight * maxBatchSize;
+                        upstreamRequest = capacity - pending.size() - upstreamRequested;
+                        if (upstreamRequest <= 0) {
+                            break;
+                        }
+                        upstreamRequested += upstreamRequest;
+                    } else {
+                        break;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                // signals are delivered without holding the lock
+                if (result != null) {
+                    subscriber.onNext(result);
+                } else if (terminalError != null) {
+                    subscriber.onError(terminalError);
+                } else if (batch != null) {
+                    start(batch);
+                } else if (complete) {
+                    subscriber.onComplete();
+                } else {
+                    subscription.request(upstreamRequest);
+                }
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private void start(List<Source> batch) {
+        try {
+            executor.execute(() -> compile(batch));
+        } catch (RuntimeException ex) {
+            finish(null, ex);
+        }
+    }
+
+    private void compile(List<Source> batch) {
+        List<Diagnostic<? extends JavaFileObject>> rejected = new ArrayList<>();
+        CompilationResult result = null;
+        try {
+            JCompiler compiler = compilerFactory.get();
+            for (Source source : batch) {
+                if (source.failure != null) {
+                    rejected.add(error(source.failure));
+                } else {
+                    compiler.addSource(source.name, source.code);
+                }
+            }
+            if (rejected.size() < batch.size()) {
+                result = compiler.compileAll();
+            }
+        } catch (RuntimeException ex) {
+            // the pipeline continues with the next batch
+            rejected.add(error(ex));
+        } catch (Throwable ex) {
+            // errors (e.g. StackOverflowError) terminate the pipeline, the batch must not stall it
+            finish(null, ex);
+            return;
+        }
+        if (result == null) {
+            result = new CompilationResult(Collections.emptyList(), rejected, false);
+        } else if (!rejected.isEmpty()) {
+            List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>(rejected);
+            diagnostics.addAll(result.getDiagnostics());
+            result = new CompilationResult(result.getCompiledUnits(), diagnostics, false, result.getOutcome());
+        }
+        finish(result, null);
+    }
+
+    private static Diagnostic<? extends JavaFileObject> error(RuntimeException ex) {
+        return new SimpleDiagnostic(Diagnostic.Kind.ERROR, null, Diagnostic.NOPOS, Diagnostic.NOPOS, Diagnostic.NOPOS,
+            Diagnostic.NOPOS, Diagnostic.NOPOS, null, String.valueOf(ex.getMessage()));
+    }
+
+    private void finish(CompilationResult result, Throwable failure) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (failure != null) {
+                if (error == null) {
+                    error = failure;
+                }
+                cancelUpstream();
+            } else if (!cancelled) {
+                ready.add(result);
+            }
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * Source received from upstream.
+     */
+    private static final class Source {
+        private final String code;
+        // name of the compilation unit (null if it cannot be inferred)
+        private final String name;
+        private final RuntimeException failure;
+
+        private Source(String code) {
+            this.code = code;
+            String inferred = null;
+            RuntimeException inferenceFailure = null;
+            try {
+                inferred = JCompiler.inferName(code);
+            } catch (RuntimeException ex) {
+                inferenceFailure = ex;
+            }
+            this.name = inferred;
+            this.failure = inferenceFailure;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+/**
+ * Priority class of a scheduled compilation (see {@link CompileScheduler}).
+ */
+public enum CompilePriority {
+
+    /**
+     * Compilations a user is waiting for (e.g. diagnostics shown by an editor).
+     */
+    INTERACTIVE,
+
+    /**
+     * Regular compilations.
+     */
+    NORMAL,
+
+    /**
+     * Batch compilations without latency requirements (e.g. nightly code generation).
+     */
+    BACKGROUND
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Schedules compilations by priority. Each priority class has a bounded queue. Compile threads dequeue with
+ * weighted fair scheduling, i.e., higher priority classes are served more often without starving lower
+ * priority classes. If a queue is full, submissions are rejected with a {@link CompilationRejectedException}
+ * or wait for free capacity (backpressure).
+ *
+ * <p>Results of scheduled compilations report the time spent in the queue separately from the compile time
+ * (see {@link CompilationResult#getQueueWaitTime()}).</p>
+ *
+ * <p>Compilers are not thread-safe, i.e., a compiler must not be submitted again before its previous
+ * compilation has completed.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * CompileScheduler scheduler = CompileScheduler.newInstance(2);
+ * CompletableFuture&lt;CompilationResult&gt; result = scheduler.submit(CompilePriority.INTERACTIVE, compiler);
+ * </pre>
+ */
+public final class CompileScheduler implements Closeable {
+
+    private static final CompilePriority[] PRIORITIES = CompilePriority.values();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // signalled when a task has been queued or the scheduler has been closed
+    private final Condition notEmpty = lock.newCondition();
+    // signalled when a task has been dequeued
+    private final Condition notFull = lock.newCondition();
+
+    private final Map<CompilePriority, ArrayDeque<Task>> queues = new EnumMap<>(CompilePriority.class);
+    private final int[] capacities = new int[PRIORITIES.length];
+    private final int[] weights = new int[PRIORITIES.length];
+    // current weights of the smooth weighted round robin
+    private final int[] currentWeights = new int[PRIORITIES.length];
+    private final long[] rejected = new long[PRIORITIES.length];
+    private final List<Thread> threads = new ArrayList<>();
+    private boolean closed;
+
+    private CompileScheduler(int threadCount) {
+        for (CompilePriority p : PRIORITIES) {
+            queues.put(p, new ArrayDeque<>());
+            capacities[p.ordinal()] = 64;
+        }
+        weights[CompilePriority.INTERACTIVE.ordinal()] = 8;
+        weights[CompilePriority.NORMAL.ordinal()] = 3;
+        weights[CompilePriority.BACKGROUND.ordinal()] = 1;
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread t = new Thread(this::run, "jcompiler-scheduler-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+        }
+        threads.forEach(Thread::start);
+    }
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param threads number of concurrent compilations
+     * @return a new scheduler
+     */
+    public static CompileScheduler newInstance(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+        return new CompileScheduler(threads);
+    }
+
+    /**
+     * Specifies the maximum number of queued compilations of the specified priority class (default: 64).
+     *
+     * @param priority priority class
+     * @param capacity maximum number of queued compilations
+     */
+    public void setQueueCapacity(CompilePriority priority, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        lock.lock();
+        try {
+            capacities[priority.ordinal()] = capacity;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Specifies the share of the specified priority class if several classes have queued compilations
+     * (defaults: interactive 8, normal 3, background 1).
+     *
+     * @param priority priority class
+     * @param weight relative share of the priority class
+     */
+    public void setWeight(CompilePriority priority, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be positive");
+        }
+        lock.lock();
+        try {
+            weights[priority.ordinal()] = weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Submits the compilation of all sources of the specified compiler (see {@link JCompiler#compileAll()}).
+     * Cancelling the returned future cancels the compilation.
+     *
+     * @param priority priority class of the compilation
+     * @param compiler compiler to use
+     * @return the result of the compilation
+     * @throws CompilationRejectedException if the queue of the priority class is full
+     */
+    public CompletableFuture<CompilationResult> submit(CompilePriority priority, JCompiler compiler) {
+        return submit(priority, compiler::compileAll);
+    }
+
+    /**
+     * Submits a compilation. Cancelling the returned future cancels the token passed to the compilation.
+     *
+     * @param priority priority class of the compilation
+     * @param compilation compilation to perform (e.g. {@code token -> compiler.compileAll(token)})
+     * @return the result of the compilation
+     * @throws CompilationRejectedException if the queue of the priority class is full
+     */
+    public CompletableFuture<CompilationResult> submit(CompilePriority priority,
+            Function<CancellationToken, CompilationResult> compilation) {
+        return submit(priority, compilation, Duration.ZERO);
+    }
+
+    /**
+     * Submits a compilation. If the queue of the priority class is full, the caller waits until the queue has free
+     * capacity (backpressure).
+     *
+     * @param priority priority class of the compilation
+     * @param compilation compilation to perform (e.g. {@code token -> compiler.compileAll(token)})
+     * @param maxWait maximum time to wait for free queue capacity
+     * @return the result of the compilation
+     * @throws CompilationRejectedException if the queue is still full after waiting or the scheduler has been closed
+     */
+    public CompletableFuture<CompilationResult> submit(CompilePriority priority,
+            Function<CancellationToken, CompilationResult> compilation, Duration maxWait) {
+        Task task = new Task(priority, compilation);
+        int p = priority.ordinal();
+        long remaining = maxWait.toNanos();
+
+        lock.lock();
+        try {
+            while (!closed && queues.get(priority).size() >= capacities[p]) {
+                if (remaining <= 0) {
+                    rejected[p]++;
+                    throw new CompilationRejectedException("Queue of priority " + priority + " is full ("
+                        + capacities[p] + " compilations)");
+                }
+                try {
+                    remaining = notFull.awaitNanos(remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    rejected[p]++;
+                    throw new CompilationRejectedException("Interrupted while waiting for queue capacity");
+                }
+            }
+            if (closed) {
+                rejected[p]++;
+                throw new CompilationRejectedException("Scheduler has been closed");
+            }
+            task.enqueued = System.nanoTime();
+            queues.get(priority).add(task);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        task.future.whenComplete((result, ex) -> {
+            if (task.future.isCancelled()) {
+                task.token.cancel();
+                remove(task);
+            }
+        });
+
+        return task.future;
+    }
+
+    /**
+     * Returns the number of queued compilations of the specified priority class.
+     *
+     * @param priority priority class
+     * @return the number of queued compilations
+     */
+    public int getQueueLength(CompilePriority priority) {
+        lock.lock();
+        try {
+            return queues.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of rejected submissions of the specified priority class.
+     *
+     * @param priority priority class
+     * @return the number of rejected submissions
+     */
+    public long getRejectedCount(CompilePriority priority) {
+        lock.lock();
+        try {
+            return rejected[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops this scheduler. Queued compilations are cancelled, running compilations complete.
+     */
+    @Override
+    public void close() {
+        List<Task> cancelled = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            queues.values().forEach(cancelled::addAll);
+            queues.values().forEach(ArrayDeque::clear);
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        cancelled.forEach(t -> t.future.cancel(false));
+    }
+
+    private void remove(Task task) {
+        lock.lock();
+        try {
+            if (queues.get(task.priority).remove(task)) {
+                notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Dequeues the next task (smooth weighted round robin over the non-empty queues).
+     * @return the next task or {@code null} if this scheduler has been closed
+     */
+    private Task take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    return null;
+                }
+                int total = 0;
+                int best = -1;
+                for (CompilePriority p : PRIORITIES) {
+                    int i = p.ordinal();
+                    if (queues.get(p).isEmpty()) {
+                        continue;
+                    }
+                    currentWeights[i] += weights[i];
+                    total += weights[i];
+                    if (best < 0 || currentWeights[i] > currentWeights[best]) {
+                        best = i;
+                    }
+                }
+                if (best >= 0) {
+                    currentWeights[best] -= total;
+                    notFull.signalAll();
+                    return queues.get(PRIORITIES[best]).poll();
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Task task;
+            try {
+                task = take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+            if (task.future.isDone()) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                CompilationResult result = task.compilation.apply(task.token);
+                if (result != null) {
+                    result.setQueueWaitTime(Duration.ofNanos(start - task.enqueued));
+                    result.setCompileTime(Duration.ofNanos(System.nanoTime() - start));
+                }
+                task.future.complete(result);
+            } catch (Throwable ex) {
+                task.future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Queued compilation.
+     */
+    private static final class Task {
+        final CompilePriority priority;
+        final Function<CancellationToken, CompilationResult> compilation;
+        final CancellationToken token = new CancellationToken();
+        final CompletableFuture<CompilationResult> future = new CompletableFuture<>();
+        long enqueued;
+
+        Task(CompilePriority priority, Function<CancellationToken, CompilationResult> compilation) {
+            this.priority = priority;
+            this.compilation = compilation;
+        }
+    }
+}
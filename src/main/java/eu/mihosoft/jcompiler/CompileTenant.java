@@ -0,0 +1,389 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Compile namespace of a tenant. Compilers created by a tenant (see {@link #newCompiler()}) share an isolated
+ * classloader hierarchy and the quotas of the tenant:
+ *
+ * <ul>
+ *   <li>maximum number of concurrent compilations</li>
+ *   <li>compile time per quota window (CPU time of the compiling thread)</li>
+ *   <li>source size per quota window</li>
+ *   <li>number and bytecode size of the defined classes that are still reachable</li>
+ * </ul>
+ *
+ * <p>Compilations that exceed a quota are rejected with a {@link CompilationRejectedException} before the compiler
+ * starts. If a compilation produces more classes or bytecode than the remaining class quota allows, its classes
+ * are discarded and the compilation is rejected afterwards. Classes count against the quota until their
+ * classloader has been garbage collected.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * CompileTenant tenant = CompileTenant.newInstance("customer-42");
+ * tenant.setMaxConcurrentCompilations(2);
+ * tenant.setCpuTimeQuota(Duration.ofSeconds(10), Duration.ofMinutes(1));
+ * JCompiler compiler = tenant.newCompiler();
+ * ...
+ * TenantUsage usage = tenant.getUsage();
+ * </pre>
+ */
+public final class CompileTenant implements Closeable {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String id;
+    // root of the classloader hierarchy of this tenant
+    private final URLClassLoader rootLoader;
+
+    private int maxConcurrentCompilations = Integer.MAX_VALUE;
+    private long cpuTimeQuotaNanos = Long.MAX_VALUE;
+    private long windowNanos = Duration.ofMinutes(1).toNanos();
+    private long maxSourceSize = Long.MAX_VALUE;
+    private long maxClasses = Long.MAX_VALUE;
+    private long maxBytecodeSize = Long.MAX_VALUE;
+
+    private boolean closed;
+    private int activeCompilations;
+    private long compilations;
+    private long rejections;
+    private long windowStart = System.nanoTime();
+    private long cpuNanosInWindow;
+    private long cpuNanos;
+    private long sourceSizeInWindow;
+    private long sourceSize;
+    private long definedClasses;
+    private long bytecodeSize;
+
+    // classes defined by the classloaders of this tenant (usage is released once a loader has been collected)
+    private final Map<ClassLoader, LoaderUsage> loaderUsage = new WeakHashMap<>();
+    private final ReferenceQueue<ClassLoader> collectedLoaders = new ReferenceQueue<>();
+
+    private CompileTenant(String id, URLClassLoader rootLoader) {
+        this.id = id;
+        this.rootLoader = rootLoader;
+    }
+
+    /**
+     * Creates a new tenant whose classloader hierarchy is rooted at the system classloader.
+     *
+     * @param id id of the tenant
+     * @return a new tenant
+     */
+    public static CompileTenant newInstance(String id) {
+        return newInstance(id, null);
+    }
+
+    /**
+     * Creates a new tenant whose classloader hierarchy is rooted at the specified classloader. Classes of the
+     * parent classloader are shared by all tenants with the same parent.
+     *
+     * @param id id of the tenant
+     * @param parent parent classloader (may be {@code null}, i.e., the system classloader)
+     * @return a new tenant
+     */
+    public static CompileTenant newInstance(String id, URLClassLoader parent) {
+        if (id == null) {
+            throw new IllegalArgumentException("Tenant id must not be null");
+        }
+        // the urls of the parent are repeated to make them visible to the compiler
+        URLClassLoader root = parent == null
+            ? new URLClassLoader("tenant:" + id, new URL[0], ClassLoader.getSystemClassLoader())
+            : new URLClassLoader("tenant:" + id, parent.getURLs(), parent);
+        return new CompileTenant(id, root);
+    }
+
+    /**
+     * Returns the id of this tenant.
+     * @return the id of this tenant
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Creates a compiler for this tenant. The classes compiled by the compiler are isolated from other tenants.
+     *
+     * @return a new compiler
+     * @throws IllegalStateException if this tenant has been closed
+     */
+    public JCompiler newCompiler() {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Tenant '" + id + "' has been closed");
+            }
+        }
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setParentClassLoader(rootLoader);
+        compiler.setTenant(this);
+        return compiler;
+    }
+
+    /**
+     * Specifies the maximum number of concurrent compilations of this tenant.
+     * @param maxConcurrentCompilations maximum number of concurrent compilations
+     */
+    public synchronized void setMaxConcurrentCompilations(int maxConcurrentCompilations) {
+        if (maxConcurrentCompilations < 1) {
+            throw new IllegalArgumentException("Maximum number of compilations must be positive");
+        }
+        this.maxConcurrentCompilations = maxConcurrentCompilations;
+    }
+
+    /**
+     * Specifies the compile time available per quota window. Compilations are rejected once the compile time of
+     * the current window has been consumed. The window also applies to the source size quota.
+     *
+     * @param quota compile time per window ({@code null} removes the quota)
+     * @param window length of the quota window
+     */
+    public synchronized void setCpuTimeQuota(Duration quota, Duration window) {
+        if (window == null || window.isZero() || window.isNegative()) {
+            throw new IllegalArgumentException("Quota window must be positive");
+        }
+        this.cpuTimeQuotaNanos = quota == null ? Long.MAX_VALUE : quota.toNanos();
+        this.windowNanos = window.toNanos();
+    }
+
+    /**
+     * Specifies the maximum size of the sources (characters) compiled per quota window.
+     * @param maxSourceSize maximum source size per window
+     * @see #setCpuTimeQuota(Duration, Duration)
+     */
+    public synchronized void setMaxSourceSize(long maxSourceSize) {
+        this.maxSourceSize = maxSourceSize;
+    }
+
+    /**
+     * Specifies the maximum number of classes defined by the classloaders of this tenant.
+     * @param maxClasses maximum number of classes
+     */
+    public synchronized void setMaxClasses(long maxClasses) {
+        this.maxClasses = maxClasses;
+    }
+
+    /**
+     * Specifies the maximum bytecode size of the classes defined by the classloaders of this tenant.
+     * @param maxBytecodeSize maximum bytecode size (bytes)
+     */
+    public synchronized void setMaxBytecodeSize(long maxBytecodeSize) {
+        this.maxBytecodeSize = maxBytecodeSize;
+    }
+
+    /**
+     * Returns the current resource usage of this tenant.
+     * @return the current resource usage of this tenant
+     */
+    public synchronized TenantUsage getUsage() {
+        expungeCollectedLoaders();
+        rollWindow();
+        return new TenantUsage(id, activeCompilations, compilations, rejections, cpuNanosInWindow, cpuNanos,
+            sourceSizeInWindow, sourceSize, definedClasses, bytecodeSize);
+    }
+
+    /**
+     * Closes this tenant. Subsequent compilations of this tenant are rejected. Running compilations complete.
+     *
+     * @throws IOException if the classloader of this tenant cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        rootLoader.close();
+    }
+
+    /**
+     * Admits a compilation or rejects it if a quota is exceeded.
+     *
+     * @param units units to compile
+     * @return permit of the compilation (must be released)
+     * @throws CompilationRejectedException if a quota is exceeded
+     */
+    /*pkg private*/ synchronized Permit acquire(Collection<CompilationUnitSource> units) {
+        expungeCollectedLoaders();
+        rollWindow();
+
+        long size = 0;
+        for (CompilationUnitSource unit : units) {
+            size += unit.getLength();
+        }
+
+        if (closed) {
+            throw reject("tenant has been closed");
+        } else if (activeCompilations >= maxConcurrentCompilations) {
+            throw reject("maximum number of concurrent compilations reached (" + maxConcurrentCompilations + ")");
+        } else if (cpuNanosInWindow >= cpuTimeQuotaNanos) {
+            throw reject("compile time quota exhausted (" + Duration.ofNanos(cpuNanosInWindow) + ")");
+        } else if (sourceSizeInWindow + size > maxSourceSize) {
+            throw reject("source size quota exceeded (" + (sourceSizeInWindow + size) + " > " + maxSourceSize + ")");
+        } else if (definedClasses >= maxClasses) {
+            throw reject("class quota exhausted (" + definedClasses + " classes)");
+        } else if (bytecodeSize >= maxBytecodeSize) {
+            throw reject("bytecode quota exhausted (" + bytecodeSize + " bytes)");
+        }
+
+        activeCompilations++;
+        compilations++;
+        sourceSizeInWindow += size;
+        sourceSize += size;
+
+        return new Permit();
+    }
+
+    /**
+     * Charges the classes of a completed compilation. Classes that replace classes with the same name in the
+     * same classloader (e.g. recompiled units) are charged with the difference of their bytecode sizes. If the
+     * class quota is exceeded, the classes are removed from the classloader and the compilation is rejected.
+     *
+     * @param loader classloader of the compilation
+     * @param result result of the compilation (classes must be kept in memory)
+     * @throws CompilationRejectedException if the class quota is exceeded
+     */
+    /*pkg private*/ synchronized void chargeClasses(InMemoryClassLoader loader, CompilationResult result) {
+        LoaderUsage usage = loaderUsage.computeIfAbsent(loader, l -> new LoaderUsage(l, collectedLoaders));
+        Map<String, Long> charged = new HashMap<>();
+        long classes = 0;
+        long bytes = 0;
+        for (CompiledUnit unit : result.getCompiledUnits()) {
+            for (CompiledClass cls : unit.getClasses()) {
+                long size = cls.getByteCode().length;
+                Long previous = usage.bytesByClass.get(cls.getClassName());
+                classes += previous == null ? 1 : 0;
+                bytes += previous == null ? size : size - previous;
+                charged.put(cls.getClassName(), size);
+            }
+        }
+
+        if (definedClasses + classes > maxClasses || bytecodeSize + bytes > maxBytecodeSize) {
+            String reason = "class quota exceeded (" + (definedClasses + classes) + " classes, "
+                + (bytecodeSize + bytes) + " bytes)";
+            for (CompiledUnit unit : result.getCompiledUnits()) {
+                unit.getClasses().forEach(cls -> loader.removeCode(cls.getFile()));
+            }
+            // replaced classes have been removed as well
+            for (String className : charged.keySet()) {
+                Long previous = usage.bytesByClass.remove(className);
+                if (previous != null) {
+                    usage.classes--;
+                    usage.bytes -= previous;
+                    definedClasses--;
+                    bytecodeSize -= previous;
+                }
+            }
+            throw reject(reason);
+        }
+
+        usage.bytesByClass.putAll(charged);
+        usage.classes += classes;
+        usage.bytes += bytes;
+        definedClasses += classes;
+        bytecodeSize += bytes;
+    }
+
+    private CompilationRejectedException reject(String reason) {
+        rejections++;
+        return new CompilationRejectedException(id, "Compilation of tenant '" + id + "' rejected: " + reason);
+    }
+
+    private void rollWindow() {
+        long now = System.nanoTime();
+        if (now - windowStart >= windowNanos) {
+            windowStart = now;
+            cpuNanosInWindow = 0;
+            sourceSizeInWindow = 0;
+        }
+    }
+
+    private void expungeCollectedLoaders() {
+        for (Reference<? extends ClassLoader> ref; (ref = collectedLoaders.poll()) != null; ) {
+            LoaderUsage usage = (LoaderUsage) ref;
+            definedClasses -= usage.classes;
+            bytecodeSize -= usage.bytes;
+        }
+    }
+
+    private static long threadTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Admission of a running compilation. Measures the compile time until it is released.
+     */
+    /*pkg private*/ final class Permit {
+        private final long startCpu = threadTime();
+        private final long startWall = System.nanoTime();
+        private boolean elapsedTime;
+        private boolean released;
+
+        /**
+         * Charges the elapsed time instead of the CPU time of the compiling thread (e.g. if the compilation
+         * runs in another process).
+         */
+        void chargeElapsedTime() {
+            this.elapsedTime = true;
+        }
+
+        /**
+         * Ends the compilation and charges its compile time.
+         */
+        void release() {
+            long time = elapsedTime ? System.nanoTime() - startWall : threadTime() - startCpu;
+            synchronized (CompileTenant.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                activeCompilations--;
+                rollWindow();
+                cpuNanosInWindow += time;
+                cpuNanos += time;
+            }
+        }
+    }
+
+    /**
+     * Classes defined by a classloader of this tenant.
+     */
+    private static final class LoaderUsage extends WeakReference<ClassLoader> {
+        // charged bytecode size by class name
+        final Map<String, Long> bytesByClass = new HashMap<>();
+        long classes;
+        long bytes;
+
+        LoaderUsage(ClassLoader loader, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+        }
+    }
+}
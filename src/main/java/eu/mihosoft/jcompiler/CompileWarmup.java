@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Warms up the compiler at startup. The first compilations of a JVM are much slower than subsequent ones since
+ * the classes of the compiler have to be loaded and compiled by the JIT. Replaying compile requests recorded during
+ * normal operation (see {@link WarmupRecorder}) on a background thread moves this cost out of the first user
+ * request. Class loading can be reduced further with an AppCDS archive (see
+ * {@link #createCdsArchive(Path, Path)}).
+ *
+ * <p>Example:</p>
+ * <pre>
+ * // during normal operation
+ * compiler.setWarmupRecorder(WarmupRecorder.newInstance(warmupFile, 50));
+ *
+ * // at startup
+ * CompileWarmup.replay(warmupFile);
+ * </pre>
+ */
+public final class CompileWarmup {
+
+    private CompileWarmup() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Replays the requests of the specified warm-up file on a background thread. Compilation results are
+     * discarded, compilation errors are ignored.
+     *
+     * @param warmupFile warm-up file
+     * @return the number of replayed requests (completes exceptionally if the file cannot be read)
+     */
+    public static CompletableFuture<Integer> replay(Path warmupFile) {
+        CompletableFuture<Integer> replayed = new CompletableFuture<>();
+        Thread t = new Thread(() -> {
+            try {
+                replayed.complete(replayNow(warmupFile));
+            } catch (Throwable ex) {
+                replayed.completeExceptionally(ex);
+            }
+        }, "jcompiler-warmup");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        return replayed;
+    }
+
+    /**
+     * Replays the requests of the specified warm-up file on the calling thread.
+     *
+     * @param warmupFile warm-up file
+     * @return the number of replayed requests
+     * @throws IOException if the warm-up file cannot be read
+     */
+    public static int replayNow(Path warmupFile) throws IOException {
+        List<byte[]> requests = WarmupRecorder.readRequests(warmupFile);
+        for (byte[] request : requests) {
+            List<String> options = new ArrayList<>();
+            Map<String, String> sources = new LinkedHashMap<>();
+            CompilationCodec.decodeRequest(request, options, sources);
+
+            JCompiler compiler = JCompiler.newInstance();
+            compiler.setOptions(options.toArray(new String[0]));
+            sources.forEach(compiler::addSource);
+            try {
+                compiler.compileAll();
+            } catch (RuntimeException ex) {
+                // the warm-up is best effort, e.g., the recorded classpath might not exist
+            }
+        }
+        return requests.size();
+    }
+
+    /**
+     * Creates an AppCDS archive that contains the classes loaded while replaying the specified warm-up file
+     * (compiler classes of module {@code jdk.compiler} and classes of this library). The archive is created by a
+     * separate JVM with the classpath of the current process. To use the archive, the application must be started
+     * with the returned JVM options and the same classpath. CDS requires a classpath of jar files, i.e., directories
+     * are not supported.
+     *
+     * <p>Java 13 and later create a dynamic archive ({@code -XX:ArchiveClassesAtExit}). Earlier versions dump
+     * the class list first and create a static archive from it.</p>
+     *
+     * @param warmupFile warm-up file to replay (may be {@code null}, i.e., a minimal compilation is performed)
+     * @param archive archive to create
+     * @return the JVM options that use the archive
+     * @throws IOException if the archive cannot be created
+     * @throws InterruptedException if interrupted while waiting for the archiving JVM
+     */
+    public static List<String> createCdsArchive(Path warmupFile, Path archive) throws IOException, InterruptedException {
+        String classpath = getClasspath();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (Files.isDirectory(Paths.get(entry))) {
+                throw new IOException("CDS archives require a classpath of jar files, found directory: " + entry);
+            }
+        }
+        String replayArgument = warmupFile == null ? "" : warmupFile.toAbsolutePath().toString();
+
+        if (Runtime.version().feature() >= 13) {
+            run("-XX:ArchiveClassesAtExit=" + archive.toAbsolutePath(), "-cp", classpath,
+                CompileWarmup.class.getName(), replayArgument);
+        } else {
+            Path classList = Files.createTempFile("jcompiler-classes", ".lst");
+            try {
+                run("-Xshare:off", "-XX:DumpLoadedClassList=" + classList, "-cp", classpath,
+                    CompileWarmup.class.getName(), replayArgument);
+                run("-Xshare:dump", "-XX:SharedClassListFile=" + classList,
+                    "-XX:SharedArchiveFile=" + archive.toAbsolutePath(), "-cp", classpath);
+            } finally {
+                Files.deleteIfExists(classList);
+            }
+        }
+
+        if (!Files.exists(archive)) {
+            throw new IOException("CDS archive has not been created: " + archive);
+        }
+        return Arrays.asList("-XX:SharedArchiveFile=" + archive.toAbsolutePath());
+    }
+
+    /**
+     * Replays the specified warm-up file (used to create CDS archives).
+     *
+     * @param args warm-up file (optional)
+     * @throws IOException if the warm-up file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && !args[0].isEmpty()) {
+            replayNow(Paths.get(args[0]));
+        } else {
+            JCompiler.newInstance().compile("public class Warmup { public static void main(String[] args) { } }");
+        }
+    }
+
+    private static String getClasspath() {
+        List<String> classpath = new ArrayList<>();
+        try {
+            // location of this library (might not be on the classpath of the current process)
+            classpath.add(Paths.get(CompileWarmup.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+        } catch (URISyntaxException | RuntimeException ex) {
+            // classpath only
+        }
+        for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            if (!entry.isEmpty() && !classpath.contains(entry)) {
+                classpath.add(entry);
+            }
+        }
+        return String.join(File.pathSeparator, classpath);
+    }
+
+    private static void run(String... jvmArguments) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(jvmArguments));
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IOException("Archiving JVM failed with exit code " + exitCode + ": " + command);
+        }
+    }
+}
@@ -39,6 +39,8 @@ public final class CompiledClass implements Comparable<String> {
      * Returns this class as binary byte code.
      * 
      * @return the byte code of this class
+     * @throws IllegalStateException if the bytecode has been written to an output sink that does not keep it in memory
+     * or has been released after definition (see {@link BytecodeRetention#RELEASE_AFTER_DEFINE})
      */
     public byte[] getByteCode() {
         return file.getByteCode();
@@ -63,6 +65,15 @@ public final class CompiledClass implements Comparable<String> {
         return file.loadClass();
     }
 
+    /**
+     * Returns the internal representation of this compiled class.
+     * 
+     * @return the internal representation of this compiled class
+     */
+    /*pkg private*/ CompiledClassFile getFile() {
+        return file;
+    }
+
     @Override
     public int compareTo(String o) {
         return this.getClassName().compareTo(o);
@@ -18,19 +18,45 @@
 package eu.mihosoft.jcompiler;
 
 import javax.tools.SimpleJavaFileObject;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * A compiled class.
  */
 /*pkg private*/ final class CompiledClassFile extends SimpleJavaFileObject {
     private final ClassLoader loader;
-    private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    // uncompressed bytecode (null if interned, compressed or released)
+    private ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    // interned bytecode shared with byte-identical classes (see BytecodeInterner)
+    private byte[] interned;
+    // bytecode mapped from a namespace image (see CompilationImage)
+    private ByteBuffer mapped;
+    // compressed bytecode (see BytecodeRetention.COMPRESSED)
+    private byte[] compressed;
+    // uncompressed length of the compressed bytecode
+    private int length;
+    // determines whether the bytecode is released once the class has been defined
+    private boolean releaseOnDefine;
+    private boolean released;
     private final String className;
+    // destination of the bytecode
+    private final OutputSink sink;
+    // receives the bytecode once javac closes the output stream (may be null)
+    private volatile Consumer<byte[]> closeHandler;
+    // file of a previous classloader generation that defined this class before its bytecode was released (may be null)
+    private CompiledClassFile definedBy;
 
     /**
      * Creates a new instance of this class.
@@ -39,9 +65,21 @@ import java.net.URISyntaxException;
      * @throws URISyntaxException if the name is invalid
      */
     /*pkg private*/ CompiledClassFile(ClassLoader loader, String className) throws URISyntaxException {
+        this(loader, className, OutputSink.inMemory());
+    }
+
+    /**
+     * Creates a new instance of this class.
+     * @param loader classloader to use
+     * @param className classname
+     * @param sink destination of the bytecode (bytecode is only kept if the sink keeps the output in memory)
+     * @throws URISyntaxException if the name is invalid
+     */
+    /*pkg private*/ CompiledClassFile(ClassLoader loader, String className, OutputSink sink) throws URISyntaxException {
         super(new URI(className), Kind.CLASS);
         this.loader = loader;
         this.className = className;
+        this.sink = sink;
     }
     
     /**
@@ -52,18 +90,249 @@ import java.net.URISyntaxException;
 		return className;
 	}
 
+    /**
+     * Sets the handler that receives the bytecode once javac has written this class. If a handler is set, the
+     * bytecode is neither kept nor written to the sink by this class (see {@link #setByteCode(byte[])}).
+     * @param closeHandler handler that receives the bytecode (may be null)
+     */
+    /*pkg private*/ void setCloseHandler(Consumer<byte[]> closeHandler) {
+        this.closeHandler = closeHandler;
+    }
+
+    /**
+     * Replaces the bytecode kept by this class (e.g. with the transformed bytecode).
+     * @param bytecode the new bytecode
+     */
+    /*pkg private*/ synchronized void setByteCode(byte[] bytecode) {
+        baos = new ByteArrayOutputStream(bytecode.length);
+        baos.write(bytecode, 0, bytecode.length);
+        interned = null;
+        mapped = null;
+        compressed = null;
+        released = false;
+    }
+
+    /**
+     * Replaces the bytecode kept by this class with bytecode mapped from a file (see {@link CompilationImage}).
+     * @param bytecode the mapped bytecode (read-only)
+     */
+    /*pkg private*/ synchronized void setMappedByteCode(ByteBuffer bytecode) {
+        baos = null;
+        interned = null;
+        mapped = bytecode;
+        compressed = null;
+        released = false;
+    }
+
+    /**
+     * Returns the bytecode mapped from a file.
+     * @return the mapped bytecode or {@code null} if the bytecode has not been mapped from a file
+     */
+    /*pkg private*/ synchronized ByteBuffer getMappedByteCode() {
+        return mapped == null ? null : mapped.duplicate();
+    }
+
+    /**
+     * Replaces the bytecode of this class with the process-wide canonical copy (see {@link BytecodeInterner}).
+     */
+    /*pkg private*/ synchronized void intern() {
+        if(!sink.isInMemory() || released || compressed != null || interned != null || mapped != null) {
+            return;
+        }
+        interned = BytecodeInterner.intern(baos.toByteArray());
+        baos = null;
+    }
+
+    /**
+     * Applies the specified retention policy to the bytecode of this class (after compilation).
+     * @param retention retention policy
+     */
+    /*pkg private*/ synchronized void setRetention(BytecodeRetention retention) {
+        if(!sink.isInMemory() || released) {
+            return;
+        }
+        switch(retention) {
+            case COMPRESSED:
+                // mapped bytecode does not occupy the heap
+                if(compressed == null && mapped == null) {
+                    byte[] bytecode = interned != null ? interned : baos.toByteArray();
+                    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                    try {
+                        deflater.setInput(bytecode);
+                        deflater.finish();
+                        ByteArrayOutputStream out = new ByteArrayOutputStream(bytecode.length / 2 + 16);
+                        byte[] buffer = new byte[4096];
+                        while(!deflater.finished()) {
+                            out.write(buffer, 0, deflater.deflate(buffer));
+                        }
+                        compressed = out.toByteArray();
+                    } finally {
+                        deflater.end();
+                    }
+                    length = bytecode.length;
+                    baos = null;
+                    interned = null;
+                }
+                break;
+            case RELEASE_AFTER_DEFINE:
+                releaseOnDefine = true;
+                break;
+            default:
+                // bytecode is kept as is
+                break;
+        }
+    }
+
+    /**
+     * Creates a file of the specified classloader that shares the bytecode of this file, i.e., interned, mapped
+     * and compressed bytecode is neither copied nor inflated. If the bytecode of this file has been released, the
+     * new file loads the class defined by this file (see {@link #getDefiningFile()}).
+     * @param next classloader of the new file
+     * @return a new file that shares the bytecode of this file
+     * @throws URISyntaxException if the name is invalid
+     * @throws IllegalStateException if the bytecode has not been kept in memory
+     */
+    /*pkg private*/ synchronized CompiledClassFile carryOver(ClassLoader next) throws URISyntaxException {
+        if(!sink.isInMemory()) {
+            throw new IllegalStateException("Bytecode of '" + className + "' has been written to the output sink");
+        }
+        CompiledClassFile file = new CompiledClassFile(next, className, sink);
+        // the bytecode is never modified in place, it is only replaced
+        file.baos = baos;
+        file.interned = interned;
+        file.mapped = mapped;
+        file.compressed = compressed;
+        file.length = length;
+        file.releaseOnDefine = releaseOnDefine;
+        file.released = released;
+        file.definedBy = released ? (definedBy != null ? definedBy : this) : null;
+        return file;
+    }
+
+    /**
+     * Returns the file whose classloader defined this class if the bytecode has been released before this file
+     * was created (see {@link #carryOver(ClassLoader)}).
+     * @return the defining file or {@code null} if this class can be defined from its own bytecode
+     */
+    /*pkg private*/ synchronized CompiledClassFile getDefiningFile() {
+        return definedBy;
+    }
+
+    /**
+     * Determines whether the bytecode of this class is kept compressed (see {@link BytecodeRetention#COMPRESSED}).
+     * @return {@code true} if the bytecode is compressed; {@code false} otherwise
+     */
+    /*pkg private*/ synchronized boolean isCompressed() {
+        return compressed != null;
+    }
+
+    /**
+     * Notifies this class that it has been defined by the classloader.
+     */
+    /*pkg private*/ synchronized void defined() {
+        if(releaseOnDefine) {
+            baos = null;
+            interned = null;
+            mapped = null;
+            compressed = null;
+            released = true;
+        }
+    }
+
+    /**
+     * Determines whether the bytecode of this class is available (see {@link #getByteCode()}).
+     * @return {@code true} if the bytecode is available; {@code false} otherwise
+     */
+    /*pkg private*/ synchronized boolean isByteCodeAvailable() {
+        return sink.isInMemory() && !released;
+    }
+
     @Override
     public OutputStream openOutputStream() throws IOException {
-        return baos;
+        Consumer<byte[]> handler = closeHandler;
+        if(handler != null) {
+            return new ByteArrayOutputStream() {
+                private boolean closed;
+
+                @Override
+                public void close() {
+                    if(!closed) {
+                        closed = true;
+                        handler.accept(toByteArray());
+                    }
+                }
+            };
+        }
+        // bytecode is streamed to the sink as emitted by the compiler
+        OutputStream out = sink.openClass(className);
+        if(!sink.isInMemory()) {
+            return out != null ? out : OutputStream.nullOutputStream();
+        }
+        ByteArrayOutputStream bytes;
+        synchronized (this) {
+            bytes = baos;
+        }
+        return out != null ? TeeOutputStream.of(Arrays.asList(bytes, out)) : bytes;
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+        // used by javac if this class is on the classpath of subsequent compilations
+        return new ByteArrayInputStream(getByteCode());
+    }
+
+    /**
+     * Returns the package name of this class.
+     * @return the package name of this class (empty string for the default package)
+     */
+    public String getPackageName() {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot < 0 ? "" : className.substring(0, lastDot);
     }
 
     /**
      * Returns the binary representation/byte-code of this compiled class.
      * 
      * @return the binary representation/byte-code of this compiled class
+     * @throws IllegalStateException if the bytecode has not been kept in memory (see {@link OutputSink#isInMemory()})
+     * or has been released (see {@link BytecodeRetention#RELEASE_AFTER_DEFINE})
      */
-    public byte[] getByteCode() {
-        return baos.toByteArray();
+    public synchronized byte[] getByteCode() {
+        if(!sink.isInMemory()) {
+            throw new IllegalStateException("Bytecode of '" + className + "' has been written to the output sink");
+        }
+        if(released) {
+            throw new IllegalStateException("Bytecode of '" + className + "' has been released after definition");
+        }
+        if(interned != null) {
+            return interned.clone();
+        }
+        if(mapped != null) {
+            byte[] bytecode = new byte[mapped.remaining()];
+            mapped.duplicate().get(bytecode);
+            return bytecode;
+        }
+        if(compressed == null) {
+            return baos.toByteArray();
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] bytecode = new byte[length];
+            int n = 0;
+            while(n < length) {
+                int inflated = inflater.inflate(bytecode, n, length - n);
+                if(inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Compressed bytecode of '" + className + "' is truncated");
+                }
+                n += inflated;
+            }
+            return bytecode;
+        } catch(DataFormatException ex) {
+            throw new IllegalStateException("Compressed bytecode of '" + className + "' is corrupt", ex);
+        } finally {
+            inflater.end();
+        }
     }
 
     /**
@@ -17,30 +17,47 @@
  */
 package eu.mihosoft.jcompiler;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
+
+import javax.tools.JavaFileObject;
 
 /**
  * A compiled unit is a collection of class objects generated by compiling the associated compilation unit. For 
- * convenience, the code is included as well as compiled classes (can be loaded after compilation).
+ * convenience, the code can be included as well as compiled classes (can be loaded after compilation).
  */
 public final class CompiledUnit {
     private final String name;
     private CompiledClass mainClass;
-    private final String code;
+    // source of this unit, only read for sorting the classes
+    private JavaFileObject source;
+    // code of this unit (only retained on request)
+    private String code;
     private final List<CompiledClass> classes;
     private final List<CompiledClass> classesUnmodifiable;
      
-    /*pkg private*/ CompiledUnit(String name, String code, List<CompiledClass> classes) {
+    /*pkg private*/ CompiledUnit(String name, JavaFileObject source, List<CompiledClass> classes) {
         this.name = name;
         this.classes = classes;
         this.classesUnmodifiable = Collections.unmodifiableList(classes);
 
-        this.code = code;
+        this.source = source;
+    }
+
+    /**
+     * Creates a unit with classes that are already in order (no sorting necessary).
+     * @param name name of the unit
+     * @param classes classes of this unit in order of appearance
+     * @param mainClass the main class of this unit (must be one of the specified classes)
+     */
+    /*pkg private*/ CompiledUnit(String name, List<CompiledClass> classes, CompiledClass mainClass) {
+        this(name, (JavaFileObject) null, classes);
+        this.mainClass = mainClass;
     }
 
     /**
@@ -50,16 +67,51 @@ public final class CompiledUnit {
         return classesUnmodifiable;
     }
     
+    /**
+     * Returns the code of this unit.
+     * @return the code of this unit or {@code null} if the code has not been retained
+     * (see {@link JCompiler#setRetainSource(boolean)})
+     */
+    public String getCode() {
+        return code;
+    }
+
     /**
      * Sorts the classes according to their appearance in code (works for outer classes).
+     * @param retainSource determines whether to keep the code of this unit
      */
-    /*pkg private*/ void initAndSortClassNames() {
+    /*pkg private*/ void initAndSortClassNames(boolean retainSource) {
+
+        // class files generated without source (e.g. by annotation processors) cannot be sorted
+        if(this.source == null) {
+            if(this.mainClass == null) {
+                this.mainClass = this.classes.isEmpty() ? null : this.classes.get(0);
+            }
+            return;
+        }
+
+        String code;
+        try {
+            code = this.source.getCharContent(true).toString();
+        } catch(IOException ex) {
+            throw new CompilationException("Cannot read source of compilation unit '" + getName() + "'", ex);
+        }
+        // the source is not needed anymore (might be a large file)
+        this.source = null;
+        if(retainSource) {
+            this.code = code;
+        }
 
         String mainClassName = LangUtils.getClassNameFromCode(code);
 
+        // build map (keeps the order of generation for classes not found by code analysis)
+        Map<String, CompiledClass> classesByName = new LinkedHashMap<>();
+        for(CompiledClass cc : this.classes) {
+            classesByName.put(cc.getClassName(), cc);
+        }
+
         // lookup main class by name
-        this.mainClass = this.classes.stream().
-            filter(cc->Objects.equals(mainClassName,cc.getClassName())).findAny().orElse(null);
+        this.mainClass = mainClassName == null ? null : classesByName.get(mainClassName);
 
         // at least one type has to be present in the file
         if(this.mainClass==null) {
@@ -67,27 +119,20 @@ public final class CompiledUnit {
         }
 
         // get the class names in order of appearance
-        List<String> classNamesInOrder = LangUtils.getClassNamesFromCode(this.code);
-
-        // build map
-        Map<String, CompiledClass> classesByName = new HashMap<>();
-        for(CompiledClass cc : this.classes) {
-            classesByName.put(cc.getClassName(), cc);
-        }
+        List<String> classNamesInOrder = LangUtils.getClassNamesFromCode(code);
 
         // clear list
         this.classes.clear();
 
-        List<String> found = new ArrayList<>();
+        Set<String> found = new HashSet<>();
 
         // and rebuild it in correct order (appearance in file)
         for(String clsName : classNamesInOrder) {
             CompiledClass cc = classesByName.get(clsName);
             // some classes can currently not be found via code analysis.
             // they will be added later.
-            if(cc!=null) { 
+            if(cc!=null && found.add(clsName)) {
                 this.classes.add(cc);
-                found.add(cc.getClassName());
             }
         }
 
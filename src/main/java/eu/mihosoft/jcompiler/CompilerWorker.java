@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Main class of the worker processes started by {@link CompilerWorkerPool} (not intended to be used directly).
+ * Workers read compile requests from stdin and write results to stdout until stdin is closed.
+ */
+public final class CompilerWorker {
+
+    private CompilerWorker() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Processes compile requests from stdin.
+     *
+     * @param args ignored
+     * @throws IOException if the parent process cannot be reached
+     */
+    public static void main(String[] args) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        // stdout is reserved for the protocol
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+
+        CompilationCodec.Frame frame;
+        while ((frame = CompilationCodec.readFrame(in)) != null) {
+            if (frame.type != CompilationCodec.FRAME_REQUEST) {
+                throw new IOException("Unexpected frame type: " + frame.type);
+            }
+
+            try {
+                CompilationCodec.writeFrame(out, CompilationCodec.FRAME_RESULT, CompileDaemon.compile(frame.payload, false));
+            } catch (IOException | RuntimeException ex) {
+                String msg = ex.getClass().getName() + ": " + ex.getMessage();
+                CompilationCodec.writeFrame(out, CompilationCodec.FRAME_ERROR, msg.getBytes(StandardCharsets.UTF_8));
+            }
+
+            // heap usage is used by the pool to decide whether to recycle this worker
+            Runtime rt = Runtime.getRuntime();
+            ByteArrayOutputStream status = new ByteArrayOutputStream();
+            new DataOutputStream(status).writeLong(rt.totalMemory() - rt.freeMemory());
+            CompilationCodec.writeFrame(out, CompilationCodec.FRAME_STATUS, status.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pool of worker processes that compile on behalf of a {@link JCompiler} (see
+ * {@link JCompiler#setWorkerPool(CompilerWorkerPool)}). Compiling in separate JVMs isolates the memory churn of the
+ * compiler and runaway compilations from the calling process. Compiled classes are sent back and defined by the
+ * classloader of the compiler.
+ *
+ * Workers are started on demand (at most {@code maxWorkers}), reused for subsequent compilations and recycled after
+ * a configurable number of compilations or if their heap usage exceeds a threshold. Idle workers are used in
+ * round-robin order. Crashed workers are replaced automatically. A pool can be shared by several compilers and
+ * threads.
+ */
+public final class CompilerWorkerPool implements Closeable {
+
+    private final int maxWorkers;
+    private volatile int maxCompilesPerWorker = 100;
+    private volatile long maxHeapUsage;
+    private volatile long timeoutMillis;
+    private volatile List<String> jvmOptions = Collections.emptyList();
+
+    // guarded by lock, waiters are notified whenever a worker becomes idle, a worker slot is freed or the pool is closed
+    private final Deque<Worker> idleWorkers = new ArrayDeque<>();
+    private final Object lock = new Object();
+    private final List<Worker> workers = new ArrayList<>();
+    private boolean closed;
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "jcompiler-worker-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private CompilerWorkerPool(int maxWorkers) {
+        if (maxWorkers < 1) {
+            throw new IllegalArgumentException("Maximum number of workers must be positive: " + maxWorkers);
+        }
+        this.maxWorkers = maxWorkers;
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param maxWorkers maximum number of worker processes
+     * @return a new pool
+     */
+    public static CompilerWorkerPool newInstance(int maxWorkers) {
+        return new CompilerWorkerPool(maxWorkers);
+    }
+
+    /**
+     * Specifies the number of compilations after which a worker is replaced (default 100).
+     *
+     * @param maxCompiles number of compilations per worker
+     * @return this pool
+     */
+    public CompilerWorkerPool setMaxCompilesPerWorker(int maxCompiles) {
+        if (maxCompiles < 1) {
+            throw new IllegalArgumentException("Maximum number of compilations must be positive: " + maxCompiles);
+        }
+        this.maxCompilesPerWorker = maxCompiles;
+        return this;
+    }
+
+    /**
+     * Specifies the heap usage (measured after each compilation) above which a worker is replaced.
+     *
+     * @param bytes heap usage in bytes (0 disables the threshold)
+     * @return this pool
+     */
+    public CompilerWorkerPool setMaxHeapUsage(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Heap usage must not be negative: " + bytes);
+        }
+        this.maxHeapUsage = bytes;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum duration of a compilation. Workers that exceed the timeout are killed and the
+     * compilation is aborted with outcome {@link CompilationOutcome#TIMED_OUT}.
+     *
+     * @param timeout maximum duration of a compilation ({@code null} or zero disables the timeout)
+     * @return this pool
+     */
+    public CompilerWorkerPool setTimeout(Duration timeout) {
+        if (timeout != null && timeout.isNegative()) {
+            throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+        }
+        this.timeoutMillis = timeout == null ? 0 : timeout.toMillis();
+        return this;
+    }
+
+    /**
+     * Specifies the options of worker JVMs (e.g. {@code -Xmx512m}). Only affects workers started afterwards.
+     *
+     * @param options JVM options
+     * @return this pool
+     */
+    public CompilerWorkerPool setJvmOptions(String... options) {
+        this.jvmOptions = Arrays.asList(options);
+        return this;
+    }
+
+    /**
+     * @return the number of running workers
+     */
+    public int getWorkerCount() {
+        synchronized (lock) {
+            return workers.size();
+        }
+    }
+
+    /**
+     * Compiles the specified sources in a worker process.
+     *
+     * @param options compiler options (including the classpath)
+     * @param sources sources by compilation unit name
+     * @param loader classloader that receives the compiled classes
+     * @return compilation result
+     * @throws CompilationException if the compilation failed twice because of crashed workers
+     */
+    /*pkg private*/ CompilationResult compile(List<String> options, Map<String, String> sources, InMemoryClassLoader loader) {
+        return compile(options, sources, null, loader);
+    }
+
+    /**
+     * Compiles the specified sources in a worker process.
+     *
+     * @param options compiler options (including the classpath)
+     * @param sources sources by compilation unit name
+     * @param settings fail-fast mode, timeout and visible classes of the compilation (may be {@code null})
+     * @param loader classloader that receives the compiled classes
+     * @return compilation result
+     * @throws CompilationException if the compilation failed twice because of crashed workers
+     */
+    /*pkg private*/ CompilationResult compile(List<String> options, Map<String, String> sources,
+            CompilationCodec.RequestSettings settings, InMemoryClassLoader loader) {
+        byte[] request;
+        try {
+            request = CompilationCodec.encodeRequest(options, sources, settings);
+        } catch (IOException ex) {
+            throw new CompilationException("Cannot encode compile request", ex);
+        }
+
+        IOException failure = null;
+        // a crashed worker is replaced and the request is sent once more
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Worker worker = acquire();
+            AtomicBoolean timedOut = new AtomicBoolean();
+            ScheduledFuture<?> timeout = timeoutMillis > 0 ? watchdog.schedule(() -> {
+                timedOut.set(true);
+                worker.process.destroyForcibly();
+            }, timeoutMillis, TimeUnit.MILLISECONDS) : null;
+
+            CompilationCodec.Frame response;
+            try {
+                response = worker.compile(request);
+                if (timeout != null) timeout.cancel(false);
+            } catch (IOException ex) {
+                if (timeout != null) timeout.cancel(false);
+                discard(worker);
+                if (timedOut.get()) {
+                    return new CompilationResult(Collections.emptyList(), Collections.emptyList(), false,
+                        CompilationOutcome.TIMED_OUT);
+                }
+                failure = ex;
+                continue;
+            }
+
+            release(worker);
+
+            if (response.type == CompilationCodec.FRAME_ERROR) {
+                // e.g. invalid sources, the worker is still usable
+                throw new CompilationException(new String(response.payload, StandardCharsets.UTF_8));
+            }
+            try {
+                return CompilationCodec.decode(response.payload, loader);
+            } catch (IOException ex) {
+                throw new CompilationException("Malformed result of compiler worker", ex);
+            }
+        }
+
+        throw new CompilationException("Compiler worker failed", failure);
+    }
+
+    private Worker acquire() {
+        synchronized (lock) {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Worker pool has been closed");
+                }
+                Worker idle = idleWorkers.pollFirst();
+                if (idle != null) {
+                    return idle;
+                }
+                // recycled, crashed and killed workers free their slot
+                if (workers.size() < maxWorkers) {
+                    try {
+                        Worker worker = new Worker(startProcess());
+                        workers.add(worker);
+                        return worker;
+                    } catch (IOException ex) {
+                        throw new CompilationException("Cannot start compiler worker", ex);
+                    }
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new CompilationException("Interrupted while waiting for compiler worker", ex);
+                }
+            }
+        }
+    }
+
+    private void release(Worker worker) {
+        boolean recycle = worker.compiles >= maxCompilesPerWorker
+            || (maxHeapUsage > 0 && worker.heapUsage > maxHeapUsage);
+        synchronized (lock) {
+            if (!recycle && !closed) {
+                // used last, i.e., workers are used in round-robin order
+                idleWorkers.offerLast(worker);
+                lock.notifyAll();
+                return;
+            }
+        }
+        discard(worker);
+    }
+
+    private void discard(Worker worker) {
+        synchronized (lock) {
+            workers.remove(worker);
+            lock.notifyAll();
+        }
+        try {
+            // stopping might take a while
+            watchdog.execute(worker::stop);
+        } catch (RejectedExecutionException ex) {
+            worker.stop();
+        }
+    }
+
+    private Process startProcess() throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        List<String> classpath = new ArrayList<>();
+        try {
+            // location of this library (might not be on the classpath of the current process)
+            classpath.add(Paths.get(CompilerWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+        } catch (URISyntaxException | RuntimeException ex) {
+            // classpath only
+        }
+        classpath.add(System.getProperty("java.class.path", ""));
+
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(String.join(File.pathSeparator, classpath));
+        command.add(CompilerWorker.class.getName());
+
+        return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    /**
+     * Stops all workers. Running compilations fail.
+     */
+    @Override
+    public void close() {
+        List<Worker> running;
+        synchronized (lock) {
+            closed = true;
+            running = new ArrayList<>(workers);
+            workers.clear();
+            idleWorkers.clear();
+            lock.notifyAll();
+        }
+        running.forEach(Worker::stop);
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Worker process.
+     */
+    private static final class Worker {
+        private final Process process;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private int compiles;
+        private long heapUsage;
+
+        private Worker(Process process) {
+            this.process = process;
+            this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        /**
+         * Sends the request and returns the response (result or error).
+         * @throws IOException if the worker crashed or has been killed
+         */
+        private CompilationCodec.Frame compile(byte[] request) throws IOException {
+            compiles++;
+            CompilationCodec.writeFrame(out, CompilationCodec.FRAME_REQUEST, request);
+
+            CompilationCodec.Frame response = CompilationCodec.readFrame(in);
+            CompilationCodec.Frame status = CompilationCodec.readFrame(in);
+            if (response == null || status == null || status.type != CompilationCodec.FRAME_STATUS) {
+                throw new IOException("Compiler worker terminated");
+            }
+            heapUsage = new DataInputStream(new ByteArrayInputStream(status.payload)).readLong();
+
+            if (response.type != CompilationCodec.FRAME_RESULT && response.type != CompilationCodec.FRAME_ERROR) {
+                throw new IOException("Unexpected frame type: " + response.type);
+            }
+
+            return response;
+        }
+
+        private void stop() {
+            try {
+                // closing stdin terminates the worker
+                out.close();
+            } catch (IOException ex) {
+                // worker is destroyed anyway
+            }
+            if (!waitFor(1)) {
+                process.destroyForcibly();
+            }
+        }
+
+        private boolean waitFor(long seconds) {
+            try {
+                return process.waitFor(seconds, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
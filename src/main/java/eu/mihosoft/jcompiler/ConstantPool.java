@@ -0,0 +1,341 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.Arrays;
+
+/**
+ * Constant pool of a class file (see JVMS, chapter 4.4). Entries are stored as raw bytes and only decoded
+ * on demand which makes copying and rewriting a pool cheap.
+ */
+/*pkg private*/ final class ConstantPool {
+
+    static final int UTF8 = 1;
+    static final int INTEGER = 3;
+    static final int FLOAT = 4;
+    static final int LONG = 5;
+    static final int DOUBLE = 6;
+    static final int CLASS = 7;
+    static final int STRING = 8;
+    static final int FIELD_REF = 9;
+    static final int METHOD_REF = 10;
+    static final int INTERFACE_METHOD_REF = 11;
+    static final int NAME_AND_TYPE = 12;
+    static final int METHOD_HANDLE = 15;
+    static final int METHOD_TYPE = 16;
+    static final int DYNAMIC = 17;
+    static final int INVOKE_DYNAMIC = 18;
+    static final int MODULE = 19;
+    static final int PACKAGE = 20;
+
+    // tags by index (index 0 and the second slot of long/double entries are unused, tag 0)
+    private byte[] tags;
+    // raw entry data (without tag) by index
+    private byte[][] values;
+
+    private ConstantPool(byte[] tags, byte[][] values) {
+        this.tags = tags;
+        this.values = values;
+    }
+
+    /**
+     * Reads a constant pool (starting with {@code constant_pool_count}).
+     * @param in input to read from
+     * @return the constant pool
+     * @throws IOException if the constant pool is malformed
+     */
+    static ConstantPool read(DataInput in) throws IOException {
+        int count = in.readUnsignedShort();
+        byte[] tags = new byte[count];
+        byte[][] values = new byte[count][];
+
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            int length;
+            switch (tag) {
+                case UTF8:
+                    int utfLength = in.readUnsignedShort();
+                    byte[] utf = new byte[utfLength + 2];
+                    utf[0] = (byte) (utfLength >>> 8);
+                    utf[1] = (byte) utfLength;
+                    in.readFully(utf, 2, utfLength);
+                    tags[i] = (byte) tag;
+                    values[i] = utf;
+                    continue;
+                case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE:
+                    length = 2;
+                    break;
+                case METHOD_HANDLE:
+                    length = 3;
+                    break;
+                case INTEGER: case FLOAT: case FIELD_REF: case METHOD_REF: case INTERFACE_METHOD_REF:
+                case NAME_AND_TYPE: case DYNAMIC: case INVOKE_DYNAMIC:
+                    length = 4;
+                    break;
+                case LONG: case DOUBLE:
+                    length = 8;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+            }
+            byte[] value = new byte[length];
+            in.readFully(value);
+            tags[i] = (byte) tag;
+            values[i] = value;
+            if (tag == LONG || tag == DOUBLE) {
+                // long and double entries occupy two slots
+                i++;
+            }
+        }
+
+        return new ConstantPool(tags, values);
+    }
+
+    /**
+     * Writes this constant pool (starting with {@code constant_pool_count}).
+     * @param out output to write to
+     * @throws IOException if writing fails
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeShort(tags.length);
+        for (int i = 1; i < tags.length; i++) {
+            if (tags[i] == 0) {
+                continue;
+            }
+            out.writeByte(tags[i]);
+            out.write(values[i]);
+        }
+    }
+
+    /**
+     * Returns a copy of this constant pool that can be modified independently.
+     * @return a copy of this constant pool
+     */
+    ConstantPool copy() {
+        // entry arrays are never modified in place
+        return new ConstantPool(tags.clone(), values.clone());
+    }
+
+    /**
+     * Returns the number of slots ({@code constant_pool_count}), including the unused slot 0.
+     * @return the number of slots
+     */
+    int size() {
+        return tags.length;
+    }
+
+    /**
+     * Returns the tag of the specified entry.
+     * @param index index of the entry
+     * @return tag of the entry ({@code 0} for unused slots)
+     */
+    int getTag(int index) {
+        return tags[index];
+    }
+
+    /**
+     * Determines whether the specified entry is equal to the entry with the same index in the specified pool.
+     * @param index index of the entry
+     * @param other pool to compare with
+     * @return {@code true} if the entries are equal; {@code false} otherwise
+     */
+    boolean entryEquals(int index, ConstantPool other) {
+        return tags[index] == other.tags[index] && Arrays.equals(values[index], other.values[index]);
+    }
+
+    String getUtf8(int index) {
+        check(index, UTF8);
+        try {
+            return new DataInputStream(new ByteArrayInputStream(values[index])).readUTF();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Malformed utf8 constant at index " + index, ex);
+        }
+    }
+
+    /**
+     * Replaces the value of the specified utf8 entry.
+     * @param index index of the entry
+     * @param value new value
+     * @throws UTFDataFormatException if the encoded value exceeds the maximum length of a utf8 entry
+     */
+    void setUtf8(int index, String value) throws UTFDataFormatException {
+        check(index, UTF8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length() + 2);
+        try {
+            new DataOutputStream(bytes).writeUTF(value);
+        } catch (UTFDataFormatException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        values[index] = bytes.toByteArray();
+    }
+
+    int getInt(int index) {
+        check(index, INTEGER);
+        return readInt(values[index], 0);
+    }
+
+    void setInt(int index, int value) {
+        check(index, INTEGER);
+        values[index] = intBytes(value);
+    }
+
+    float getFloat(int index) {
+        check(index, FLOAT);
+        return Float.intBitsToFloat(readInt(values[index], 0));
+    }
+
+    void setFloat(int index, float value) {
+        check(index, FLOAT);
+        values[index] = intBytes(Float.floatToRawIntBits(value));
+    }
+
+    long getLong(int index) {
+        check(index, LONG);
+        return readLong(values[index]);
+    }
+
+    void setLong(int index, long value) {
+        check(index, LONG);
+        values[index] = longBytes(value);
+    }
+
+    double getDouble(int index) {
+        check(index, DOUBLE);
+        return Double.longBitsToDouble(readLong(values[index]));
+    }
+
+    void setDouble(int index, double value) {
+        check(index, DOUBLE);
+        values[index] = longBytes(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Appends a utf8 entry.
+     * @param value value of the entry
+     * @return index of the new entry
+     * @throws UTFDataFormatException if the encoded value exceeds the maximum length of a utf8 entry
+     */
+    int addUtf8(String value) throws UTFDataFormatException {
+        int index = add(UTF8, new byte[] {0, 0});
+        setUtf8(index, value);
+        return index;
+    }
+
+    /**
+     * Appends an integer entry.
+     * @param value value of the entry
+     * @return index of the new entry
+     */
+    int addInt(int value) {
+        return add(INTEGER, intBytes(value));
+    }
+
+    /**
+     * Appends a class entry (and its name).
+     * @param internalName internal name of the class (e.g. 'my/pkg/MyClass')
+     * @return index of the new entry
+     * @throws UTFDataFormatException if the name is too long
+     */
+    int addClass(String internalName) throws UTFDataFormatException {
+        return add(CLASS, shortBytes(addUtf8(internalName)));
+    }
+
+    /**
+     * Appends a method reference entry (and its name and type).
+     * @param classIndex index of the class entry of the declaring class
+     * @param name name of the method
+     * @param descriptor descriptor of the method
+     * @return index of the new entry
+     * @throws UTFDataFormatException if name or descriptor are too long
+     */
+    int addMethodRef(int classIndex, String name, String descriptor) throws UTFDataFormatException {
+        int nameIndex = addUtf8(name);
+        int descriptorIndex = addUtf8(descriptor);
+        int nameAndType = add(NAME_AND_TYPE, concat(shortBytes(nameIndex), shortBytes(descriptorIndex)));
+        return add(METHOD_REF, concat(shortBytes(classIndex), shortBytes(nameAndType)));
+    }
+
+    private int add(int tag, byte[] value) {
+        int index = tags.length;
+        if (index >= 0xFFFF) {
+            throw new IllegalStateException("Constant pool is full");
+        }
+        tags = Arrays.copyOf(tags, index + 1);
+        values = Arrays.copyOf(values, index + 1);
+        tags[index] = (byte) tag;
+        values[index] = value;
+        return index;
+    }
+
+    /**
+     * Returns the first reference stored in the specified entry, e.g., the name index of a class entry.
+     * @param index index of the entry
+     * @return the first reference stored in the entry
+     */
+    int getReference(int index) {
+        byte[] value = values[index];
+        return ((value[0] & 0xFF) << 8) | (value[1] & 0xFF);
+    }
+
+    private void check(int index, int tag) {
+        if (tags[index] != tag) {
+            throw new IllegalArgumentException(
+                "Constant at index " + index + " has tag " + tags[index] + ", expected " + tag);
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] b) {
+        return ((long) readInt(b, 0) << 32) | (readInt(b, 4) & 0xFFFFFFFFL);
+    }
+
+    private static byte[] intBytes(int v) {
+        return new byte[] {(byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v};
+    }
+
+    private static byte[] shortBytes(int v) {
+        return new byte[] {(byte) (v >>> 8), (byte) v};
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static byte[] longBytes(long v) {
+        byte[] b = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            b[i] = (byte) (v >>> (56 - 8 * i));
+        }
+        return b;
+    }
+}
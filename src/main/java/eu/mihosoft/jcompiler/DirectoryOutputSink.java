@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Writes the output to a directory.
+ */
+/*pkg private*/ final class DirectoryOutputSink implements OutputSink {
+
+    private final Path directory;
+
+    /*pkg private*/ DirectoryOutputSink(Path directory) {
+        this.directory = Objects.requireNonNull(directory, "Directory must not be null");
+    }
+
+    @Override
+    public OutputStream openClass(String className) throws IOException {
+        return openResource(className.replace('.', '/') + ".class");
+    }
+
+    @Override
+    public OutputStream openResource(String path) throws IOException {
+        Path file = directory.resolve(path);
+        Files.createDirectories(file.getParent());
+        return Files.newOutputStream(file);
+    }
+}
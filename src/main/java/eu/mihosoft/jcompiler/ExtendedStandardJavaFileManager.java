@@ -20,8 +20,12 @@ package eu.mihosoft.jcompiler;
 import io.github.classgraph.ClassGraph;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import javax.tools.*;
 
@@ -43,7 +47,22 @@ import javax.tools.*;
 	private final List<CompiledUnit> compiledUnits = new ArrayList<>();
 	private final List<CompiledUnit> compiledUnitsUnmodifiable = 
 		Collections.unmodifiableList(compiledUnits);
+	private final List<CompiledClassFile> classFiles = new ArrayList<>();
+	// sources and resources generated during compilation (e.g. by annotation processors)
+	private final Map<String, InMemoryFileObject> generatedSources = new HashMap<>();
+	private final Map<String, InMemoryFileObject> generatedResources = new HashMap<>();
 	private InMemoryClassLoader cl;
+	// monitor of the running compilation (may be null)
+	private final CompilationMonitor monitor;
+	// destination of the generated classes and resources
+	private final OutputSink sink;
+	// transformers applied to generated classes (may be null)
+	private ClassTransformerChain transformers;
+	// executes the transformer chains (may be null, i.e., transformation happens on the compile thread)
+	private Executor transformerExecutor;
+	// transformations of classes written by javac, completed by finishTransformations()
+	private final Map<CompiledClassFile, CompletableFuture<byte[]>> pendingTransformations =
+		Collections.synchronizedMap(new LinkedHashMap<>());
 
 	/**
 	 * Creates a new instance of ForwardingJavaFileManager.
@@ -54,8 +73,24 @@ import javax.tools.*;
 	 */
 	protected ExtendedStandardJavaFileManager(JavaFileManager fileManager,
 			InMemoryClassLoader cl) {
+		this(fileManager, cl, null, OutputSink.inMemory());
+	}
+
+	/**
+	 * Creates a new instance of ForwardingJavaFileManager.
+	 *
+	 * @param fileManager
+	 *            delegate to this file manager
+	 * @param cl classloader to use for compile code
+	 * @param monitor monitor of the compilation, checked whenever javac accesses files (may be null)
+	 * @param sink destination of the generated classes and resources
+	 */
+	protected ExtendedStandardJavaFileManager(JavaFileManager fileManager,
+			InMemoryClassLoader cl, CompilationMonitor monitor, OutputSink sink) {
 		super(fileManager);
 		this.cl = cl;
+		this.monitor = monitor;
+		this.sink = sink;
 	}
 
 	@Override
@@ -63,23 +98,43 @@ import javax.tools.*;
 			JavaFileManager.Location location, String className,
 			JavaFileObject.Kind kind, FileObject sibling) throws IOException {
 
+		if(monitor != null) {
+			monitor.checkpoint();
+		}
+
+		if(kind == JavaFileObject.Kind.SOURCE) {
+			// generated sources are kept in memory and compiled in the next processing round
+			InMemoryFileObject source = new InMemoryFileObject(
+				className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension, kind);
+			generatedSources.put(source.getPath(), source);
+			return source;
+		}
+
 		try {
 
-			CompiledClassFile containedClass = new CompiledClassFile(cl, className);
+			CompiledClassFile containedClass = new CompiledClassFile(cl, className, sink);
 
-			String fName = sibling.getName();
+			// class files created by annotation processors might not have a source file
+			String fName = sibling != null ? sibling.getName() : className;
 
 			List<CompiledClass> codeList = compiledCode.get(fName);
 			if(codeList ==null) {
 				codeList = new ArrayList<>();
 				compiledCode.put(fName, codeList);
-				String code = sibling.getCharContent(true).toString();
-				compiledUnits.add(new CompiledUnit(fName, code,
+				// the source is read lazily when the classes are sorted
+				JavaFileObject source = sibling instanceof JavaFileObject ? (JavaFileObject) sibling : null;
+				compiledUnits.add(new CompiledUnit(fName, source,
 					codeList)
 				);
 			}
 			codeList.add(new CompiledClass(containedClass));
-			cl.addCode(containedClass);
+			classFiles.add(containedClass);
+			if(transformers != null) {
+				// the class is defined/written once it has been transformed
+				containedClass.setCloseHandler(bytecode -> transform(containedClass, bytecode));
+			} else if(sink.isInMemory()) {
+				cl.addCode(containedClass);
+			}
 			return containedClass;
 		} catch (Exception e) {
 			throw new RuntimeException(
@@ -88,28 +143,195 @@ import javax.tools.*;
 		}
 	}
 
+	/**
+	 * Sets the transformers applied to generated classes.
+	 *
+	 * @param transformers transformer chain (may be null)
+	 * @param executor executes the transformer chains of different classes concurrently (may be null)
+	 */
+	void setTransformers(ClassTransformerChain transformers, Executor executor) {
+		this.transformers = transformers;
+		this.transformerExecutor = executor;
+	}
+
+	/**
+	 * Starts the transformation of a class written by javac.
+	 */
+	private void transform(CompiledClassFile classFile, byte[] bytecode) {
+		CompletableFuture<byte[]> transformation;
+		if(transformerExecutor == null) {
+			try {
+				transformation = CompletableFuture.completedFuture(
+					transformers.apply(classFile.getClassName(), bytecode));
+			} catch(CompilationException ex) {
+				transformation = CompletableFuture.failedFuture(ex);
+			}
+		} else {
+			transformation = CompletableFuture.supplyAsync(
+				() -> transformers.apply(classFile.getClassName(), bytecode), transformerExecutor);
+		}
+		pendingTransformations.put(classFile, transformation);
+	}
+
+	/**
+	 * Waits for pending class transformations and defines/writes the transformed classes. Does nothing if no
+	 * transformers are set.
+	 *
+	 * @throws CompilationException if a transformer failed or a class could not be written to the sink
+	 */
+	void finishTransformations() {
+		if(transformers == null) {
+			return;
+		}
+
+		List<Map.Entry<CompiledClassFile, CompletableFuture<byte[]>>> pending;
+		synchronized(pendingTransformations) {
+			pending = new ArrayList<>(pendingTransformations.entrySet());
+			pendingTransformations.clear();
+		}
+
+		CompilationException failure = null;
+		for(Map.Entry<CompiledClassFile, CompletableFuture<byte[]>> e : pending) {
+			CompiledClassFile classFile = e.getKey();
+			byte[] bytecode;
+			try {
+				bytecode = e.getValue().join();
+			} catch(CompletionException ex) {
+				if(failure == null) {
+					failure = ex.getCause() instanceof CompilationException
+						? (CompilationException) ex.getCause()
+						: new CompilationException("Cannot transform " + classFile.getClassName(), ex);
+				}
+				continue;
+			}
+			if(failure != null) {
+				continue;
+			}
+			try {
+				try(OutputStream out = sink.openClass(classFile.getClassName())) {
+					if(out != null) {
+						out.write(bytecode);
+					}
+				}
+			} catch(IOException ex) {
+				failure = new CompilationException("Cannot write " + classFile.getClassName(), ex);
+				continue;
+			}
+			if(sink.isInMemory()) {
+				classFile.setByteCode(bytecode);
+				cl.addCode(classFile);
+			}
+		}
+
+		if(failure != null) {
+			discardCompiledCode();
+			throw failure;
+		}
+	}
+
+	@Override
+	public FileObject getFileForOutput(Location location, String packageName,
+			String relativeName, FileObject sibling) throws IOException {
+
+		// generated resources are kept in memory, class output is visible to the classloader
+		InMemoryFileObject resource = new InMemoryFileObject(
+			toPath(packageName, relativeName), JavaFileObject.Kind.OTHER);
+
+		if(location == StandardLocation.SOURCE_OUTPUT) {
+			generatedSources.put(resource.getPath(), resource);
+		} else {
+			generatedResources.put(resource.getPath(), resource);
+			if(sink.isInMemory()) {
+				cl.addResource(resource);
+			}
+		}
+
+		return resource;
+	}
+
+	@Override
+	public FileObject getFileForInput(Location location, String packageName,
+			String relativeName) throws IOException {
+
+		InMemoryFileObject resource = null;
+
+		if(location == StandardLocation.SOURCE_OUTPUT) {
+			resource = generatedSources.get(toPath(packageName, relativeName));
+		} else if(location == StandardLocation.CLASS_OUTPUT) {
+			resource = generatedResources.get(toPath(packageName, relativeName));
+		}
+
+		return resource != null ? resource : super.getFileForInput(location, packageName, relativeName);
+	}
+
+	/**
+	 * Converts package name and relative name to a relative path.
+	 */
+	private static String toPath(String packageName, String relativeName) {
+		return packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + "/" + relativeName;
+	}
+
 	@Override
 	public ClassLoader getClassLoader(JavaFileManager.Location location) {
 		return cl;
 	}
 
 	/**
+	 * @param retainSource determines whether the compiled units keep their source code
 	 * @return the compiled code as list of compiled units
 	 */
-	List<CompiledUnit> getCompiledCode() {
+	List<CompiledUnit> getCompiledCode(boolean retainSource) {
 
 		// sort classes in units
 		for(CompiledUnit cU : this.compiledUnitsUnmodifiable) {
-			cU.initAndSortClassNames();
+			cU.initAndSortClassNames(retainSource);
 		}
 
 		return this.compiledUnitsUnmodifiable;
 	}
 
+	/**
+	 * Writes the generated resources to the output sink (classes are written while they are generated).
+	 *
+	 * @throws IOException if a resource cannot be written
+	 */
+	void writeResources() throws IOException {
+		for(InMemoryFileObject resource : generatedResources.values()) {
+			try(OutputStream out = sink.openResource(resource.getPath())) {
+				if(out != null) {
+					out.write(resource.getBytes());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the code generated so far from the classloader (used if the compilation has been aborted).
+	 */
+	void discardCompiledCode() {
+		synchronized(pendingTransformations) {
+			pendingTransformations.values().forEach(t -> t.cancel(false));
+			pendingTransformations.clear();
+		}
+		for(CompiledClassFile cc : classFiles) {
+			cl.removeCode(cc);
+		}
+		for(InMemoryFileObject resource : generatedResources.values()) {
+			cl.removeResource(resource);
+		}
+		classFiles.clear();
+		generatedResources.clear();
+		generatedSources.clear();
+		compiledCode.clear();
+		compiledUnits.clear();
+	}
+
 	@Override
 	public String inferBinaryName(Location location, JavaFileObject file) {
 		if (file instanceof ClassLoaderClassFile) {
 			return ((ClassLoaderClassFile)file).getClassName();
+		} else if (file instanceof CompiledClassFile) {
+			return ((CompiledClassFile)file).getClassName();
 		} else {
 			return super.inferBinaryName(location, file);
 		}
@@ -118,11 +340,31 @@ import javax.tools.*;
 	@Override
 	public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
 
+		// symbol completion happens during attribution, this gives a finer granularity than task events
+		if(monitor != null) {
+			monitor.checkpoint();
+		}
+
 		Iterable<JavaFileObject> superResults = super.list(location, packageName, kinds, recurse);
 
 		// NOTE we might want to scan classpath via classgraph
 
-		return superResults;
+		// classes compiled previously by this classloader are part of the classpath
+		if(location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+			return superResults;
+		}
+
+		List<CompiledClassFile> compiled = cl.getCompiledCode(packageName, recurse);
+		// released bytecode cannot be read by the compiler (see BytecodeRetention.RELEASE_AFTER_DEFINE)
+		compiled.removeIf(cc -> !cc.isByteCodeAvailable());
+		if(compiled.isEmpty()) {
+			return superResults;
+		}
+
+		List<JavaFileObject> results = new ArrayList<>(compiled);
+		superResults.forEach(results::add);
+
+		return results;
 
 	}
 
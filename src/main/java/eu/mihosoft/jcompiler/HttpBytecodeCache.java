@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Client of a remote cache that is accessed via http.
+ */
+/*pkg private*/ final class HttpBytecodeCache implements BytecodeCache {
+
+    private final URI uri;
+    private final Duration timeout;
+    private final HttpClient client;
+    // secret sent with PUT requests (may be null)
+    private final String secret;
+
+    /*pkg private*/ HttpBytecodeCache(URI uri, Duration timeout, String secret) {
+        Objects.requireNonNull(uri, "Uri must not be null");
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        }
+        String base = uri.toString();
+        this.uri = URI.create(base.endsWith("/") ? base : base + "/");
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        this.secret = secret;
+    }
+
+    private URI entryUri(String key) {
+        return uri.resolve("cache/" + key);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(entryUri(key)).timeout(timeout).GET().build();
+        HttpResponse<byte[]> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading cache entry " + key);
+        }
+
+        if (response.statusCode() == 404) {
+            return null;
+        } else if (response.statusCode() != 200) {
+            throw new IOException("Cannot read cache entry " + key + ", status: " + response.statusCode());
+        }
+
+        return response.body();
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(entryUri(key)).timeout(timeout)
+            .PUT(HttpRequest.BodyPublishers.ofByteArray(value));
+        if (secret != null) {
+            request.header(BytecodeCacheServer.SECRET_HEADER, secret);
+        }
+        // fire and forget, failures are irrelevant for the compilation
+        client.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding());
+    }
+}
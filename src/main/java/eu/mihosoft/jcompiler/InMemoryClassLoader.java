@@ -17,8 +17,22 @@
  */
 package eu.mihosoft.jcompiler;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * An in-memory classloader for compiled code.
@@ -27,6 +41,12 @@ import java.util.Map;
 
 	// compiled classes by name
 	private final Map<String, CompiledClassFile> customCompiledCode = new HashMap<>();
+	// compiled classes by package name and class name
+	private final Map<String, Map<String, CompiledClassFile>> compiledCodeByPackage = new HashMap<>();
+	// resources generated during compilation by path
+	private final Map<String, InMemoryFileObject> resources = new HashMap<>();
+	// defines classes shared with other compilers (may be null)
+	private volatile SharedClassLoader sharedClassLoader;
 
 	/**
 	 * Creates a new instance of this class.
@@ -36,6 +56,14 @@ import java.util.Map;
 		super(parent);
 	}
 
+	/**
+	 * Specifies the classloader that defines classes shared with other compilers.
+	 * @param sharedClassLoader shared classloader (may be {@code null})
+	 */
+	public void setSharedClassLoader(SharedClassLoader sharedClassLoader) {
+		this.sharedClassLoader = sharedClassLoader;
+	}
+
 	/**
 	 * Adds the specified compiled class to this classloader. Existing classes with identical names are 
 	 * replaced.
@@ -43,6 +71,129 @@ import java.util.Map;
 	 */
 	public void addCode(CompiledClassFile cc) {
 		customCompiledCode.put(cc.getName(), cc);
+		compiledCodeByPackage.computeIfAbsent(cc.getPackageName(), p -> new HashMap<>()).put(cc.getName(), cc);
+	}
+
+	/**
+	 * Removes the specified compiled class from this classloader. Classes that have already been loaded are
+	 * not affected.
+	 * @param cc compiled class to remove
+	 */
+	public void removeCode(CompiledClassFile cc) {
+		if(customCompiledCode.remove(cc.getName(), cc)) {
+			Map<String, CompiledClassFile> pkg = compiledCodeByPackage.get(cc.getPackageName());
+			pkg.remove(cc.getName());
+			if(pkg.isEmpty()) {
+				compiledCodeByPackage.remove(cc.getPackageName());
+			}
+		}
+	}
+
+	/**
+	 * Determines whether this classloader contains compiled classes. Compiled classes are visible to subsequent
+	 * compilations (see {@link ExtendedStandardJavaFileManager}).
+	 * @return {@code true} if this classloader contains compiled classes; {@code false} otherwise
+	 */
+	public boolean hasCompiledCode() {
+		return !customCompiledCode.isEmpty();
+	}
+
+	/**
+	 * Returns the compiled classes of the specified package.
+	 * @param packageName name of the package (empty string for the default package)
+	 * @param recurse determines whether to include classes of subpackages
+	 * @return the compiled classes of the specified package
+	 */
+	public List<CompiledClassFile> getCompiledCode(String packageName, boolean recurse) {
+		List<CompiledClassFile> result = new ArrayList<>();
+		if(!recurse) {
+			result.addAll(compiledCodeByPackage.getOrDefault(packageName, Collections.emptyMap()).values());
+			return result;
+		}
+		String prefix = packageName + ".";
+		compiledCodeByPackage.forEach((pkg, classes) -> {
+			if(packageName.isEmpty() || pkg.equals(packageName) || pkg.startsWith(prefix)) {
+				result.addAll(classes.values());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Adds the specified resource to this classloader. Existing resources with identical paths are replaced.
+	 * @param resource resource to add
+	 */
+	public void addResource(InMemoryFileObject resource) {
+		resources.put(resource.getPath(), resource);
+	}
+
+	/**
+	 * Removes the specified resource from this classloader.
+	 * @param resource resource to remove
+	 */
+	public void removeResource(InMemoryFileObject resource) {
+		resources.remove(resource.getPath(), resource);
+	}
+
+	@Override
+	protected URL findResource(String name) {
+		InMemoryFileObject resource = resources.get(name);
+
+		if (resource != null) {
+			return createUrl(name, resource::openInputStream);
+		}
+
+		CompiledClassFile cc = name.endsWith(".class")
+			? customCompiledCode.get(name.substring(0, name.length() - ".class".length()).replace('/', '.'))
+			: null;
+
+		if (cc != null && cc.isByteCodeAvailable()) {
+			// bytecode is inflated on demand (see BytecodeRetention.COMPRESSED)
+			return createUrl(name, () -> new ByteArrayInputStream(cc.getByteCode()));
+		}
+
+		return super.findResource(name);
+	}
+
+	/**
+	 * Creates an in-memory url for the specified resource.
+	 * @param name name of the resource
+	 * @param content opens the content of the resource
+	 * @return in-memory url for the specified resource
+	 */
+	private static URL createUrl(String name, Callable<InputStream> content) {
+		try {
+			return new URL("mem", null, -1, "/" + name, new URLStreamHandler() {
+				@Override
+				protected URLConnection openConnection(URL u) {
+					return new URLConnection(u) {
+						@Override
+						public void connect() {
+							// nothing to connect, content is in memory
+						}
+
+						@Override
+						public InputStream getInputStream() throws IOException {
+							try {
+								return content.call();
+							} catch (IOException ex) {
+								throw ex;
+							} catch (Exception ex) {
+								throw new IOException("Cannot open resource " + name, ex);
+							}
+						}
+					};
+				}
+			});
+		} catch (MalformedURLException ex) {
+			throw new IllegalStateException("Cannot create url for resource " + name, ex);
+		}
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) throws IOException {
+		URL url = findResource(name);
+		return url == null ? Collections.emptyEnumeration() : Collections.enumeration(Collections.singletonList(url));
 	}
 
 	@Override
@@ -50,11 +201,29 @@ import java.util.Map;
 
 		CompiledClassFile cc = customCompiledCode.get(name);
 
-		if (cc == null) {
+		if (cc == null && MethodProbes.class.getName().equals(name)) {
+			// instrumented classes must see the probe runtime even if the parent classloader does not
+			return MethodProbes.class;
+		} else if (cc == null) {
 			return super.findClass(name);
+		} else if (cc.getDefiningFile() != null) {
+			// released bytecode of a previous generation cannot be defined again
+			return cc.getDefiningFile().loadClass();
 		} else {
-			byte[] byteCode = cc.getByteCode();
-			return defineClass(name, byteCode, 0, byteCode.length);
+			SharedClassLoader shared = sharedClassLoader;
+			ByteBuffer mapped = cc.getMappedByteCode();
+			Class<?> cls;
+			if (mapped != null && shared == null) {
+				// classes of a namespace image are defined directly from the mapped file
+				cls = defineClass(name, mapped, (ProtectionDomain) null);
+			} else {
+				byte[] byteCode = cc.getByteCode();
+				cls = shared != null && shared.isShared(name, byteCode)
+					? shared.loadClass(name)
+					: defineClass(name, byteCode, 0, byteCode.length);
+			}
+			cc.defined();
+			return cls;
 		}
 		
 	}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import javax.tools.SimpleJavaFileObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A file created during compilation that is kept in memory, e.g., sources and resources generated by
+ * annotation processors.
+ */
+/*pkg private*/ final class InMemoryFileObject extends SimpleJavaFileObject {
+    private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    private final String path;
+
+    /**
+     * Creates a new instance of this class.
+     * @param path relative path of this file, e.g., {@code my/pkg/MyClass.java}
+     * @param kind kind of this file
+     */
+    /*pkg private*/ InMemoryFileObject(String path, Kind kind) {
+        super(URI.create("mem:///" + path), kind);
+        this.path = path;
+    }
+
+    /**
+     * Returns the relative path of this file, e.g., {@code my/pkg/MyClass.java}.
+     * @return the relative path of this file
+     */
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public OutputStream openOutputStream() throws IOException {
+        baos.reset();
+        return baos;
+    }
+
+    @Override
+    public Writer openWriter() throws IOException {
+        return new OutputStreamWriter(openOutputStream(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+        return new ByteArrayInputStream(getBytes());
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+        return new String(getBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the content of this file.
+     * @return the content of this file
+     */
+    public byte[] getBytes() {
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.OutputStream;
+
+/**
+ * Keeps the output in memory (classes are defined by the classloader of the compiler).
+ */
+/*pkg private*/ final class InMemoryOutputSink implements OutputSink {
+
+    /*pkg private*/ static final InMemoryOutputSink INSTANCE = new InMemoryOutputSink();
+
+    private InMemoryOutputSink() {
+    }
+
+    @Override
+    public OutputStream openClass(String className) {
+        return null;
+    }
+
+    @Override
+    public OutputStream openResource(String path) {
+        return null;
+    }
+
+    @Override
+    public boolean isInMemory() {
+        return true;
+    }
+}
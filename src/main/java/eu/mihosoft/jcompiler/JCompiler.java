@@ -19,12 +19,30 @@ package eu.mihosoft.jcompiler;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.annotation.processing.Processor;
 import javax.tools.*;
 
+import com.sun.source.util.JavacTask;
+
 /**
  * Simple and efficient compiler API for Java code (defaults to in-memory compilation).
  */
@@ -36,6 +54,52 @@ public final class JCompiler {
 	private InMemoryClassLoader classLoader;
 	// compiler options
 	private Iterable<String> options;
+	// maximum number of errors before compilation is aborted (0 means unlimited)
+	private int maxErrors;
+	// compilation timeout in nanoseconds (0 means no timeout)
+	private long timeoutNanos;
+	// estimated compiler memory per chunk in bytes (0 disables chunked compilation)
+	private long memoryBudget;
+	// determines whether compiled units keep their source code
+	private boolean retainSource;
+	// destination of compiled classes and resources
+	private OutputSink outputSink = OutputSink.inMemory();
+	// cache of compilation results (may be null)
+	private BytecodeCache bytecodeCache;
+	// pool of worker processes (may be null)
+	private CompilerWorkerPool workerPool;
+	// determines whether classpath snapshots hash the content of classpath files
+	private boolean hashClasspath;
+	// determines whether all files of directory entries are compared to detect classpath changes
+	private boolean deepClasspathScan;
+	// file manager (reused while classpath and options are unchanged)
+	private StandardJavaFileManager standardFileManager;
+	// snapshot of the classpath the file manager has been created for
+	private ClasspathSnapshot classpathSnapshot;
+	// determines whether the classpath snapshot has been checked for the running compilation
+	private boolean classpathChecked;
+	// options the file manager has been created for (file manager options are applied to the file manager)
+	private Iterable<String> fileManagerOptions;
+	// factories of annotation processors (empty list disables annotation processing)
+	private List<Supplier<? extends Processor>> processorFactories = Collections.emptyList();
+	// transformers applied to compiled classes (in chain order)
+	private final List<ClassTransformer> classTransformers = new ArrayList<>();
+	// executes the transformer chains of different classes (may be null)
+	private Executor transformerExecutor;
+	// registry of invocation probes injected into compiled methods (may be null)
+	private MethodProbes methodProbes;
+	// tenant whose quotas apply to this compiler (may be null)
+	private CompileTenant tenant;
+	// determines whether identical concurrent compilations share their result
+	private boolean singleFlight;
+	// records compile requests for warm-up at startup (may be null)
+	private WarmupRecorder warmupRecorder;
+	// determines how long the bytecode of compiled classes is kept in memory
+	private BytecodeRetention bytecodeRetention = BytecodeRetention.KEEP;
+	// determines whether byte-identical classes of different compilers share their bytecode
+	private boolean bytecodeInterning;
+	// defines classes shared with other compilers (may be null)
+	private SharedClassLoader sharedClassLoader;
 
 	// source code map (compilation units by name)
 	private final Map<String, CompilationUnitSource> sourceCodes 
@@ -64,7 +128,48 @@ public final class JCompiler {
 	 * @param parentClassLoader parent classloader to be used during compilation/class loading
 	 */
 	public void setParentClassLoader(URLClassLoader parentClassLoader) {
+		if(tenant != null) {
+			throw new IllegalStateException("The classloader hierarchy of a tenant compiler cannot be changed");
+		}
 		this.classLoader = new InMemoryClassLoader(parentClassLoader);
+		this.classLoader.setSharedClassLoader(sharedClassLoader);
+	}
+
+	/**
+	 * Enables single-flight compilation. If an identical compilation (same sources, options, classpath and parent
+	 * classloader) of another single-flight compiler is running, {@link #compileAll()} waits for it and returns a view
+	 * of its result (same units and diagnostics, own timings) instead of starting the compiler. The compiled classes
+	 * are added to the classloader of each waiting compiler as well, i.e., they can be loaded via
+	 * {@link #getClassloader()} and are visible to subsequent compilations. Classes loaded via the shared result
+	 * (e.g. {@link CompilationResult#loadClasses()}) are defined by the compiler that performed the compilation.
+	 * Single-flight compilation requires the output to be kept in memory and is not available with method probes,
+	 * annotation processors or if the classloader contains classes of previous compilations (these are not part
+	 * of the fingerprint).
+	 *
+	 * @param singleFlight {@code true} to share results of identical concurrent compilations
+	 */
+	public void setSingleFlight(boolean singleFlight) {
+		this.singleFlight = singleFlight;
+	}
+
+	/**
+	 * Specifies a recorder that records the compile requests of this compiler for warm-up at startup (see
+	 * {@link CompileWarmup}). Successful compilations are recorded until the recorder is full. Recording
+	 * failures do not affect compilation.
+	 *
+	 * @param warmupRecorder recorder of compile requests ({@code null} disables recording)
+	 */
+	public void setWarmupRecorder(WarmupRecorder warmupRecorder) {
+		this.warmupRecorder = warmupRecorder;
+	}
+
+	/**
+	 * Assigns this compiler to the specified tenant (see {@link CompileTenant#newCompiler()}).
+	 *
+	 * @param tenant tenant whose quotas apply to this compiler
+	 */
+	/*pkg private*/ void setTenant(CompileTenant tenant) {
+		this.tenant = tenant;
 	}
 
 	/**
@@ -85,6 +190,287 @@ public final class JCompiler {
 		this.options = Arrays.asList(options);
 	}
 
+	/**
+	 * Enables or disables the fail-fast mode. In fail-fast mode compilation is aborted as soon as the first
+	 * error has been reported.
+	 *
+	 * @param failFast determines whether to abort compilation on the first error
+	 * @see #setFailFast(int)
+	 */
+	public void setFailFast(boolean failFast) {
+		setFailFast(failFast ? 1 : 0);
+	}
+
+	/**
+	 * Enables the fail-fast mode. Compilation is aborted as soon as the specified number of errors has been
+	 * reported. No code is generated once an error has been reported. The result of an aborted
+	 * compilation contains the diagnostics collected so far but no compiled units, see
+	 * {@link CompilationResult#isAborted()}.
+	 *
+	 * @param maxErrors number of errors that cause the compilation to be aborted ({@code 0} disables fail-fast mode)
+	 */
+	public void setFailFast(int maxErrors) {
+		if(maxErrors < 0) {
+			throw new IllegalArgumentException("Maximum number of errors must not be negative: " + maxErrors);
+		}
+		this.maxErrors = maxErrors;
+	}
+
+	/**
+	 * Specifies the maximum duration of a compilation. Compilations that do not finish in time are aborted
+	 * with outcome {@link CompilationOutcome#TIMED_OUT}. The deadline is checked cooperatively, i.e., between
+	 * compiler phases, for each compilation unit and whenever the compiler resolves types.
+	 *
+	 * @param timeout maximum duration of a compilation ({@code null} or zero disables the timeout)
+	 */
+	public void setTimeout(Duration timeout) {
+		if(timeout != null && timeout.isNegative()) {
+			throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+		}
+		this.timeoutNanos = timeout == null ? 0 : timeout.toNanos();
+	}
+
+	/**
+	 * Specifies the memory budget of a compilation. If the estimated compiler memory consumption of all sources
+	 * exceeds the budget, {@link #compileAll()} splits the sources into chunks of dependent compilation units
+	 * that are compiled one after another. Classes of previous chunks are visible to subsequent chunks, i.e., the
+	 * result is equivalent to compiling all sources at once, but the compiler state (syntax trees, symbols) is
+	 * released after each chunk. The compilation stops after the first chunk with errors.
+	 *
+	 * @param bytes estimated compiler memory per chunk in bytes (0 disables chunked compilation)
+	 */
+	public void setMemoryBudget(long bytes) {
+		if(bytes < 0) {
+			throw new IllegalArgumentException("Memory budget must not be negative: " + bytes);
+		}
+		this.memoryBudget = bytes;
+	}
+
+	/**
+	 * Specifies whether compiled units keep their source code (see {@link CompiledUnit#getCode()}). By default,
+	 * the source code is not retained after compilation.
+	 *
+	 * @param retainSource determines whether compiled units keep their source code
+	 */
+	public void setRetainSource(boolean retainSource) {
+		this.retainSource = retainSource;
+	}
+
+	/**
+	 * Specifies how long the bytecode of compiled classes is kept in memory after compilation. By default, the
+	 * bytecode is kept uncompressed. Long-running processes that compile many classes can keep it compressed
+	 * (inflated on demand) or release it once the classes have been defined. Together with
+	 * {@link #setRetainSource(boolean)} this reduces the memory retained by compiled units.
+	 * The policy only applies to output sinks that keep the output in memory.
+	 *
+	 * @param retention retention policy ({@code null} keeps the bytecode)
+	 */
+	public void setBytecodeRetention(BytecodeRetention retention) {
+		this.bytecodeRetention = retention == null ? BytecodeRetention.KEEP : retention;
+	}
+
+	/**
+	 * Specifies whether the bytecode of compiled classes is interned in a process-wide table. Byte-identical
+	 * classes produced by different compilers (e.g., helper types emitted into every unit) are then stored once.
+	 * Interned bytecode is released once no compiled class refers to it.
+	 *
+	 * @param bytecodeInterning {@code true} to intern the bytecode of compiled classes
+	 */
+	public void setBytecodeInterning(boolean bytecodeInterning) {
+		this.bytecodeInterning = bytecodeInterning;
+	}
+
+	/**
+	 * Specifies the classloader that defines classes shared with other compilers. Compiled classes accepted by the
+	 * policy of the shared classloader are defined once by the shared classloader instead of the classloader of
+	 * this compiler, provided that other compilers produced byte-identical classes (see {@link SharedClassLoader}).
+	 *
+	 * @param sharedClassLoader shared classloader ({@code null} defines all classes by the classloader of this compiler)
+	 */
+	public void setSharedClassLoader(SharedClassLoader sharedClassLoader) {
+		this.sharedClassLoader = sharedClassLoader;
+		classLoader.setSharedClassLoader(sharedClassLoader);
+	}
+
+	/**
+	 * Specifies the destination of the classes and resources generated by {@link #compileAll()}. Classes are
+	 * written to the sink while the compiler emits them. Unless the sink keeps the output in memory, compiled
+	 * classes are neither defined by the classloader of this compiler nor is their bytecode retained, e.g.,
+	 * {@code OutputSink.jar(jarStream)} writes the classes of large compilations without keeping them on the heap.
+	 * Chunked compilation (see {@link #setMemoryBudget(long)}) requires the output to be kept in memory.
+	 *
+	 * @param outputSink destination of compiled classes and resources ({@code null} restores the in-memory default)
+	 * @see OutputSink
+	 */
+	public void setOutputSink(OutputSink outputSink) {
+		this.outputSink = outputSink == null ? OutputSink.inMemory() : outputSink;
+	}
+
+	/**
+	 * Adds a transformer to the chain of class transformers. Compiled classes pass through the chain after the
+	 * compiler has generated them and before they are defined by the classloader of this compiler or written to the
+	 * output sink. Transformers are applied in the order they have been added. If a transformer fails, the
+	 * compilation fails with a {@link CompilationException}.
+	 *
+	 * @param transformer transformer to add
+	 * @see ClassTransformer#stripDebugInfo()
+	 * @see CompilationResult#getTransformerTimings()
+	 */
+	public void addClassTransformer(ClassTransformer transformer) {
+		if(transformer == null) {
+			throw new IllegalArgumentException("Transformer must not be null");
+		}
+		classTransformers.add(transformer);
+	}
+
+	/**
+	 * Specifies the executor that transforms compiled classes (see {@link #addClassTransformer(ClassTransformer)}).
+	 * With an executor, classes are transformed concurrently with code generation and with each other. Without an
+	 * executor, classes are transformed on the compiling thread.
+	 *
+	 * @param executor executor that transforms compiled classes ({@code null} transforms on the compiling thread)
+	 */
+	public void setTransformerExecutor(Executor executor) {
+		this.transformerExecutor = executor;
+	}
+
+	/**
+	 * Enables invocation probes for compiled methods. Probes count the invocations of each method and optionally
+	 * measure sampled execution times (see {@link MethodProbes#newInstance(int)}). Probes are injected after all
+	 * class transformers have been applied. Instrumented compilations are not cached (probe ids are process-local).
+	 *
+	 * @param methodProbes registry of the injected probes ({@code null} disables instrumentation)
+	 */
+	public void setMethodProbes(MethodProbes methodProbes) {
+		this.methodProbes = methodProbes;
+	}
+
+	/**
+	 * Returns the registry of the probes injected into compiled methods.
+	 *
+	 * @return the registry of the probes injected into compiled methods ({@code null} if instrumentation is disabled)
+	 */
+	public MethodProbes getMethodProbes() {
+		return methodProbes;
+	}
+
+	/**
+	 * Specifies a cache of compilation results (e.g. {@link BytecodeCache#remote(java.net.URI, Duration)}). Before
+	 * compiling, {@link #compileAll()} looks up the result by the fingerprint of the compilation (sources, options,
+	 * classpath and compiler version). Successful compilations are stored in the cache.
+	 * If the cache fails, the sources are compiled locally. The cache is only used if the output is kept in memory,
+	 * sources are not retained, annotation processing is disabled (generated resources are not cached) and the
+	 * classloader of this compiler does not contain classes of previous compilations (these classes are visible to
+	 * the compiler but not part of the fingerprint).
+	 * Classpath snapshots include content hashes while a cache is set, i.e., compilers with identical classpaths
+	 * share entries even if the classpaths are located in different directories or on different hosts.
+	 *
+	 * @param cache cache of compilation results ({@code null} disables caching)
+	 */
+	public void setBytecodeCache(BytecodeCache cache) {
+		this.bytecodeCache = cache;
+	}
+
+	/**
+	 * Determines whether classpath snapshots include content hashes (requested or required by the cache).
+	 *
+	 * @return {@code true} if classpath snapshots include content hashes; {@code false} otherwise
+	 */
+	private boolean isClasspathHashing() {
+		return hashClasspath || bytecodeCache != null;
+	}
+
+	/**
+	 * Specifies a pool of worker processes that compile on behalf of this compiler. Sources and classpath are sent
+	 * to a worker, the compiled classes are sent back and defined by the classloader of this compiler. Workers are
+	 * only used if the output is kept in memory, annotation processing is disabled and no cancellation token is
+	 * specified. Timeout, fail-fast mode and the classes of previous compilations are sent to the worker, memory
+	 * budgets do not apply to worker compilations (see also {@link CompilerWorkerPool#setTimeout(Duration)}).
+	 * The pool is owned by the caller.
+	 *
+	 * @param pool pool of worker processes ({@code null} compiles in-process)
+	 */
+	public void setWorkerPool(CompilerWorkerPool pool) {
+		this.workerPool = pool;
+	}
+
+	/**
+	 * Specifies whether classpath snapshots include content hashes (see {@link ClasspathSnapshot#of(List, boolean)}).
+	 * Hashed fingerprints do not depend on paths and modification times but taking the snapshot requires reading all
+	 * classpath files. Changes are always detected via size and modification time. Hashing is always enabled while
+	 * a bytecode cache is set (see {@link #setBytecodeCache(BytecodeCache)}).
+	 *
+	 * @param hashClasspath determines whether classpath snapshots include content hashes
+	 */
+	public void setClasspathHashing(boolean hashClasspath) {
+		if(this.hashClasspath != hashClasspath) {
+			this.hashClasspath = hashClasspath;
+			this.classpathSnapshot = null;
+		}
+	}
+
+	/**
+	 * Specifies whether classpath changes are detected by comparing all files of directory entries. By default
+	 * directory entries are compared by the modification times of their directories, i.e., added, removed and
+	 * renamed class files are detected but class files modified in place are not (see
+	 * {@link ClasspathSnapshot#isUpToDate(boolean)}).
+	 *
+	 * @param deepClasspathScan determines whether to compare all files of directory entries
+	 */
+	public void setClasspathDeepScan(boolean deepClasspathScan) {
+		this.deepClasspathScan = deepClasspathScan;
+	}
+
+	/**
+	 * Returns the snapshot of the current classpath (classpath of this process and urls of the parent classloader).
+	 * The snapshot is only taken again if the classpath changed since the last compilation.
+	 *
+	 * @return the snapshot of the current classpath
+	 */
+	public ClasspathSnapshot getClasspathSnapshot() {
+		getStandardFileManager();
+		return classpathSnapshot;
+	}
+
+	/**
+	 * Returns the fingerprint of the current classpath, e.g., for keying caches of compiled code.
+	 *
+	 * @return the fingerprint of the current classpath
+	 * @see #getClasspathSnapshot()
+	 */
+	public String getClasspathFingerprint() {
+		return getClasspathSnapshot().getFingerprint();
+	}
+
+	/**
+	 * Disables annotation processing (default). The classpath is not searched for annotation processors.
+	 */
+	public void disableAnnotationProcessing() {
+		this.processorFactories = Collections.emptyList();
+	}
+
+	/**
+	 * Specifies the annotation processors to use. Processors are created by the specified factories for each
+	 * compilation since javac initializes processors with a new processing environment per compilation. The
+	 * classpath is not searched for annotation processors. Generated sources and resources are kept in memory.
+	 * Generated resources can be accessed via {@link #getClassloader()}.
+	 *
+	 * @param processorFactories factories that create the annotation processors to use
+	 */
+	public void setAnnotationProcessors(List<? extends Supplier<? extends Processor>> processorFactories) {
+		this.processorFactories = Collections.unmodifiableList(new ArrayList<>(processorFactories));
+	}
+
+	/**
+	 * Searches the parent classloader for annotation processors (via {@link ServiceLoader}) and uses the
+	 * processors found for all subsequent compilations. The search is performed only once (per invocation of this
+	 * method), new processor instances are created from the discovered providers for each compilation.
+	 */
+	public void discoverAnnotationProcessors() {
+		this.processorFactories = Collections.unmodifiableList(
+			ServiceLoader.load(Processor.class, classLoader.getParent()).stream().collect(Collectors.toList()));
+	}
+
 	/**
 	 * Compiles all sources added with {@link #addSource(String, String)}.
 	 *
@@ -98,10 +484,77 @@ public final class JCompiler {
 	 * @return compilation result (compiled classes, warnings and errors)
 	 */
 	public CompilationResult compileAll() {
+		return compileAll(null);
+	}
+
+	/**
+	 * Compiles all sources added with {@link #addSource(String, String)}. The compilation can be cancelled
+	 * via the specified token. Cancelled compilations are aborted with outcome
+	 * {@link CompilationOutcome#CANCELLED} and do not contain compiled units.
+	 *
+	 * @param cancellationToken token used to cancel the compilation (may be {@code null})
+	 * @return compilation result (compiled classes, warnings and errors)
+	 */
+	public CompilationResult compileAll(CancellationToken cancellationToken) {
 		if (sourceCodes.size() == 0) {
 			throw new CompilationException("No source code to compile");
 		}
-		Collection<CompilationUnitSource> compilationUnits = sourceCodes.values();
+		return compileAll(sourceCodes.values(), cancellationToken);
+	}
+
+	/**
+	 * Recompiles the specified units against the classes of a new classloader generation. The new classloader
+	 * contains the classes of the previous generation except the specified stale classes, i.e., the recompiled
+	 * classes can be loaded even if the previous versions have already been loaded. Carried-over classes share the
+	 * bytecode of the previous generation (retention and interning are preserved). Classes whose bytecode has been
+	 * released (see {@link BytecodeRetention#RELEASE_AFTER_DEFINE}) are loaded from the generation that defined them.
+	 *
+	 * @param unitNames names of the units to compile (added via {@code addSource(..)})
+	 * @param staleClasses classes of the previous generation that are not carried over (e.g. of changed units)
+	 * @return compilation result (only contains the recompiled units)
+	 */
+	/*pkg private*/ CompilationResult recompile(Collection<String> unitNames, Set<String> staleClasses) {
+		if(tenant != null) {
+			throw new IllegalStateException("The classloader hierarchy of a tenant compiler cannot be changed");
+		}
+		InMemoryClassLoader next = new InMemoryClassLoader(classLoader.getParent());
+		next.setSharedClassLoader(sharedClassLoader);
+		for(CompiledClassFile cc : classLoader.getCompiledCode("", true)) {
+			if(staleClasses.contains(cc.getClassName())) {
+				continue;
+			}
+			try {
+				next.addCode(cc.carryOver(next));
+			} catch(URISyntaxException ex) {
+				throw new CompilationException("Illegal code name", ex);
+			}
+		}
+		classLoader = next;
+
+		List<CompilationUnitSource> compilationUnits = new ArrayList<>(unitNames.size());
+		for(String unitName : unitNames) {
+			CompilationUnitSource source = sourceCodes.get(unitName);
+			if(source == null) {
+				throw new IllegalArgumentException("Unknown compilation unit: " + unitName);
+			}
+			compilationUnits.add(source);
+		}
+		if(compilationUnits.isEmpty()) {
+			// only removed units
+			return new CompilationResult(Collections.emptyList(), Collections.emptyList(), true);
+		}
+		return compileAll(compilationUnits, null);
+	}
+
+	/**
+	 * Compiles the specified units.
+	 *
+	 * @param compilationUnits units to compile
+	 * @param cancellationToken token used to cancel the compilation (may be {@code null})
+	 * @return compilation result (compiled classes, warnings and errors)
+	 */
+	private CompilationResult compileAll(Collection<CompilationUnitSource> compilationUnits,
+			CancellationToken cancellationToken) {
 		CompiledClassFile[] code = new CompiledClassFile[compilationUnits.size()];
 		Iterator<CompilationUnitSource> iter = compilationUnits.iterator();
 		for (int i = 0; i < code.length; i++) {
@@ -112,9 +565,386 @@ public final class JCompiler {
 			}
 		}
 
+		// quotas are checked before the compiler starts
+		CompileTenant.Permit permit = tenant == null ? null : tenant.acquire(compilationUnits);
+		long start = System.nanoTime();
+		try {
+			// fingerprints and the compilation share one classpath check
+			getStandardFileManager();
+			classpathChecked = true;
+			CompilationResult result;
+			if(singleFlight && outputSink.isInMemory() && methodProbes == null && processorFactories.isEmpty()
+					&& !classLoader.hasCompiledCode()) {
+				String fingerprint = computeFingerprint(compilationUnits) + (retainSource ? ":source" : "")
+					+ ":" + bytecodeRetention;
+				AtomicBoolean leader = new AtomicBoolean();
+				result = SingleFlight.execute(fingerprint, classLoader.getParent(), () -> {
+					leader.set(true);
+					CompilationResult shared = compileUnits(compilationUnits, cancellationToken, permit);
+					// shared results keep the time of the compilation that produced them
+					shared.setCompileTime(Duration.ofNanos(System.nanoTime() - start));
+					return shared;
+				}, cancellationToken, timeoutNanos);
+				if(!leader.get()) {
+					// the classes of the shared result are visible to this compiler as well
+					for(CompiledUnit unit : result.getCompiledUnits()) {
+						for(CompiledClass cls : unit.getClasses()) {
+							try {
+								classLoader.addCode(cls.getFile().carryOver(classLoader));
+							} catch(URISyntaxException ex) {
+								throw new CompilationException("Illegal code name", ex);
+							}
+						}
+					}
+				}
+			} else {
+				result = compileUnits(compilationUnits, cancellationToken, permit);
+			}
+			if(result.getCompileTime().isZero()) {
+				result.setCompileTime(Duration.ofNanos(System.nanoTime() - start));
+			}
+			if(warmupRecorder != null && result.compilationSucceeded() && !warmupRecorder.isFull()) {
+				try {
+					warmupRecorder.record(options, compilationUnits);
+				} catch(UncheckedIOException ex) {
+					// the warm-up is best effort
+				}
+			}
+			if(tenant != null && outputSink.isInMemory()) {
+				tenant.chargeClasses(classLoader, result);
+			}
+			if(outputSink.isInMemory()
+					&& (bytecodeInterning || sharedClassLoader != null || bytecodeRetention != BytecodeRetention.KEEP)) {
+				// applied after caching and quota checks which read the uncompressed bytecode
+				for(CompiledUnit unit : result.getCompiledUnits()) {
+					for(CompiledClass cls : unit.getClasses()) {
+						if(bytecodeInterning) {
+							cls.getFile().intern();
+						}
+						if(sharedClassLoader != null && result.compilationSucceeded()) {
+							sharedClassLoader.offer(cls.getClassName(), cls.getByteCode());
+						}
+						cls.getFile().setRetention(bytecodeRetention);
+					}
+				}
+			}
+			return result;
+		} finally {
+			classpathChecked = false;
+			if(permit != null) {
+				permit.release();
+			}
+		}
+	}
+
+	/**
+	 * Compiles the specified units (from the cache, in a worker process, in chunks or in a single task).
+	 *
+	 * @param compilationUnits units to compile
+	 * @param cancellationToken token used to cancel the compilation (may be {@code null})
+	 * @param permit tenant permit of the compilation (may be {@code null})
+	 * @return compilation result
+	 */
+	private CompilationResult compileUnits(Collection<CompilationUnitSource> compilationUnits,
+			CancellationToken cancellationToken, CompileTenant.Permit permit) {
+		String cacheKey = null;
+		if(bytecodeCache != null && outputSink.isInMemory() && !retainSource && processorFactories.isEmpty()
+				&& methodProbes == null && !classLoader.hasCompiledCode()) {
+			cacheKey = computeFingerprint(compilationUnits);
+			CompilationResult cached = loadFromCache(cacheKey);
+			if(cached != null) {
+				return cached;
+			}
+		}
+
+		CompilationResult result;
+		if(workerPool != null && outputSink.isInMemory() && processorFactories.isEmpty() && cancellationToken == null) {
+			if(permit != null) {
+				// the compile time is consumed by another process
+				permit.chargeElapsedTime();
+			}
+			result = compileInWorker(compilationUnits);
+		} else if(memoryBudget > 0 && CompilationChunkPlanner.estimateMemory(compilationUnits) > memoryBudget) {
+			if(!outputSink.isInMemory()) {
+				// subsequent chunks are compiled against the classes of previous chunks
+				throw new IllegalStateException("Chunked compilation requires an output sink that keeps the output in memory");
+			}
+			result = compileChunked(CompilationChunkPlanner.plan(compilationUnits, memoryBudget), cancellationToken);
+		} else {
+			result = compile(compilationUnits, classLoader, cancellationToken, true, timeoutNanos, outputSink);
+		}
+
+		if(cacheKey != null && result.compilationSucceeded()) {
+			storeInCache(cacheKey, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Compiles the specified units in a worker process.
+	 *
+	 * @param compilationUnits units to compile
+	 * @return compilation result
+	 */
+	private CompilationResult compileInWorker(Collection<CompilationUnitSource> compilationUnits) {
+		List<String> workerOptions = new ArrayList<>();
+		if(options != null) {
+			options.forEach(workerOptions::add);
+		}
+		if(!workerOptions.contains("-classpath") && !workerOptions.contains("-cp") && !workerOptions.contains("--class-path")) {
+			// same classpath as for in-process compilation
+			List<String> classpath = new ArrayList<>();
+			classpath.add(System.getProperty("java.class.path", ""));
+			if(classLoader.getParent() instanceof URLClassLoader) {
+				for(URL url : ((URLClassLoader) classLoader.getParent()).getURLs()) {
+					classpath.add(new File(url.getFile()).getPath());
+				}
+			}
+			workerOptions.add("-classpath");
+			workerOptions.add(String.join(File.pathSeparator, classpath));
+		}
+
+		Map<String, String> sources = new LinkedHashMap<>();
+		for(CompilationUnitSource unit : compilationUnits) {
+			try {
+				sources.put(unit.getClassName(), unit.getCharContent(true).toString());
+			} catch(IOException ex) {
+				throw new CompilationException("Cannot read source of compilation unit " + unit.getClassName(), ex);
+			}
+		}
+
+		// classes of previous compilations are visible to the worker compilation
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		for(CompiledClassFile file : classLoader.getCompiledCode("", true)) {
+			if(file.isByteCodeAvailable()) {
+				classes.put(file.getClassName(), file.getByteCode());
+			}
+		}
+		long timeoutMillis = timeoutNanos > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)) : 0;
+		CompilationCodec.RequestSettings settings = new CompilationCodec.RequestSettings(maxErrors, timeoutMillis, classes);
+
+		CompilationResult result = workerPool.compile(workerOptions, sources, settings, classLoader);
+
+		ClassTransformerChain chain = createTransformerChain();
+		if(chain != null) {
+			// worker results are transformed in-process before their classes are loaded
+			for(CompiledUnit unit : result.getCompiledUnits()) {
+				for(CompiledClass cls : unit.getClasses()) {
+					cls.getFile().setByteCode(chain.apply(cls.getClassName(), cls.getByteCode()));
+				}
+			}
+			result.setTransformerTimings(chain.getTimings());
+			if(methodProbes != null) {
+				methodProbes.registerUnits(result);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Creates the transformer chain of a compilation (class transformers followed by the probe injection).
+	 *
+	 * @return the transformer chain or {@code null} if no classes are transformed
+	 */
+	private ClassTransformerChain createTransformerChain() {
+		if(classTransformers.isEmpty() && methodProbes == null) {
+			return null;
+		}
+		List<ClassTransformer> chain = new ArrayList<>(classTransformers);
+		if(methodProbes != null) {
+			chain.add(new ProbeTransformer(methodProbes));
+		}
+		return new ClassTransformerChain(chain);
+	}
+
+	/**
+	 * Computes the fingerprint of the compilation of the specified units.
+	 *
+	 * @param compilationUnits units to compile
+	 * @return fingerprint of the compilation
+	 */
+	private String computeFingerprint(Collection<CompilationUnitSource> compilationUnits) {
+		List<String> fingerprintOptions = new ArrayList<>();
+		if(options != null) {
+			options.forEach(fingerprintOptions::add);
+		}
+		// cached classes have been transformed
+		classTransformers.forEach(t -> fingerprintOptions.add("transformer:" + t.getName()));
+		return CompilationFingerprint.compute(compilationUnits, fingerprintOptions, getClasspathFingerprint());
+	}
+
+	/**
+	 * Loads a compilation result from the cache.
+	 *
+	 * @param key fingerprint of the compilation
+	 * @return the cached result or {@code null} if the result is not available
+	 */
+	private CompilationResult loadFromCache(String key) {
+		try {
+			byte[] data = bytecodeCache.get(key);
+			return data == null ? null : CompilationCodec.decode(data, classLoader);
+		} catch(IOException | RuntimeException ex) {
+			// the cache is an optimization only, we compile locally
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a compilation result in the cache (failures are ignored).
+	 *
+	 * @param key fingerprint of the compilation
+	 * @param result result to store
+	 */
+	private void storeInCache(String key, CompilationResult result) {
+		try {
+			bytecodeCache.put(key, CompilationCodec.encode(result));
+		} catch(IOException | RuntimeException ex) {
+			// the cache is an optimization only
+		}
+	}
+
+	/**
+	 * Compiles the specified chunks one after another. The timeout applies to all chunks.
+	 *
+	 * @param chunks chunks in compilation order
+	 * @param cancellationToken token used to cancel the compilation (may be {@code null})
+	 * @return compilation result of all chunks
+	 */
+	private CompilationResult compileChunked(List<List<CompilationUnitSource>> chunks, CancellationToken cancellationToken) {
+		long start = System.nanoTime();
+		List<CompiledUnit> compiledUnits = new ArrayList<>();
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+		Map<String, Duration> transformerTimings = new LinkedHashMap<>();
+
+		for(List<CompilationUnitSource> chunk : chunks) {
+			long remainingNanos = timeoutNanos;
+			if(timeoutNanos > 0) {
+				remainingNanos = Math.max(1, timeoutNanos - (System.nanoTime() - start));
+			}
+
+			CompilationResult result = compile(chunk, classLoader, cancellationToken, true, remainingNanos, outputSink);
+			diagnostics.addAll(result.getDiagnostics());
+			result.getTransformerTimings().forEach((name, time) -> transformerTimings.merge(name, time, Duration::plus));
+
+			if(result.isAborted()) {
+				// code of previous chunks must not be loaded either
+				for(CompiledUnit unit : compiledUnits) {
+					unit.getClasses().forEach(cls -> classLoader.removeCode(cls.getFile()));
+				}
+				return new CompilationResult(Collections.emptyList(), diagnostics, false, result.getOutcome());
+			}
+
+			compiledUnits.addAll(result.getCompiledUnits());
+
+			if(!result.compilationSucceeded()) {
+				CompilationResult failed = new CompilationResult(compiledUnits, diagnostics, false);
+				failed.setTransformerTimings(Collections.unmodifiableMap(transformerTimings));
+				return failed;
+			}
+		}
+
+		CompilationResult succeeded = new CompilationResult(compiledUnits, diagnostics, true);
+		succeeded.setTransformerTimings(Collections.unmodifiableMap(transformerTimings));
+		return succeeded;
+	}
 
-		DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+	/**
+	 * Checks all sources added with {@link #addSource(String, String)} without generating code (check-only mode).
+	 * The sources are parsed and analyzed which is sufficient to obtain all diagnostics. No bytecode is produced
+	 * and the classloader of this compiler is not modified, i.e., the returned result never contains compiled units.
+	 *
+	 * @return compilation result (warnings and errors)
+	 */
+	public CompilationResult checkAll() {
+		return checkAll(null);
+	}
 
+	/**
+	 * Checks all sources added with {@link #addSource(String, String)} without generating code (check-only mode).
+	 *
+	 * @param cancellationToken token used to cancel the check (may be {@code null})
+	 * @return compilation result (warnings and errors)
+	 * @see #checkAll()
+	 */
+	public CompilationResult checkAll(CancellationToken cancellationToken) {
+		if (sourceCodes.size() == 0) {
+			throw new CompilationException("No source code to check");
+		}
+
+		CompileTenant.Permit permit = tenant == null ? null : tenant.acquire(sourceCodes.values());
+		long start = System.nanoTime();
+		try {
+			CompilationResult result = compile(sourceCodes.values(), classLoader, cancellationToken, false);
+			result.setCompileTime(Duration.ofNanos(System.nanoTime() - start));
+			return result;
+		} finally {
+			if(permit != null) {
+				permit.release();
+			}
+		}
+	}
+
+	/**
+	 * Returns the classpath entries (classpath of this process and urls of the parent classloader).
+	 *
+	 * @return the classpath entries
+	 */
+	private List<Path> getClasspathEntries() {
+		List<Path> entries = new ArrayList<>();
+		for(String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+			if(!entry.isEmpty()) {
+				entries.add(Paths.get(entry));
+			}
+		}
+		if(classLoader.getParent() instanceof URLClassLoader) {
+			for(URL url : ((URLClassLoader) classLoader.getParent()).getURLs()) {
+				entries.add(new File(url.getFile()).toPath());
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the file manager used for compilation. The file manager (and the state it caches, e.g. indexes of
+	 * jar files) is only created again if classpath or options changed.
+	 *
+	 * @return the file manager used for compilation
+	 */
+	/*pkg private*/ StandardJavaFileManager getStandardFileManager() {
+		if(classpathChecked && standardFileManager != null && Objects.equals(fileManagerOptions, options)) {
+			// the classpath is only checked once per compilation
+			return standardFileManager;
+		}
+		List<Path> entries = getClasspathEntries();
+		if(standardFileManager != null && classpathSnapshot != null
+			&& Objects.equals(fileManagerOptions, options)
+			&& classpathSnapshot.isHashingContents() == isClasspathHashing() && classpathSnapshot.matches(entries, deepClasspathScan)) {
+			return standardFileManager;
+		}
+
+		if(standardFileManager != null) {
+			try {
+				standardFileManager.close();
+			} catch(IOException ex) {
+				// the file manager is not used anymore
+			}
+		}
+
+		classpathSnapshot = ClasspathSnapshot.of(entries, isClasspathHashing());
+		standardFileManager = createStandardFileManager();
+		fileManagerOptions = options;
+
+		return standardFileManager;
+	}
+
+	/**
+	 * Creates the file manager used for compilation (includes the urls of the parent classloader).
+	 *
+	 * @return the file manager used for compilation
+	 */
+	private StandardJavaFileManager createStandardFileManager() {
 		final StandardJavaFileManager fileManagerStandard = javac.getStandardFileManager(null, null, null);
 
 		// add urls from url classloader to classpath
@@ -137,12 +967,95 @@ public final class JCompiler {
 			}
 		}
 
+		return fileManagerStandard;
+	}
+
+	/**
+	 * Compiles or checks the specified compilation units (output is kept in memory).
+	 *
+	 * @param compilationUnits units to compile
+	 * @param loader classloader that receives the compiled classes
+	 * @param cancellationToken token used to cancel the compilation (may be {@code null})
+	 * @param generate determines whether to generate code ({@code false} performs a check-only analysis)
+	 * @return compilation result (compiled classes, warnings and errors)
+	 */
+	/*pkg private*/ CompilationResult compile(Collection<CompilationUnitSource> compilationUnits,
+			InMemoryClassLoader loader, CancellationToken cancellationToken, boolean generate) {
+		return compile(compilationUnits, loader, cancellationToken, generate, timeoutNanos, OutputSink.inMemory());
+	}
+
+	/**
+	 * Compiles or checks the specified compilation units with the specified timeout and output sink.
+	 *
+	 * @see #compile(Collection, InMemoryClassLoader, CancellationToken, boolean)
+	 */
+	private CompilationResult compile(Collection<CompilationUnitSource> compilationUnits,
+			InMemoryClassLoader loader, CancellationToken cancellationToken, boolean generate, long timeoutNanos,
+			OutputSink sink) {
+
+		final StandardJavaFileManager fileManagerStandard = getStandardFileManager();
+
 		// perform the compilation
-		ExtendedStandardJavaFileManager fileManager = new ExtendedStandardJavaFileManager(fileManagerStandard, classLoader);
-		JavaCompiler.CompilationTask task = javac.getTask(null, fileManager, collector, options, null, compilationUnits);
-		boolean result = task.call();
+		CompilationMonitor monitor = new CompilationMonitor(maxErrors, timeoutNanos, cancellationToken);
+		ExtendedStandardJavaFileManager fileManager = new ExtendedStandardJavaFileManager(fileManagerStandard, loader, monitor, sink);
+		ClassTransformerChain transformers = generate ? createTransformerChain() : null;
+		if(transformers != null) {
+			fileManager.setTransformers(transformers, transformerExecutor);
+		}
+		JavaCompiler.CompilationTask task = javac.getTask(null, fileManager, monitor, options, null, compilationUnits);
+		// processors are always specified explicitly, an empty list prevents the processor search
+		task.setProcessors(processorFactories.stream().map(Supplier::get).collect(Collectors.toList()));
+		if(task instanceof JavacTask) {
+			((JavacTask) task).addTaskListener(monitor);
+		} else if(!generate) {
+			throw new UnsupportedOperationException("Check-only mode is not supported by " + javac.getClass().getName());
+		}
+
+		boolean result;
+		try {
+			if(generate) {
+				result = task.call();
+			} else {
+				// parse, enter and analyze, no code generation
+				((JavacTask) task).analyze();
+				result = monitor.getErrorCount() == 0;
+			}
+		} catch(IOException ex) {
+			throw new CompilationException("I/O error while analyzing sources", ex);
+		} catch(RuntimeException ex) {
+			CompilationOutcome outcome = CompilationMonitor.getAbortOutcome(ex);
+			if(outcome == null) {
+				throw ex;
+			}
+			// partially generated code must not be loaded
+			fileManager.discardCompiledCode();
+			return new CompilationResult(Collections.emptyList(), monitor.getDiagnostics(), false, outcome);
+		}
+
+		if(!generate) {
+			return new CompilationResult(Collections.emptyList(), monitor.getDiagnostics(), result);
+		}
 
-		return new CompilationResult(fileManager.getCompiledCode(), collector.getDiagnostics(), result);
+		// classes are defined/written once they have been transformed
+		fileManager.finishTransformations();
+
+		if(result) {
+			try {
+				fileManager.writeResources();
+			} catch(IOException ex) {
+				throw new CompilationException("I/O error while writing resources", ex);
+			}
+		}
+
+		CompilationResult compilationResult = new CompilationResult(
+			fileManager.getCompiledCode(retainSource), monitor.getDiagnostics(), result);
+		if(transformers != null) {
+			compilationResult.setTransformerTimings(transformers.getTimings());
+		}
+		if(methodProbes != null) {
+			methodProbes.registerUnits(compilationResult);
+		}
+		return compilationResult;
 	}
 
 	/**
@@ -164,6 +1077,118 @@ public final class JCompiler {
 		return addSource(compilationUnitName, sourceCode).compileAll();
 	}
 
+	/**
+	 * Saves the specified result as a single image file that can be restored by {@link #restoreImage(Path)} instead
+	 * of compiling the sources again. The image contains the compiled units, their main classes and bytecode as
+	 * well as the fingerprint of the sources, options and classpath of this compiler.
+	 *
+	 * @param result successful result of compiling the current sources of this compiler
+	 * @param image image file (replaced if it exists)
+	 * @throws IOException if the image cannot be written
+	 * @throws IllegalArgumentException if the compilation was not successful
+	 * @throws IllegalStateException if method probes are used (instrumented bytecode refers to the probes of this
+	 * process)
+	 */
+	public void saveImage(CompilationResult result, Path image) throws IOException {
+		if(!result.compilationSucceeded()) {
+			throw new IllegalArgumentException("Only successful compilations can be saved as image");
+		}
+		if(methodProbes != null) {
+			throw new IllegalStateException("Compilations instrumented with method probes cannot be saved as image");
+		}
+		if (sourceCodes.size() == 0) {
+			throw new CompilationException("No source code to compile");
+		}
+		CompilationImage.write(image, computeFingerprint(sourceCodes.values()), result);
+	}
+
+	/**
+	 * Restores an image saved by {@link #saveImage(CompilationResult, Path)}. The bytecode is mapped into memory
+	 * and classes are defined on demand. The image is only restored if it has been saved for the current sources,
+	 * options and classpath of this compiler, i.e., callers compile if this method returns {@code null}:
+	 *
+	 * <pre>
+	 * CompilationResult result = compiler.restoreImage(image);
+	 * if (result == null) {
+	 *     result = compiler.compileAll().checkNoErrors();
+	 *     compiler.saveImage(result, image);
+	 * }
+	 * </pre>
+	 *
+	 * Restored units do not retain their source code. Images are not restored if method probes are used.
+	 *
+	 * @param image image file
+	 * @return the restored result or {@code null} if the image does not exist or is outdated
+	 * @throws IOException if the image cannot be read or is corrupt
+	 */
+	public CompilationResult restoreImage(Path image) throws IOException {
+		if (sourceCodes.size() == 0) {
+			throw new CompilationException("No source code to compile");
+		}
+		if(methodProbes != null || !Files.isRegularFile(image)) {
+			return null;
+		}
+		CompilationResult result = CompilationImage.read(image, computeFingerprint(sourceCodes.values()), classLoader);
+		if(result != null && tenant != null) {
+			tenant.chargeClasses(classLoader, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Compiles the specified template. Templates are compilation units with typed placeholders of the form
+	 * {@code ${name:type}} where type is one of {@code int}, {@code long}, {@code float}, {@code double},
+	 * {@code String} or {@code class}. Exactly one placeholder of type {@code class} must be used as name of the
+	 * public type declaration, e.g.,
+	 *
+	 * <pre>
+	 * public class ${name:class} {
+	 *   public static int limit() { return ${limit:int}; }
+	 * }
+	 * </pre>
+	 *
+	 * The template is compiled once. Specializations reuse the bytecode of the template by rewriting
+	 * constant pool entries, see {@link CompilationTemplate#specialize(String, Map)}. Specialized classes are
+	 * loaded by the classloader of this compiler.
+	 *
+	 * @param templateCode code of the template
+	 * @return the compiled template
+	 */
+	public CompilationTemplate compileTemplate(String templateCode) {
+		return new CompilationTemplate(this, templateCode);
+	}
+
+	/**
+	 * Returns the classloader that receives compiled classes.
+	 *
+	 * @return the classloader that receives compiled classes
+	 */
+	/*pkg private*/ InMemoryClassLoader getInMemoryClassLoader() {
+		return classLoader;
+	}
+
+	/**
+	 * Checks a single source unit without generating code. The name of the compilation unit is inferred from
+	 * the code (at least one type declaration necessary).
+	 *
+	 * @param sourceCode code to check
+	 * @see #checkAll()
+	 */
+	public CompilationResult check(String sourceCode) throws CompilationException {
+		return addSource(sourceCode).checkAll();
+	}
+
+	/**
+	 * Checks a single source unit without generating code.
+	 *
+	 * @param compilationUnitName name of the compilation unit/public class
+	 * @param sourceCode code to check
+	 * @see #checkAll()
+	 */
+	public CompilationResult check(String compilationUnitName, String sourceCode) throws CompilationException {
+		return addSource(compilationUnitName, sourceCode).checkAll();
+	}
+
 	/**
 	 * Add source code to the compiler.
 	 *
@@ -191,13 +1216,7 @@ public final class JCompiler {
 	 */
 	public JCompiler addSource(String sourceCode) {
 		try {
-			String compilationUnitName = LangUtils.getClassNameFromCode(sourceCode);
-
-			if(compilationUnitName.isEmpty()) {
-				throw new CompilationException(
-					"Cannot infer compilation unit name from compilation unit without type declaration\n\n"
-					+sourceCode);
-			}
+			String compilationUnitName = inferName(sourceCode);
 
 			sourceCodes.put(compilationUnitName, new CompilationUnitSource(compilationUnitName, sourceCode));
 		} catch(URISyntaxException ex) {
@@ -205,4 +1224,133 @@ public final class JCompiler {
 		}
 		return this;
 	}
+
+	/**
+	 * Add source code from a file to the compiler. The file is memory-mapped and decoded (UTF-8) whenever the
+	 * compiler needs its content, i.e., the code is not kept in memory. The file must not be modified until
+	 * compilation has finished.
+	 *
+	 * @param compilationUnitName name of the compilation unit (e.g. 'my.pkg.MyClass')
+	 * @param sourceFile          file containing the code to compile
+	 * @return this instance (for chaining invocation of this method)
+	 * @throws UncheckedIOException if the file cannot be accessed
+	 */
+	public JCompiler addSource(String compilationUnitName, Path sourceFile) {
+		return addSource(compilationUnitName, sourceFile, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Add source code from a file to the compiler. The file is memory-mapped and decoded whenever the
+	 * compiler needs its content, i.e., the code is not kept in memory. The file must not be modified until
+	 * compilation has finished.
+	 *
+	 * @param compilationUnitName name of the compilation unit (e.g. 'my.pkg.MyClass')
+	 * @param sourceFile          file containing the code to compile
+	 * @param charset             charset of the file
+	 * @return this instance (for chaining invocation of this method)
+	 * @throws UncheckedIOException if the file cannot be accessed
+	 */
+	public JCompiler addSource(String compilationUnitName, Path sourceFile, Charset charset) {
+		try {
+			sourceCodes.put(compilationUnitName, CompilationUnitSource.fromFile(compilationUnitName, sourceFile, charset));
+		} catch(IOException ex) {
+			throw new UncheckedIOException("Cannot access source file " + sourceFile, ex);
+		}
+		return this;
+	}
+
+	/**
+	 * Add source code from a file to the compiler. The name of the compilation unit is inferred from the code
+	 * (at least one type declaration necessary), which requires decoding the file once.
+	 *
+	 * @param sourceFile file containing the code to compile (UTF-8)
+	 * @return this instance (for chaining invocation of this method)
+	 * @throws UncheckedIOException if the file cannot be accessed
+	 * @see #addSource(String, Path)
+	 */
+	public JCompiler addSource(Path sourceFile) {
+		try {
+			return addSource(inferName(new String(Files.readAllBytes(sourceFile), StandardCharsets.UTF_8)), sourceFile);
+		} catch(IOException ex) {
+			throw new UncheckedIOException("Cannot access source file " + sourceFile, ex);
+		}
+	}
+
+	/**
+	 * Add source code from a reader to the compiler. The reader is consumed and closed by this method. The code
+	 * is kept in memory like sources added as strings, i.e., until the unit is removed (see
+	 * {@link #removeSource(String)}) or the compiler is discarded, since subsequent compilations recompile it.
+	 * Use {@link #addSource(String, Path)} for code that should not be kept in memory.
+	 *
+	 * @param compilationUnitName name of the compilation unit (e.g. 'my.pkg.MyClass')
+	 * @param sourceCode          reader providing the code to compile
+	 * @return this instance (for chaining invocation of this method)
+	 * @throws UncheckedIOException if the reader cannot be read
+	 */
+	public JCompiler addSource(String compilationUnitName, Reader sourceCode) {
+		try {
+			sourceCodes.put(compilationUnitName, CompilationUnitSource.fromReader(compilationUnitName, sourceCode));
+		} catch(IOException ex) {
+			throw new UncheckedIOException("Cannot read source code of " + compilationUnitName, ex);
+		}
+		return this;
+	}
+
+	/**
+	 * Add source code from a char buffer to the compiler (from position to limit). The buffer is not copied, i.e.,
+	 * its content must not be modified until compilation has finished.
+	 *
+	 * @param compilationUnitName name of the compilation unit (e.g. 'my.pkg.MyClass')
+	 * @param sourceCode          code to compile
+	 * @return this instance (for chaining invocation of this method)
+	 */
+	public JCompiler addSource(String compilationUnitName, CharBuffer sourceCode) {
+		sourceCodes.put(compilationUnitName, CompilationUnitSource.fromChars(compilationUnitName, sourceCode));
+		return this;
+	}
+
+	/**
+	 * Add encoded source code from a byte buffer to the compiler (from position to limit). The code is decoded
+	 * whenever the compiler needs its content. The buffer is not copied, i.e., its content must not be modified
+	 * until compilation has finished.
+	 *
+	 * @param compilationUnitName name of the compilation unit (e.g. 'my.pkg.MyClass')
+	 * @param sourceCode          encoded code to compile
+	 * @param charset             charset of the code
+	 * @return this instance (for chaining invocation of this method)
+	 */
+	public JCompiler addSource(String compilationUnitName, ByteBuffer sourceCode, Charset charset) {
+		sourceCodes.put(compilationUnitName, CompilationUnitSource.fromBytes(compilationUnitName, sourceCode, charset));
+		return this;
+	}
+
+	/**
+	 * Removes the source code of the specified compilation unit from the compiler. Classes compiled previously
+	 * are not affected.
+	 *
+	 * @param compilationUnitName name of the compilation unit (e.g. 'my.pkg.MyClass')
+	 * @return {@code true} if the compiler contained the specified unit; {@code false} otherwise
+	 */
+	public boolean removeSource(String compilationUnitName) {
+		return sourceCodes.remove(compilationUnitName) != null;
+	}
+
+	/**
+	 * Infers the name of the compilation unit from the specified code.
+	 *
+	 * @param sourceCode code of the compilation unit
+	 * @return the name of the public or first type declared in the specified code
+	 * @throws CompilationException if the code does not contain a type declaration
+	 */
+	/*pkg private*/ static String inferName(String sourceCode) {
+		String compilationUnitName = LangUtils.getClassNameFromCode(sourceCode);
+
+		if(compilationUnitName == null || compilationUnitName.isEmpty()) {
+			throw new CompilationException(
+				"Cannot infer compilation unit name from compilation unit without type declaration\n\n"
+				+sourceCode);
+		}
+
+		return compilationUnitName;
+	}
 }
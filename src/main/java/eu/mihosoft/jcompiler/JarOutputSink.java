@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Writes the output as entries to a jar stream.
+ */
+/*pkg private*/ final class JarOutputSink implements OutputSink {
+
+    private final JarOutputStream jar;
+
+    /*pkg private*/ JarOutputSink(JarOutputStream jar) {
+        this.jar = Objects.requireNonNull(jar, "Jar stream must not be null");
+    }
+
+    @Override
+    public OutputStream openClass(String className) throws IOException {
+        return openResource(className.replace('.', '/') + ".class");
+    }
+
+    @Override
+    public OutputStream openResource(String path) throws IOException {
+        jar.putNextEntry(new JarEntry(path));
+        return new FilterOutputStream(jar) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // only closes the entry, the jar is owned by the caller
+                jar.closeEntry();
+            }
+        };
+    }
+}
@@ -18,7 +18,9 @@
 package eu.mihosoft.jcompiler;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -345,6 +347,27 @@ import java.util.regex.Pattern;
         return result;
     }
 
+    /**
+     * Returns all identifiers used in the given source code. Comments, strings and chars are ignored.
+     *
+     * @param code code to analyze
+     * @return set of identifiers used in the given source code (includes keywords)
+     */
+    public static Set<String> getIdentifiersFromCode(String code) {
+
+        code = removeCommentsAndStringsFromCode(code);
+
+        Set<String> result = new HashSet<>();
+
+        Matcher m = Patterns.IDENTIFIER.matcher(code);
+
+        while (m.find()) {
+            result.add(m.group());
+        }
+
+        return result;
+    }
+
      /**
      * Get package name defined in the given source code.
      *
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of invocation probes injected into compiled methods (see {@link JCompiler#setMethodProbes(MethodProbes)}).
+ * Each instrumented method counts its invocations. If sampling is enabled, the execution time of a random sample
+ * of invocations is measured as well. Counters are striped ({@link LongAdder}), i.e., probes are cheap even if
+ * methods are invoked concurrently.
+ *
+ * <p>The static {@code enter}/{@code exit} methods are called by instrumented code and are not intended to be
+ * called directly.</p>
+ *
+ * <p>Probe ids are released once a registry has become unreachable. Invocations of instrumented code that
+ * outlives its registry are discarded or, once the ids have been reused, counted by the probes of other
+ * registries.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * MethodProbes probes = MethodProbes.newInstance(64);
+ * JCompiler compiler = JCompiler.newInstance();
+ * compiler.setMethodProbes(probes);
+ * ...
+ * probes.getHottestMethods(10).forEach(System.out::println);
+ * </pre>
+ */
+public final class MethodProbes {
+
+    // probes of all registries by id (ids of replaced probes are reused)
+    private static volatile Probe[] probes = new Probe[64];
+    private static int probeCount;
+    // ids released by replaced probes (guarded by PROBE_LOCK)
+    private static final Deque<Integer> FREE_IDS = new ArrayDeque<>();
+    private static final Object PROBE_LOCK = new Object();
+    // releases the probe ids of unreachable registries
+    private static final Cleaner CLEANER = Cleaner.create();
+    // replaces released probes (counters are discarded)
+    private static final Probe DETACHED = new Probe(-1, -1, "", "", "");
+
+    // 0 disables timing, otherwise the sampling interval (a power of two)
+    private final int samplingInterval;
+    // probes of this registry by class name
+    private final Map<String, List<Probe>> probesByClass = new ConcurrentHashMap<>();
+    // unit names by class name
+    private final Map<String, String> unitsByClass = new ConcurrentHashMap<>();
+    // probe ids of this registry (guarded by PROBE_LOCK, must not reference this registry)
+    private final Set<Integer> ids = new HashSet<>();
+
+    private MethodProbes(int samplingInterval) {
+        this.samplingInterval = samplingInterval;
+        Set<Integer> registryIds = ids;
+        CLEANER.register(this, () -> release(registryIds));
+    }
+
+    /**
+     * Creates a registry of probes that count method invocations.
+     * @return a new registry
+     */
+    public static MethodProbes newInstance() {
+        return new MethodProbes(0);
+    }
+
+    /**
+     * Creates a registry of probes that count method invocations and measure the execution time of every
+     * {@code samplingInterval}-th invocation on average. Timing probes do not measure invocations that complete
+     * abruptly (exceptions).
+     *
+     * @param samplingInterval average number of invocations per measured invocation (rounded up to a power of two)
+     * @return a new registry
+     */
+    public static MethodProbes newInstance(int samplingInterval) {
+        if (samplingInterval < 1 || samplingInterval > (1 << 30)) {
+            throw new IllegalArgumentException("Sampling interval must be in [1, 2^30]: " + samplingInterval);
+        }
+        int interval = Integer.highestOneBit(samplingInterval);
+        if (interval < samplingInterval) {
+            interval <<= 1;
+        }
+        return new MethodProbes(interval);
+    }
+
+    /**
+     * Determines whether the probes of this registry measure execution times.
+     * @return {@code true} if execution times are measured; {@code false} otherwise
+     */
+    public boolean isTiming() {
+        return samplingInterval != 0;
+    }
+
+    /**
+     * Returns the statistics of the methods of the specified class.
+     * @param cls compiled class
+     * @return the statistics of the instrumented methods of the class (empty if the class is not instrumented)
+     */
+    public List<MethodStats> getStats(CompiledClass cls) {
+        return getStats(cls.getClassName());
+    }
+
+    /**
+     * Returns the statistics of the methods of the specified class.
+     * @param className binary name of the class
+     * @return the statistics of the instrumented methods of the class (empty if the class is not instrumented)
+     */
+    public List<MethodStats> getStats(String className) {
+        List<Probe> classProbes = probesByClass.get(className);
+        if (classProbes == null) {
+            return Collections.emptyList();
+        }
+        List<MethodStats> stats = new ArrayList<>(classProbes.size());
+        for (Probe p : classProbes) {
+            stats.add(p.snapshot(unitsByClass.get(className)));
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the statistics of the methods of all classes of the specified compilation unit.
+     * @param unitName name of the compilation unit (see {@link CompiledUnit#getName()})
+     * @return the statistics of the instrumented methods of the unit (empty if the unit is unknown)
+     */
+    public List<MethodStats> getUnitStats(String unitName) {
+        List<MethodStats> stats = new ArrayList<>();
+        unitsByClass.forEach((className, unit) -> {
+            if (unit.equals(unitName)) {
+                stats.addAll(getStats(className));
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * Returns the statistics of all instrumented methods.
+     * @return the statistics of all instrumented methods
+     */
+    public List<MethodStats> getStats() {
+        List<MethodStats> stats = new ArrayList<>();
+        probesByClass.keySet().forEach(className -> stats.addAll(getStats(className)));
+        return stats;
+    }
+
+    /**
+     * Returns the most frequently invoked methods.
+     * @param n maximum number of methods to return
+     * @return the most frequently invoked methods (descending invocation count)
+     */
+    public List<MethodStats> getHottestMethods(int n) {
+        List<MethodStats> stats = getStats();
+        stats.sort(Comparator.comparingLong(MethodStats::getInvocations).reversed());
+        return stats.subList(0, Math.min(n, stats.size()));
+    }
+
+    /**
+     * Resets all counters of this registry.
+     */
+    public void reset() {
+        probesByClass.values().forEach(l -> l.forEach(Probe::reset));
+    }
+
+    /**
+     * Creates the probes of the specified class. Probes of a previously instrumented class with the same name are
+     * replaced and their ids are reused, i.e., recompiling a class does not allocate new probes. Code of the
+     * replaced class that is still running counts towards the new probes.
+     * @param className binary name of the class
+     * @param methods name and descriptor of each instrumented method
+     * @return the probe ids (same order as methods)
+     */
+    /*pkg private*/ int[] register(String className, List<String[]> methods) {
+        int[] ids = new int[methods.size()];
+        List<Probe> classProbes = new ArrayList<>(methods.size());
+        synchronized (PROBE_LOCK) {
+            List<Probe> replaced = probesByClass.getOrDefault(className, Collections.emptyList());
+            for (int i = ids.length; i < replaced.size(); i++) {
+                this.ids.remove(replaced.get(i).id);
+                FREE_IDS.push(replaced.get(i).id);
+            }
+            int added = Math.max(0, ids.length - replaced.size() - FREE_IDS.size());
+            Probe[] current = probes;
+            if (probeCount + added > current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, probeCount + added));
+            }
+            for (int i = 0; i < ids.length; i++) {
+                int id;
+                if (i < replaced.size()) {
+                    id = replaced.get(i).id;
+                } else if (!FREE_IDS.isEmpty()) {
+                    id = FREE_IDS.pop();
+                } else {
+                    id = probeCount++;
+                }
+                Probe p = new Probe(samplingInterval - 1, id, className, methods.get(i)[0], methods.get(i)[1]);
+                ids[i] = id;
+                this.ids.add(id);
+                current[id] = p;
+                classProbes.add(p);
+            }
+            probesByClass.put(className, Collections.unmodifiableList(classProbes));
+            // publishes the new probes
+            probes = current;
+        }
+        return ids;
+    }
+
+    /**
+     * Releases the specified probe ids of an unreachable registry.
+     * @param registryIds probe ids of the registry
+     */
+    private static void release(Set<Integer> registryIds) {
+        synchronized (PROBE_LOCK) {
+            Probe[] current = probes;
+            for (int id : registryIds) {
+                current[id] = DETACHED;
+                FREE_IDS.push(id);
+            }
+            registryIds.clear();
+            probes = current;
+        }
+    }
+
+    /**
+     * Returns the number of probe ids in use by this registry.
+     * @return the number of probe ids in use by this registry
+     */
+    /*pkg private*/ int getRegisteredProbeCount() {
+        synchronized (PROBE_LOCK) {
+            return ids.size();
+        }
+    }
+
+    /**
+     * Returns the number of probe ids in use by all registries.
+     * @return the number of probe ids in use
+     */
+    /*pkg private*/ static int getProbeCount() {
+        synchronized (PROBE_LOCK) {
+            return probeCount - FREE_IDS.size();
+        }
+    }
+
+    /**
+     * Records the compilation units of the classes of the specified result.
+     * @param result compilation result
+     */
+    /*pkg private*/ void registerUnits(CompilationResult result) {
+        for (CompiledUnit unit : result.getCompiledUnits()) {
+            for (CompiledClass cls : unit.getClasses()) {
+                if (probesByClass.containsKey(cls.getClassName())) {
+                    unitsByClass.put(cls.getClassName(), unit.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by instrumented code when a method is entered (invocation count only).
+     * @param probe id of the probe
+     */
+    public static void enter(int probe) {
+        probes[probe].invocations.increment();
+    }
+
+    /**
+     * Called by instrumented code when a timed method is entered.
+     * @param probe id of the probe
+     * @return start time if the invocation is sampled; {@link Long#MIN_VALUE} otherwise
+     */
+    public static long enterTimed(int probe) {
+        Probe p = probes[probe];
+        p.invocations.increment();
+        if ((ThreadLocalRandom.current().nextInt() & p.samplingMask) != 0) {
+            return Long.MIN_VALUE;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Called by instrumented code when a timed method returns.
+     * @param probe id of the probe
+     * @param start value returned by {@link #enterTimed(int)}
+     */
+    public static void exitTimed(int probe, long start) {
+        if (start == Long.MIN_VALUE) {
+            return;
+        }
+        Probe p = probes[probe];
+        p.sampledNanos.add(System.nanoTime() - start);
+        p.samples.increment();
+    }
+
+    /**
+     * Counters of an instrumented method.
+     */
+    private static final class Probe {
+        // sampling interval of the registry minus one (the registry is not referenced)
+        final int samplingMask;
+        final int id;
+        final String className;
+        final String methodName;
+        final String descriptor;
+        final LongAdder invocations = new LongAdder();
+        final LongAdder samples = new LongAdder();
+        final LongAdder sampledNanos = new LongAdder();
+
+        Probe(int samplingMask, int id, String className, String methodName, String descriptor) {
+            this.samplingMask = samplingMask;
+            this.id = id;
+            this.className = className;
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+        }
+
+        MethodStats snapshot(String unitName) {
+            return new MethodStats(className, methodName, descriptor, unitName,
+                invocations.sum(), samples.sum(), sampledNanos.sum());
+        }
+
+        void reset() {
+            invocations.reset();
+            samples.reset();
+            sampledNanos.reset();
+        }
+    }
+}
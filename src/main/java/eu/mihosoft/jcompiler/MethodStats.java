@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.time.Duration;
+
+/**
+ * Snapshot of the invocation statistics of an instrumented method (see {@link MethodProbes}).
+ */
+public final class MethodStats {
+
+    private final String className;
+    private final String methodName;
+    private final String descriptor;
+    private final String unitName;
+    private final long invocations;
+    private final long samples;
+    private final long sampledNanos;
+
+    /*pkg private*/ MethodStats(String className, String methodName, String descriptor, String unitName,
+            long invocations, long samples, long sampledNanos) {
+        this.className = className;
+        this.methodName = methodName;
+        this.descriptor = descriptor;
+        this.unitName = unitName;
+        this.invocations = invocations;
+        this.samples = samples;
+        this.sampledNanos = sampledNanos;
+    }
+
+    /**
+     * Returns the binary name of the declaring class.
+     * @return the binary name of the declaring class
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Returns the name of the method ('&lt;init&gt;' for constructors).
+     * @return the name of the method
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Returns the descriptor of the method (e.g. '(I)V').
+     * @return the descriptor of the method
+     */
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Returns the name of the compilation unit that declares the method.
+     * @return the name of the compilation unit ({@code null} if unknown)
+     */
+    public String getUnitName() {
+        return unitName;
+    }
+
+    /**
+     * Returns the number of invocations.
+     * @return the number of invocations
+     */
+    public long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * Returns the number of timed invocations.
+     * @return the number of timed invocations ({@code 0} if timing is disabled)
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Returns the total execution time of the timed invocations.
+     * @return the total execution time of the timed invocations
+     */
+    public Duration getSampledTime() {
+        return Duration.ofNanos(sampledNanos);
+    }
+
+    /**
+     * Returns the mean execution time of the timed invocations.
+     * @return the mean execution time ({@link Duration#ZERO} if no invocation has been timed)
+     */
+    public Duration getMeanTime() {
+        return samples == 0 ? Duration.ZERO : Duration.ofNanos(sampledNanos / samples);
+    }
+
+    /**
+     * Returns the estimated total execution time of all invocations (extrapolated from the timed invocations).
+     * @return the estimated total execution time
+     */
+    public Duration getEstimatedTime() {
+        return samples == 0 ? Duration.ZERO : Duration.ofNanos((long) ((double) sampledNanos / samples * invocations));
+    }
+
+    @Override
+    public String toString() {
+        return className + "." + methodName + descriptor + ": " + invocations + " invocations"
+            + (samples == 0 ? "" : ", mean " + getMeanTime().toNanos() + "ns");
+    }
+}
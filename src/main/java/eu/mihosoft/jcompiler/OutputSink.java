@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Destination of the classes and resources generated during compilation. Class files are written to the sink
+ * while the compiler emits them. Unless the sink keeps the output in memory (see {@link #inMemory()}), compiled
+ * classes cannot be loaded via the classloader of the compiler and their bytecode is not available via
+ * {@link CompiledClass#getByteCode()}.
+ *
+ * Sinks are owned by the caller, i.e., the compiler does not close the underlying streams. If a compilation fails
+ * or is aborted, classes that have already been written remain in the sink.
+ */
+public interface OutputSink {
+
+    /**
+     * Opens a stream for writing the specified class file. The stream is closed after the class has been written.
+     *
+     * @param className binary name of the class (e.g. 'my.pkg.MyClass$Inner')
+     * @return stream for writing the class file or {@code null} if this sink does not write the class to a stream
+     * @throws IOException if the stream cannot be opened
+     */
+    OutputStream openClass(String className) throws IOException;
+
+    /**
+     * Opens a stream for writing the specified resource (e.g. generated by annotation processors). Resources are
+     * written after the compilation has finished successfully.
+     *
+     * @param path relative path of the resource (e.g. 'META-INF/services/my.pkg.MyService')
+     * @return stream for writing the resource or {@code null} if this sink does not write the resource to a stream
+     * @throws IOException if the stream cannot be opened
+     */
+    OutputStream openResource(String path) throws IOException;
+
+    /**
+     * Determines whether the output is kept in memory, i.e., whether classes can be loaded via the classloader of
+     * the compiler.
+     *
+     * @return {@code true} if the output is kept in memory; {@code false} otherwise
+     */
+    default boolean isInMemory() {
+        return false;
+    }
+
+    /**
+     * Returns the in-memory sink (default). Classes are defined by the classloader of the compiler.
+     *
+     * @return the in-memory sink
+     */
+    static OutputSink inMemory() {
+        return InMemoryOutputSink.INSTANCE;
+    }
+
+    /**
+     * Returns a sink that writes the output as entries to the specified jar stream (in the order emitted by the
+     * compiler). The stream is not closed by the compiler.
+     *
+     * @param jar jar stream
+     * @return a sink that writes to the specified jar stream
+     */
+    static OutputSink jar(JarOutputStream jar) {
+        return new JarOutputSink(jar);
+    }
+
+    /**
+     * Returns a sink that writes the output to the specified directory (package directories are created on demand).
+     *
+     * @param directory output directory
+     * @return a sink that writes to the specified directory
+     */
+    static OutputSink directory(Path directory) {
+        return new DirectoryOutputSink(directory);
+    }
+
+    /**
+     * Returns a sink that writes the output to all of the specified sinks. The output is kept in memory if one of
+     * the sinks keeps it in memory.
+     *
+     * @param sinks sinks to write to
+     * @return a sink that writes to all of the specified sinks
+     */
+    static OutputSink tee(OutputSink... sinks) {
+        return new TeeOutputSink(Arrays.asList(sinks));
+    }
+}
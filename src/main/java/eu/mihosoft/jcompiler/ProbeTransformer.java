@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Injects invocation probes into compiled methods (see {@link MethodProbes}).
+ *
+ * <p>Counting probes are inserted at the start of a method. The probe is padded to a multiple of four bytes which
+ * keeps the alignment of switch instructions, i.e., relative branch offsets do not change and only absolute
+ * offsets (exception table, debug tables and the first stack map frame) are shifted.</p>
+ *
+ * <p>Timing probes move the code of a method to a private synthetic method and replace the original code with
+ * a straight-line wrapper that measures the invocation of the moved code. Constructors, static initializers and
+ * methods of interfaces are counted only.</p>
+ */
+/*pkg private*/ final class ProbeTransformer implements ClassTransformer {
+
+    private static final String RUNTIME = MethodProbes.class.getName().replace('.', '/');
+    private static final String INNER_SUFFIX = "$probe";
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_SYNCHRONIZED = 0x0020;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_VARARGS = 0x0080;
+    private static final int ACC_NATIVE = 0x0100;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+    private static final int ACC_SYNTHETIC = 0x1000;
+
+    private static final int PROBE_LENGTH = 8;
+
+    // code attributes whose offsets are adjusted, methods with other code attributes are not instrumented
+    private static final Set<String> KNOWN_CODE_ATTRIBUTES = new HashSet<>(Arrays.asList(
+        "LineNumberTable", "LocalVariableTable", "LocalVariableTypeTable", "StackMapTable"));
+
+    private final MethodProbes registry;
+
+    /*pkg private*/ ProbeTransformer(MethodProbes registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public byte[] transform(String className, byte[] bytecode) throws Exception {
+        ClassFile cf = ClassFile.read(bytecode);
+        ConstantPool pool = cf.constantPool;
+        boolean timing = registry.isTiming() && (cf.accessFlags & ACC_INTERFACE) == 0;
+
+        Set<String> methodNames = new HashSet<>();
+        List<ClassFile.Member> instrumented = new ArrayList<>();
+        List<String[]> signatures = new ArrayList<>();
+        for (ClassFile.Member m : cf.methods) {
+            methodNames.add(pool.getUtf8(m.nameIndex));
+        }
+        for (ClassFile.Member m : cf.methods) {
+            if ((m.accessFlags & (ACC_ABSTRACT | ACC_NATIVE | ACC_BRIDGE)) != 0) {
+                continue;
+            }
+            String name = pool.getUtf8(m.nameIndex);
+            if ("<clinit>".equals(name) || cf.findAttribute(m.attributes, "Code") == null) {
+                continue;
+            }
+            instrumented.add(m);
+            signatures.add(new String[] {name, pool.getUtf8(m.descriptorIndex)});
+        }
+        if (instrumented.isEmpty()) {
+            return null;
+        }
+
+        int[] ids = registry.register(className, signatures);
+
+        int runtimeClass = pool.addClass(RUNTIME);
+        int enter = pool.addMethodRef(runtimeClass, "enter", "(I)V");
+        int enterTimed = timing ? pool.addMethodRef(runtimeClass, "enterTimed", "(I)J") : 0;
+        int exitTimed = timing ? pool.addMethodRef(runtimeClass, "exitTimed", "(IJ)V") : 0;
+
+        List<ClassFile.Member> innerMethods = new ArrayList<>();
+        for (int i = 0; i < instrumented.size(); i++) {
+            ClassFile.Member m = instrumented.get(i);
+            String name = signatures.get(i)[0];
+            String descriptor = signatures.get(i)[1];
+            int id = pool.addInt(ids[i]);
+            ClassFile.Attribute codeAttribute = cf.findAttribute(m.attributes, "Code");
+
+            if (timing && !"<init>".equals(name) && !methodNames.contains(name + INNER_SUFFIX)) {
+                innerMethods.add(wrap(cf, m, codeAttribute, name + INNER_SUFFIX, descriptor, id, enterTimed, exitTimed));
+            } else {
+                insertCountingProbe(cf, codeAttribute, id, enter);
+            }
+        }
+        cf.methods.addAll(innerMethods);
+
+        return cf.toByteArray();
+    }
+
+    @Override
+    public String getName() {
+        return "methodProbes";
+    }
+
+    /**
+     * Inserts a counting probe at the start of the specified code attribute (if its offsets can be adjusted).
+     */
+    private static void insertCountingProbe(ClassFile cf, ClassFile.Attribute codeAttribute, int id, int enter)
+            throws IOException {
+        ClassFile.Code code = ClassFile.Code.read(codeAttribute);
+        if (code.code.length + PROBE_LENGTH > 0xFFFF) {
+            return;
+        }
+        for (ClassFile.Attribute a : code.attributes) {
+            if (!KNOWN_CODE_ATTRIBUTES.contains(cf.getName(a))) {
+                return;
+            }
+        }
+
+        byte[] probe = {
+            0x13, (byte) (id >>> 8), (byte) id,                // ldc_w id
+            (byte) 0xB8, (byte) (enter >>> 8), (byte) enter,   // invokestatic MethodProbes.enter(I)V
+            0x00, 0x00                                         // nop padding
+        };
+        byte[] instrumented = new byte[probe.length + code.code.length];
+        System.arraycopy(probe, 0, instrumented, 0, probe.length);
+        System.arraycopy(code.code, 0, instrumented, probe.length, code.code.length);
+        code.code = instrumented;
+        code.maxStack = Math.max(code.maxStack, 1);
+
+        for (int[] handler : code.exceptionTable) {
+            handler[0] += PROBE_LENGTH;
+            handler[1] += PROBE_LENGTH;
+            handler[2] += PROBE_LENGTH;
+        }
+
+        for (ClassFile.Attribute a : code.attributes) {
+            switch (cf.getName(a)) {
+                case "LineNumberTable":
+                    shiftTable(a.info, 4, false);
+                    break;
+                case "LocalVariableTable":
+                case "LocalVariableTypeTable":
+                    shiftTable(a.info, 10, true);
+                    break;
+                case "StackMapTable":
+                    a.info = shiftFirstFrame(a.info);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected code attribute " + cf.getName(a));
+            }
+        }
+
+        codeAttribute.info = code.toByteArray();
+    }
+
+    /**
+     * Shifts the start offsets of a debug table (entries start with a u2 start_pc, optionally followed by a u2
+     * length). Variables that start at offset 0 are extended instead of shifted.
+     */
+    private static void shiftTable(byte[] info, int entrySize, boolean hasLength) {
+        ByteBuffer buffer = ByteBuffer.wrap(info);
+        int count = buffer.getShort(0) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int offset = 2 + i * entrySize;
+            int start = buffer.getShort(offset) & 0xFFFF;
+            if (hasLength && start == 0) {
+                int length = buffer.getShort(offset + 2) & 0xFFFF;
+                buffer.putShort(offset + 2, (short) (length + PROBE_LENGTH));
+            } else {
+                buffer.putShort(offset, (short) (start + PROBE_LENGTH));
+            }
+        }
+    }
+
+    /**
+     * Shifts the first frame of a stack map table (the offsets of subsequent frames are relative to it).
+     */
+    private static byte[] shiftFirstFrame(byte[] info) {
+        if (info.length < 3 || ((info[0] & 0xFF) << 8 | (info[1] & 0xFF)) == 0) {
+            return info;
+        }
+        int type = info[2] & 0xFF;
+        if (type >= 247) {
+            // explicit u2 offset delta
+            ByteBuffer buffer = ByteBuffer.wrap(info);
+            buffer.putShort(3, (short) ((buffer.getShort(3) & 0xFFFF) + PROBE_LENGTH));
+            return info;
+        }
+        if (type >= 128) {
+            throw new IllegalStateException("Reserved stack map frame type " + type);
+        }
+        // same_frame (0-63) and same_locals_1_stack_item_frame (64-127) encode the delta in the type
+        int base = type < 64 ? 0 : 64;
+        int delta = type - base + PROBE_LENGTH;
+        if (delta < 64) {
+            info[2] = (byte) (base + delta);
+            return info;
+        }
+        // extended frame with explicit u2 delta
+        byte[] extended = new byte[info.length + 2];
+        extended[0] = info[0];
+        extended[1] = info[1];
+        extended[2] = (byte) (base == 0 ? 251 : 247);
+        extended[3] = (byte) (delta >>> 8);
+        extended[4] = (byte) delta;
+        System.arraycopy(info, 3, extended, 5, info.length - 3);
+        return extended;
+    }
+
+    /**
+     * Moves the code of the specified method to a new private method and replaces it with a timing wrapper.
+     * @return the new method
+     */
+    private static ClassFile.Member wrap(ClassFile cf, ClassFile.Member m, ClassFile.Attribute codeAttribute,
+            String innerName, String descriptor, int id, int enterTimed, int exitTimed) throws IOException {
+        ConstantPool pool = cf.constantPool;
+        boolean isStatic = (m.accessFlags & ACC_STATIC) != 0;
+
+        ClassFile.Member inner = new ClassFile.Member();
+        inner.accessFlags = (m.accessFlags & ~(ACC_PUBLIC | ACC_PROTECTED | ACC_SYNCHRONIZED | ACC_VARARGS))
+            | ACC_PRIVATE | ACC_SYNTHETIC;
+        inner.nameIndex = pool.addUtf8(innerName);
+        inner.descriptorIndex = m.descriptorIndex;
+        inner.attributes.add(codeAttribute);
+        int innerRef = pool.addMethodRef(cf.thisClass, innerName, descriptor);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        int argSlots = isStatic ? 0 : 1;
+        List<Integer> loads = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        if (!isStatic) {
+            loads.add(0x19); // aload
+            slots.add(0);
+        }
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            loads.add(loadOpcode(c));
+            slots.add(argSlots);
+            argSlots += c == 'J' || c == 'D' ? 2 : 1;
+            i = skipType(descriptor, i);
+        }
+        char returnType = descriptor.charAt(i + 1);
+        int returnSlots = returnType == 'V' ? 0 : returnType == 'J' || returnType == 'D' ? 2 : 1;
+        int startSlot = argSlots;
+
+        // long start = MethodProbes.enterTimed(id)
+        out.writeByte(0x13);
+        out.writeShort(id);
+        out.writeByte(0xB8);
+        out.writeShort(enterTimed);
+        writeLocal(out, 0x37, startSlot); // lstore
+
+        // invoke moved code with the arguments of this method
+        for (int a = 0; a < loads.size(); a++) {
+            writeLocal(out, loads.get(a), slots.get(a));
+        }
+        out.writeByte(isStatic ? 0xB8 : 0xB7); // invokestatic / invokespecial
+        out.writeShort(innerRef);
+
+        // MethodProbes.exitTimed(id, start)
+        out.writeByte(0x13);
+        out.writeShort(id);
+        writeLocal(out, 0x16, startSlot); // lload
+        out.writeByte(0xB8);
+        out.writeShort(exitTimed);
+
+        out.writeByte(returnOpcode(returnType));
+        out.flush();
+
+        ClassFile.Code wrapper = new ClassFile.Code();
+        wrapper.maxStack = Math.max(argSlots, returnSlots + 3);
+        wrapper.maxLocals = argSlots + 2;
+        wrapper.code = bytes.toByteArray();
+
+        m.attributes.set(m.attributes.indexOf(codeAttribute),
+            new ClassFile.Attribute(codeAttribute.nameIndex, wrapper.toByteArray()));
+
+        return inner;
+    }
+
+    private static void writeLocal(DataOutputStream out, int opcode, int slot) throws IOException {
+        if (slot > 0xFF) {
+            out.writeByte(0xC4); // wide
+            out.writeByte(opcode);
+            out.writeShort(slot);
+        } else {
+            out.writeByte(opcode);
+            out.writeByte(slot);
+        }
+    }
+
+    private static int skipType(String descriptor, int i) {
+        while (descriptor.charAt(i) == '[') {
+            i++;
+        }
+        if (descriptor.charAt(i) == 'L') {
+            i = descriptor.indexOf(';', i);
+        }
+        return i + 1;
+    }
+
+    private static int loadOpcode(char type) {
+        switch (type) {
+            case 'J': return 0x16; // lload
+            case 'F': return 0x17; // fload
+            case 'D': return 0x18; // dload
+            case 'L': case '[': return 0x19; // aload
+            default: return 0x15; // iload
+        }
+    }
+
+    private static int returnOpcode(char type) {
+        switch (type) {
+            case 'V': return 0xB1;
+            case 'J': return 0xAD;
+            case 'F': return 0xAE;
+            case 'D': return 0xAF;
+            case 'L': case '[': return 0xB0;
+            default: return 0xAC;
+        }
+    }
+}
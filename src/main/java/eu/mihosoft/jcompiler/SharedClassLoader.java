@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * A classloader that defines common classes of several compilers once (see
+ * {@link JCompiler#setSharedClassLoader(SharedClassLoader)}). Compiled classes accepted by the sharing policy are
+ * defined by this loader instead of the classloader of each compiler, provided that their bytecode is identical.
+ * Classes with the same name but different bytecode are defined by the compiler that produced them.
+ * <p>
+ * Shared classes are resolved against this loader, i.e., they must only refer to classes visible to the parent
+ * of this loader or to other shared classes. Sharing classes between isolated tenants makes their static state
+ * visible to all tenants, the policy should therefore only accept stateless helper types.
+ * </p>
+ * <p>
+ * Shared classes belong to a different runtime package than the classes of the compilers, even if their package
+ * names are equal. Package-private access between them fails, therefore only public top-level classes whose
+ * fields and methods are either public or private are shared. Other classes accepted by the policy are defined by
+ * the compiler that produced them.
+ * </p>
+ */
+public final class SharedClassLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+
+    // determines which classes may be shared
+    private final Predicate<String> policy;
+    // interned bytecode of shared classes by name (the first compiler that offers a class wins)
+    private final Map<String, byte[]> sharedCode = new ConcurrentHashMap<>();
+
+    private SharedClassLoader(ClassLoader parent, Predicate<String> policy) {
+        super(parent);
+        this.policy = Objects.requireNonNull(policy, "Policy must not be null");
+    }
+
+    /**
+     * Creates a new shared classloader whose parent is the classloader of this library.
+     * @param policy determines which classes (by binary name) may be shared
+     * @return a new shared classloader
+     */
+    public static SharedClassLoader newInstance(Predicate<String> policy) {
+        return new SharedClassLoader(SharedClassLoader.class.getClassLoader(), policy);
+    }
+
+    /**
+     * Creates a new shared classloader.
+     * @param parent parent classloader (should be the parent classloader of the compilers that use this loader)
+     * @param policy determines which classes (by binary name) may be shared
+     * @return a new shared classloader
+     */
+    public static SharedClassLoader newInstance(ClassLoader parent, Predicate<String> policy) {
+        return new SharedClassLoader(parent, policy);
+    }
+
+    /**
+     * Returns the number of classes that have been offered for sharing.
+     * @return number of shared classes
+     */
+    public int getSharedClassCount() {
+        return sharedCode.size();
+    }
+
+    /**
+     * Offers the specified class for sharing.
+     * @param className binary name of the class
+     * @param bytecode bytecode of the class
+     */
+    /*pkg private*/ void offer(String className, byte[] bytecode) {
+        if (policy.test(className) && isAccessibleFromOtherLoaders(bytecode)) {
+            sharedCode.putIfAbsent(className, BytecodeInterner.intern(bytecode));
+        }
+    }
+
+    /**
+     * Determines whether the specified class can be used by classes of other loaders in the same package, i.e.,
+     * whether it is a public top-level class without package-private or protected members.
+     * @param bytecode bytecode of the class
+     * @return {@code true} if the class can be shared; {@code false} otherwise
+     */
+    private static boolean isAccessibleFromOtherLoaders(byte[] bytecode) {
+        ClassFile cf;
+        try {
+            cf = ClassFile.read(bytecode);
+        } catch (IOException ex) {
+            return false;
+        }
+        if ((cf.accessFlags & ACC_PUBLIC) == 0) {
+            return false;
+        }
+        // nestmates must be defined by the same loader
+        if (cf.findAttribute(cf.attributes, "NestHost") != null
+                || cf.findAttribute(cf.attributes, "NestMembers") != null) {
+            return false;
+        }
+        for (List<ClassFile.Member> members : Arrays.asList(cf.fields, cf.methods)) {
+            for (ClassFile.Member m : members) {
+                if ((m.accessFlags & (ACC_PUBLIC | ACC_PRIVATE)) == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether the specified class is defined by this loader.
+     * @param className binary name of the class
+     * @param bytecode bytecode of the class
+     * @return {@code true} if this loader defines a class with the specified name and bytecode; {@code false} otherwise
+     */
+    /*pkg private*/ boolean isShared(String className, byte[] bytecode) {
+        byte[] shared = sharedCode.get(className);
+        return shared != null && (shared == bytecode || Arrays.equals(shared, bytecode));
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytecode = sharedCode.get(name);
+        if (bytecode == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, bytecode, 0, bytecode.length);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.Objects;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Detached copy of a diagnostic (e.g. transferred from a cache or another process). The source only provides
+ * its name, the content is not available.
+ */
+/*pkg private*/ final class SimpleDiagnostic implements Diagnostic<JavaFileObject> {
+
+    private final Kind kind;
+    private final String sourceUri;
+    private final long position;
+    private final long startPosition;
+    private final long endPosition;
+    private final long lineNumber;
+    private final long columnNumber;
+    private final String code;
+    private final String message;
+    private JavaFileObject source;
+
+    /*pkg private*/ SimpleDiagnostic(Kind kind, String sourceUri, long position, long startPosition, long endPosition,
+        long lineNumber, long columnNumber, String code, String message) {
+        this.kind = Objects.requireNonNull(kind);
+        this.sourceUri = sourceUri;
+        this.position = position;
+        this.startPosition = startPosition;
+        this.endPosition = endPosition;
+        this.lineNumber = lineNumber;
+        this.columnNumber = columnNumber;
+        this.code = code;
+        this.message = message;
+    }
+
+    /**
+     * Creates a detached copy of the specified diagnostic (the message is resolved for the default locale).
+     * @param d diagnostic to copy
+     * @return a copy of the specified diagnostic
+     */
+    /*pkg private*/ static SimpleDiagnostic copyOf(Diagnostic<? extends JavaFileObject> d) {
+        return new SimpleDiagnostic(d.getKind(), d.getSource() != null ? d.getSource().toUri().toString() : null,
+            d.getPosition(), d.getStartPosition(), d.getEndPosition(), d.getLineNumber(), d.getColumnNumber(),
+            d.getCode(), d.getMessage(null));
+    }
+
+    /**
+     * @return the uri of the source of this diagnostic (may be {@code null})
+     */
+    /*pkg private*/ String getSourceUri() {
+        return sourceUri;
+    }
+
+    @Override
+    public Kind getKind() {
+        return kind;
+    }
+
+    @Override
+    public synchronized JavaFileObject getSource() {
+        if (source == null && sourceUri != null) {
+            source = new SimpleJavaFileObject(URI.create(sourceUri), JavaFileObject.Kind.SOURCE) {};
+        }
+        return source;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public long getStartPosition() {
+        return startPosition;
+    }
+
+    @Override
+    public long getEndPosition() {
+        return endPosition;
+    }
+
+    @Override
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public long getColumnNumber() {
+        return columnNumber;
+    }
+
+    @Override
+    public String getCode() {
+        return code;
+    }
+
+    @Override
+    public String getMessage(Locale locale) {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        JavaFileObject src = getSource();
+        return (src != null ? src.getName() + ":" + lineNumber + ": " : "")
+            + kind.name().toLowerCase(Locale.US) + ": " + message;
+    }
+}
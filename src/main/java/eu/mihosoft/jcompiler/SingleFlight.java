@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of in-flight compilations. Identical compilations that are requested while one of them
+ * is running share its result (see {@link JCompiler#setSingleFlight(boolean)}).
+ */
+/*pkg private*/ final class SingleFlight {
+
+    // interval in which waiting compilations check cancellation and timeout
+    private static final long POLL_MILLIS = 10;
+
+    private static final Map<Key, CompletableFuture<CompilationResult>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private SingleFlight() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Performs the specified compilation or waits for an identical compilation that is already running. If the
+     * running compilation fails or is aborted, the compilation is performed again.
+     *
+     * @param fingerprint fingerprint of the compilation (sources, options, classpath)
+     * @param parent parent classloader of the compilation (compilations only share classes of the same parent)
+     * @param compilation performs the compilation
+     * @param cancellationToken token used to cancel waiting (may be {@code null})
+     * @param timeoutNanos maximum time to wait (0 means no timeout)
+     * @return the result of the compilation (a view of the result shared with identical compilations)
+     */
+    static CompilationResult execute(String fingerprint, ClassLoader parent, Supplier<CompilationResult> compilation,
+            CancellationToken cancellationToken, long timeoutNanos) {
+        Key key = new Key(fingerprint, parent);
+        long start = System.nanoTime();
+
+        while (true) {
+            CompletableFuture<CompilationResult> own = new CompletableFuture<>();
+            CompletableFuture<CompilationResult> running = IN_FLIGHT.putIfAbsent(key, own);
+
+            if (running == null) {
+                try {
+                    CompilationResult result = compilation.get();
+                    own.complete(result);
+                    // callers set their own timings, the shared result is never modified
+                    return result.newView();
+                } catch (RuntimeException | Error ex) {
+                    own.completeExceptionally(ex);
+                    throw ex;
+                } finally {
+                    IN_FLIGHT.remove(key, own);
+                }
+            }
+
+            CompilationResult result = await(running, cancellationToken, start, timeoutNanos);
+            if (result != null) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of running compilations that accept followers.
+     * @return the number of running compilations
+     */
+    static int getInFlightCount() {
+        return IN_FLIGHT.size();
+    }
+
+    /**
+     * Waits for a running compilation.
+     * @return the result or {@code null} if the running compilation failed or has been aborted
+     */
+    private static CompilationResult await(CompletableFuture<CompilationResult> running,
+            CancellationToken cancellationToken, long start, long timeoutNanos) {
+        while (true) {
+            if (cancellationToken != null && cancellationToken.isCancelled()) {
+                return aborted(CompilationOutcome.CANCELLED);
+            }
+            if (timeoutNanos > 0 && System.nanoTime() - start >= timeoutNanos) {
+                return aborted(CompilationOutcome.TIMED_OUT);
+            }
+            try {
+                CompilationResult result = running.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                return result.isAborted() ? null : result.newView();
+            } catch (TimeoutException ex) {
+                // check cancellation and timeout again
+            } catch (ExecutionException ex) {
+                return null;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return aborted(CompilationOutcome.CANCELLED);
+            }
+        }
+    }
+
+    private static CompilationResult aborted(CompilationOutcome outcome) {
+        return new CompilationResult(Collections.emptyList(), Collections.emptyList(), false, outcome);
+    }
+
+    /**
+     * Identifies a compilation (parent classloaders are compared by identity).
+     */
+    private static final class Key {
+        private final String fingerprint;
+        private final ClassLoader parent;
+
+        Key(String fingerprint, ClassLoader parent) {
+            this.fingerprint = fingerprint;
+            this.parent = parent;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return fingerprint.equals(other.fingerprint) && parent == other.parent;
+        }
+
+        @Override
+        public int hashCode() {
+            return fingerprint.hashCode() * 31 + System.identityHashCode(parent);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * A compiled (or failed) snippet. Snippets are created via {@link SnippetCompiler} and are available once
+ * the snippet compiler has compiled them.
+ *
+ * @param <T> the functional interface implemented by this snippet
+ */
+public final class Snippet<T> {
+
+    private final Class<? super T> functionalInterface;
+    private final String code;
+
+    // state after compilation
+    private volatile CompiledClass compiledClass;
+    private volatile String factoryMethod;
+    private volatile List<Diagnostic<? extends JavaFileObject>> diagnostics = Collections.emptyList();
+    private volatile boolean failed;
+    private volatile T instance;
+
+    /**
+     * Creates a new snippet.
+     * @param functionalInterface functional interface implemented by this snippet
+     * @param code expression or method body
+     */
+    /*pkg private*/ Snippet(Class<? super T> functionalInterface, String code) {
+        this.functionalInterface = functionalInterface;
+        this.code = code;
+    }
+
+    /**
+     * Returns the functional interface implemented by this snippet.
+     * @return the functional interface implemented by this snippet
+     */
+    public Class<? super T> getFunctionalInterface() {
+        return functionalInterface;
+    }
+
+    /**
+     * Returns the code of this snippet (expression or method body).
+     * @return the code of this snippet
+     */
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Determines whether this snippet has been compiled successfully.
+     * @return {@code true} if this snippet has been compiled successfully; {@code false} otherwise
+     */
+    public boolean isCompiled() {
+        return compiledClass != null;
+    }
+
+    /**
+     * Determines whether compilation of this snippet failed.
+     * @return {@code true} if compilation of this snippet failed; {@code false} otherwise
+     */
+    public boolean hasErrors() {
+        return failed;
+    }
+
+    /**
+     * Returns the diagnostics reported for this snippet. Line and column numbers as well as positions are
+     * relative to the code of this snippet.
+     * @return the diagnostics reported for this snippet
+     */
+    public List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Returns an instance of the functional interface that invokes the compiled snippet.
+     * @return an instance of the functional interface that invokes the compiled snippet
+     * @throws CompilationException if the snippet could not be compiled
+     * @throws IllegalStateException if the snippet has not been compiled yet
+     */
+    public T get() {
+        T result = instance;
+        if (result != null) {
+            return result;
+        }
+
+        if (failed) {
+            StringBuilder msg = new StringBuilder("Unable to compile the snippet");
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+                msg.append("\n[kind=").append(d.getKind()).append(", line=").append(d.getLineNumber())
+                   .append(", column=").append(d.getColumnNumber())
+                   .append(", message=").append(d.getMessage(Locale.US)).append("]");
+            }
+            throw new CompilationException(msg.toString());
+        }
+
+        CompiledClass cc = compiledClass;
+        if (cc == null) {
+            throw new IllegalStateException("Snippet has not been compiled yet");
+        }
+
+        try {
+            // the type arguments of generic interfaces have been checked by the compiler
+            @SuppressWarnings("unchecked")
+            T t = (T) functionalInterface.cast(cc.loadClass().getMethod(factoryMethod).invoke(null));
+            result = t;
+        } catch (ReflectiveOperationException ex) {
+            throw new CompilationException("Cannot instantiate snippet", ex);
+        }
+
+        instance = result;
+        return result;
+    }
+
+    /*pkg private*/ void setCompiled(CompiledClass compiledClass, String factoryMethod) {
+        this.factoryMethod = factoryMethod;
+        this.compiledClass = compiledClass;
+    }
+
+    /*pkg private*/ void setDiagnostics(List<Diagnostic<? extends JavaFileObject>> diagnostics, boolean failed) {
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+        this.failed = failed;
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Compiles expressions and method bodies (snippets) that implement functional interfaces. Many snippets are
+ * packed as static methods into few generated compilation units, i.e., the compilation cost is paid per batch
+ * rather than per snippet:
+ *
+ * <pre>
+ * SnippetCompiler snippets = SnippetCompiler.newInstance();
+ * Snippet&lt;IntBinaryOperator&gt; add = snippets.addExpression(IntBinaryOperator.class, "a + b", "a", "b");
+ * snippets.compile();
+ * int sum = add.get().applyAsInt(1, 2);
+ * </pre>
+ *
+ * Diagnostics are mapped back to the snippets that caused them, see {@link Snippet#getDiagnostics()}. Snippets
+ * with errors do not prevent the other snippets of a batch from being compiled.
+ */
+public final class SnippetCompiler {
+
+    // used to generate unique class names
+    private static final AtomicLong UNIT_COUNTER = new AtomicLong();
+
+    private final JCompiler compiler;
+    private final Set<String> imports = new LinkedHashSet<>();
+    private final List<Entry> pending = new ArrayList<>();
+    private int snippetsPerUnit = 256;
+
+    private SnippetCompiler(JCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Creates a new snippet compiler with its own compiler instance.
+     *
+     * @return a new snippet compiler
+     */
+    public static SnippetCompiler newInstance() {
+        return new SnippetCompiler(JCompiler.newInstance());
+    }
+
+    /**
+     * Creates a new snippet compiler that uses the specified compiler. Compiler settings (options, parent
+     * classloader etc.) apply to snippets as well and compiled snippets are loaded by its classloader.
+     *
+     * @param compiler compiler to use
+     * @return a new snippet compiler
+     */
+    public static SnippetCompiler newInstance(JCompiler compiler) {
+        return new SnippetCompiler(compiler);
+    }
+
+    /**
+     * Specifies the maximum number of snippets per generated compilation unit (default is 256).
+     *
+     * @param snippetsPerUnit maximum number of snippets per generated compilation unit
+     */
+    public void setSnippetsPerUnit(int snippetsPerUnit) {
+        if (snippetsPerUnit < 1) {
+            throw new IllegalArgumentException("At least one snippet per unit required: " + snippetsPerUnit);
+        }
+        this.snippetsPerUnit = snippetsPerUnit;
+    }
+
+    /**
+     * Adds imports that are visible to all snippets, e.g., {@code java.util.*} or {@code static java.lang.Math.*}.
+     *
+     * @param imports imports to add (without {@code import} keyword and semicolon)
+     * @return this instance (for chaining invocation of this method)
+     */
+    public SnippetCompiler addImports(String... imports) {
+        this.imports.addAll(Arrays.asList(imports));
+        return this;
+    }
+
+    /**
+     * Adds an expression that implements the specified functional interface. Parameters of the functional method
+     * are accessible via the specified names.
+     *
+     * @param functionalInterface functional interface to implement
+     * @param expression the expression, e.g., {@code a + b}
+     * @param parameterNames names of the parameters of the functional method
+     * @param <T> type of the functional interface
+     * @return handle of the snippet (available after {@link #compile()})
+     */
+    public <T> Snippet<T> addExpression(Class<T> functionalInterface, String expression, String... parameterNames) {
+        return add(functionalInterface, Collections.emptyList(), expression, false, parameterNames);
+    }
+
+    /**
+     * Adds an expression that implements the specified generic functional interface, e.g.,
+     * {@code Function<Integer, Integer>}. The type of the snippet is inferred from the assignment, e.g.,
+     * {@code Snippet<Function<Integer, Integer>> twice = snippets.addExpression(Function.class, ...)}.
+     *
+     * @param functionalInterface functional interface to implement
+     * @param typeArguments type arguments of the functional interface, e.g., {@code ["Integer", "Integer"]}
+     * @param expression the expression, e.g., {@code x * 2}
+     * @param parameterNames names of the parameters of the functional method
+     * @param <T> type of the functional interface
+     * @return handle of the snippet (available after {@link #compile()})
+     */
+    public <T> Snippet<T> addExpression(Class<? super T> functionalInterface, List<String> typeArguments,
+                                        String expression, String... parameterNames) {
+        return add(functionalInterface, typeArguments, expression, false, parameterNames);
+    }
+
+    /**
+     * Adds a method body that implements the specified functional interface. Parameters of the functional method
+     * are accessible via the specified names.
+     *
+     * @param functionalInterface functional interface to implement
+     * @param body the method body, e.g., {@code if (a > b) return a; return b;}
+     * @param parameterNames names of the parameters of the functional method
+     * @param <T> type of the functional interface
+     * @return handle of the snippet (available after {@link #compile()})
+     */
+    public <T> Snippet<T> addBody(Class<T> functionalInterface, String body, String... parameterNames) {
+        return add(functionalInterface, Collections.emptyList(), body, true, parameterNames);
+    }
+
+    /**
+     * Adds a method body that implements the specified generic functional interface.
+     *
+     * @param functionalInterface functional interface to implement
+     * @param typeArguments type arguments of the functional interface
+     * @param body the method body
+     * @param parameterNames names of the parameters of the functional method
+     * @param <T> type of the functional interface
+     * @return handle of the snippet (available after {@link #compile()})
+     */
+    public <T> Snippet<T> addBody(Class<? super T> functionalInterface, List<String> typeArguments,
+                                  String body, String... parameterNames) {
+        return add(functionalInterface, typeArguments, body, true, parameterNames);
+    }
+
+    private <T> Snippet<T> add(Class<? super T> functionalInterface, List<String> typeArguments,
+                               String code, boolean body, String... parameterNames) {
+        Snippet<T> snippet = new Snippet<>(functionalInterface, code);
+        pending.add(new Entry(snippet, body, functionalInterface, typeArguments, parameterNames));
+        return snippet;
+    }
+
+    /**
+     * Compiles all snippets added since the last invocation of this method. Snippets with errors are excluded
+     * and the remaining snippets are compiled again until no further snippet fails, i.e., errors of individual
+     * snippets do not affect other snippets (even if javac stops reporting errors after {@code -Xmaxerrs}).
+     *
+     * @return compilation result of the generated compilation units (diagnostics of failed snippets included)
+     */
+    public CompilationResult compile() {
+        List<Entry> entries = new ArrayList<>(pending);
+        pending.clear();
+
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+        CompilationResult result = null;
+
+        // each attempt excludes at least one failed snippet, i.e., the loop terminates
+        while (!entries.isEmpty()) {
+            Map<CompilationUnitSource, List<Entry>> units = createUnits(entries);
+            result = compiler.compile(units.keySet(), compiler.getInMemoryClassLoader(), null, true);
+
+            // map diagnostics to snippets
+            Map<Entry, List<Diagnostic<? extends JavaFileObject>>> byEntry = new IdentityHashMap<>();
+            Map<Entry, List<Diagnostic<? extends JavaFileObject>>> originalByEntry = new IdentityHashMap<>();
+            Set<Entry> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Diagnostic<? extends JavaFileObject> d : result.getDiagnostics()) {
+                List<Entry> unitEntries = units.get(d.getSource());
+                Entry entry = unitEntries == null ? null : findEntry(unitEntries, d.getLineNumber());
+                if (entry == null) {
+                    continue;
+                }
+                byEntry.computeIfAbsent(entry, e -> new ArrayList<>()).add(entry.map(d));
+                originalByEntry.computeIfAbsent(entry, e -> new ArrayList<>()).add(d);
+                if (d.getKind() == Diagnostic.Kind.ERROR) {
+                    failed.add(entry);
+                }
+            }
+
+            if (result.compilationSucceeded() || failed.isEmpty() || result.isAborted()) {
+                // done (errors that cannot be attributed to snippets fail all remaining snippets)
+                diagnostics.addAll(result.getDiagnostics());
+                for (Entry e : entries) {
+                    e.snippet.setDiagnostics(byEntry.getOrDefault(e, Collections.emptyList()), !result.compilationSucceeded());
+                }
+                if (result.compilationSucceeded()) {
+                    bind(result, units);
+                }
+                entries.clear();
+                break;
+            }
+
+            // exclude failed snippets and try again
+            for (Entry e : failed) {
+                e.snippet.setDiagnostics(byEntry.get(e), true);
+                diagnostics.addAll(originalByEntry.get(e));
+            }
+            entries.removeAll(failed);
+        }
+
+        boolean succeeded = result != null && result.compilationSucceeded() && diagnostics.stream()
+            .noneMatch(d -> d.getKind() == Diagnostic.Kind.ERROR);
+        return new CompilationResult(result == null || !result.compilationSucceeded()
+            ? Collections.emptyList() : result.getCompiledUnits(), diagnostics, succeeded);
+    }
+
+    /**
+     * Binds the compiled snippets to the compiled classes.
+     */
+    private static void bind(CompilationResult result, Map<CompilationUnitSource, List<Entry>> units) {
+        for (List<Entry> entries : units.values()) {
+            for (Entry e : entries) {
+                e.snippet.setCompiled(result.getClass(e.className), e.factoryMethod());
+            }
+        }
+    }
+
+    /**
+     * Returns the entry whose method contains the specified line.
+     */
+    private static Entry findEntry(List<Entry> entries, long line) {
+        for (Entry e : entries) {
+            if (line >= e.methodStartLine && line <= e.methodEndLine) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Packs the specified entries into generated compilation units.
+     */
+    private Map<CompilationUnitSource, List<Entry>> createUnits(List<Entry> entries) {
+        Map<CompilationUnitSource, List<Entry>> units = new HashMap<>();
+        for (int i = 0; i < entries.size(); i += snippetsPerUnit) {
+            List<Entry> unitEntries = entries.subList(i, Math.min(entries.size(), i + snippetsPerUnit));
+            String className = "JctSnippets" + UNIT_COUNTER.incrementAndGet();
+            try {
+                units.put(new CompilationUnitSource(className, generate(className, unitEntries)),
+                    new ArrayList<>(unitEntries));
+            } catch (URISyntaxException ex) {
+                throw new IllegalStateException("Invalid class name " + className, ex);
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Generates a compilation unit for the specified entries. Snippet code always starts in the first column
+     * of a separate line which simplifies mapping diagnostics.
+     */
+    private String generate(String className, List<Entry> entries) {
+        CodeBuilder code = new CodeBuilder();
+        for (String imp : imports) {
+            code.line("import " + imp + ";");
+        }
+        code.line("public final class " + className + " {");
+        code.line("    private " + className + "() { }");
+
+        int index = 0;
+        for (Entry e : entries) {
+            e.className = className;
+            e.index = index++;
+            code.line("    public static " + e.interfaceType + " " + e.factoryMethod() + "() { return "
+                + className + "::" + e.method() + "; }");
+            e.methodStartLine = code.lineNumber;
+            code.line("    private static " + e.returnType + " " + e.method() + "(" + e.parameters + ")"
+                + e.throwsClause + " {");
+            if (!e.body && !"void".equals(e.returnType)) {
+                code.line("        return (");
+            }
+            e.codeStartLine = code.lineNumber;
+            e.codeOffset = code.sb.length();
+            code.line(e.snippet.getCode());
+            e.codeEndLine = code.lineNumber - 1;
+            if (!e.body) {
+                code.line("void".equals(e.returnType) ? "        ;" : "        );");
+            }
+            code.line("    }");
+            e.methodEndLine = code.lineNumber - 1;
+        }
+
+        code.line("}");
+        return code.sb.toString();
+    }
+
+    /**
+     * Simple code builder that tracks line numbers.
+     */
+    private static final class CodeBuilder {
+        private final StringBuilder sb = new StringBuilder();
+        // number of the next line (1-based)
+        private long lineNumber = 1;
+
+        void line(String line) {
+            sb.append(line).append('\n');
+            lineNumber += 1 + line.chars().filter(c -> c == '\n').count();
+        }
+    }
+
+    /**
+     * A snippet and the generated code that belongs to it.
+     */
+    private static final class Entry {
+        private final Snippet<?> snippet;
+        private final boolean body;
+        private final String interfaceType;
+        private final String returnType;
+        private final String parameters;
+        private final String throwsClause;
+        private final JavaFileObject source;
+
+        // location in the generated code
+        private String className;
+        private int index;
+        private long methodStartLine;
+        private long methodEndLine;
+        private long codeStartLine;
+        private long codeEndLine;
+        private long codeOffset;
+
+        Entry(Snippet<?> snippet, boolean body, Class<?> functionalInterface, List<String> typeArguments,
+              String[] parameterNames) {
+            this.snippet = snippet;
+            this.body = body;
+
+            Method method = findFunctionalMethod(functionalInterface);
+            TypeVariable<?>[] typeParameters = functionalInterface.getTypeParameters();
+            if (!typeArguments.isEmpty() && typeArguments.size() != typeParameters.length) {
+                throw new IllegalArgumentException("Expected " + typeParameters.length + " type arguments for "
+                    + functionalInterface.getName() + ", got " + typeArguments.size());
+            }
+            if (method.getParameterCount() != parameterNames.length) {
+                throw new IllegalArgumentException("Expected " + method.getParameterCount()
+                    + " parameter names for " + method + ", got " + parameterNames.length);
+            }
+
+            Map<TypeVariable<?>, String> bindings = new HashMap<>();
+            for (int i = 0; i < typeArguments.size(); i++) {
+                bindings.put(typeParameters[i], typeArguments.get(i));
+            }
+            bindSuperTypes(functionalInterface, bindings);
+
+            this.interfaceType = functionalInterface.getCanonicalName()
+                + (typeArguments.isEmpty() ? "" : "<" + String.join(", ", typeArguments) + ">");
+            this.returnType = typeName(method.getGenericReturnType(), bindings);
+
+            Type[] parameterTypes = method.getGenericParameterTypes();
+            List<String> params = new ArrayList<>();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                params.add(typeName(parameterTypes[i], bindings) + " " + parameterNames[i]);
+            }
+            this.parameters = String.join(", ", params);
+
+            Type[] exceptionTypes = method.getGenericExceptionTypes();
+            this.throwsClause = exceptionTypes.length == 0 ? "" : " throws " + Arrays.stream(exceptionTypes)
+                .map(t -> typeName(t, bindings)).collect(Collectors.joining(", "));
+
+            try {
+                this.source = new CompilationUnitSource("snippet" + System.identityHashCode(snippet), snippet.getCode());
+            } catch (URISyntaxException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        String method() {
+            return "s" + index;
+        }
+
+        String factoryMethod() {
+            return "f" + index;
+        }
+
+        /**
+         * Maps a diagnostic of the generated code to the code of the snippet.
+         */
+        SnippetDiagnostic map(Diagnostic<? extends JavaFileObject> d) {
+            long line = d.getLineNumber();
+            if (line >= codeStartLine && line <= codeEndLine) {
+                return new SnippetDiagnostic(d, source, line - codeStartLine + 1, d.getColumnNumber(), codeOffset);
+            }
+            // diagnostic refers to the generated method (e.g. missing return statement)
+            long clamped = line < codeStartLine ? 1 : codeEndLine - codeStartLine + 1;
+            return new SnippetDiagnostic(d, source, clamped, Diagnostic.NOPOS, Diagnostic.NOPOS);
+        }
+    }
+
+    /**
+     * Returns the single abstract method of the specified functional interface.
+     */
+    private static Method findFunctionalMethod(Class<?> functionalInterface) {
+        if (!functionalInterface.isInterface() || !Modifier.isPublic(functionalInterface.getModifiers())) {
+            throw new IllegalArgumentException("Public functional interface expected: " + functionalInterface.getName());
+        }
+
+        Map<String, Method> methods = new HashMap<>();
+        for (Method m : functionalInterface.getMethods()) {
+            if (!Modifier.isAbstract(m.getModifiers()) || isObjectMethod(m)) {
+                continue;
+            }
+            // overridden methods of super interfaces are reported more than once
+            methods.putIfAbsent(m.getName() + Arrays.toString(m.getParameterTypes()), m);
+        }
+
+        if (methods.size() != 1) {
+            throw new IllegalArgumentException("Not a functional interface: " + functionalInterface.getName());
+        }
+
+        return methods.values().iterator().next();
+    }
+
+    private static boolean isObjectMethod(Method m) {
+        try {
+            Object.class.getMethod(m.getName(), m.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Binds the type variables of all super interfaces.
+     */
+    private static void bindSuperTypes(Class<?> type, Map<TypeVariable<?>, String> bindings) {
+        for (Type superType : type.getGenericInterfaces()) {
+            if (superType instanceof ParameterizedType) {
+                ParameterizedType p = (ParameterizedType) superType;
+                Class<?> raw = (Class<?>) p.getRawType();
+                TypeVariable<?>[] typeParameters = raw.getTypeParameters();
+                for (int i = 0; i < typeParameters.length; i++) {
+                    bindings.put(typeParameters[i], typeName(p.getActualTypeArguments()[i], bindings));
+                }
+                bindSuperTypes(raw, bindings);
+            } else if (superType instanceof Class) {
+                bindSuperTypes((Class<?>) superType, bindings);
+            }
+        }
+    }
+
+    /**
+     * Returns the source representation of the specified type (unbound type variables are erased).
+     */
+    private static String typeName(Type type, Map<TypeVariable<?>, String> bindings) {
+        if (type instanceof Class) {
+            return ((Class<?>) type).getCanonicalName();
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType p = (ParameterizedType) type;
+            return typeName(p.getRawType(), bindings) + Arrays.stream(p.getActualTypeArguments())
+                .map(t -> typeName(t, bindings)).collect(Collectors.joining(", ", "<", ">"));
+        } else if (type instanceof GenericArrayType) {
+            return typeName(((GenericArrayType) type).getGenericComponentType(), bindings) + "[]";
+        } else if (type instanceof WildcardType) {
+            WildcardType w = (WildcardType) type;
+            if (w.getLowerBounds().length > 0) {
+                return "? super " + typeName(w.getLowerBounds()[0], bindings);
+            }
+            Type upper = w.getUpperBounds()[0];
+            return upper == Object.class ? "?" : "? extends " + typeName(upper, bindings);
+        } else if (type instanceof TypeVariable) {
+            String bound = bindings.get(type);
+            return bound != null ? bound : typeName(((TypeVariable<?>) type).getBounds()[0], bindings);
+        }
+        throw new IllegalArgumentException("Unsupported type " + type);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Diagnostic of a generated compilation unit mapped to the coordinates of a snippet.
+ */
+/*pkg private*/ final class SnippetDiagnostic implements Diagnostic<JavaFileObject> {
+
+    private final Diagnostic<? extends JavaFileObject> diagnostic;
+    private final JavaFileObject source;
+    private final long line;
+    private final long column;
+    private final long offset;
+
+    /**
+     * Creates a new instance of this class.
+     * @param diagnostic diagnostic of the generated compilation unit
+     * @param source source object that represents the snippet
+     * @param line line of the snippet (1-based) or {@link Diagnostic#NOPOS}
+     * @param column column of the snippet (1-based) or {@link Diagnostic#NOPOS}
+     * @param offset offset of the snippet in the generated compilation unit (or {@link Diagnostic#NOPOS} if the
+     *               diagnostic does not refer to the snippet code)
+     */
+    /*pkg private*/ SnippetDiagnostic(Diagnostic<? extends JavaFileObject> diagnostic, JavaFileObject source,
+                                      long line, long column, long offset) {
+        this.diagnostic = diagnostic;
+        this.source = source;
+        this.line = line;
+        this.column = column;
+        this.offset = offset;
+    }
+
+    private long map(long position) {
+        return offset == NOPOS || position == NOPOS ? NOPOS : position - offset;
+    }
+
+    @Override
+    public Kind getKind() {
+        return diagnostic.getKind();
+    }
+
+    @Override
+    public JavaFileObject getSource() {
+        return source;
+    }
+
+    @Override
+    public long getPosition() {
+        return map(diagnostic.getPosition());
+    }
+
+    @Override
+    public long getStartPosition() {
+        return map(diagnostic.getStartPosition());
+    }
+
+    @Override
+    public long getEndPosition() {
+        return map(diagnostic.getEndPosition());
+    }
+
+    @Override
+    public long getLineNumber() {
+        return line;
+    }
+
+    @Override
+    public long getColumnNumber() {
+        return column;
+    }
+
+    @Override
+    public String getCode() {
+        return diagnostic.getCode();
+    }
+
+    @Override
+    public String getMessage(Locale locale) {
+        return diagnostic.getMessage(locale);
+    }
+
+    @Override
+    public String toString() {
+        return source.getName() + ":" + line + ": " + getKind() + ": " + getMessage(Locale.getDefault());
+    }
+}
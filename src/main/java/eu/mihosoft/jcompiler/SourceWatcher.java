@@ -0,0 +1,382 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles the Java files of one or more source roots and recompiles created, modified or deleted files whenever
+ * the source roots change. Files are added to the compiler via {@link JCompiler#addSource(String, Path)}, i.e.,
+ * they are memory-mapped instead of being read into strings. The name of a unit is derived from the path of its
+ * file relative to the source root (e.g. {@code my/pkg/MyClass.java} is compiled as {@code my.pkg.MyClass}).
+ * Deleting or moving a directory removes the units of all files it contained.
+ *
+ * <p>Changes are debounced, i.e., files are recompiled once the source roots have not changed for the debounce
+ * interval. Each rebuild compiles the changed units only and loads them with a new classloader generation that
+ * contains the classes of all other units (see {@link JCompiler#getClassloader()}). Units that depend on changed
+ * units are not recompiled, i.e., changes of signatures used by other units require these units to be touched as
+ * well. The bytecode of compiled classes must be kept in memory (see {@link BytecodeRetention}).</p>
+ *
+ * <p>The compiler is used by the watcher thread and must not be used concurrently while the watcher is running.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * SourceWatcher watcher = SourceWatcher.newInstance(compiler, Paths.get("src/generated"));
+ * watcher.setListener(result -&gt; reload(result));
+ * watcher.start();
+ * </pre>
+ */
+public final class SourceWatcher implements Closeable {
+
+    private static final String JAVA_EXTENSION = ".java";
+
+    private final JCompiler compiler;
+    private final List<Path> roots;
+    private Duration debounce = Duration.ofMillis(200);
+    private Consumer<CompilationResult> listener = result -> { };
+    private Consumer<Exception> errorHandler = ex -> { };
+
+    private WatchService watchService;
+    // watched directories by key
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    // names of the classes of each unit (of the last successful compilation of the unit)
+    private final Map<String, List<String>> unitClasses = new HashMap<>();
+    // files of the units added to the compiler by unit name
+    private final Map<String, Path> unitFiles = new HashMap<>();
+    // files of failed rebuilds (retried with the next change)
+    private final Set<Path> retry = new LinkedHashSet<>();
+    // determines whether events have been lost since the last rebuild
+    private boolean overflow;
+    private Thread thread;
+    private volatile boolean closed;
+
+    private SourceWatcher(JCompiler compiler, List<Path> roots) {
+        this.compiler = compiler;
+        this.roots = roots;
+    }
+
+    /**
+     * Creates a new watcher.
+     *
+     * @param compiler compiler that compiles the sources (options etc. must be configured before the watcher is started)
+     * @param roots source roots
+     * @return a new watcher
+     */
+    public static SourceWatcher newInstance(JCompiler compiler, Path... roots) {
+        Objects.requireNonNull(compiler, "Compiler must not be null");
+        if (roots.length == 0) {
+            throw new IllegalArgumentException("At least one source root is required");
+        }
+        List<Path> rootList = new ArrayList<>();
+        for (Path root : roots) {
+            if (!Files.isDirectory(root)) {
+                throw new IllegalArgumentException("Source root is not a directory: " + root);
+            }
+            rootList.add(root.toAbsolutePath().normalize());
+        }
+        return new SourceWatcher(compiler, rootList);
+    }
+
+    /**
+     * Specifies the quiet period after the last change before the changed files are recompiled (default: 200ms).
+     *
+     * @param debounce quiet period
+     */
+    public void setDebounce(Duration debounce) {
+        if (debounce.isNegative()) {
+            throw new IllegalArgumentException("Debounce interval must not be negative");
+        }
+        this.debounce = debounce;
+    }
+
+    /**
+     * Specifies the listener that receives the result of the initial compilation and of each rebuild. The
+     * listener is called by the watcher thread.
+     *
+     * @param listener listener that receives compilation results
+     */
+    public void setListener(Consumer<CompilationResult> listener) {
+        this.listener = Objects.requireNonNull(listener, "Listener must not be null");
+    }
+
+    /**
+     * Specifies the handler of exceptions thrown by rebuilds (e.g. if a file cannot be read). The files of a failed
+     * rebuild are recompiled with the next change.
+     *
+     * @param errorHandler handler of rebuild exceptions
+     */
+    public void setErrorHandler(Consumer<Exception> errorHandler) {
+        this.errorHandler = Objects.requireNonNull(errorHandler, "Error handler must not be null");
+    }
+
+    /**
+     * Compiles all files of the source roots and starts watching the source roots. The initial result is passed
+     * to the listener as well.
+     *
+     * @return result of the initial compilation
+     * @throws IOException if the source roots cannot be read or watched
+     */
+    public synchronized CompilationResult start() throws IOException {
+        if (thread != null || closed) {
+            throw new IllegalStateException("Watcher has already been started");
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        Set<Path> files = new LinkedHashSet<>();
+        for (Path root : roots) {
+            files.addAll(register(root));
+        }
+        for (Path file : files) {
+            addSource(file);
+        }
+        CompilationResult result = compiler.compileAll();
+        recordClasses(result);
+        listener.accept(result);
+
+        thread = new Thread(this::run, "jcompiler-source-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    /**
+     * Stops watching the source roots.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                Set<Path> changed = new LinkedHashSet<>(retry);
+                retry.clear();
+                collect(watchService.take(), changed);
+                // debounce rapid changes
+                long debounceNanos = debounce.toNanos();
+                WatchKey key;
+                while ((key = watchService.poll(debounceNanos, TimeUnit.NANOSECONDS)) != null) {
+                    collect(key, changed);
+                }
+                if (!changed.isEmpty() || overflow) {
+                    rebuild(changed);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ex) {
+            // watcher has been closed
+        }
+    }
+
+    /**
+     * Collects the changed files of the specified key.
+     */
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events have been lost, all known and existing files are checked
+                overflow = true;
+                changed.addAll(rescan());
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    changed.addAll(register(path));
+                } catch (IOException ex) {
+                    errorHandler.accept(ex);
+                }
+            } else if (path.getFileName().toString().endsWith(JAVA_EXTENSION)) {
+                changed.add(path);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                // a deleted or moved directory does not report the files it contained
+                unitFiles.values().stream().filter(file -> file.startsWith(path)).forEach(changed::add);
+                directories.entrySet().removeIf(watched -> {
+                    if (watched.getValue().startsWith(path)) {
+                        watched.getKey().cancel();
+                        return true;
+                    }
+                    return false;
+                });
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Recompiles the units of the specified files.
+     */
+    private void rebuild(Set<Path> changed) {
+        Set<String> units = new LinkedHashSet<>();
+        Set<String> removed = new HashSet<>();
+        boolean rescanned = overflow;
+        if (rescanned) {
+            // units whose files do not exist anymore have been removed
+            Set<String> existing = changed.stream().map(this::unitName).collect(Collectors.toSet());
+            unitClasses.keySet().stream().filter(unit -> !existing.contains(unit)).forEach(removed::add);
+            overflow = false;
+        }
+        for (Path file : changed) {
+            String unit = unitName(file);
+            if (unit == null) {
+                continue;
+            }
+            if (Files.isRegularFile(file)) {
+                units.add(unit);
+            } else {
+                removed.add(unit);
+            }
+        }
+        try {
+            for (String unit : removed) {
+                compiler.removeSource(unit);
+                unitFiles.remove(unit);
+            }
+            for (Path file : changed) {
+                if (Files.isRegularFile(file) && unitName(file) != null) {
+                    addSource(file);
+                }
+            }
+            Set<String> staleClasses = new HashSet<>();
+            for (String unit : units) {
+                staleClasses.addAll(unitClasses.getOrDefault(unit, Collections.emptyList()));
+            }
+            for (String unit : removed) {
+                staleClasses.addAll(unitClasses.getOrDefault(unit, Collections.emptyList()));
+            }
+            CompilationResult result = compiler.recompile(units, staleClasses);
+            removed.forEach(unitClasses::remove);
+            // units without classes (e.g. failed compilations) have no stale classes anymore
+            units.forEach(unitClasses::remove);
+            recordClasses(result);
+            listener.accept(result);
+        } catch (RuntimeException ex) {
+            retry.addAll(changed);
+            overflow |= rescanned;
+            errorHandler.accept(ex);
+        }
+    }
+
+    private void recordClasses(CompilationResult result) {
+        for (CompiledUnit unit : result.getCompiledUnits()) {
+            // units are named after their source files (e.g. '/my/pkg/MyClass.java')
+            String name = unit.getName();
+            if (name.startsWith("/")) {
+                name = name.substring(1);
+            }
+            if (name.endsWith(JAVA_EXTENSION)) {
+                name = name.substring(0, name.length() - JAVA_EXTENSION.length());
+            }
+            unitClasses.put(name.replace('/', '.'),
+                unit.getClasses().stream().map(CompiledClass::getClassName).collect(Collectors.toList()));
+        }
+    }
+
+    private void addSource(Path file) {
+        String unit = unitName(file);
+        compiler.addSource(unit, file);
+        unitFiles.put(unit, file);
+    }
+
+    /**
+     * Returns the name of the unit of the specified file.
+     * @return the name of the unit or {@code null} if the file is not located in a source root
+     */
+    private String unitName(Path file) {
+        for (Path root : roots) {
+            if (file.startsWith(root) && !file.equals(root)) {
+                String relative = root.relativize(file).toString();
+                if (!relative.endsWith(JAVA_EXTENSION)) {
+                    return null;
+                }
+                relative = relative.substring(0, relative.length() - JAVA_EXTENSION.length());
+                return relative.replace(file.getFileSystem().getSeparator(), ".");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Watches the specified directory and its subdirectories.
+     * @return the Java files of the specified directory and its subdirectories
+     */
+    private List<Path> register(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    directories.put(key, path);
+                } else if (path.getFileName().toString().endsWith(JAVA_EXTENSION)) {
+                    files.add(path);
+                }
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return files;
+    }
+
+    /**
+     * Registers all directories of the source roots again and returns all Java files.
+     */
+    private List<Path> rescan() {
+        List<Path> files = new ArrayList<>();
+        for (Path root : roots) {
+            try {
+                files.addAll(register(root));
+            } catch (IOException ex) {
+                errorHandler.accept(ex);
+            }
+        }
+        return files;
+    }
+}
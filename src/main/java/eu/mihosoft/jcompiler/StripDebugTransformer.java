@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes debug information from classes.
+ */
+/*pkg private*/ final class StripDebugTransformer implements ClassTransformer {
+
+    /*pkg private*/ static final StripDebugTransformer INSTANCE = new StripDebugTransformer();
+
+    private static final Set<String> CLASS_ATTRIBUTES =
+        new HashSet<>(Arrays.asList("SourceFile", "SourceDebugExtension"));
+    private static final Set<String> CODE_ATTRIBUTES =
+        new HashSet<>(Arrays.asList("LineNumberTable", "LocalVariableTable", "LocalVariableTypeTable"));
+
+    private StripDebugTransformer() {
+    }
+
+    @Override
+    public byte[] transform(String className, byte[] bytecode) throws Exception {
+        ClassFile cf = ClassFile.read(bytecode);
+
+        boolean changed = cf.attributes.removeIf(a -> CLASS_ATTRIBUTES.contains(cf.getName(a)));
+
+        for (ClassFile.Member method : cf.methods) {
+            ClassFile.Attribute codeAttribute = cf.findAttribute(method.attributes, "Code");
+            if (codeAttribute == null) {
+                continue;
+            }
+            ClassFile.Code code = ClassFile.Code.read(codeAttribute);
+            if (code.attributes.removeIf(a -> CODE_ATTRIBUTES.contains(cf.getName(a)))) {
+                codeAttribute.info = code.toByteArray();
+                changed = true;
+            }
+        }
+
+        // unused constant pool entries are kept (indices must not change)
+        return changed ? cf.toByteArray() : null;
+    }
+
+    @Override
+    public String getName() {
+        return "stripDebugInfo";
+    }
+}
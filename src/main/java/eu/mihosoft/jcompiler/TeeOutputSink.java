@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the output to several sinks.
+ */
+/*pkg private*/ final class TeeOutputSink implements OutputSink {
+
+    private final List<OutputSink> sinks;
+    private final boolean inMemory;
+
+    /*pkg private*/ TeeOutputSink(List<OutputSink> sinks) {
+        this.sinks = new ArrayList<>(sinks);
+        this.inMemory = this.sinks.stream().anyMatch(OutputSink::isInMemory);
+    }
+
+    @Override
+    public OutputStream openClass(String className) throws IOException {
+        List<OutputStream> streams = new ArrayList<>();
+        for (OutputSink sink : sinks) {
+            OutputStream out = sink.openClass(className);
+            if (out != null) streams.add(out);
+        }
+        return TeeOutputStream.of(streams);
+    }
+
+    @Override
+    public OutputStream openResource(String path) throws IOException {
+        List<OutputStream> streams = new ArrayList<>();
+        for (OutputSink sink : sinks) {
+            OutputStream out = sink.openResource(path);
+            if (out != null) streams.add(out);
+        }
+        return TeeOutputStream.of(streams);
+    }
+
+    @Override
+    public boolean isInMemory() {
+        return inMemory;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes to several streams.
+ */
+/*pkg private*/ final class TeeOutputStream extends OutputStream {
+
+    private final List<OutputStream> streams;
+
+    private TeeOutputStream(List<OutputStream> streams) {
+        this.streams = new ArrayList<>(streams);
+    }
+
+    /**
+     * Returns a stream that writes to all of the specified streams.
+     * @param streams streams to write to
+     * @return a stream that writes to all specified streams ({@code null} if no stream has been specified)
+     */
+    /*pkg private*/ static OutputStream of(List<OutputStream> streams) {
+        if (streams.isEmpty()) return null;
+        if (streams.size() == 1) return streams.get(0);
+        return new TeeOutputStream(streams);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        for (OutputStream out : streams) {
+            out.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        for (OutputStream out : streams) {
+            out.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (OutputStream out : streams) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (OutputStream out : streams) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                if (failure == null) failure = ex; else failure.addSuppressed(ex);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+}
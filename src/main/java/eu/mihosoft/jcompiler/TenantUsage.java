@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.time.Duration;
+
+/**
+ * Snapshot of the resource usage of a tenant (see {@link CompileTenant#getUsage()}).
+ */
+public final class TenantUsage {
+
+    private final String tenantId;
+    private final int activeCompilations;
+    private final long compilations;
+    private final long rejections;
+    private final long cpuNanosInWindow;
+    private final long cpuNanos;
+    private final long sourceSizeInWindow;
+    private final long sourceSize;
+    private final long definedClasses;
+    private final long bytecodeSize;
+
+    /*pkg private*/ TenantUsage(String tenantId, int activeCompilations, long compilations, long rejections,
+            long cpuNanosInWindow, long cpuNanos, long sourceSizeInWindow, long sourceSize,
+            long definedClasses, long bytecodeSize) {
+        this.tenantId = tenantId;
+        this.activeCompilations = activeCompilations;
+        this.compilations = compilations;
+        this.rejections = rejections;
+        this.cpuNanosInWindow = cpuNanosInWindow;
+        this.cpuNanos = cpuNanos;
+        this.sourceSizeInWindow = sourceSizeInWindow;
+        this.sourceSize = sourceSize;
+        this.definedClasses = definedClasses;
+        this.bytecodeSize = bytecodeSize;
+    }
+
+    /**
+     * Returns the id of the tenant.
+     * @return the id of the tenant
+     */
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    /**
+     * Returns the number of running compilations.
+     * @return the number of running compilations
+     */
+    public int getActiveCompilations() {
+        return activeCompilations;
+    }
+
+    /**
+     * Returns the number of accepted compilations.
+     * @return the number of accepted compilations
+     */
+    public long getCompilations() {
+        return compilations;
+    }
+
+    /**
+     * Returns the number of rejected compilations.
+     * @return the number of rejected compilations
+     */
+    public long getRejections() {
+        return rejections;
+    }
+
+    /**
+     * Returns the compile time consumed in the current quota window.
+     * @return the compile time consumed in the current quota window
+     */
+    public Duration getCpuTimeInWindow() {
+        return Duration.ofNanos(cpuNanosInWindow);
+    }
+
+    /**
+     * Returns the compile time consumed since the tenant has been created.
+     * @return the total compile time
+     */
+    public Duration getCpuTime() {
+        return Duration.ofNanos(cpuNanos);
+    }
+
+    /**
+     * Returns the size of the sources (characters) compiled in the current quota window.
+     * @return the size of the sources compiled in the current quota window
+     */
+    public long getSourceSizeInWindow() {
+        return sourceSizeInWindow;
+    }
+
+    /**
+     * Returns the size of the sources (characters) compiled since the tenant has been created.
+     * @return the total size of the compiled sources
+     */
+    public long getSourceSize() {
+        return sourceSize;
+    }
+
+    /**
+     * Returns the number of classes defined by classloaders of the tenant that are still reachable.
+     * @return the number of defined classes
+     */
+    public long getDefinedClasses() {
+        return definedClasses;
+    }
+
+    /**
+     * Returns the bytecode size of the classes defined by classloaders of the tenant that are still reachable.
+     * @return the bytecode size of the defined classes (bytes)
+     */
+    public long getBytecodeSize() {
+        return bytecodeSize;
+    }
+
+    @Override
+    public String toString() {
+        return "TenantUsage[tenant=" + tenantId + ", active=" + activeCompilations
+            + ", compilations=" + compilations + ", rejections=" + rejections
+            + ", cpuTimeInWindow=" + getCpuTimeInWindow() + ", cpuTime=" + getCpuTime()
+            + ", sourceSizeInWindow=" + sourceSizeInWindow + ", sourceSize=" + sourceSize
+            + ", definedClasses=" + definedClasses + ", bytecodeSize=" + bytecodeSize + "]";
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records compile requests (sources and options) to a warm-up file that can be replayed at startup (see
+ * {@link CompileWarmup}). Recording is enabled via {@link JCompiler#setWarmupRecorder(WarmupRecorder)}. Only
+ * successful compilations are recorded, identical requests are recorded once. Requests recorded by previous runs
+ * are kept, i.e., the file grows until the maximum number of requests has been recorded.
+ */
+public final class WarmupRecorder {
+
+    private final Path file;
+    private final int maxRequests;
+    // fingerprints of the recorded requests
+    private final Set<String> recorded = new HashSet<>();
+
+    private WarmupRecorder(Path file, int maxRequests) {
+        this.file = file;
+        this.maxRequests = maxRequests;
+    }
+
+    /**
+     * Creates a recorder that appends to the specified warm-up file.
+     *
+     * @param file warm-up file (created if it does not exist)
+     * @param maxRequests maximum number of requests in the file
+     * @return a new recorder
+     * @throws IOException if the existing warm-up file cannot be read
+     */
+    public static WarmupRecorder newInstance(Path file, int maxRequests) throws IOException {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("Maximum number of requests must be positive");
+        }
+        WarmupRecorder recorder = new WarmupRecorder(file, maxRequests);
+        if (Files.exists(file)) {
+            for (byte[] request : readRequests(file)) {
+                List<String> options = new ArrayList<>();
+                Map<String, String> sources = new LinkedHashMap<>();
+                CompilationCodec.decodeRequest(request, options, sources);
+                recorder.recorded.add(fingerprint(options, sources));
+            }
+        }
+        return recorder;
+    }
+
+    /**
+     * Returns the number of requests in the warm-up file.
+     * @return the number of recorded requests
+     */
+    public synchronized int getRecordedCount() {
+        return recorded.size();
+    }
+
+    /**
+     * Determines whether the maximum number of requests has been recorded.
+     * @return {@code true} if no more requests are recorded; {@code false} otherwise
+     */
+    public synchronized boolean isFull() {
+        return recorded.size() >= maxRequests;
+    }
+
+    /**
+     * Records the specified request (unless it has been recorded before or the file is full).
+     *
+     * @param options compiler options (may be null)
+     * @param units compilation units
+     * @throws UncheckedIOException if the request cannot be written
+     */
+    /*pkg private*/ void record(Iterable<String> options, Collection<CompilationUnitSource> units) {
+        if (isFull()) {
+            return;
+        }
+
+        List<String> optionList = new ArrayList<>();
+        if (options != null) {
+            options.forEach(optionList::add);
+        }
+        Map<String, String> sources = new LinkedHashMap<>();
+        try {
+            for (CompilationUnitSource unit : units) {
+                sources.put(unit.getClassName(), unit.getCharContent(true).toString());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        String fingerprint = fingerprint(optionList, sources);
+        synchronized (this) {
+            if (recorded.size() >= maxRequests || !recorded.add(fingerprint)) {
+                return;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+                CompilationCodec.writeFrame(out, CompilationCodec.FRAME_REQUEST,
+                    CompilationCodec.encodeRequest(optionList, sources));
+            } catch (IOException ex) {
+                recorded.remove(fingerprint);
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Reads the encoded requests of the specified warm-up file.
+     *
+     * @param file warm-up file
+     * @return the encoded requests
+     * @throws IOException if the file cannot be read
+     */
+    /*pkg private*/ static List<byte[]> readRequests(Path file) throws IOException {
+        List<byte[]> requests = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            for (CompilationCodec.Frame frame = CompilationCodec.readFrame(in); frame != null;
+                    frame = CompilationCodec.readFrame(in)) {
+                if (frame.type != CompilationCodec.FRAME_REQUEST) {
+                    throw new IOException("Unexpected frame type " + frame.type + " in warm-up file " + file);
+                }
+                requests.add(frame.payload);
+            }
+        }
+        return requests;
+    }
+
+    private static String fingerprint(List<String> options, Map<String, String> sources) {
+        MessageDigest digest = CompilationFingerprint.newDigest();
+        for (String option : options) {
+            CompilationFingerprint.update(digest, option);
+        }
+        // separates options and sources
+        CompilationFingerprint.update(digest, "");
+        sources.forEach((name, code) -> {
+            CompilationFingerprint.update(digest, name);
+            CompilationFingerprint.update(digest, code);
+        });
+        return CompilationFingerprint.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for classpath snapshots.
+ */
+public class ClasspathSnapshotTest {
+
+    @Test
+    public void isUpToDate_WhenFilesChanged() throws Exception {
+        Path dir = Files.createTempDirectory("cp");
+        Path file = dir.resolve("a/A.class");
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(file, "a".getBytes(StandardCharsets.UTF_8));
+
+            ClasspathSnapshot snapshot = ClasspathSnapshot.of(Collections.singletonList(dir));
+            Assert.assertTrue(snapshot.isUpToDate());
+            Assert.assertTrue(snapshot.matches(Collections.singletonList(dir)));
+            Assert.assertFalse(snapshot.matches(Arrays.asList(dir, dir.resolve("missing.jar"))));
+            Assert.assertEquals(snapshot.getFingerprint(), ClasspathSnapshot.of(Collections.singletonList(dir)).getFingerprint());
+
+            // files modified in place are only detected by a deep scan
+            Files.write(file, "ab".getBytes(StandardCharsets.UTF_8));
+            Assert.assertFalse(snapshot.isUpToDate(true));
+            Assert.assertFalse(snapshot.matches(Collections.singletonList(dir), true));
+
+            ClasspathSnapshot changed = ClasspathSnapshot.of(Collections.singletonList(dir));
+            Path parent = file.getParent();
+            FileTime modified = Files.getLastModifiedTime(parent);
+            Files.write(dir.resolve("a/B.class"), "b".getBytes(StandardCharsets.UTF_8));
+            // independent of the timestamp resolution of the file system
+            Files.setLastModifiedTime(parent, FileTime.fromMillis(modified.toMillis() + 10_000));
+            Assert.assertFalse(changed.isUpToDate());
+            Assert.assertFalse(changed.isUpToDate(true));
+        } finally {
+            Files.deleteIfExists(dir.resolve("a/B.class"));
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.getParent());
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void getFingerprint_WhenHashedAndTouched() throws Exception {
+        Path jar = Files.createTempFile("cp", ".jar");
+        try {
+            Files.write(jar, "content".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(jar, FileTime.fromMillis(1_000_000));
+            ClasspathSnapshot hashed = ClasspathSnapshot.of(Collections.singletonList(jar), true);
+            ClasspathSnapshot plain = ClasspathSnapshot.of(Collections.singletonList(jar));
+
+            Files.setLastModifiedTime(jar, FileTime.fromMillis(2_000_000));
+
+            Assert.assertFalse(hashed.isUpToDate());
+            Assert.assertEquals(hashed.getFingerprint(), ClasspathSnapshot.of(Collections.singletonList(jar), true).getFingerprint());
+            Assert.assertNotEquals(plain.getFingerprint(), ClasspathSnapshot.of(Collections.singletonList(jar)).getFingerprint());
+        } finally {
+            Files.deleteIfExists(jar);
+        }
+    }
+
+    @Test
+    public void getFingerprint_WhenIdenticalClasspathsAtDifferentPaths() throws Exception {
+        Path first = Files.createTempDirectory("cp-first");
+        Path second = Files.createTempDirectory("cp-second");
+        try {
+            for (Path dir : Arrays.asList(first, second)) {
+                Files.createDirectories(dir.resolve("classes/a"));
+                Files.write(dir.resolve("classes/a/A.class"), "a".getBytes(StandardCharsets.UTF_8));
+                Files.write(dir.resolve("lib.jar"), "jar".getBytes(StandardCharsets.UTF_8));
+            }
+            Files.setLastModifiedTime(first.resolve("lib.jar"), FileTime.fromMillis(1_000_000));
+            Files.setLastModifiedTime(second.resolve("lib.jar"), FileTime.fromMillis(2_000_000));
+
+            ClasspathSnapshot a = ClasspathSnapshot.of(Arrays.asList(first.resolve("classes"), first.resolve("lib.jar")), true);
+            ClasspathSnapshot b = ClasspathSnapshot.of(Arrays.asList(second.resolve("classes"), second.resolve("lib.jar")), true);
+            Assert.assertEquals(a.getFingerprint(), b.getFingerprint());
+
+            // order of entries matters
+            ClasspathSnapshot reversed = ClasspathSnapshot.of(Arrays.asList(second.resolve("lib.jar"), second.resolve("classes")), true);
+            Assert.assertNotEquals(a.getFingerprint(), reversed.getFingerprint());
+
+            Files.write(second.resolve("classes/a/A.class"), "b".getBytes(StandardCharsets.UTF_8));
+            Assert.assertNotEquals(a.getFingerprint(),
+                ClasspathSnapshot.of(Arrays.asList(second.resolve("classes"), second.resolve("lib.jar")), true).getFingerprint());
+        } finally {
+            for (Path dir : Arrays.asList(first, second)) {
+                Files.deleteIfExists(dir.resolve("classes/a/A.class"));
+                Files.deleteIfExists(dir.resolve("classes/a"));
+                Files.deleteIfExists(dir.resolve("classes"));
+                Files.deleteIfExists(dir.resolve("lib.jar"));
+                Files.deleteIfExists(dir);
+            }
+        }
+    }
+
+    @Test
+    public void getClasspathSnapshot_WhenBytecodeCacheSet() {
+        JCompiler compiler = JCompiler.newInstance();
+        Assert.assertFalse(compiler.getClasspathSnapshot().isHashingContents());
+
+        compiler.setBytecodeCache(new BytecodeCache() {
+            @Override
+            public byte[] get(String key) {
+                return null;
+            }
+
+            @Override
+            public void put(String key, byte[] value) {
+                // not stored
+            }
+        });
+        Assert.assertTrue(compiler.getClasspathSnapshot().isHashingContents());
+    }
+
+    @Test
+    public void getStandardFileManager_WhenClasspathUnchanged() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.compile("package cp; public class First {}").checkNoErrors();
+        Object fileManager = compiler.getStandardFileManager();
+        String fingerprint = compiler.getClasspathFingerprint();
+
+        compiler.compile("package cp; public class Second { First f; }").checkNoErrors();
+        Assert.assertSame(fileManager, compiler.getStandardFileManager());
+        Assert.assertEquals(fingerprint, compiler.getClasspathFingerprint());
+
+        // file manager options are applied to the file manager
+        compiler.setOptions("-g:none");
+        compiler.compile("package cp; public class Third {}").checkNoErrors();
+        Assert.assertNotSame(fileManager, compiler.getStandardFileManager());
+    }
+}
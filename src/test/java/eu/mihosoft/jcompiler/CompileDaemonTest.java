@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+/**
+ * Tests for the compile daemon and its client.
+ */
+public class CompileDaemonTest {
+
+    private static final String CODE = "package daemon;\n"
+        + "public class Remote { public static int value() { return 42; } }";
+
+    @Test
+    public void compileAll_WhenDaemonRunning() throws Exception {
+        try (CompileDaemon daemon = CompileDaemon.start(0)) {
+            CompileDaemonClient client = CompileDaemonClient.newInstance(daemon.getAddress());
+
+            CompilationResult result = client.addSource(CODE).compileAll();
+
+            Assert.assertTrue(client.isLastCompilationRemote());
+            result.checkNoErrors();
+            Assert.assertEquals("daemon.Remote", result.getCompiledUnits().get(0).getMainClass().getClassName());
+            Assert.assertEquals(42, client.getClassloader().loadClass("daemon.Remote").getMethod("value").invoke(null));
+
+            // errors are reported by the daemon as well
+            CompileDaemonClient broken = CompileDaemonClient.newInstance(daemon.getAddress());
+            CompilationResult error = broken.addSource("package daemon; class Broken { int i = \"no int\"; }").compileAll();
+            Assert.assertTrue(broken.isLastCompilationRemote());
+            Assert.assertFalse(error.compilationSucceeded());
+            Assert.assertEquals(1, error.getDiagnostics().get(0).getLineNumber());
+        }
+    }
+
+    @Test
+    public void compileAll_WhenDaemonNotRunning() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+
+        CompileDaemonClient client = CompileDaemonClient.newInstance(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        CompilationResult result = client.addSource(CODE).compileAll();
+
+        Assert.assertFalse(client.isLastCompilationRemote());
+        result.checkNoErrors();
+        Assert.assertEquals(42, client.getClassloader().loadClass("daemon.Remote").getMethod("value").invoke(null));
+    }
+
+    @Test
+    public void compileAll_WhenPluginOptionRejected() throws Exception {
+        try (CompileDaemon daemon = CompileDaemon.start(0)) {
+            CompileDaemonClient client = CompileDaemonClient.newInstance(daemon.getAddress());
+            client.setOptions("-processorpath", "plugins.jar", "-Xplugin:Evil");
+
+            // the daemon refuses the request, the client compiles in-process
+            client.addSource(CODE).compileAll();
+            Assert.assertFalse(client.isLastCompilationRemote());
+        }
+    }
+
+    @Test
+    public void checkOptions_AcceptsCommonOptions() {
+        CompileDaemon.checkOptions(Arrays.asList("-g", "-Xlint:all", "--release", "11", "-classpath", "a.jar",
+            "--release=11", "-encoding", "UTF-8", "-parameters"));
+        for (String option : Arrays.asList("-Xplugin:Evil", "-J-Xmx1g", "--processor-module-path", "-processorpath",
+                "-processor", "@args.txt")) {
+            try {
+                CompileDaemon.checkOptions(Arrays.asList(option, "x"));
+                Assert.fail("option should have been rejected: " + option);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void compileAll_WhenSecretRequired() throws Exception {
+        try (CompileDaemon daemon = CompileDaemon.start(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), "s3cret")) {
+            CompileDaemonClient anonymous = CompileDaemonClient.newInstance(daemon.getAddress());
+            anonymous.addSource(CODE).compileAll().checkNoErrors();
+            Assert.assertFalse(anonymous.isLastCompilationRemote());
+
+            CompileDaemonClient client = CompileDaemonClient.newInstance(daemon.getAddress()).setSecret("s3cret");
+            client.addSource(CODE).compileAll().checkNoErrors();
+            Assert.assertTrue(client.isLastCompilationRemote());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void start_WhenRemoteAddressWithoutSecret() throws Exception {
+        CompileDaemon.start(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), 0)).close();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the reactive compile pipeline.
+ */
+public class CompilePipelineTest {
+
+    @Test
+    public void pipeline_CompilesAllSourcesAndCompletes() throws Exception {
+        CompilePipeline pipeline = CompilePipeline.newInstance(JCompiler::newInstance);
+        pipeline.setMaxBatchSize(4);
+        pipeline.setMaxInFlight(2);
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        pipeline.subscribe(subscriber);
+
+        try (SubmissionPublisher<String> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(pipeline);
+            for (int i = 0; i < 10; i++) {
+                publisher.submit("package stream;\npublic class C" + i + " { public static int value() { return " + i + "; } }");
+            }
+        }
+
+        Assert.assertTrue(subscriber.completed.await(60, TimeUnit.SECONDS));
+        int classes = 0;
+        for (CompilationResult result : subscriber.results) {
+            Assert.assertTrue(result.compilationSucceeded());
+            classes += result.getCompiledUnits().size();
+        }
+        Assert.assertEquals(10, classes);
+        Assert.assertNull(subscriber.error);
+    }
+
+    @Test
+    public void pipeline_HonorsSubscriberDemand() throws Exception {
+        CompilePipeline pipeline = CompilePipeline.newInstance(JCompiler::newInstance);
+        CollectingSubscriber subscriber = new CollectingSubscriber(0);
+        pipeline.subscribe(subscriber);
+
+        try (SubmissionPublisher<String> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(pipeline);
+            publisher.submit("package demand;\npublic class A {}");
+            publisher.submit("package demand;\npublic class B { int i = \"no int\"; }");
+
+            // nothing is compiled without demand
+            Thread.sleep(200);
+            Assert.assertEquals(0, pipeline.getInFlightCount());
+            Assert.assertTrue(subscriber.results.isEmpty());
+
+            subscriber.subscription.request(1);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (subscriber.results.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, subscriber.results.size());
+            // both sources arrived before the demand and are compiled as one batch, errors are published as results
+            Assert.assertFalse(subscriber.results.get(0).compilationSucceeded());
+        }
+        Assert.assertTrue(subscriber.completed.await(60, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void pipeline_WhenSourcesCannotBeAdded() throws Exception {
+        CompilePipeline pipeline = CompilePipeline.newInstance(JCompiler::newInstance);
+        pipeline.setMaxBatchSize(8);
+        CollectingSubscriber subscriber = new CollectingSubscriber(0);
+        pipeline.subscribe(subscriber);
+
+        try (SubmissionPublisher<String> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(pipeline);
+            publisher.submit("package dup;\npublic class A { public static int value() { return 1; } }");
+            publisher.submit("// no type declaration");
+            publisher.submit("package dup;\npublic class A { public static int value() { return 2; } }");
+            publisher.submit("package dup;\npublic class B {}");
+            publisher.submit("package dup;\npublic class C {}");
+            // all sources are buffered before the first batch starts
+            Thread.sleep(200);
+            subscriber.subscription.request(Long.MAX_VALUE);
+        }
+
+        Assert.assertTrue(subscriber.completed.await(60, TimeUnit.SECONDS));
+        Assert.assertNull(subscriber.error);
+        List<Object> values = new ArrayList<>();
+        int units = 0;
+        for (CompilationResult result : subscriber.results) {
+            units += result.getCompiledUnits().size();
+            Class<?> a = result.loadClasses().get("dup.A");
+            if (a != null) {
+                values.add(a.getMethod("value").invoke(null));
+            }
+        }
+        // the duplicate is compiled in its own batch, the source without type declaration fails its batch only
+        Assert.assertEquals(2, subscriber.results.size());
+        Assert.assertEquals(4, units);
+        Assert.assertTrue(values.containsAll(Arrays.asList(1, 2)));
+        Assert.assertEquals(1, subscriber.results.stream().filter(r -> !r.compilationSucceeded()).count());
+    }
+
+    @Test
+    public void pipeline_WhenCompilerFails() throws Exception {
+        CompilePipeline pipeline = CompilePipeline.newInstance(() -> {
+            throw new StackOverflowError("too deep");
+        });
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        pipeline.subscribe(subscriber);
+
+        try (SubmissionPublisher<String> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(pipeline);
+            publisher.submit("package failing;\npublic class A {}");
+        }
+
+        // errors are signalled instead of stalling the pipeline
+        Assert.assertTrue(subscriber.completed.await(60, TimeUnit.SECONDS));
+        Assert.assertTrue(subscriber.error instanceof StackOverflowError);
+        Assert.assertTrue(subscriber.results.isEmpty());
+    }
+
+    private static final class CollectingSubscriber implements Flow.Subscriber<CompilationResult> {
+        private final long initialDemand;
+        private final List<CompilationResult> results = new CopyOnWriteArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        private CollectingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialDemand > 0) {
+                subscription.request(initialDemand);
+            }
+        }
+
+        @Override
+        public void onNext(CompilationResult item) {
+            results.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for the compile scheduler.
+ */
+public class CompileSchedulerTest {
+
+    private static final String CODE = "public class Scheduled { }";
+
+    @Test
+    public void submit_ReportsQueueWaitAndCompileTime() throws Exception {
+        try (CompileScheduler scheduler = CompileScheduler.newInstance(1)) {
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<CompilationResult> blocker = scheduler.submit(CompilePriority.NORMAL,
+                token -> await(release));
+            while (scheduler.getQueueLength(CompilePriority.NORMAL) > 0) {
+                Thread.sleep(1);
+            }
+
+            JCompiler compiler = JCompiler.newInstance().addSource(CODE);
+            CompletableFuture<CompilationResult> queued = scheduler.submit(CompilePriority.INTERACTIVE, compiler);
+            Thread.sleep(50);
+            release.countDown();
+
+            CompilationResult result = queued.get().checkNoErrors();
+            Assert.assertTrue(result.getQueueWaitTime().toMillis() >= 40);
+            Assert.assertTrue(result.getCompileTime().toNanos() > 0);
+            blocker.get();
+        }
+    }
+
+    @Test
+    public void submit_PrefersHigherPriority() throws Exception {
+        try (CompileScheduler scheduler = CompileScheduler.newInstance(1)) {
+            scheduler.setWeight(CompilePriority.INTERACTIVE, 3);
+            scheduler.setWeight(CompilePriority.BACKGROUND, 1);
+
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<CompilationResult> blocker = scheduler.submit(CompilePriority.NORMAL,
+                token -> await(release));
+            while (scheduler.getQueueLength(CompilePriority.NORMAL) > 0) {
+                Thread.sleep(1);
+            }
+
+            List<CompilePriority> order = Collections.synchronizedList(new ArrayList<>());
+            List<CompletableFuture<CompilationResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                for (CompilePriority p : new CompilePriority[] {CompilePriority.BACKGROUND, CompilePriority.INTERACTIVE}) {
+                    futures.add(scheduler.submit(p, token -> {
+                        order.add(p);
+                        return null;
+                    }));
+                }
+            }
+            release.countDown();
+            blocker.get();
+            for (CompletableFuture<CompilationResult> f : futures) {
+                f.get();
+            }
+
+            // weights 3:1, i.e., background compilations are served but interactive ones first
+            Assert.assertEquals(8, order.size());
+            Assert.assertEquals(CompilePriority.INTERACTIVE, order.get(0));
+            Assert.assertEquals(3, order.subList(0, 4).stream().filter(p -> p == CompilePriority.INTERACTIVE).count());
+        }
+    }
+
+    @Test
+    public void submit_WhenQueueFull() throws Exception {
+        try (CompileScheduler scheduler = CompileScheduler.newInstance(1)) {
+            scheduler.setQueueCapacity(CompilePriority.BACKGROUND, 1);
+
+            CountDownLatch release = new CountDownLatch(1);
+            scheduler.submit(CompilePriority.NORMAL, token -> await(release));
+            while (scheduler.getQueueLength(CompilePriority.NORMAL) > 0) {
+                Thread.sleep(1);
+            }
+
+            CompletableFuture<CompilationResult> queued = scheduler.submit(CompilePriority.BACKGROUND,
+                token -> await(release));
+            try {
+                scheduler.submit(CompilePriority.BACKGROUND, token -> await(release), Duration.ofMillis(20));
+                Assert.fail("submission must be rejected");
+            } catch (CompilationRejectedException ex) {
+                Assert.assertEquals(1, scheduler.getRejectedCount(CompilePriority.BACKGROUND));
+            }
+
+            // cancelled compilations free their queue slot
+            queued.cancel(true);
+            Assert.assertEquals(0, scheduler.getQueueLength(CompilePriority.BACKGROUND));
+            try {
+                queued.join();
+                Assert.fail("compilation must be cancelled");
+            } catch (CancellationException ex) {
+                // expected
+            }
+            release.countDown();
+        }
+    }
+
+    private static CompilationResult await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return JCompiler.newInstance().check("public class Blocker { }");
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for tenant namespaces and quotas.
+ */
+public class CompileTenantTest {
+
+    private static String code(String name) {
+        return "package tenant;\npublic class " + name + " { public static class Inner {} }";
+    }
+
+    @Test
+    public void newCompiler_IsolatesTenants() throws Exception {
+        try (CompileTenant a = CompileTenant.newInstance("a"); CompileTenant b = CompileTenant.newInstance("b")) {
+            Class<?> ca = a.newCompiler().compile(code("Shared")).checkNoErrors().loadClasses().get("tenant.Shared");
+            Class<?> cb = b.newCompiler().compile(code("Shared")).checkNoErrors().loadClasses().get("tenant.Shared");
+
+            Assert.assertNotSame(ca, cb);
+            Assert.assertEquals("tenant:a", ca.getClassLoader().getParent().getName());
+            Assert.assertEquals("tenant:b", cb.getClassLoader().getParent().getName());
+
+            TenantUsage usage = a.getUsage();
+            Assert.assertEquals("a", usage.getTenantId());
+            Assert.assertEquals(1, usage.getCompilations());
+            Assert.assertEquals(2, usage.getDefinedClasses());
+            Assert.assertTrue(usage.getBytecodeSize() > 0);
+            Assert.assertTrue(usage.getSourceSize() > 0);
+            Assert.assertTrue(usage.getCpuTime().toNanos() > 0);
+            Assert.assertEquals(0, usage.getActiveCompilations());
+        }
+    }
+
+    @Test
+    public void compile_WhenSourceQuotaExceeded() throws Exception {
+        try (CompileTenant tenant = CompileTenant.newInstance("sources")) {
+            tenant.setMaxSourceSize(code("First").length() + 10);
+
+            tenant.newCompiler().compile(code("First")).checkNoErrors();
+            try {
+                tenant.newCompiler().compile(code("Second"));
+                Assert.fail("compilation must be rejected");
+            } catch (CompilationRejectedException ex) {
+                Assert.assertEquals("sources", ex.getTenantId());
+            }
+            Assert.assertEquals(1, tenant.getUsage().getRejections());
+        }
+    }
+
+    @Test
+    public void compile_WhenClassQuotaExceeded() throws Exception {
+        try (CompileTenant tenant = CompileTenant.newInstance("classes")) {
+            tenant.setMaxClasses(3);
+
+            // classes count until their classloader has been collected
+            JCompiler first = tenant.newCompiler();
+            first.compile(code("First")).checkNoErrors();
+            JCompiler compiler = tenant.newCompiler();
+            try {
+                compiler.compile(code("Second"));
+                Assert.fail("compilation must be rejected");
+            } catch (CompilationRejectedException ex) {
+                // expected
+            }
+
+            // classes of the rejected compilation are not defined
+            try {
+                compiler.getClassloader().loadClass("tenant.Second");
+                Assert.fail("class must not be defined");
+            } catch (ClassNotFoundException ex) {
+                // expected
+            }
+            Assert.assertEquals(2, tenant.getUsage().getDefinedClasses());
+            Assert.assertNotNull(first.getClassloader());
+        }
+    }
+
+    @Test
+    public void compile_WhenUnitsRecompiled() throws Exception {
+        try (CompileTenant tenant = CompileTenant.newInstance("recompiled")) {
+            tenant.setMaxClasses(3);
+
+            // recompiled classes replace the charges of their previous versions
+            JCompiler compiler = tenant.newCompiler();
+            for (int i = 0; i < 3; i++) {
+                compiler.compile(code("Again")).checkNoErrors();
+            }
+            TenantUsage usage = tenant.getUsage();
+            Assert.assertEquals(2, usage.getDefinedClasses());
+            long bytecodeSize = usage.getBytecodeSize();
+
+            compiler.compile("package tenant;\npublic class Again { public static class Inner {} int value; }").checkNoErrors();
+            Assert.assertEquals(2, tenant.getUsage().getDefinedClasses());
+            Assert.assertTrue(tenant.getUsage().getBytecodeSize() > bytecodeSize);
+        }
+    }
+
+    @Test
+    public void compile_WhenCpuQuotaExhausted() throws Exception {
+        try (CompileTenant tenant = CompileTenant.newInstance("cpu")) {
+            tenant.setCpuTimeQuota(Duration.ofNanos(1), Duration.ofHours(1));
+
+            tenant.newCompiler().compile(code("First")).checkNoErrors();
+            try {
+                tenant.newCompiler().compile(code("Second"));
+                Assert.fail("compilation must be rejected");
+            } catch (CompilationRejectedException ex) {
+                Assert.assertTrue(ex.getMessage().contains("compile time"));
+            }
+        }
+    }
+
+    @Test
+    public void compile_WhenConcurrencyLimitReached() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (CompileTenant tenant = CompileTenant.newInstance("concurrent")) {
+            tenant.setMaxConcurrentCompilations(1);
+
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch proceed = new CountDownLatch(1);
+            JCompiler blocking = tenant.newCompiler();
+            blocking.addClassTransformer((name, bytecode) -> {
+                started.countDown();
+                proceed.await();
+                return null;
+            });
+            Future<CompilationResult> running = executor.submit(() -> blocking.compile(code("Slow")));
+            started.await();
+
+            try {
+                tenant.newCompiler().compile(code("Fast"));
+                Assert.fail("compilation must be rejected");
+            } catch (CompilationRejectedException ex) {
+                Assert.assertTrue(ex.getMessage().contains("concurrent"));
+            } finally {
+                proceed.countDown();
+            }
+
+            running.get().checkNoErrors();
+            tenant.newCompiler().compile(code("Fast")).checkNoErrors();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for recording and replaying warm-up requests.
+ */
+public class CompileWarmupTest {
+
+    @Test
+    public void replay_WhenRecorded() throws Exception {
+        Path file = Files.createTempFile("warmup", ".bin");
+        Files.delete(file);
+        try {
+            WarmupRecorder recorder = WarmupRecorder.newInstance(file, 2);
+
+            compiler(recorder).compile("public class First { }").checkNoErrors();
+            compiler(recorder).compile("public class First { }").checkNoErrors();
+            Assert.assertEquals(1, recorder.getRecordedCount());
+
+            // failed compilations are not recorded
+            compiler(recorder).compile("public class Broken { int }");
+            Assert.assertEquals(1, recorder.getRecordedCount());
+
+            compiler(recorder).compile("public class Second { }").checkNoErrors();
+            compiler(recorder).compile("public class Third { }").checkNoErrors();
+            Assert.assertTrue(recorder.isFull());
+
+            // requests of previous runs are kept
+            Assert.assertEquals(2, WarmupRecorder.newInstance(file, 10).getRecordedCount());
+
+            Assert.assertEquals(2, (int) CompileWarmup.replay(file).get(1, TimeUnit.MINUTES));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static JCompiler compiler(WarmupRecorder recorder) {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setWarmupRecorder(recorder);
+        return compiler;
+    }
+}
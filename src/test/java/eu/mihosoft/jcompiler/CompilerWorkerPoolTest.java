@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for compilation in worker processes.
+ */
+public class CompilerWorkerPoolTest {
+
+    private static String code(int value) {
+        return "package worker;\n"
+            + "public class Worked { public static int value() { return " + value + "; } }";
+    }
+
+    @Test
+    public void compileAll_WhenWorkerPool() throws Exception {
+        try (CompilerWorkerPool pool = CompilerWorkerPool.newInstance(1).setMaxCompilesPerWorker(2)) {
+            for (int i = 0; i < 3; i++) {
+                JCompiler compiler = JCompiler.newInstance();
+                compiler.setWorkerPool(pool);
+                CompilationResult result = compiler.compile(code(i)).checkNoErrors();
+
+                Assert.assertEquals("worker.Worked", result.getCompiledUnits().get(0).getMainClass().getClassName());
+                Assert.assertEquals(i, compiler.getClassloader().loadClass("worker.Worked").getMethod("value").invoke(null));
+                // recycled after two compilations
+                Assert.assertEquals(i == 1 ? 0 : 1, pool.getWorkerCount());
+            }
+
+            JCompiler compiler = JCompiler.newInstance();
+            compiler.setWorkerPool(pool);
+            CompilationResult error = compiler.compile("package worker; class Broken { int i = \"no int\"; }");
+            Assert.assertFalse(error.compilationSucceeded());
+            Assert.assertTrue(error.hasErrors());
+        }
+    }
+
+    @Test
+    public void compileAll_WhenWorkerTimedOut() throws Exception {
+        // starting the worker alone exceeds the timeout
+        try (CompilerWorkerPool pool = CompilerWorkerPool.newInstance(1).setTimeout(Duration.ofMillis(1))) {
+            JCompiler compiler = JCompiler.newInstance();
+            compiler.setWorkerPool(pool);
+            CompilationResult result = compiler.compile(code(1));
+
+            Assert.assertEquals(CompilationOutcome.TIMED_OUT, result.getOutcome());
+            Assert.assertEquals(0, pool.getWorkerCount());
+
+            // killed worker is replaced
+            pool.setTimeout(null);
+            JCompiler next = JCompiler.newInstance();
+            next.setWorkerPool(pool);
+            next.compile(code(7)).checkNoErrors();
+            Assert.assertEquals(7, next.getClassloader().loadClass("worker.Worked").getMethod("value").invoke(null));
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void compileAll_WhenConcurrentCompilesRecycleWorker() throws Exception {
+        // every compilation recycles the only worker while other compilations are waiting for it
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try (CompilerWorkerPool pool = CompilerWorkerPool.newInstance(1).setMaxCompilesPerWorker(1)) {
+            List<Future<Object>> values = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                int value = i;
+                values.add(executor.submit(() -> {
+                    JCompiler compiler = JCompiler.newInstance();
+                    compiler.setWorkerPool(pool);
+                    compiler.compile(code(value)).checkNoErrors();
+                    return compiler.getClassloader().loadClass("worker.Worked").getMethod("value").invoke(null);
+                }));
+            }
+            for (int i = 0; i < values.size(); i++) {
+                Assert.assertEquals(i, values.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void compileAll_WhenPreviousClassesAndFailFast() throws Exception {
+        try (CompilerWorkerPool pool = CompilerWorkerPool.newInstance(1)) {
+            JCompiler compiler = JCompiler.newInstance();
+            compiler.setWorkerPool(pool);
+            compiler.compile(code(3)).checkNoErrors();
+
+            // the worker compiles against the classes of the previous compilation
+            compiler.compile("package worker;\n"
+                + "public class User { public static int value() { return Worked.value() + 1; } }").checkNoErrors();
+            Assert.assertEquals(4, compiler.getClassloader().loadClass("worker.User").getMethod("value").invoke(null));
+
+            compiler.setFailFast(true);
+            CompilationResult aborted = compiler.compile("package worker;\n"
+                + "class Broken { int i = \"no int\"; int j = \"no int\"; int k = \"no int\"; }");
+            Assert.assertEquals(CompilationOutcome.ABORTED, aborted.getOutcome());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for annotation processing with in-memory sources and resources.
+ */
+public class JCompilerAnnotationProcessingTest {
+
+    /**
+     * Generates a companion class {@code <Name>Info} and a resource for each root type.
+     */
+    @SupportedAnnotationTypes("*")
+    public static class InfoProcessor extends AbstractProcessor {
+
+        static final AtomicInteger INSTANCES = new AtomicInteger();
+
+        public InfoProcessor() {
+            INSTANCES.incrementAndGet();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            for (Element e : roundEnv.getRootElements()) {
+                String name = e.getSimpleName().toString();
+                if (name.endsWith("Info")) continue;
+                try {
+                    JavaFileObject src = processingEnv.getFiler().createSourceFile(name + "Info", e);
+                    try (Writer w = src.openWriter()) {
+                        w.write("public class " + name + "Info { public static String name() { return \"" + name + "\"; } }");
+                    }
+                    try (Writer w = processingEnv.getFiler().createResource(
+                            StandardLocation.CLASS_OUTPUT, "", name + ".txt", e).openWriter()) {
+                        w.write("generated for " + name);
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+            return false;
+        }
+    }
+
+    @Test
+    public void compile_WhenProcessorsSpecified() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setAnnotationProcessors(Collections.singletonList(InfoProcessor::new));
+
+        int instancesBefore = InfoProcessor.INSTANCES.get();
+        CompilationResult result = compiler.compile("public class Person { }").checkNoErrors();
+
+        Assert.assertEquals(instancesBefore + 1, InfoProcessor.INSTANCES.get());
+        Assert.assertEquals(2, result.getCompiledUnits().size());
+
+        Class<?> infoClass = result.loadClasses().get("PersonInfo");
+        Assert.assertNotNull("generated class expected", infoClass);
+        Assert.assertEquals("Person", infoClass.getMethod("name").invoke(null));
+
+        try (InputStream in = compiler.getClassloader().getResourceAsStream("Person.txt")) {
+            Assert.assertNotNull("generated resource expected", in);
+            Assert.assertEquals("generated for Person", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        // processors are created for each compilation
+        compiler.compileAll().checkNoErrors();
+        Assert.assertEquals(instancesBefore + 2, InfoProcessor.INSTANCES.get());
+    }
+
+    @Test
+    public void compile_WhenProcessingDisabled() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setAnnotationProcessors(Collections.singletonList(InfoProcessor::new));
+        compiler.disableAnnotationProcessing();
+
+        CompilationResult result = compiler.compile("public class Person { }").checkNoErrors();
+
+        Assert.assertEquals(1, result.getCompiledUnits().size());
+        Assert.assertNull(compiler.getClassloader().getResource("Person.txt"));
+    }
+}
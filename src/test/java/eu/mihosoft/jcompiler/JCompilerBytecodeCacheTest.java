@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * Tests for the remote bytecode cache.
+ */
+public class JCompilerBytecodeCacheTest {
+
+    private static final String CODE = "package cached;\n"
+        + "public class Cached { public static String value() { return \"cached\"; } static class Inner {} }";
+
+    private static void awaitSize(BytecodeCacheServer server, int size) throws InterruptedException {
+        // entries are stored asynchronously
+        for (int i = 0; i < 200 && server.size() < size; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void compileAll_WhenCachedByOtherCompiler() throws Exception {
+        try (BytecodeCacheServer server = BytecodeCacheServer.start(0)) {
+            BytecodeCache cache = BytecodeCache.remote(server.getURI(), Duration.ofSeconds(2));
+
+            JCompiler first = JCompiler.newInstance();
+            first.setBytecodeCache(cache);
+            CompilationResult r1 = first.compile(CODE).checkNoErrors();
+            awaitSize(server, 1);
+            Assert.assertEquals(1, server.size());
+            Assert.assertEquals(0, server.getHits());
+
+            JCompiler second = JCompiler.newInstance();
+            second.setBytecodeCache(cache);
+            CompilationResult r2 = second.compile(CODE).checkNoErrors();
+            Assert.assertEquals(1, server.getHits());
+
+            CompiledUnit u1 = r1.getCompiledUnits().get(0);
+            CompiledUnit u2 = r2.getCompiledUnits().get(0);
+            Assert.assertEquals(u1.getName(), u2.getName());
+            Assert.assertEquals(u1.getClasses().size(), u2.getClasses().size());
+            Assert.assertEquals("cached.Cached", u2.getMainClass().getClassName());
+            Assert.assertArrayEquals(u1.getMainClass().getByteCode(), u2.getMainClass().getByteCode());
+            Assert.assertEquals("cached", u2.getMainClass().loadClass().getMethod("value").invoke(null));
+
+            // different options, different entry
+            JCompiler third = JCompiler.newInstance();
+            third.setBytecodeCache(cache);
+            third.setOptions("-g:none");
+            third.compile(CODE).checkNoErrors();
+            Assert.assertEquals(1, server.getHits());
+        }
+    }
+
+    @Test
+    public void put_WhenSecretRequired() throws Exception {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (BytecodeCacheServer server = BytecodeCacheServer.start(address, 10, "s3cret")) {
+            JCompiler anonymous = JCompiler.newInstance();
+            anonymous.setBytecodeCache(BytecodeCache.remote(server.getURI(), Duration.ofSeconds(2)));
+            anonymous.compile(CODE).checkNoErrors();
+            awaitSize(server, 1);
+            Assert.assertEquals(0, server.size());
+
+            JCompiler trusted = JCompiler.newInstance();
+            trusted.setBytecodeCache(BytecodeCache.remote(server.getURI(), Duration.ofSeconds(2), "s3cret"));
+            trusted.compile(CODE).checkNoErrors();
+            awaitSize(server, 1);
+            Assert.assertEquals(1, server.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void start_WhenRemoteAddressWithoutSecret() throws Exception {
+        BytecodeCacheServer.start(new InetSocketAddress(0), 10).close();
+    }
+
+    @Test
+    public void compileAll_WhenClassesOfPreviousCompilations() throws Exception {
+        String user = "package cached;\npublic class User { public static int value() { return Constant.VALUE; } }";
+        try (BytecodeCacheServer server = BytecodeCacheServer.start(0)) {
+            BytecodeCache cache = BytecodeCache.remote(server.getURI(), Duration.ofSeconds(2));
+
+            JCompiler first = JCompiler.newInstance();
+            first.setBytecodeCache(cache);
+            first.compile("package cached;\npublic class Constant { public static final int VALUE = 1; }").checkNoErrors();
+            first.compile(user).checkNoErrors();
+            awaitSize(server, 2);
+
+            // the inlined constant depends on the classes of the previous compilation
+            JCompiler second = JCompiler.newInstance();
+            second.setBytecodeCache(cache);
+            second.compile("package cached;\npublic class Constant { public static final int VALUE = 2; }").checkNoErrors();
+            CompilationResult result = second.compile(user).checkNoErrors();
+            Assert.assertEquals(2, result.loadClasses().get("cached.User").getMethod("value").invoke(null));
+            Assert.assertEquals(0, server.getHits());
+        }
+    }
+
+    @Test
+    public void compileAll_WhenCacheUnavailable() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setBytecodeCache(BytecodeCache.remote(URI.create("http://127.0.0.1:" + port), Duration.ofMillis(500)));
+        CompilationResult result = compiler.compile(CODE);
+
+        result.checkNoErrors();
+        Assert.assertEquals("cached", compiler.getClassloader().loadClass("cached.Cached").getMethod("value").invoke(null));
+    }
+
+    @Test
+    public void decode_WhenWarnings() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setOptions("-Xlint:all");
+        CompilationResult result = compiler.compile("package cached; public class Warn { java.util.List l = new java.util.ArrayList(); }");
+        Assert.assertTrue(result.hasWarnings());
+
+        CompilationResult decoded = CompilationCodec.decode(CompilationCodec.encode(result),
+            new InMemoryClassLoader(ClassLoader.getSystemClassLoader()));
+
+        Assert.assertEquals(result.getDiagnostics().size(), decoded.getDiagnostics().size());
+        Assert.assertEquals(result.getDiagnostics().get(0).getMessage(null), decoded.getDiagnostics().get(0).getMessage(null));
+        Assert.assertEquals(result.getDiagnostics().get(0).getLineNumber(), decoded.getDiagnostics().get(0).getLineNumber());
+        Assert.assertEquals(result.getDiagnostics().get(0).getSource().getName(), decoded.getDiagnostics().get(0).getSource().getName());
+        Assert.assertTrue(decoded.hasWarnings());
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_WhenUnitCountExceedsInput() throws Exception {
+        CompilationResult result = JCompiler.newInstance().compile(CODE).checkNoErrors();
+        byte[] data = CompilationCodec.encode(result);
+
+        // magic, version, succeeded flag and outcome precede the unit count
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int countOffset = 4 + 4 + 1 + 2 + result.getOutcome().name().length();
+        out.write(data, 0, countOffset);
+        out.writeInt(Integer.MAX_VALUE);
+        out.write(data, countOffset + 4, data.length - countOffset - 4);
+
+        CompilationCodec.decode(bytes.toByteArray(), new InMemoryClassLoader(ClassLoader.getSystemClassLoader()));
+    }
+}
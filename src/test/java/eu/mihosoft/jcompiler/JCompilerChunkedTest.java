@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for memory-bounded (chunked) compilation.
+ */
+public class JCompilerChunkedTest {
+
+    private static CompilationUnitSource unit(String name, String code) throws Exception {
+        return new CompilationUnitSource(name, code);
+    }
+
+    @Test
+    public void plan_WhenDependenciesAndCycles() throws Exception {
+        List<CompilationUnitSource> units = new ArrayList<>();
+        units.add(unit("p.A", "package p; public class A { B b; /* C */ }"));
+        units.add(unit("p.B", "package p; public class B { C c; D d; }"));
+        units.add(unit("p.C", "package p; public class C { String s = \"A\"; }"));
+        units.add(unit("p.D", "package p; public class D { B b; }"));
+
+        // tiny budget: every component gets its own chunk
+        List<List<CompilationUnitSource>> chunks = CompilationChunkPlanner.plan(units, 1);
+
+        Assert.assertEquals(3, chunks.size());
+        Assert.assertEquals("p.C", chunks.get(0).get(0).getClassName());
+        // B and D depend on each other
+        Assert.assertEquals(2, chunks.get(1).size());
+        Assert.assertEquals("p.B", chunks.get(1).get(0).getClassName());
+        Assert.assertEquals("p.D", chunks.get(1).get(1).getClassName());
+        Assert.assertEquals("p.A", chunks.get(2).get(0).getClassName());
+
+        // large budget: a single chunk
+        Assert.assertEquals(1, CompilationChunkPlanner.plan(units, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void compileAll_WhenMemoryBudgetExceeded() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setMemoryBudget(1);
+        compiler.addSource("p.Top", "package p; public class Top { public static int value() { return Middle.value() + 1; } }");
+        compiler.addSource("p.Middle", "package p; public class Middle { static int value() { return q.Bottom.VALUE * 2; } }");
+        compiler.addSource("q.Bottom", "package q; public class Bottom { public static final int VALUE = 20; }");
+
+        CompilationResult result = compiler.compileAll();
+        result.checkNoErrors();
+
+        Assert.assertEquals(3, result.getCompiledUnits().size());
+        Class<?> top = compiler.getClassloader().loadClass("p.Top");
+        Assert.assertEquals(41, top.getMethod("value").invoke(null));
+    }
+
+    @Test
+    public void compileAll_WhenChunkHasErrors() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setMemoryBudget(1);
+        compiler.addSource("p.Top", "package p; public class Top { Middle m; }");
+        compiler.addSource("p.Middle", "package p; public class Middle { int i = \"no int\"; }");
+
+        CompilationResult result = compiler.compileAll();
+
+        Assert.assertFalse(result.compilationSucceeded());
+        Assert.assertEquals(1, result.getDiagnostics().size());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for class transformers.
+ */
+public class JCompilerClassTransformerTest {
+
+    private static final String CODE = "package transform;\n"
+        + "public class Calc {\n"
+        + "  public static int twice(int value) {\n"
+        + "    int result = value * 2;\n"
+        + "    return result;\n"
+        + "  }\n"
+        + "  public static class Inner {}\n"
+        + "}";
+
+    @Test
+    public void compile_AppliesTransformersInOrder() throws Exception {
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.addClassTransformer(named("first", (name, bytecode) -> {
+            calls.add("first:" + name);
+            return null;
+        }));
+        compiler.addClassTransformer(named("second", (name, bytecode) -> {
+            calls.add("second:" + name);
+            return bytecode;
+        }));
+
+        CompilationResult result = compiler.compile(CODE).checkNoErrors();
+
+        Assert.assertEquals(4, calls.size());
+        Assert.assertTrue(calls.indexOf("first:transform.Calc") < calls.indexOf("second:transform.Calc"));
+        Assert.assertTrue(calls.indexOf("first:transform.Calc$Inner") < calls.indexOf("second:transform.Calc$Inner"));
+        Assert.assertEquals(Arrays.asList("first", "second"), new ArrayList<>(result.getTransformerTimings().keySet()));
+    }
+
+    @Test
+    public void compile_WhenStripDebugInfo() throws Exception {
+        JCompiler plain = JCompiler.newInstance();
+        byte[] original = plain.compile(CODE).checkNoErrors().getCompiledUnits().get(0).getClasses().get(0).getByteCode();
+
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.addClassTransformer(ClassTransformer.stripDebugInfo());
+        CompiledClass cls = compiler.compile(CODE).checkNoErrors().getCompiledUnits().get(0).getClasses().get(0);
+
+        Assert.assertTrue(cls.getByteCode().length < original.length);
+
+        ClassFile cf = ClassFile.read(cls.getByteCode());
+        Assert.assertNull(cf.findAttribute(cf.attributes, "SourceFile"));
+
+        Method twice = cls.loadClass().getMethod("twice", int.class);
+        Assert.assertEquals(42, twice.invoke(null, 21));
+    }
+
+    @Test
+    public void compile_WhenTransformerExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<String> threads = Collections.synchronizedList(new ArrayList<>());
+            JCompiler compiler = JCompiler.newInstance();
+            compiler.setTransformerExecutor(executor);
+            compiler.addClassTransformer((name, bytecode) -> {
+                threads.add(Thread.currentThread().getName());
+                return null;
+            });
+            compiler.addClassTransformer(ClassTransformer.stripDebugInfo());
+
+            CompilationResult result = compiler.compile(CODE).checkNoErrors();
+
+            Assert.assertEquals(2, threads.size());
+            Assert.assertFalse(threads.contains(Thread.currentThread().getName()));
+            Assert.assertEquals(2, result.getTransformerTimings().size());
+            Assert.assertEquals(42, result.loadClasses().get("transform.Calc")
+                .getMethod("twice", int.class).invoke(null, 21));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void compile_WhenTransformerFails() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.addClassTransformer(named("broken", (name, bytecode) -> {
+            throw new IllegalStateException("broken");
+        }));
+
+        try {
+            compiler.compile(CODE);
+            Assert.fail("transformer failure must fail the compilation");
+        } catch (CompilationException ex) {
+            Assert.assertTrue(ex.getMessage().contains("broken"));
+        }
+
+        // no class of the failed compilation is defined
+        try {
+            compiler.getClassloader().loadClass("transform.Calc");
+            Assert.fail("class must not be defined");
+        } catch (ClassNotFoundException ex) {
+            // expected
+        }
+    }
+
+    private static ClassTransformer named(String name, ClassTransformer transformer) {
+        return new ClassTransformer() {
+            @Override
+            public byte[] transform(String className, byte[] bytecode) throws Exception {
+                return transformer.transform(className, bytecode);
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+        };
+    }
+}
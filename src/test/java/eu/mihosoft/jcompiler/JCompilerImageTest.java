@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests for namespace images.
+ */
+public class JCompilerImageTest {
+
+    private static final String HELPER = "package image;\npublic class Helper { public static int twice(int i) { return 2 * i; } }";
+    private static final String MAIN = "package image;\nclass First {}\npublic class Main {\n"
+        + "  static class Inner { int value() { return Helper.twice(21); } }\n"
+        + "  public static int value() { return new Inner().value(); }\n}";
+
+    @Test
+    public void restoreImage_WhenSourcesUnchanged() throws Exception {
+        Path image = Files.createTempFile("namespace", ".img");
+        try {
+            JCompiler compiler = newCompiler(MAIN);
+            CompilationResult compiled = compiler.compileAll().checkNoErrors();
+            compiler.saveImage(compiled, image);
+
+            JCompiler restoring = newCompiler(MAIN);
+            CompilationResult restored = restoring.restoreImage(image);
+            Assert.assertNotNull(restored);
+            Assert.assertEquals(compiled.getCompiledUnits().size(), restored.getCompiledUnits().size());
+            for (CompiledUnit unit : compiled.getCompiledUnits()) {
+                CompiledUnit other = restored.getUnit(unit.getName());
+                Assert.assertEquals(unit.getMainClass().getClassName(), other.getMainClass().getClassName());
+                Assert.assertEquals(unit.getClasses().size(), other.getClasses().size());
+                for (CompiledClass cls : unit.getClasses()) {
+                    Assert.assertArrayEquals(cls.getByteCode(), restored.getClass(cls.getClassName()).getByteCode());
+                }
+            }
+            Assert.assertEquals(42, restored.loadClasses().get("image.Main").getMethod("value").invoke(null));
+            Assert.assertSame(restoring.getClassloader(), restored.getClass("image.Main").loadClass().getClassLoader());
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    @Test
+    public void restoreImage_WhenSourcesChanged() throws Exception {
+        Path image = Files.createTempFile("namespace", ".img");
+        try {
+            JCompiler compiler = newCompiler(MAIN);
+            compiler.saveImage(compiler.compileAll().checkNoErrors(), image);
+
+            Assert.assertNull(newCompiler(MAIN.replace("21", "22")).restoreImage(image));
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void restoreImage_WhenCorrupt() throws Exception {
+        Path image = Files.createTempFile("namespace", ".img");
+        try {
+            Files.write(image, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+            newCompiler(MAIN).restoreImage(image);
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void saveImage_WhenMethodProbes() throws Exception {
+        Path image = Files.createTempFile("namespace", ".img");
+        try {
+            JCompiler compiler = newCompiler(MAIN);
+            compiler.setMethodProbes(MethodProbes.newInstance());
+            compiler.saveImage(compiler.compileAll().checkNoErrors(), image);
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    private static JCompiler newCompiler(String main) {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.addSource(HELPER);
+        compiler.addSource(main);
+        return compiler;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Tests for bytecode interning and shared classloaders.
+ */
+public class JCompilerInterningTest {
+
+    private static final String HELPER = "package shared.helper;\npublic class Util { public static int twice(int i) { return 2 * i; } }";
+
+    @Test
+    public void intern_ReturnsCanonicalArray() {
+        byte[] first = {1, 2, 3, 4};
+        byte[] canonical = BytecodeInterner.intern(first);
+
+        Assert.assertSame(canonical, BytecodeInterner.intern(Arrays.copyOf(first, first.length)));
+        Assert.assertNotSame(canonical, BytecodeInterner.intern(new byte[] {4, 3, 2, 1}));
+    }
+
+    @Test
+    public void compile_WhenInterned() throws Exception {
+        JCompiler first = JCompiler.newInstance();
+        first.setBytecodeInterning(true);
+        JCompiler second = JCompiler.newInstance();
+        second.setBytecodeInterning(true);
+
+        CompilationResult a = first.compile(HELPER).checkNoErrors();
+        CompilationResult b = second.compile(HELPER).checkNoErrors();
+
+        Assert.assertArrayEquals(a.getClass("shared.helper.Util").getByteCode(), b.getClass("shared.helper.Util").getByteCode());
+        Assert.assertTrue(BytecodeInterner.size() > 0);
+        Assert.assertEquals(6, b.loadClasses().get("shared.helper.Util").getMethod("twice", int.class).invoke(null, 3));
+    }
+
+    @Test
+    public void compile_WhenSharedClassLoader_DefinesIdenticalClassesOnce() throws Exception {
+        SharedClassLoader shared = SharedClassLoader.newInstance(name -> name.startsWith("shared.helper."));
+
+        Class<?> helperA = compile(shared, "A").get("shared.helper.Util");
+        Class<?> helperB = compile(shared, "B").get("shared.helper.Util");
+
+        Assert.assertSame(helperA, helperB);
+        Assert.assertSame(shared, helperA.getClassLoader());
+        Assert.assertEquals(1, shared.getSharedClassCount());
+
+        // classes with different bytecode are defined by the compiler that produced them
+        JCompiler other = JCompiler.newInstance();
+        other.setSharedClassLoader(shared);
+        Class<?> helperC = other.compile("package shared.helper;\npublic class Util { public static int twice(int i) { return i + i; } }")
+            .checkNoErrors().loadClasses().get("shared.helper.Util");
+        Assert.assertNotSame(shared, helperC.getClassLoader());
+    }
+
+    @Test
+    public void compile_WhenSharedClassLoader_KeepsPackagePrivateAccessLocal() throws Exception {
+        SharedClassLoader shared = SharedClassLoader.newInstance(name -> name.startsWith("shared.helper."));
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setSharedClassLoader(shared);
+        compiler.addSource("package shared.helper;\npublic class Helper { static int twice(int i) { return 2 * i; } }");
+        compiler.addSource("package shared.helper;\nclass Hidden { static int three() { return 3; } }");
+        compiler.addSource("package shared.helper;\npublic class Caller {\n"
+            + "  public static int value() { return Helper.twice(Hidden.three()); }\n"
+            + "  public static class Nested { }\n"
+            + "}");
+        Map<String, Class<?>> classes = compiler.compileAll().checkNoErrors().loadClasses();
+
+        // package-private classes and classes with package-private members or nestmates are not shared
+        Assert.assertEquals(0, shared.getSharedClassCount());
+        Assert.assertEquals(6, classes.get("shared.helper.Caller").getMethod("value").invoke(null));
+        Assert.assertSame(compiler.getClassloader(), classes.get("shared.helper.Helper").getClassLoader());
+    }
+
+    private static Map<String, Class<?>> compile(SharedClassLoader shared, String name) throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setSharedClassLoader(shared);
+        compiler.addSource(HELPER);
+        compiler.addSource("package tenant;\npublic class " + name
+            + " { public static int value() { return shared.helper.Util.twice(21); } }");
+        Map<String, Class<?>> classes = compiler.compileAll().checkNoErrors().loadClasses();
+
+        Class<?> cls = classes.get("tenant." + name);
+        Assert.assertSame(compiler.getClassloader(), cls.getClassLoader());
+        Assert.assertEquals(42, cls.getMethod("value").invoke(null));
+        return classes;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Tests for output sinks.
+ */
+public class JCompilerOutputSinkTest {
+
+    private static final String CODE = "package sink;\n"
+        + "public class Out { public static class Inner {} }";
+
+    @Test
+    public void compileAll_WhenJarSink() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompilationResult result;
+        try (JarOutputStream jar = new JarOutputStream(bytes)) {
+            JCompiler compiler = JCompiler.newInstance();
+            compiler.setOutputSink(OutputSink.jar(jar));
+            result = compiler.compile(CODE);
+
+            // classes are not kept in memory
+            try {
+                compiler.getClassloader().loadClass("sink.Out");
+                Assert.fail("class must not be defined by the compiler classloader");
+            } catch (ClassNotFoundException ex) {
+                // expected
+            }
+        }
+
+        result.checkNoErrors();
+        Assert.assertEquals(2, result.getCompiledUnits().get(0).getClasses().size());
+
+        List<String> entries = new ArrayList<>();
+        try (JarInputStream jar = new JarInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (JarEntry e = jar.getNextJarEntry(); e != null; e = jar.getNextJarEntry()) {
+                entries.add(e.getName());
+            }
+        }
+        entries.sort(null);
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals("sink/Out$Inner.class", entries.get(0));
+        Assert.assertEquals("sink/Out.class", entries.get(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getByteCode_WhenNotInMemory() throws Exception {
+        Path dir = Files.createTempDirectory("sink");
+        try {
+            JCompiler compiler = JCompiler.newInstance();
+            compiler.setOutputSink(OutputSink.directory(dir));
+            compiler.compile(CODE).getCompiledUnits().get(0).getMainClass().getByteCode();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void compileAll_WhenTeeOfDirectoryAndMemory() throws Exception {
+        Path dir = Files.createTempDirectory("sink");
+        try {
+            JCompiler compiler = JCompiler.newInstance();
+            compiler.setOutputSink(OutputSink.tee(OutputSink.directory(dir), OutputSink.inMemory()));
+            CompilationResult result = compiler.compile(CODE);
+            result.checkNoErrors();
+
+            byte[] written = Files.readAllBytes(dir.resolve("sink/Out.class"));
+            Assert.assertArrayEquals(result.getCompiledUnits().get(0).getMainClass().getByteCode(), written);
+            Assert.assertTrue(Files.exists(dir.resolve("sink/Out$Inner.class")));
+            Assert.assertEquals("sink.Out", compiler.getClassloader().loadClass("sink.Out").getName());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void delete(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
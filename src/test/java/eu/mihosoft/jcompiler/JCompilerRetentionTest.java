@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Collections;
+
+/**
+ * Tests for bytecode retention policies.
+ */
+public class JCompilerRetentionTest {
+
+    private static final String CODE = "package retention;\npublic class Answer { public static int value() { return 42; } }";
+
+    @Test
+    public void compile_WhenCompressed_InflatesOnDemand() throws Exception {
+        JCompiler reference = JCompiler.newInstance();
+        byte[] expected = reference.compile(CODE).checkNoErrors().getClass("retention.Answer").getByteCode();
+
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setBytecodeRetention(BytecodeRetention.COMPRESSED);
+        CompilationResult result = compiler.compile(CODE).checkNoErrors();
+
+        Assert.assertArrayEquals(expected, result.getClass("retention.Answer").getByteCode());
+        try (InputStream in = compiler.getClassloader().getResourceAsStream("retention/Answer.class")) {
+            Assert.assertNotNull(in);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            Assert.assertArrayEquals(expected, out.toByteArray());
+        }
+        Assert.assertEquals(42, result.loadClasses().get("retention.Answer").getMethod("value").invoke(null));
+
+        // compressed classes remain on the classpath of subsequent compilations
+        compiler.addSource("package retention;\npublic class User { public static int value() { return Answer.value(); } }");
+        Assert.assertEquals(42, compiler.compileAll().checkNoErrors().loadClasses()
+            .get("retention.User").getMethod("value").invoke(null));
+    }
+
+    @Test
+    public void compile_WhenReleasedAfterDefine() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setBytecodeRetention(BytecodeRetention.RELEASE_AFTER_DEFINE);
+        CompilationResult result = compiler.compile(CODE).checkNoErrors();
+
+        CompiledClass cls = result.getClass("retention.Answer");
+        Assert.assertTrue(cls.getByteCode().length > 0);
+        Assert.assertEquals(42, result.loadClasses().get("retention.Answer").getMethod("value").invoke(null));
+
+        try {
+            cls.getByteCode();
+            Assert.fail("bytecode should have been released");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        Assert.assertNull(compiler.getClassloader().getResource("retention/Answer.class"));
+        // the defined class is still available
+        Assert.assertEquals(42, cls.loadClass().getMethod("value").invoke(null));
+    }
+
+    @Test
+    public void recompile_KeepsRetentionOfCarriedOverClasses() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setBytecodeRetention(BytecodeRetention.COMPRESSED);
+        compiler.addSource(CODE);
+        compiler.addSource("package retention;\npublic class Other { public static int value() { return 1; } }");
+        compiler.compileAll().checkNoErrors();
+
+        compiler.addSource("package retention;\npublic class Other { public static int value() { return Answer.value() + 1; } }");
+        CompilationResult result = compiler.recompile(Collections.singletonList("retention.Other"),
+            Collections.singleton("retention.Other"));
+
+        Assert.assertEquals(43, result.loadClasses().get("retention.Other").getMethod("value").invoke(null));
+        for (CompiledClassFile cc : ((InMemoryClassLoader) compiler.getClassloader()).getCompiledCode("retention", false)) {
+            Assert.assertTrue(cc.getClassName(), cc.isCompressed());
+        }
+    }
+
+    @Test
+    public void recompile_WhenReleasedAfterDefine() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setBytecodeRetention(BytecodeRetention.RELEASE_AFTER_DEFINE);
+        compiler.addSource(CODE);
+        compiler.addSource("package retention;\npublic class Other { public static int value() { return 1; } }");
+        Class<?> answer = compiler.compileAll().checkNoErrors().loadClasses().get("retention.Answer");
+
+        compiler.addSource("package retention;\npublic class Other { public static int value() { return 2; } }");
+        CompilationResult result = compiler.recompile(Collections.singletonList("retention.Other"),
+            Collections.singleton("retention.Other"));
+
+        Assert.assertEquals(2, result.loadClasses().get("retention.Other").getMethod("value").invoke(null));
+        // released classes are loaded from the generation that defined them
+        Assert.assertSame(answer, compiler.getClassloader().loadClass("retention.Answer"));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for single-flight compilation.
+ */
+public class JCompilerSingleFlightTest {
+
+    private static final String CODE = "package flight;\npublic class Shared { public static int value() { return 7; } }";
+
+    @Test
+    public void compileAll_SharesIdenticalInFlightCompilations() throws Exception {
+        AtomicInteger compilations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        ClassTransformer blocking = (name, bytecode) -> {
+            compilations.incrementAndGet();
+            started.countDown();
+            proceed.await();
+            return null;
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<CompilationResult>> results = new ArrayList<>();
+            results.add(executor.submit(() -> newCompiler(blocking).compile(CODE)));
+            started.await();
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> newCompiler(blocking).compile(CODE)));
+            }
+            // followers attach to the running compilation
+            Thread.sleep(100);
+            Assert.assertEquals(1, SingleFlight.getInFlightCount());
+            proceed.countDown();
+
+            CompilationResult first = results.get(0).get().checkNoErrors();
+            for (Future<CompilationResult> result : results.subList(1, results.size())) {
+                // each caller gets its own view of the shared units
+                Assert.assertNotSame(first, result.get());
+                Assert.assertSame(first.getCompiledUnits(), result.get().getCompiledUnits());
+                Assert.assertEquals(first.getCompileTime(), result.get().getCompileTime());
+            }
+            first.setQueueWaitTime(Duration.ofSeconds(1));
+            Assert.assertEquals(Duration.ZERO, results.get(1).get().getQueueWaitTime());
+            Assert.assertEquals(1, compilations.get());
+            Assert.assertEquals(7, first.loadClasses().get("flight.Shared").getMethod("value").invoke(null));
+            Assert.assertEquals(0, SingleFlight.getInFlightCount());
+        } finally {
+            proceed.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void compileAll_WhenFollowerOrPreviousClasses() throws Exception {
+        AtomicInteger compilations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        ClassTransformer blocking = (name, bytecode) -> {
+            if (name.equals("flight.Shared") && compilations.incrementAndGet() == 1) {
+                started.countDown();
+                proceed.await();
+            }
+            return null;
+        };
+        JCompiler leader = newCompiler(blocking);
+        JCompiler follower = newCompiler(blocking);
+        JCompiler previous = newCompiler(blocking);
+        previous.compile("package flight;\npublic class Previous { }").checkNoErrors();
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<CompilationResult> led = executor.submit(() -> leader.compile(CODE));
+            started.await();
+            Future<CompilationResult> followed = executor.submit(() -> follower.compile(CODE));
+            // classes of previous compilations are not part of the fingerprint, the compiler does not wait
+            previous.compile(CODE).checkNoErrors();
+            Assert.assertEquals(2, compilations.get());
+            proceed.countDown();
+
+            led.get().checkNoErrors();
+            followed.get().checkNoErrors();
+            Assert.assertEquals(2, compilations.get());
+            // shared classes are visible to the follower
+            Class<?> shared = follower.getClassloader().loadClass("flight.Shared");
+            Assert.assertSame(follower.getClassloader(), shared.getClassLoader());
+            Assert.assertEquals(7, shared.getMethod("value").invoke(null));
+        } finally {
+            proceed.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void compileAll_WhenDifferentOptions() throws Exception {
+        JCompiler first = newCompiler((name, bytecode) -> null);
+        JCompiler second = newCompiler((name, bytecode) -> null);
+        second.setOptions("-g:none");
+
+        Assert.assertNotSame(first.compile(CODE).getCompiledUnits(), second.compile(CODE).getCompiledUnits());
+    }
+
+    private static JCompiler newCompiler(ClassTransformer transformer) {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setSingleFlight(true);
+        compiler.addClassTransformer(transformer);
+        return compiler;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests for sources that are not specified as strings.
+ */
+public class JCompilerSourcesTest {
+
+    private static String code(String pkg, String name, int value) {
+        return "package " + pkg + ";\n"
+            + "// äöü non-ascii comment\n"
+            + "public class " + name + " { public static int value() { return " + value + "; } }\n";
+    }
+
+    @Test
+    public void compileAll_WhenSourcesFromFileReaderAndBuffers() throws Exception {
+        Path file = Files.createTempFile("Mapped", ".java");
+        try {
+            Files.write(file, code("src", "Mapped", 1).getBytes(StandardCharsets.UTF_8));
+
+            CharBuffer chars = CharBuffer.allocate(512);
+            chars.put("// skipped\n").mark();
+            chars.put(code("src", "Chars", 3)).flip();
+            chars.position(11); // only the code
+
+            JCompiler compiler = JCompiler.newInstance();
+            compiler.addSource(file)
+                .addSource("src.Read", new StringReader(code("src", "Read", 2)))
+                .addSource("src.Chars", chars)
+                .addSource("src.Bytes", ByteBuffer.wrap(code("src", "Bytes", 4).getBytes(StandardCharsets.UTF_16)),
+                    StandardCharsets.UTF_16);
+
+            CompilationResult result = compiler.compileAll();
+            result.checkNoErrors();
+
+            Assert.assertEquals(4, result.getCompiledUnits().size());
+            String[] names = {"src.Mapped", "src.Read", "src.Chars", "src.Bytes"};
+            for (int i = 0; i < names.length; i++) {
+                Class<?> cls = compiler.getClassloader().loadClass(names[i]);
+                Assert.assertEquals(i + 1, cls.getMethod("value").invoke(null));
+            }
+
+            // source is not retained by default
+            for (CompiledUnit unit : result.getCompiledUnits()) {
+                Assert.assertNull(unit.getCode());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void compileAll_WhenRetainSource() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setRetainSource(true);
+        String code = code("src", "Retained", 5);
+
+        CompilationResult result = compiler.addSource("src.Retained", new StringReader(code)).compileAll();
+
+        Assert.assertEquals(code, result.getCompiledUnits().get(0).getCode());
+    }
+}
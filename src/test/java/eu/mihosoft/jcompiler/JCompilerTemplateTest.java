@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for template compilation and specialization.
+ */
+public class JCompilerTemplateTest {
+
+    private static final String RULE_TEMPLATE =
+        "package rules;\n"
+        + "public class ${name:class} {\n"
+        + "  public static final String LABEL = ${label:String};\n"
+        + "  public static int limit() { return ${limit:int}; }\n"
+        + "  public static long big() { return ${big:long}; }\n"
+        + "  public static double factor() { return ${factor:double}; }\n"
+        + "  public static String label() { return LABEL; }\n"
+        + "  public Inner inner() { return new Inner(); }\n"
+        + "  public static class Inner { public String name() { return ${name:class}.class.getSimpleName(); } }\n"
+        + "}";
+
+    private static Map<String, Object> values(int limit, long big, double factor, String label) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("limit", limit);
+        values.put("big", big);
+        values.put("factor", factor);
+        values.put("label", label);
+        return values;
+    }
+
+    @Test
+    public void specialize_WhenPatchable() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        CompilationTemplate template = compiler.compileTemplate(RULE_TEMPLATE);
+
+        Assert.assertTrue(template.getNotPatchableReason(), template.isPatchable());
+        Assert.assertEquals(5, template.getPlaceholderNames().size());
+
+        CompilationResult r1 = template.specialize("Rule1", values(3, 1L << 40, 0.5, "first \"rule\"\n"));
+        CompilationResult r2 = template.specialize("Rule2", values(-70000, -1, -2.25, "second"));
+
+        Assert.assertTrue(r1.compilationSucceeded());
+        Assert.assertEquals(1, r1.getCompiledUnits().size());
+        Assert.assertEquals(2, r1.getCompiledUnits().get(0).getClasses().size());
+        Assert.assertEquals("rules.Rule1", r1.getCompiledUnits().get(0).getMainClass().getClassName());
+
+        Class<?> rule1 = r1.getCompiledUnits().get(0).getMainClass().loadClass();
+        Class<?> rule2 = compiler.getClassloader().loadClass("rules.Rule2");
+
+        Assert.assertEquals(3, rule1.getMethod("limit").invoke(null));
+        Assert.assertEquals(1L << 40, rule1.getMethod("big").invoke(null));
+        Assert.assertEquals(0.5, rule1.getMethod("factor").invoke(null));
+        Assert.assertEquals("first \"rule\"\n", rule1.getMethod("label").invoke(null));
+
+        Assert.assertEquals(-70000, rule2.getMethod("limit").invoke(null));
+        Assert.assertEquals(-1L, rule2.getMethod("big").invoke(null));
+        Assert.assertEquals(-2.25, rule2.getMethod("factor").invoke(null));
+        Assert.assertEquals("second", rule2.getMethod("label").invoke(null));
+
+        Object inner = rule2.getMethod("inner").invoke(rule2.getDeclaredConstructor().newInstance());
+        Assert.assertEquals("rules.Rule2$Inner", inner.getClass().getName());
+        Assert.assertEquals("Rule2", inner.getClass().getMethod("name").invoke(inner));
+    }
+
+    @Test
+    public void specialize_WhenFoldedFallsBackToCompilation() throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        CompilationTemplate template = compiler.compileTemplate(
+            "public class ${name:class} { public static int twice() { return ${value:int} * 2; } }");
+
+        Assert.assertFalse("folded constants cannot be patched", template.isPatchable());
+
+        Class<?> cls = template.specialize("Twice", Collections.singletonMap("value", 21))
+            .checkNoErrors().loadClasses().get("Twice");
+        Assert.assertEquals(42, cls.getMethod("twice").invoke(null));
+    }
+
+    @Test
+    public void specialize_WhenSwitchLabelFallsBackToCompilation() throws Exception {
+        CompilationTemplate template = JCompiler.newInstance().compileTemplate(
+            "public class ${name:class} { public static boolean test(int v) {"
+            + " switch(v) { case ${value:int}: return true; default: return false; } } }");
+
+        Assert.assertFalse("switch labels cannot be patched", template.isPatchable());
+
+        Class<?> cls = template.specialize("Sw", Collections.singletonMap("value", 7))
+            .checkNoErrors().loadClasses().get("Sw");
+        Assert.assertEquals(true, cls.getMethod("test", int.class).invoke(null, 7));
+        Assert.assertEquals(false, cls.getMethod("test", int.class).invoke(null, 8));
+    }
+
+    @Test
+    public void specialize_WhenStringTooLongForConstantPool() throws Exception {
+        CompilationTemplate template = JCompiler.newInstance().compileTemplate(
+            "public class ${name:class} { public static String text() { return ${text:String}; } }");
+        Assert.assertTrue(template.isPatchable());
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+
+        // javac rejects constants of this size as well, the fallback reports the error
+        CompilationResult result = template.specialize("Text", Collections.singletonMap("text", sb.toString()));
+        Assert.assertTrue(result.hasErrors());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compileTemplate_WhenClassPlaceholderMissing() {
+        JCompiler.newInstance().compileTemplate("public class A { int v = ${v:int}; }");
+    }
+}
@@ -214,4 +214,132 @@ public class JCompilerTest {
 			throw e;
 		}
     }
-}
\ No newline at end of file
+
+	@Test
+	public void compile_WhenFailFast() throws Exception {
+		String clsA = "public class A { int a() { return \"a\"; } }";
+		String clsB = "public class B { int b() { return \"b\"; } }";
+		String clsC = "public class C { }";
+
+		CompilationResult all = JCompiler.newInstance().
+			addSource("A", clsA).addSource("B", clsB).addSource("C", clsC).compileAll();
+		Assert.assertFalse(all.isAborted());
+		Assert.assertEquals(CompilationOutcome.COMPLETED, all.getOutcome());
+		Assert.assertEquals(2, all.getDiagnostics().size());
+
+		JCompiler compiler = JCompiler.newInstance();
+		compiler.setFailFast(true);
+		CompilationResult result = compiler.
+			addSource("A", clsA).addSource("B", clsB).addSource("C", clsC).compileAll();
+
+		Assert.assertTrue("compilation is expected to be aborted", result.isAborted());
+		Assert.assertEquals(CompilationOutcome.ABORTED, result.getOutcome());
+		Assert.assertFalse(result.compilationSucceeded());
+		Assert.assertTrue("errors are expected", result.hasErrors());
+		Assert.assertEquals(1, result.getDiagnostics().size());
+		Assert.assertTrue("no code is expected", result.getCompiledUnits().isEmpty());
+
+		try {
+			compiler.getClassloader().loadClass("C");
+			Assert.fail("Code of aborted compilation must not be loadable.");
+		} catch(ClassNotFoundException ex) {
+			// expected
+		}
+
+		try {
+			result.checkNoErrors();
+			Assert.fail("Aborted compilation is expected to throw.");
+		} catch(CompilationException ex) {
+			Assert.assertTrue(ex.getMessage().contains("[compilation aborted]"));
+		}
+	}
+
+	@Test
+	public void compile_WhenCancelled() throws Exception {
+		JCompiler compiler = JCompiler.newInstance().addSource("A", "public class A { }");
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+
+		CompilationResult result = compiler.compileAll(token);
+
+		Assert.assertEquals(CompilationOutcome.CANCELLED, result.getOutcome());
+		Assert.assertTrue(result.isAborted());
+		Assert.assertFalse(result.compilationSucceeded());
+		Assert.assertTrue("no code is expected", result.getCompiledUnits().isEmpty());
+
+		try {
+			compiler.getClassloader().loadClass("A");
+			Assert.fail("Code of cancelled compilation must not be loadable.");
+		} catch(ClassNotFoundException ex) {
+			// expected
+		}
+
+		// without cancellation the same compiler must succeed
+		Assert.assertTrue(compiler.compileAll(new CancellationToken()).compilationSucceeded());
+	}
+
+	@Test
+	public void compile_WhenTimedOut() throws Exception {
+		JCompiler compiler = JCompiler.newInstance();
+		compiler.setTimeout(java.time.Duration.ofNanos(1));
+
+		CompilationResult result = compiler.compile("public class A { }");
+
+		Assert.assertEquals(CompilationOutcome.TIMED_OUT, result.getOutcome());
+		Assert.assertFalse(result.compilationSucceeded());
+		Assert.assertTrue("no code is expected", result.getCompiledUnits().isEmpty());
+
+		compiler.setTimeout(null);
+		Assert.assertEquals(CompilationOutcome.COMPLETED, compiler.compileAll().getOutcome());
+	}
+
+	@Test
+	public void check_WhenTypical() throws Exception {
+		JCompiler compiler = JCompiler.newInstance();
+		CompilationResult result = compiler.check("public class A { public String a() { return \"a\"; } }");
+
+		Assert.assertTrue("expected successful check", result.compilationSucceeded());
+		Assert.assertFalse(result.hasErrors());
+		Assert.assertTrue("check-only mode must not produce code", result.getCompiledUnits().isEmpty());
+
+		try {
+			compiler.getClassloader().loadClass("A");
+			Assert.fail("Check-only mode must not define classes.");
+		} catch(ClassNotFoundException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void check_WhenError() throws Exception {
+		CompilationResult result = JCompiler.newInstance().
+			check("A", "public class A { int a() { return \"a\"; } }");
+
+		Assert.assertFalse("check is expected to fail", result.compilationSucceeded());
+		Assert.assertTrue("errors are expected", result.hasErrors());
+		Assert.assertEquals(1, result.getDiagnostics().size());
+		Assert.assertEquals(1L, result.getDiagnostics().get(0).getLineNumber());
+		Assert.assertTrue(result.getCompiledUnits().isEmpty());
+	}
+
+	@Test
+	public void getClassAndUnit_WhenIndexed() throws Exception {
+		CompilationResult result = JCompiler.newInstance()
+			.addSource("a.A", "package a; public class A { class Inner { } Runnable r = new Runnable() { public void run() { } }; }")
+			.addSource("b.B", "package b; public class B { }")
+			.compileAll().checkNoErrors();
+
+		CompiledUnit unitA = result.getCompiledUnits().stream()
+			.filter(u -> u.getMainClass().getClassName().equals("a.A")).findFirst().get();
+		Assert.assertSame(unitA, result.getUnit(unitA.getName()));
+		Assert.assertEquals("a.A", unitA.getClasses().get(0).getClassName());
+		Assert.assertEquals(3, unitA.getClasses().size());
+
+		Assert.assertSame(unitA.getMainClass(), result.getClass("a.A"));
+		Assert.assertEquals("a.A$Inner", result.getClass("a.A$Inner").getClassName());
+		Assert.assertNotNull(result.getClass("a.A$1"));
+		Assert.assertNotNull(result.getClass("b.B"));
+		Assert.assertNull(result.getClass("b.Missing"));
+		Assert.assertNull(result.getUnit("missing"));
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Tests for invocation probes.
+ */
+public class MethodProbesTest {
+
+    private static final String CODE = "package probes;\n"
+        + "public class Hot {\n"
+        + "  private int total;\n"
+        + "  public Hot() { total = 1; }\n"
+        + "  public synchronized int add(int value, long other, double scale) {\n"
+        + "    for (int i = 0; i < 2; i++) {\n"
+        + "      total += value;\n"
+        + "    }\n"
+        + "    return total + (int) (other * scale);\n"
+        + "  }\n"
+        + "  public static String kind(int value) {\n"
+        + "    switch (value) { case 0: return \"zero\"; case 1: return \"one\"; case 2: return \"two\"; }\n"
+        + "    try { return Integer.toString(Integer.parseInt(\"x\" + value)); }\n"
+        + "    catch (NumberFormatException ex) { return \"many\"; }\n"
+        + "  }\n"
+        + "  public static void cold() { }\n"
+        // first stack map frames whose implicit offsets overflow when the probe is inserted
+        + "  static int same(int x0, int x1, int x2) {\n"
+        + "    if (x0 > 0) { x0 = x0 * 2 + x1 * 3 + x2 * 4 + x0 * 5 + x1 * 6 + x2 * 7 + x0 * 8 + x1 * 9 + x2 * 10 + x0 * 11 + x1 * 12 + x2 * 13; }\n"
+        + "    return x0;\n"
+        + "  }\n"
+        + "  static int handler(int x0, int x1, int x2) {\n"
+        + "    try { return Integer.valueOf(x0 * 2 + x1 * 3 + x2 * 4 + x0 * 5 + x1 * 6 + x2 * 7 + x0 * 8 + x1 * 9 + x2 * 10 + x0 * 11 + x1 * 12).intValue(); }\n"
+        + "    catch (RuntimeException ex) { return -1; }\n"
+        + "  }\n"
+        + "}";
+
+    @Test
+    public void compile_WhenCounting() throws Exception {
+        MethodProbes probes = MethodProbes.newInstance();
+        verify(probes);
+
+        MethodStats add = find(probes.getStats("probes.Hot"), "add");
+        Assert.assertEquals(0, add.getSamples());
+
+        probes.reset();
+        Assert.assertEquals(0, find(probes.getStats("probes.Hot"), "add").getInvocations());
+    }
+
+    @Test
+    public void compile_WhenTiming() throws Exception {
+        MethodProbes probes = MethodProbes.newInstance(1);
+        verify(probes);
+
+        MethodStats add = find(probes.getStats("probes.Hot"), "add");
+        Assert.assertEquals(add.getInvocations(), add.getSamples());
+        Assert.assertTrue(add.getSampledTime().toNanos() > 0);
+    }
+
+    @Test
+    public void compile_WhenRecompiled() throws Exception {
+        MethodProbes probes = MethodProbes.newInstance();
+        verify(probes);
+        // ids of unreachable registries of other tests may be released concurrently
+        int probeCount = probes.getRegisteredProbeCount();
+
+        // probes of replaced classes are reused
+        for (int i = 0; i < 10; i++) {
+            verify(probes);
+        }
+        Assert.assertEquals(probeCount, probes.getRegisteredProbeCount());
+
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setMethodProbes(probes);
+        Class<?> hot = compiler.compile("package probes; public class Hot { public static void cold() { } }")
+            .checkNoErrors().getCompiledUnits().get(0).getMainClass().loadClass();
+        hot.getMethod("cold").invoke(null);
+        Assert.assertEquals(probeCount - 4, probes.getRegisteredProbeCount());
+        Assert.assertEquals(1, find(probes.getStats("probes.Hot"), "cold").getInvocations());
+    }
+
+    @Test
+    public void register_WhenRegistryUnreachable() throws Exception {
+        MethodProbes probes = MethodProbes.newInstance(1);
+        verify(probes);
+        WeakReference<MethodProbes> registry = new WeakReference<>(probes);
+        // ids of other unreachable registries may be released as well
+        int expected = MethodProbes.getProbeCount() - probes.getRegisteredProbeCount();
+        probes = null;
+
+        // the probes do not keep the registry reachable, its ids are released once it has been collected
+        for (int i = 0; i < 100 && (registry.get() != null || MethodProbes.getProbeCount() > expected); i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assert.assertNull(registry.get());
+        Assert.assertTrue(MethodProbes.getProbeCount() <= expected);
+    }
+
+    private static void verify(MethodProbes probes) throws Exception {
+        JCompiler compiler = JCompiler.newInstance();
+        compiler.setMethodProbes(probes);
+        CompilationResult result = compiler.compile(CODE).checkNoErrors();
+        CompiledClass cls = result.getCompiledUnits().get(0).getMainClass();
+
+        Class<?> hot = cls.loadClass();
+        Object instance = hot.getConstructor().newInstance();
+        Method add = hot.getMethod("add", int.class, long.class, double.class);
+        Method kind = hot.getMethod("kind", int.class);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(1 + 2 * (i + 1) + 4, add.invoke(instance, 1, 2L, 2.0));
+            Assert.assertEquals(i < 3 ? new String[] {"zero", "one", "two"}[i] : "many", kind.invoke(null, i));
+        }
+
+        List<MethodStats> stats = probes.getStats(cls);
+        Assert.assertEquals(6, stats.size());
+        Assert.assertEquals(1, find(stats, "<init>").getInvocations());
+        Assert.assertEquals(5, find(stats, "add").getInvocations());
+        Assert.assertEquals(5, find(stats, "kind").getInvocations());
+        Assert.assertEquals(0, find(stats, "cold").getInvocations());
+
+        String unitName = result.getCompiledUnits().get(0).getName();
+        Assert.assertEquals(6, probes.getUnitStats(unitName).size());
+        Assert.assertEquals(unitName, find(stats, "add").getUnitName());
+
+        List<MethodStats> hottest = probes.getHottestMethods(2);
+        Assert.assertEquals(2, hottest.size());
+        Assert.assertEquals(5, hottest.get(0).getInvocations());
+    }
+
+    private static MethodStats find(List<MethodStats> stats, String methodName) {
+        return stats.stream().filter(s -> s.getMethodName().equals(methodName)).findFirst()
+            .orElseThrow(() -> new AssertionError("no stats for " + methodName));
+    }
+}
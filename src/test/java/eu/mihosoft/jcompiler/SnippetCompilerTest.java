@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.UnaryOperator;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Tests for the snippet compiler.
+ */
+public class SnippetCompilerTest {
+
+    @Test
+    public void compile_WhenManySnippets() throws Exception {
+        SnippetCompiler snippets = SnippetCompiler.newInstance();
+        snippets.setSnippetsPerUnit(4);
+
+        List<Snippet<IntBinaryOperator>> handles = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            handles.add(snippets.addExpression(IntBinaryOperator.class, "a * " + i + " + b", "a", "b"));
+        }
+
+        CompilationResult result = snippets.compile().checkNoErrors();
+        Assert.assertEquals("snippets are packed into few units", 3, result.getCompiledUnits().size());
+
+        for (int i = 0; i < handles.size(); i++) {
+            Assert.assertTrue(handles.get(i).isCompiled());
+            Assert.assertEquals(2 * i + 1, handles.get(i).get().applyAsInt(2, 1));
+        }
+    }
+
+    @Test
+    public void compile_WhenBodiesAndGenerics() throws Exception {
+        SnippetCompiler snippets = SnippetCompiler.newInstance().addImports("static java.lang.Math.*");
+
+        Snippet<DoubleUnaryOperator> sqrt = snippets.addExpression(DoubleUnaryOperator.class, "sqrt(x)", "x");
+        Snippet<Function<Integer, Integer>> twice = snippets.addExpression(Function.class, Arrays.asList("Integer", "Integer"), "x * 2", "x");
+        Snippet<UnaryOperator<String>> upper = snippets.addExpression(UnaryOperator.class, Arrays.asList("String"), "s.toUpperCase()", "s");
+        Snippet<IntBinaryOperator> max = snippets.addBody(IntBinaryOperator.class,
+            "if (a > b) {\n  return a;\n}\nreturn b;", "a", "b");
+        Snippet<Callable<Object>> call = snippets.addBody(Callable.class, Arrays.asList("Object"),
+            "throw new Exception(\"checked\");");
+
+        snippets.compile().checkNoErrors();
+
+        Assert.assertEquals(3.0, sqrt.get().applyAsDouble(9.0), 1e-9);
+        Assert.assertEquals(Integer.valueOf(42), twice.get().apply(21));
+        Assert.assertEquals("ABC", upper.get().apply("abc"));
+        Assert.assertEquals(7, max.get().applyAsInt(7, 3));
+        try {
+            call.get().call();
+            Assert.fail("exception expected");
+        } catch (Exception ex) {
+            Assert.assertEquals("checked", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void compile_WhenSnippetHasErrors() throws Exception {
+        SnippetCompiler snippets = SnippetCompiler.newInstance();
+
+        Snippet<IntBinaryOperator> ok = snippets.addExpression(IntBinaryOperator.class, "a + b", "a", "b");
+        Snippet<IntBinaryOperator> broken = snippets.addBody(IntBinaryOperator.class,
+            "int c = a;\nreturn c + undefined;", "a", "b");
+
+        CompilationResult result = snippets.compile();
+
+        Assert.assertFalse(result.compilationSucceeded());
+        Assert.assertTrue(result.hasErrors());
+
+        Assert.assertTrue("valid snippets are compiled", ok.isCompiled());
+        Assert.assertEquals(3, ok.get().applyAsInt(1, 2));
+
+        Assert.assertTrue(broken.hasErrors());
+        Assert.assertFalse(broken.isCompiled());
+        Assert.assertEquals(1, broken.getDiagnostics().size());
+
+        Diagnostic<? extends JavaFileObject> d = broken.getDiagnostics().get(0);
+        Assert.assertEquals(Diagnostic.Kind.ERROR, d.getKind());
+        Assert.assertEquals(2, d.getLineNumber());
+        Assert.assertEquals(12, d.getColumnNumber());
+        Assert.assertEquals("return c + undefined;".indexOf("undefined") + "int c = a;\n".length(), d.getPosition());
+
+        try {
+            broken.get();
+            Assert.fail("snippet with errors must not be instantiated");
+        } catch (CompilationException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void compile_WhenMoreErrorsThanReportedByJavac() throws Exception {
+        SnippetCompiler snippets = SnippetCompiler.newInstance();
+
+        // javac reports at most 100 errors per compilation (-Xmaxerrs)
+        List<Snippet<IntBinaryOperator>> broken = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            broken.add(snippets.addExpression(IntBinaryOperator.class, "a + undefined" + i, "a", "b"));
+        }
+        Snippet<IntBinaryOperator> ok = snippets.addExpression(IntBinaryOperator.class, "a * b", "a", "b");
+
+        snippets.compile();
+
+        Assert.assertEquals(6, ok.get().applyAsInt(2, 3));
+        for (Snippet<IntBinaryOperator> snippet : broken) {
+            Assert.assertTrue(snippet.hasErrors());
+            Assert.assertEquals(1, snippet.getDiagnostics().size());
+        }
+    }
+}
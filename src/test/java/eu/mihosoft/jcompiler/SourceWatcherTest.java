@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020-2022 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Code is based on abandoned project by Trung (https://github.com/trung/InMemoryJavaCompiler).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.jcompiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Tests for watching source roots.
+ */
+public class SourceWatcherTest {
+
+    @Test
+    public void watcher_RecompilesChangedUnitsOnly() throws Exception {
+        Path root = Files.createTempDirectory("sources");
+        BlockingQueue<CompilationResult> results = new LinkedBlockingQueue<>();
+        try {
+            write(root.resolve("watch/Value.java"), "package watch;\npublic class Value { public static int get() { return 1; } }");
+            write(root.resolve("watch/User.java"), "package watch;\npublic class User { public static int get() { return Value.get() + 1; } }");
+
+            JCompiler compiler = JCompiler.newInstance();
+            try (SourceWatcher watcher = SourceWatcher.newInstance(compiler, root)) {
+                watcher.setDebounce(Duration.ofMillis(100));
+                watcher.setListener(results::add);
+                CompilationResult initial = watcher.start().checkNoErrors();
+                Assert.assertEquals(2, initial.getCompiledUnits().size());
+                Assert.assertSame(initial, results.take());
+                Assert.assertEquals(2, invoke(initial, "watch.User"));
+
+                // modified unit
+                write(root.resolve("watch/Value.java"), "package watch;\npublic class Value { public static int get() { return 41; } }");
+                CompilationResult modified = results.poll(30, TimeUnit.SECONDS).checkNoErrors();
+                Assert.assertEquals(1, modified.getCompiledUnits().size());
+                Assert.assertNotNull(modified.getUnit("/watch/Value.java"));
+                // unchanged units are loaded by the new classloader generation
+                Assert.assertEquals(42, compiler.getClassloader().loadClass("watch.User").getMethod("get").invoke(null));
+
+                // created unit
+                write(root.resolve("watch/Extra.java"), "package watch;\npublic class Extra { public static int get() { return User.get(); } }");
+                CompilationResult created = results.poll(30, TimeUnit.SECONDS).checkNoErrors();
+                Assert.assertEquals(1, created.getCompiledUnits().size());
+                Assert.assertEquals(42, invoke(created, "watch.Extra"));
+
+                // deleted unit
+                Files.delete(root.resolve("watch/Extra.java"));
+                CompilationResult deleted = results.poll(30, TimeUnit.SECONDS).checkNoErrors();
+                Assert.assertTrue(deleted.getCompiledUnits().isEmpty());
+                try {
+                    compiler.getClassloader().loadClass("watch.Extra");
+                    Assert.fail("class of deleted unit should not be available");
+                } catch (ClassNotFoundException ex) {
+                    // expected
+                }
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void watcher_WhenPackageDirectoryMoved() throws Exception {
+        Path root = Files.createTempDirectory("sources");
+        Path outside = Files.createTempDirectory("moved");
+        BlockingQueue<CompilationResult> results = new LinkedBlockingQueue<>();
+        try {
+            write(root.resolve("watch/Value.java"), "package watch;\npublic class Value { public static int get() { return 1; } }");
+            write(root.resolve("watch/gone/Gone.java"), "package watch.gone;\npublic class Gone { public static int get() { return 2; } }");
+
+            JCompiler compiler = JCompiler.newInstance();
+            try (SourceWatcher watcher = SourceWatcher.newInstance(compiler, root)) {
+                watcher.setDebounce(Duration.ofMillis(100));
+                watcher.setListener(results::add);
+                watcher.start().checkNoErrors();
+                results.take();
+
+                // only the directory reports the move, not the files it contains
+                Files.move(root.resolve("watch/gone"), outside.resolve("gone"));
+                CompilationResult moved = results.poll(30, TimeUnit.SECONDS).checkNoErrors();
+                Assert.assertTrue(moved.getCompiledUnits().isEmpty());
+                try {
+                    compiler.getClassloader().loadClass("watch.gone.Gone");
+                    Assert.fail("class of moved unit should not be available");
+                } catch (ClassNotFoundException ex) {
+                    // expected
+                }
+                Assert.assertEquals(1, compiler.getClassloader().loadClass("watch.Value").getMethod("get").invoke(null));
+
+                // the remaining units still compile
+                write(root.resolve("watch/Value.java"), "package watch;\npublic class Value { public static int get() { return 3; } }");
+                CompilationResult modified = results.poll(30, TimeUnit.SECONDS).checkNoErrors();
+                Assert.assertEquals(3, invoke(modified, "watch.Value"));
+            }
+        } finally {
+            for (Path dir : new Path[] {root, outside}) {
+                try (Stream<Path> paths = Files.walk(dir)) {
+                    paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+            }
+        }
+    }
+
+    private static int invoke(CompilationResult result, String className) throws Exception {
+        return (Integer) result.getClass(className).loadClass().getMethod("get").invoke(null);
+    }
+
+    private static void write(Path file, String code) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, code.getBytes(StandardCharsets.UTF_8));
+    }
+}